@@ -6,27 +6,30 @@ import java.awt.event.KeyListener;
 import java.awt.event.MouseEvent;
 import java.awt.event.MouseListener;
 import java.awt.event.MouseMotionListener;
-import java.util.HashSet;
-import java.util.Set;
+import java.util.Arrays;
 
 import org.joml.Vector3f;
 
 import com.jogamp.opengl.awt.GLCanvas;
 
+import comp3170.demos.trefoil.input.InputQueue;
+import comp3170.demos.trefoil.input.InputState;
+
 /**
  * Input manager class for COMP3170 projects.
  * 
  * Usage:
  * 
- * In the constructor create an InputManager and add it to both the JFrame and the Canvas
- * to listen for mouse events:
+ * In the constructor create an InputManager for the canvas:
  * 
  *		// set up Input manager
- *		this.input = new InputManager();
- *		input.addListener(this);
- *		input.addListener(this.canvas);
+ *		this.input = new InputManager(canvas);
+ *
+ * At the start of every frame, apply the events since the last frame:
+ * 
+ *      poll()
  *
- * Every frame, call the accessor methods to check for key and mouse:
+ * then call the accessor methods to check for key and mouse:
  * 
  *      isMouseDown() - mouse is currently held down
  *      wasMouseClicked() - mouse has been clicked since the last frame
@@ -38,30 +41,59 @@ import com.jogamp.opengl.awt.GLCanvas;
  * 
  * 		clear() - clear the wasPressed and wasClicked flags
  * 
+ * The listener methods run on the AWT event thread, and only push events into
+ * lock-free queues (see InputQueue), which poll() drains on the thread reading
+ * the input. So events are not lost or half applied, and handling them does not
+ * allocate. The accessors above must all be called from the same thread as poll().
+ * Another thread can read the input with its own InputState from createState().
+ * 
  * @author malcolmryan
  *
  */
 
-public class InputManager implements KeyListener, MouseListener, MouseMotionListener {
+public class InputManager implements KeyState, KeyListener, MouseListener, MouseMotionListener {
+
+	private static final int QUEUE_CAPACITY = 1024;		// events per frame
 
-	private Set<Integer> keysDown;
-	private Set<Integer> keysPressed;
-	private boolean mouseDown;
-	private boolean mouseClicked;
-	private Vector3f mousePosition;
+	private volatile InputQueue[] queues = new InputQueue[0];	// replaced, not modified, when a state is added
+	private InputState state;
 	private GLCanvas canvas;
 	
 	public InputManager(GLCanvas canvas) {
 		this.canvas = canvas;
-		this.keysDown = new HashSet<Integer>();
-		this.keysPressed = new HashSet<Integer>();
-		this.mousePosition = new Vector3f(0,0,1);
+		this.state = createState();
 
 		canvas.addKeyListener(this);
 		canvas.addMouseListener(this);
 		canvas.addMouseMotionListener(this);
 		canvas.requestFocus();
 	}
+
+	/**
+	 * Create an input state with its own queue, for reading input on another
+	 * thread. It receives all events from now on.
+	 */
+	public synchronized InputState createState() {
+		InputQueue queue = new InputQueue(QUEUE_CAPACITY);
+		InputQueue[] newQueues = Arrays.copyOf(queues, queues.length + 1);
+		newQueues[queues.length] = queue;
+		queues = newQueues;
+		return new InputState(queue);
+	}
+
+	/**
+	 * @return the state read by this manager's accessors
+	 */
+	public InputState getState() {
+		return state;
+	}
+
+	/**
+	 * Apply the events since the last call. Call at the start of each frame.
+	 */
+	public void poll() {
+		state.poll();
+	}
 	
 	/**
 	 * Test if the mouse button is currently pressed
@@ -69,7 +101,7 @@ public class InputManager implements KeyListener, MouseListener, MouseMotionList
 	 * @return true if the mouse button is pressed
 	 */
 	public boolean isMouseDown() {
-		return mouseDown;
+		return state.isMouseDown();
 	}
 
 	/**
@@ -78,7 +110,7 @@ public class InputManager implements KeyListener, MouseListener, MouseMotionList
 	 * @return true if the mouse button is pressed
 	 */
 	public boolean wasMouseClicked() {
-		return mouseClicked;
+		return state.wasMouseClicked();
 	}
 
 	/**
@@ -89,7 +121,7 @@ public class InputManager implements KeyListener, MouseListener, MouseMotionList
 	 * @return the mouse position vector
 	 */
 	public Vector3f getMousePosition(Vector3f dest) {
-		return this.mousePosition.get(dest);
+		return state.getMousePosition(dest);
 	}
 	
 	
@@ -106,8 +138,9 @@ public class InputManager implements KeyListener, MouseListener, MouseMotionList
 	 * @return true if the key is pressed
 	 */
 	
+	@Override
 	public boolean isKeyDown(int keyCode) {
-		return keysDown.contains(keyCode);
+		return state.isKeyDown(keyCode);
 	}
 	
 	/**
@@ -125,12 +158,28 @@ public class InputManager implements KeyListener, MouseListener, MouseMotionList
 	 */
 	
 	public boolean wasKeyPressed(int keyCode) {
-		return keysPressed.contains(keyCode);
+		return state.wasKeyPressed(keyCode);
 	}
 	
 	public void clear() {
-		keysPressed.clear();
-		mouseClicked = false;
+		state.clear();
+	}
+
+	/**
+	 * Queue an event for every state. Called on the AWT event thread.
+	 */
+	private void queue(int type, int code, float x, float y) {
+		long time = System.nanoTime();
+		InputQueue[] queues = this.queues;
+		for (int i = 0; i < queues.length; i++) {
+			queues[i].offer(time, type, code, x, y);
+		}
+	}
+
+	private void queueMouse(int type, MouseEvent e) {
+		float x = 2.0f * e.getX() / canvas.getWidth() - 1;
+		float y = 2.0f * e.getY() / canvas.getHeight() - 1;
+		queue(type, 0, x, -y);
 	}
 
 	// KeyListener methods
@@ -142,14 +191,12 @@ public class InputManager implements KeyListener, MouseListener, MouseMotionList
 
 	@Override
 	public void keyPressed(KeyEvent e) {
-		int keyCode = e.getKeyCode();
-		this.keysDown.add(keyCode);
-		this.keysPressed.add(keyCode);
+		queue(InputQueue.KEY_DOWN, e.getKeyCode(), 0, 0);
 	}
 
 	@Override
 	public void keyReleased(KeyEvent e) {
-		this.keysDown.remove(e.getKeyCode());
+		queue(InputQueue.KEY_UP, e.getKeyCode(), 0, 0);
 	}
 
 	@Override
@@ -160,13 +207,12 @@ public class InputManager implements KeyListener, MouseListener, MouseMotionList
 
 	@Override
 	public void mousePressed(MouseEvent e) {
-		mouseDown = true;		
-		mouseClicked = true;
+		queueMouse(InputQueue.MOUSE_DOWN, e);
 	}
 
 	@Override
 	public void mouseReleased(MouseEvent e) {
-		mouseDown = false;				
+		queueMouse(InputQueue.MOUSE_UP, e);
 	}
 
 	@Override
@@ -183,16 +229,12 @@ public class InputManager implements KeyListener, MouseListener, MouseMotionList
 
 	@Override
 	public void mouseDragged(MouseEvent e) {
-		mousePosition.x = 2.0f * e.getX() / canvas.getWidth() - 1;
-		mousePosition.y = 2.0f * e.getY() / canvas.getHeight() - 1;		
-		mousePosition.y = -mousePosition.y;		
+		queueMouse(InputQueue.MOUSE_MOVE, e);
 	}
 
 	@Override
 	public void mouseMoved(MouseEvent e) {
-		mousePosition.x = 2.0f * e.getX() / canvas.getWidth() - 1;
-		mousePosition.y = 2.0f * e.getY() / canvas.getHeight() - 1;		
-		mousePosition.y = -mousePosition.y;
+		queueMouse(InputQueue.MOUSE_MOVE, e);
 	}
 
 	
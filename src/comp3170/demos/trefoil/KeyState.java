@@ -0,0 +1,18 @@
+package comp3170.demos.trefoil;
+
+/**
+ * Which keys are held down, as read by TrefoilScene.update().
+ *
+ * InputManager reads them from the keyboard. Batch rendering drives the same
+ * update with keys that are held down by the program instead.
+ */
+
+public interface KeyState {
+
+	/**
+	 * @param keyCode	A keycode, as specified on the KeyEvent class
+	 * @return true if the key is down
+	 */
+	public boolean isKeyDown(int keyCode);
+
+}
@@ -0,0 +1,154 @@
+package comp3170.demos.trefoil;
+
+import java.awt.event.KeyEvent;
+import java.io.File;
+import java.io.IOException;
+
+import comp3170.demos.trefoil.batch.FramePipeline;
+import comp3170.demos.trefoil.batch.ImageFormat;
+import comp3170.demos.trefoil.renderer.Framebuffer;
+import comp3170.demos.trefoil.renderer.Material;
+import comp3170.demos.trefoil.renderer.SoftwareRenderer;
+
+/**
+ * Renders a turntable of the trefoil offscreen, without a window or GPU.
+ *
+ * The scene is stepped with TrefoilState.update() at a fixed timestep, holding
+ * down the left arrow key, so the trefoil turns exactly as it does in TrefoilDemo.
+ * Each frame is rendered with SoftwareRenderer into a framebuffer from a
+ * FramePipeline, which writes it to disk on worker threads while the next frames
+ * are rendered.
+ *
+ * Usage:
+ *
+ * 		TrefoilBatch [options] outputDirectory
+ *
+ * 		-frames n		number of frames (default: one full turn)
+ * 		-fps n			frames per second of the animation (default 60)
+ * 		-size WxH		frame size in pixels (default 800x800)
+ * 		-format png|raw	file format (default png)
+ * 		-writers n		number of writer threads
+ * 		-texture file	draw the trefoil diffuse shaded with a texture, rather than in wireframe
+ *
+ * Run from the project directory, so textures can be found.
+ */
+
+public class TrefoilBatch {
+
+	private static final int DEFAULT_FPS = 60;
+	private static final int DEFAULT_SIZE = 800;
+	private static final int REPORT_INTERVAL = 100;		// frames
+
+	// frames being rendered or written, per writer thread
+	private static final int BUFFERS_PER_WRITER = 2;
+
+	// the turntable: keep the left arrow held down
+	private static final KeyState TURNTABLE = keyCode -> keyCode == KeyEvent.VK_LEFT;
+
+	public static void main(String[] args) throws IOException, InterruptedException {
+		int fps = DEFAULT_FPS;
+		int frames = -1;
+		int width = DEFAULT_SIZE;
+		int height = DEFAULT_SIZE;
+		ImageFormat format = ImageFormat.PNG;
+		int nWriters = Math.max(1, Runtime.getRuntime().availableProcessors() - 1);
+		String texture = null;
+		File directory = null;
+
+		try {
+			for (int i = 0; i < args.length; i++) {
+				switch (args[i]) {
+				case "-frames":
+					frames = Integer.parseInt(args[++i]);
+					break;
+				case "-fps":
+					fps = Integer.parseInt(args[++i]);
+					break;
+				case "-size":
+					String[] size = args[++i].split("x");
+					width = Integer.parseInt(size[0]);
+					height = Integer.parseInt(size[1]);
+					break;
+				case "-format":
+					format = ImageFormat.valueOf(args[++i].toUpperCase());
+					break;
+				case "-writers":
+					nWriters = Integer.parseInt(args[++i]);
+					break;
+				case "-texture":
+					texture = args[++i];
+					break;
+				default:
+					if (args[i].startsWith("-") || directory != null) {
+						throw new IllegalArgumentException(args[i]);
+					}
+					directory = new File(args[i]);
+				}
+			}
+			if (directory == null || fps <= 0 || width <= 0 || height <= 0 || nWriters <= 0) {
+				throw new IllegalArgumentException();
+			}
+		}
+		catch (RuntimeException e) {
+			System.err.println("Usage: TrefoilBatch [-frames n] [-fps n] [-size WxH] [-format png|raw] [-writers n] [-texture file] outputDirectory");
+			System.exit(1);
+		}
+
+		float deltaTime = 1f / fps;
+		if (frames < 0) {
+			frames = Math.round(2 * (float) Math.PI / TrefoilState.ROTATION_SPEED * fps);
+		}
+
+		TrefoilScene scene = new TrefoilScene();
+		if (texture != null) {
+			scene.getTrefoil().setMaterial(new Material(texture));
+		}
+
+		FramePipeline pipeline = new FramePipeline(directory, format, width, height, BUFFERS_PER_WRITER * nWriters + 1, nWriters);
+		long start = 0;
+		long renderNanos = 0;
+		try {
+			Framebuffer framebuffer = pipeline.acquire();
+			SoftwareRenderer renderer = new SoftwareRenderer(framebuffer);
+			TrefoilScene.configure(renderer);
+
+			System.out.printf("Rendering %d frames of %d x %d at %d fps to %s, %d writer threads\n",
+					frames, width, height, fps, directory, nWriters);
+
+			start = System.nanoTime();
+			for (int frame = 0; frame < frames; frame++) {
+				if (frame > 0) {
+					framebuffer = pipeline.acquire();
+					renderer.setFramebuffer(framebuffer);
+				}
+
+				long renderStart = System.nanoTime();
+				scene.draw(renderer, height);
+				renderNanos += System.nanoTime() - renderStart;
+				pipeline.submit(frame, framebuffer);
+
+				scene.update(deltaTime, TURNTABLE);
+
+				if ((frame + 1) % REPORT_INTERVAL == 0) {
+					Runtime runtime = Runtime.getRuntime();
+					System.out.printf("  %6d frames, %6.1f fps, %d queued, %d MB heap used\n",
+							frame + 1, (frame + 1) / ((System.nanoTime() - start) / 1e9),
+							pipeline.getPendingCount(), (runtime.totalMemory() - runtime.freeMemory()) >> 20);
+				}
+			}
+
+			pipeline.finish();
+		}
+		finally {
+			pipeline.close();
+		}
+
+		double seconds = (System.nanoTime() - start) / 1e9;
+		System.out.printf("Wrote %d frames in %.2f s: %.1f fps, %.1f MB\n",
+				frames, seconds, frames / seconds, pipeline.getBytesWritten() / 1e6);
+		System.out.printf("  per frame: render %.2f ms, waiting for writers %.2f ms, writing %.2f ms (across %d threads)\n",
+				renderNanos / 1e6 / frames, pipeline.getWaitNanos() / 1e6 / frames,
+				pipeline.getWriteNanos() / 1e6 / frames, nWriters);
+	}
+
+}
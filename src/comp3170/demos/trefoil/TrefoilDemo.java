@@ -1,33 +1,30 @@
 package comp3170.demos.trefoil;
 
-import static com.jogamp.opengl.GL.GL_COLOR_BUFFER_BIT;
-import static com.jogamp.opengl.GL.GL_DEPTH_BUFFER_BIT;
-
 import java.awt.event.KeyEvent;
 import java.awt.event.WindowAdapter;
 import java.awt.event.WindowEvent;
 import java.io.File;
 import java.io.IOException;
+import java.util.List;
 
 import javax.swing.JFrame;
 
-import org.joml.Matrix4f;
 import org.joml.Vector3f;
 
-import com.jogamp.opengl.GL;
-import com.jogamp.opengl.GL4;
 import com.jogamp.opengl.GLAutoDrawable;
 import com.jogamp.opengl.GLCapabilities;
-import com.jogamp.opengl.GLContext;
 import com.jogamp.opengl.GLEventListener;
 import com.jogamp.opengl.GLProfile;
 import com.jogamp.opengl.awt.GLCanvas;
 import com.jogamp.opengl.util.Animator;
 
-import comp3170.GLException;
-import comp3170.Shader;
-import comp3170.demos.trefoil.sceneobjects.Axes;
-import comp3170.demos.trefoil.sceneobjects.Trefoil;
+import comp3170.demos.trefoil.input.InputRecording;
+import comp3170.demos.trefoil.input.InputState;
+import comp3170.demos.trefoil.loop.Simulation;
+import comp3170.demos.trefoil.loop.SimulationLoop;
+import comp3170.demos.trefoil.renderer.GLRenderer;
+import comp3170.demos.trefoil.sceneobjects.PickResult;
+import comp3170.demos.trefoil.shaders.ShaderLibrary;
 
 public class TrefoilDemo extends JFrame implements GLEventListener {
 
@@ -40,18 +37,32 @@ public class TrefoilDemo extends JFrame implements GLEventListener {
 	
 
 	private Animator animator;
-	private long oldTime;
 	private InputManager input;
+	private InputRecording recording;
+	private File recordingFile;
+	private InputRecording replay;
 
-	private Axes axes;
-	private Trefoil trefoil;
+	private static final float STEPS_PER_SECOND = 120;
+	private SimulationLoop loop;
+	private float[] state;
 
-	private Matrix4f viewMatrix;
-	private Matrix4f projectionMatrix;
+	private GLRenderer renderer;
+	private TrefoilScene scene;
 
 
 	public TrefoilDemo() {
+		this(null, null);
+	}
+
+	/**
+	 * @param recordingFile	A file to record the simulation's input to, or null
+	 * @param replay		A recording to replay instead of the keyboard, or null
+	 */
+	public TrefoilDemo(File recordingFile, InputRecording replay) {
 		super("Trefoil demo");
+		this.recordingFile = recordingFile;
+		this.recording = (recordingFile != null ? new InputRecording() : null);
+		this.replay = replay;
 
 		// set up a GL canvas
 		GLProfile profile = GLProfile.get(GLProfile.GL4);		 
@@ -64,7 +75,6 @@ public class TrefoilDemo extends JFrame implements GLEventListener {
 
 		animator = new Animator(canvas);
 		animator.start();
-		oldTime = System.currentTimeMillis();		
 
 		// input
 		
@@ -76,6 +86,7 @@ public class TrefoilDemo extends JFrame implements GLEventListener {
 		setVisible(true);
 		addWindowListener(new WindowAdapter() {
 			public void windowClosing(WindowEvent e) {
+				saveRecording();
 				System.exit(0);
 			}
 		});
@@ -83,103 +94,110 @@ public class TrefoilDemo extends JFrame implements GLEventListener {
 
 	@Override
 	public void init(GLAutoDrawable arg0) {
-		GL4 gl = (GL4) GLContext.getCurrentGL();
-		
-		// set the background colour to black
-		gl.glClearColor(0.0f, 0.0f, 0.0f, 1.0f);
+		// read the shader sources in parallel, and build the programs the scene's
+		// materials use before the first frame, from cached binaries if an earlier
+		// run saved them
+		long start = System.nanoTime();
+		try {
+			ShaderLibrary.preload();
+		} catch (IOException e) {
+			// they are read as needed instead
+			System.err.println("Cannot preload shaders: " + e.getMessage());
+		}
+		renderer = new GLRenderer();
+		renderer.precompile(List.of());
+		System.out.printf("Shaders ready in %.1f ms: %s\n", (System.nanoTime() - start) / 1e6, ShaderLibrary.getStats());
+
+		TrefoilScene.configure(renderer);
+		scene = new TrefoilScene();
+
+		// the simulation steps its own copy of the state on its own thread, and
+		// each frame draws a state interpolated from it
+		// the simulation reads the keys with its own state, once per step, so a
+		// recording replays exactly
+		TrefoilState simulated = new TrefoilState();
+		InputState keys = input.createState();
+		keys.record(recording);
+		if (replay != null) {
+			keys.replay(replay);
+		}
 
-		gl.glEnable(GL.GL_DEPTH_TEST);
-		gl.glEnable(GL.GL_CULL_FACE);
-		gl.glCullFace(GL.GL_BACK);
-		
-		axes = new Axes();
-		trefoil = new Trefoil();
-		
-		viewMatrix = new Matrix4f();
-		projectionMatrix = new Matrix4f();
+		loop = new SimulationLoop(new Simulation() {
+			@Override
+			public int getStateSize() {
+				return TrefoilState.STATE_SIZE;
+			}
+
+			@Override
+			public void step(float deltaTime) {
+				keys.poll();
+				simulated.update(deltaTime, keys);
+				keys.clear();
+			}
+
+			@Override
+			public void save(float[] state) {
+				simulated.save(state);
+			}
+		}, STEPS_PER_SECOND);
+		state = new float[TrefoilState.STATE_SIZE];
+		loop.start();
 	}
 
-	
-	private static final float ROTATION_SPEED = TAU / 4;
-	
 	private void update() {
-		long time = System.currentTimeMillis();
-		float deltaTime = (time-oldTime) / 1000f;
-		oldTime = time;
-		
-		Vector3f angle = new Vector3f();
-		trefoil.getAngle(angle);
-
-		if (input.isKeyDown(KeyEvent.VK_LEFT)) {
-			angle.y += ROTATION_SPEED * deltaTime;			
-		}
-		if (input.isKeyDown(KeyEvent.VK_RIGHT)) {
-			angle.y -= ROTATION_SPEED * deltaTime;			
-		}
-		if (input.isKeyDown(KeyEvent.VK_UP)) {
-			angle.x += ROTATION_SPEED * deltaTime;			
-		}
-		if (input.isKeyDown(KeyEvent.VK_DOWN)) {
-			angle.x -= ROTATION_SPEED * deltaTime;			
+		input.poll();
+		loop.sample(System.nanoTime(), state);
+		scene.getState().load(state);
+
+		// report the triangle under the mouse, using last frame's camera
+		if (input.wasMouseClicked()) {
+			Vector3f mouse = input.getMousePosition(new Vector3f());
+			PickResult pick = scene.getTrefoil().pick(scene.getViewMatrix(), scene.getProjectionMatrix(), mouse.x, mouse.y);
+			System.out.println(pick == null ? "Missed" : "Picked " + pick);
 		}
-			
-		if (input.isKeyDown(KeyEvent.VK_PAGE_DOWN)) {
-			cameraDistance -= CAMERA_MOVE * deltaTime;
-		}
-		if (input.isKeyDown(KeyEvent.VK_PAGE_UP)) {
-			cameraDistance += CAMERA_MOVE * deltaTime;
+
+		// report the frame and simulation timing
+		if (input.wasKeyPressed(KeyEvent.VK_S)) {
+			System.out.println("Frame times: " + loop.getFrameStats());
+			System.out.println("Step times:  " + loop.getStepStats());
+			System.out.println("Step delays: " + loop.getLateStats());
+			System.out.printf("%d steps, %d dropped, %d sample retries\n",
+					loop.getStepCount(), loop.getDroppedSteps(), loop.getSampleRetries());
+			System.out.println("Render queue: " + renderer.getQueue());
+			System.out.println("Textures: " + renderer.getTextureLoader());
+			if (renderer.getTextureDiskCache() != null) {
+				System.out.println("Texture disk cache: " + renderer.getTextureDiskCache());
+			}
 		}
-		
-		trefoil.setAngle(angle);
 				
 		input.clear();
 	}
 	
-	private float cameraDistance = 3;
-	private static final float CAMERA_MOVE = 1;
-	private static final float CAMERA_WIDTH = 8;
-	private static final float CAMERA_HEIGHT = 8;
-	private static final float CAMERA_NEAR = 1;
-	private static final float CAMERA_FAR = 10;
-	private static final float CAMERA_FOVY = TAU / 6; 
-	
 	@Override	
 	public void display(GLAutoDrawable arg0) {
-		GL4 gl = (GL4) GLContext.getCurrentGL();
-		
 		update();
-		
-        // clear the colour buffer
-		gl.glClear(GL_COLOR_BUFFER_BIT);		
-		gl.glClear(GL_DEPTH_BUFFER_BIT);		
-		
-		//  Y up W--X
-		//       |
-		//       Z (out of screen)
-		//
-		//    
-		//    (0,0,3)
-		//  Y up C--X
-		//       |
-		//       Z
-		
-		viewMatrix.identity();
-		viewMatrix.translate(0,0,cameraDistance);
-		viewMatrix.invert();
-
-		projectionMatrix.setOrtho(
-				-CAMERA_WIDTH/2, CAMERA_WIDTH/2, 
-				-CAMERA_HEIGHT/2, CAMERA_HEIGHT/2, 
-				CAMERA_NEAR, CAMERA_FAR);
-
-//		projectionMatrix.setPerspective(CAMERA_FOVY, 
-//				CAMERA_WIDTH / CAMERA_HEIGHT,
-//				CAMERA_NEAR, CAMERA_FAR);
-
-		// draw the scene
-		//axes.draw(viewMatrix, projectionMatrix);
-		trefoil.draw(viewMatrix, projectionMatrix);
-		
+		scene.draw(renderer, height);
+	}
+
+	/**
+	 * Stop the simulation and save what it recorded.
+	 */
+	private void saveRecording() {
+		if (recording == null) {
+			return;
+		}
+
+		try {
+			if (loop != null) {
+				loop.stop();
+			}
+			recording.save(recordingFile);
+			System.out.printf("Recorded %d input events to %s\n", recording.size(), recordingFile);
+		} catch (IOException e) {
+			e.printStackTrace();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
 	}
 
 	@Override
@@ -190,12 +208,37 @@ public class TrefoilDemo extends JFrame implements GLEventListener {
 
 	@Override
 	public void dispose(GLAutoDrawable arg0) {
-		// TODO Auto-generated method stub
-		
+		renderer.getTextureLoader().shutdown();
+		try {
+			loop.stop();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
 	}
 	
-	public static void main(String[] args) { 
-		new TrefoilDemo();
+	/**
+	 * Arguments:
+	 * 
+	 * 		-record file	record the input to a file when the window is closed
+	 * 		-replay file	replay recorded input instead of the keyboard
+	 */
+	public static void main(String[] args) throws IOException { 
+		File recordingFile = null;
+		InputRecording replay = null;
+		for (int i = 0; i + 1 < args.length; i += 2) {
+			switch (args[i]) {
+			case "-record":
+				recordingFile = new File(args[i+1]);
+				break;
+			case "-replay":
+				replay = InputRecording.load(new File(args[i+1]));
+				break;
+			default:
+				System.err.println("Usage: TrefoilDemo [-record file] [-replay file]");
+				System.exit(1);
+			}
+		}
+		new TrefoilDemo(recordingFile, replay);
 	}
 
 
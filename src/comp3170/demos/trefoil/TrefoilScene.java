@@ -0,0 +1,146 @@
+package comp3170.demos.trefoil;
+
+import org.joml.Matrix4f;
+import org.joml.Vector3f;
+import org.joml.Vector4f;
+
+import comp3170.demos.trefoil.renderer.Renderer;
+import comp3170.demos.trefoil.sceneobjects.Axes;
+import comp3170.demos.trefoil.sceneobjects.SceneGraph;
+import comp3170.demos.trefoil.sceneobjects.SceneObject;
+import comp3170.demos.trefoil.sceneobjects.TransformStore;
+import comp3170.demos.trefoil.sceneobjects.Trefoil;
+
+/**
+ * The demo's scene and camera, without a window, drawn from a TrefoilState.
+ *
+ * TrefoilDemo steps the state at a fixed rate on a simulation thread and draws
+ * states interpolated from it. TrefoilBatch steps it with a fixed timestep and
+ * renders each frame offscreen.
+ */
+
+public class TrefoilScene {
+
+	private static final float TAU = (float) (2 * Math.PI);
+
+	private static final Vector3f AMBIENT_INTENSITY = new Vector3f(0.1f, 0.1f, 0.1f);
+	private static final Vector3f DIFFUSE_INTENSITY = new Vector3f(1f, 1f, 1f);
+	private static final Vector4f LIGHT_DIRECTION = new Vector4f(0f, 1f, 0f, 0);
+
+	private static final float CAMERA_WIDTH = 8;
+	private static final float CAMERA_HEIGHT = 8;
+	private static final float CAMERA_NEAR = 1;
+	private static final float CAMERA_FAR = 10;
+	private static final float CAMERA_FOVY = TAU / 6;
+
+	private SceneGraph scene;
+	private Axes axes;
+	private Trefoil trefoil;
+
+	private TrefoilState state;
+	private Matrix4f viewMatrix;
+	private Matrix4f projectionMatrix;
+	private Vector3f angle = new Vector3f();
+
+	public TrefoilScene() {
+		TransformStore transforms = new TransformStore(3);
+		axes = new Axes(transforms);
+		trefoil = new Trefoil(transforms);
+
+		// the axes are attached to the trefoil, so they turn with it
+		SceneObject root = new SceneObject(transforms);
+		root.addChild(trefoil);
+		trefoil.addChild(axes);
+		axes.setVisible(false);
+		scene = new SceneGraph(root);
+
+		state = new TrefoilState();
+		viewMatrix = new Matrix4f();
+		projectionMatrix = new Matrix4f();
+	}
+
+	public Trefoil getTrefoil() {
+		return trefoil;
+	}
+
+	public Axes getAxes() {
+		return axes;
+	}
+
+	/**
+	 * @return the state the scene is drawn from
+	 */
+	public TrefoilState getState() {
+		return state;
+	}
+
+	public Matrix4f getViewMatrix() {
+		return viewMatrix;
+	}
+
+	public Matrix4f getProjectionMatrix() {
+		return projectionMatrix;
+	}
+
+	/**
+	 * Set the renderer state the scene is drawn with.
+	 */
+	public static void configure(Renderer renderer) {
+		// set the background colour to black
+		renderer.setClearColour(0.0f, 0.0f, 0.0f, 1.0f);
+
+		renderer.setDepthTest(true);
+		renderer.setCullFace(true);
+		renderer.setLighting(AMBIENT_INTENSITY, DIFFUSE_INTENSITY, LIGHT_DIRECTION);
+	}
+
+	/**
+	 * Step the state, for drawing without a simulation thread.
+	 */
+	public void update(float deltaTime, KeyState keys) {
+		state.update(deltaTime, keys);
+	}
+
+	/**
+	 * Draw a frame of the current state: set up the camera, bring the world
+	 * matrices and level of detail up to date, and draw the scene.
+	 *
+	 * @param renderer	The renderer
+	 * @param height	The height of the viewport in pixels
+	 */
+	public void draw(Renderer renderer, int height) {
+		//  Y up W--X
+		//       |
+		//       Z (out of screen)
+		//
+		//
+		//    (0,0,3)
+		//  Y up C--X
+		//       |
+		//       Z
+
+		viewMatrix.identity();
+		viewMatrix.translate(0,0,state.getCameraDistance());
+		viewMatrix.invert();
+
+		projectionMatrix.setOrtho(
+				-CAMERA_WIDTH/2, CAMERA_WIDTH/2,
+				-CAMERA_HEIGHT/2, CAMERA_HEIGHT/2,
+				CAMERA_NEAR, CAMERA_FAR);
+
+//		projectionMatrix.setPerspective(CAMERA_FOVY,
+//				CAMERA_WIDTH / CAMERA_HEIGHT,
+//				CAMERA_NEAR, CAMERA_FAR);
+
+		// recompute the world matrices of anything that moved
+		trefoil.setAngle(state.getAngle(angle));
+		scene.update();
+		trefoil.selectLOD(viewMatrix, projectionMatrix, height);
+
+		// draw the scene
+		renderer.beginFrame();
+		scene.draw(renderer, viewMatrix, projectionMatrix);
+		renderer.endFrame();
+	}
+
+}
@@ -0,0 +1,86 @@
+package comp3170.demos.trefoil;
+
+import java.awt.event.KeyEvent;
+
+import org.joml.Vector3f;
+
+/**
+ * The simulated state of the demo: the trefoil's angle and the camera distance,
+ * and the update logic that changes them.
+ *
+ * Kept apart from the scene objects so it can be stepped on one thread while the
+ * scene is drawn on another. The angles are not wrapped, so two states can be
+ * interpolated linearly.
+ */
+
+public class TrefoilState {
+
+	private static final float TAU = (float) (2 * Math.PI);
+
+	public static final float ROTATION_SPEED = TAU / 4;
+	private static final float CAMERA_MOVE = 1;
+
+	public static final int STATE_SIZE = 4;		// angle x, y, z, camera distance
+
+	private final Vector3f angle = new Vector3f();
+	private float cameraDistance = 3;
+
+	public Vector3f getAngle(Vector3f dest) {
+		return dest.set(angle);
+	}
+
+	public void setAngle(float pitch, float heading, float roll) {
+		angle.set(pitch, heading, roll);
+	}
+
+	public float getCameraDistance() {
+		return cameraDistance;
+	}
+
+	/**
+	 * Turn the trefoil and move the camera by the keys held down.
+	 *
+	 * @param deltaTime	The time step in seconds
+	 * @param keys		The keys held down during the step
+	 */
+	public void update(float deltaTime, KeyState keys) {
+		if (keys.isKeyDown(KeyEvent.VK_LEFT)) {
+			angle.y += ROTATION_SPEED * deltaTime;
+		}
+		if (keys.isKeyDown(KeyEvent.VK_RIGHT)) {
+			angle.y -= ROTATION_SPEED * deltaTime;
+		}
+		if (keys.isKeyDown(KeyEvent.VK_UP)) {
+			angle.x += ROTATION_SPEED * deltaTime;
+		}
+		if (keys.isKeyDown(KeyEvent.VK_DOWN)) {
+			angle.x -= ROTATION_SPEED * deltaTime;
+		}
+
+		if (keys.isKeyDown(KeyEvent.VK_PAGE_DOWN)) {
+			cameraDistance -= CAMERA_MOVE * deltaTime;
+		}
+		if (keys.isKeyDown(KeyEvent.VK_PAGE_UP)) {
+			cameraDistance += CAMERA_MOVE * deltaTime;
+		}
+	}
+
+	/**
+	 * Write the state as STATE_SIZE floats.
+	 */
+	public void save(float[] state) {
+		state[0] = angle.x;
+		state[1] = angle.y;
+		state[2] = angle.z;
+		state[3] = cameraDistance;
+	}
+
+	/**
+	 * Read a state written by save(), or interpolated between two.
+	 */
+	public void load(float[] state) {
+		angle.set(state[0], state[1], state[2]);
+		cameraDistance = state[3];
+	}
+
+}
@@ -0,0 +1,270 @@
+package comp3170.demos.trefoil.batch;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+import javax.imageio.ImageIO;
+
+import comp3170.demos.trefoil.renderer.Framebuffer;
+
+/**
+ * Streams rendered frames to image files on writer threads, so encoding overlaps
+ * with rendering the next frames.
+ *
+ * The pipeline owns a fixed pool of framebuffers. The renderer takes a free one
+ * with acquire(), draws into it and hands it on with submit(); a writer thread
+ * saves it and returns it to the pool. When the writers fall behind, acquire()
+ * blocks until a buffer is free, so memory use is fixed by the pool size however
+ * many frames are written.
+ *
+ * 		FramePipeline pipeline = new FramePipeline(directory, ImageFormat.PNG, width, height, 4, 2);
+ * 		for (int frame = 0; frame < frames; frame++) {
+ * 			Framebuffer framebuffer = pipeline.acquire();
+ * 			// render into framebuffer
+ * 			pipeline.submit(frame, framebuffer);
+ * 		}
+ * 		pipeline.finish();
+ *
+ * If a write fails, the next call to acquire() or finish() throws the error.
+ * Call close() in a finally block, so the writers are stopped if rendering
+ * ends early. Writers are daemon threads, as in TextureLoader, so they never
+ * keep the JVM alive on their own.
+ */
+
+public class FramePipeline {
+
+	private static final String FILE_NAME = "frame_%05d.%s";
+
+	/**
+	 * A submitted frame waiting to be written
+	 */
+	private static class Frame {
+		final int number;
+		final Framebuffer framebuffer;
+
+		Frame(int number, Framebuffer framebuffer) {
+			this.number = number;
+			this.framebuffer = framebuffer;
+		}
+	}
+
+	// tells a writer thread to stop
+	private static final Frame END = new Frame(-1, null);
+
+	private final File directory;
+	private final ImageFormat format;
+	private final int width;
+	private final int height;
+
+	private final BlockingQueue<Framebuffer> free;
+	private final BlockingQueue<Frame> pending;
+	private final Thread[] writers;
+	private final AtomicReference<IOException> failure = new AtomicReference<IOException>();
+
+	private long waitNanos = 0;
+	private final AtomicLong writeNanos = new AtomicLong();
+	private final AtomicLong bytesWritten = new AtomicLong();
+
+	/**
+	 * @param directory	The directory to write frame_00000.png etc. in, created if needed
+	 * @param format	The file format
+	 * @param width		The frame width in pixels
+	 * @param height	The frame height in pixels
+	 * @param poolSize	The number of framebuffers, at least 1 more than the number of writers
+	 * 					for rendering to overlap with writing
+	 * @param nWriters	The number of writer threads
+	 */
+	public FramePipeline(File directory, ImageFormat format, int width, int height, int poolSize, int nWriters) throws IOException {
+		if (poolSize < 1 || nWriters < 1) {
+			throw new IllegalArgumentException("Pool size and writer count must be positive: " + poolSize + ", " + nWriters);
+		}
+		if (!directory.isDirectory() && !directory.mkdirs()) {
+			throw new IOException("Cannot create directory " + directory);
+		}
+
+		this.directory = directory;
+		this.format = format;
+		this.width = width;
+		this.height = height;
+
+		this.free = new ArrayBlockingQueue<Framebuffer>(poolSize);
+		this.pending = new ArrayBlockingQueue<Frame>(poolSize + nWriters);
+		for (int i = 0; i < poolSize; i++) {
+			free.add(new Framebuffer(width, height));
+		}
+
+		this.writers = new Thread[nWriters];
+		for (int i = 0; i < nWriters; i++) {
+			writers[i] = new Thread(this::write, "frame-writer-" + i);
+			writers[i].setDaemon(true);
+			writers[i].start();
+		}
+	}
+
+	/**
+	 * Take a framebuffer to render the next frame into, waiting for one to be
+	 * written if all are in use.
+	 *
+	 * @throws IOException if writing an earlier frame failed
+	 */
+	public Framebuffer acquire() throws IOException, InterruptedException {
+		checkFailure();
+		long start = System.nanoTime();
+		Framebuffer framebuffer = free.take();
+		waitNanos += System.nanoTime() - start;
+		return framebuffer;
+	}
+
+	/**
+	 * Queue a rendered frame to be written. The framebuffer must not be used again
+	 * until it is returned by acquire().
+	 */
+	public void submit(int frameNumber, Framebuffer framebuffer) throws InterruptedException {
+		pending.put(new Frame(frameNumber, framebuffer));
+	}
+
+	/**
+	 * Wait for all submitted frames to be written and stop the writer threads.
+	 *
+	 * @throws IOException if writing any frame failed
+	 */
+	public void finish() throws IOException, InterruptedException {
+		for (int i = 0; i < writers.length; i++) {
+			pending.put(END);
+		}
+		for (Thread writer : writers) {
+			writer.join();
+		}
+		checkFailure();
+	}
+
+	/**
+	 * Stop the writer threads without waiting for queued frames, which are not
+	 * written. Does nothing after finish().
+	 */
+	public void close() throws InterruptedException {
+		for (Thread writer : writers) {
+			writer.interrupt();
+		}
+		for (Thread writer : writers) {
+			writer.join();
+		}
+	}
+
+	private void checkFailure() throws IOException {
+		IOException e = failure.get();
+		if (e != null) {
+			throw e;
+		}
+	}
+
+	/**
+	 * @return the total time acquire() has waited for a free framebuffer, in nanoseconds
+	 */
+	public long getWaitNanos() {
+		return waitNanos;
+	}
+
+	/**
+	 * @return the total time spent encoding and writing frames, across all writers, in nanoseconds
+	 */
+	public long getWriteNanos() {
+		return writeNanos.get();
+	}
+
+	public long getBytesWritten() {
+		return bytesWritten.get();
+	}
+
+	/**
+	 * @return the number of frames waiting to be written
+	 */
+	public int getPendingCount() {
+		return pending.size();
+	}
+
+	/**
+	 * The body of each writer thread. Each has its own scratch image or buffer to
+	 * convert frames into.
+	 */
+	private void write() {
+		BufferedImage image = null;
+		ByteBuffer bytes = null;
+
+		try {
+			for (Frame frame = pending.take(); frame != END; frame = pending.take()) {
+				// after a failure, keep returning buffers so the renderer doesn't block
+				if (failure.get() == null) {
+					File file = new File(directory, String.format(FILE_NAME, frame.number, format.getExtension()));
+					long start = System.nanoTime();
+					try {
+						switch (format) {
+						case PNG:
+							if (image == null) {
+								image = new BufferedImage(width, height, BufferedImage.TYPE_INT_ARGB);
+							}
+							writePNG(frame.framebuffer, image, file);
+							break;
+
+						case RAW:
+							if (bytes == null) {
+								bytes = ByteBuffer.allocateDirect(width * height * 4).order(ByteOrder.BIG_ENDIAN);
+							}
+							writeRaw(frame.framebuffer, bytes, file);
+							break;
+						}
+						bytesWritten.addAndGet(file.length());
+					}
+					catch (IOException e) {
+						failure.compareAndSet(null, e);
+					}
+					catch (RuntimeException e) {
+						failure.compareAndSet(null, new IOException("Cannot write " + file, e));
+					}
+					writeNanos.addAndGet(System.nanoTime() - start);
+				}
+				free.put(frame.framebuffer);
+			}
+		}
+		catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	private static void writePNG(Framebuffer framebuffer, BufferedImage image, File file) throws IOException {
+		framebuffer.getPixels(((DataBufferInt) image.getRaster().getDataBuffer()).getData());
+		if (!ImageIO.write(image, "png", file)) {
+			throw new IOException("No PNG writer available");
+		}
+	}
+
+	private static void writeRaw(Framebuffer framebuffer, ByteBuffer bytes, File file) throws IOException {
+		// 0xAARRGGBB -> 0xRRGGBBAA, written big endian as R, G, B, A
+		IntBuffer colour = framebuffer.getColourBuffer();
+		IntBuffer rgba = bytes.clear().asIntBuffer();
+		int n = framebuffer.getWidth() * framebuffer.getHeight();
+		for (int i = 0; i < n; i++) {
+			int argb = colour.get(i);
+			rgba.put(i, (argb << 8) | (argb >>> 24));
+		}
+
+		try (FileChannel channel = FileChannel.open(file.toPath(),
+				StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+			while (bytes.hasRemaining()) {
+				channel.write(bytes);
+			}
+		}
+	}
+
+}
@@ -0,0 +1,28 @@
+package comp3170.demos.trefoil.batch;
+
+/**
+ * The file formats FramePipeline can write frames in.
+ *
+ * PNG	Compressed, for viewing or editing. Encoding is slow, so it is worth
+ * 		spreading across several writer threads.
+ *
+ * RAW	Uncompressed 8 bit RGBA, rows from the top, with no header. Fast to
+ * 		write and easy to stream into an encoder, for instance:
+ *
+ * 			ffmpeg -f rawvideo -pix_fmt rgba -s 800x800 -i frame_%05d.rgba turntable.mp4
+ */
+
+public enum ImageFormat {
+	PNG("png"),
+	RAW("rgba");
+
+	private final String extension;
+
+	private ImageFormat(String extension) {
+		this.extension = extension;
+	}
+
+	public String getExtension() {
+		return extension;
+	}
+}
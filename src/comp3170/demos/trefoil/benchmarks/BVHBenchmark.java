@@ -0,0 +1,273 @@
+package comp3170.demos.trefoil.benchmarks;
+
+import java.util.Random;
+
+import org.joml.FrustumIntersection;
+import org.joml.Matrix4f;
+import org.joml.Vector3f;
+
+import comp3170.demos.trefoil.mesh.Bounds;
+import comp3170.demos.trefoil.sceneobjects.BVH;
+import comp3170.demos.trefoil.sceneobjects.SceneGraph;
+import comp3170.demos.trefoil.sceneobjects.SceneObject;
+import comp3170.demos.trefoil.sceneobjects.TransformStore;
+
+/**
+ * Compares frustum and ray queries on a BVH against a brute force scan, for
+ * 1k to 1M objects scattered at a constant density. Also times building and
+ * refitting the tree as the objects drift, and shows when it decides to rebuild.
+ *
+ * The BVH's results are checked against the brute force scan, as are the
+ * objects found by SceneGraph.raycast(), some of which are hidden.
+ */
+
+public class BVHBenchmark {
+
+	private static final int[] COUNTS = { 1000, 10000, 100000, 1000000 };
+	private static final float SPACING = 4;		// average distance between objects
+	private static final float SIZE = 1;		// object box size
+	private static final int RAYS = 1000;
+	private static final int REPEATS = 5;
+	private static final int DRIFT_FRAMES = 30;
+	private static final float DRIFT = 0.5f;	// per frame
+	private static final int SCENE_OBJECTS = 2000;
+
+	private static int hits;
+
+	/**
+	 * A scene object with a box of a given half size around its origin.
+	 */
+	private static class Box extends SceneObject {
+		private final int index;
+		private final Bounds bounds;
+
+		public Box(TransformStore transforms, int index, float s) {
+			super(transforms);
+			this.index = index;
+			this.bounds = new Bounds(new float[] { -s, -s, -s, s, s, s }, 3, 2);
+		}
+
+		@Override
+		public Bounds getBounds() {
+			return bounds;
+		}
+	}
+
+	public static void main(String[] args) {
+		for (int n : COUNTS) {
+			run(n);
+			System.out.println();
+		}
+		checkRaycast();
+		Checks.finish();
+	}
+
+	private static void run(int n) {
+		Random random = new Random(n);
+		float extent = SPACING * (float) Math.cbrt(n);
+
+		float[] boxes = new float[6 * n];
+		for (int i = 0; i < n; i++) {
+			float x = (random.nextFloat() - 0.5f) * extent;
+			float y = (random.nextFloat() - 0.5f) * extent;
+			float z = (random.nextFloat() - 0.5f) * extent;
+			float s = SIZE * (0.5f + random.nextFloat()) / 2;
+			setBox(boxes, i, x, y, z, s);
+		}
+
+		BVH bvh = new BVH();
+		long start = System.nanoTime();
+		bvh.build(boxes, n);
+		System.out.printf("%d objects: build %.1f ms, %d nodes, SAH cost %.1f\n",
+				n, (System.nanoTime() - start) / 1e6, bvh.getNodeCount(), bvh.getCost());
+
+		// a camera in the middle, looking down -z, seeing a quarter of the way across
+		Matrix4f projection = new Matrix4f().setPerspective((float) Math.PI / 3, 1, 0.1f, extent / 4);
+		FrustumIntersection frustum = new FrustumIntersection(projection);
+
+		long bruteTime = Long.MAX_VALUE;
+		long bvhTime = Long.MAX_VALUE;
+		int bruteCount = 0;
+		int bvhCount = 0;
+		for (int r = 0; r < REPEATS; r++) {
+			start = System.nanoTime();
+			bruteCount = 0;
+			for (int i = 0; i < n; i++) {
+				if (frustum.testAab(boxes[6*i], boxes[6*i+1], boxes[6*i+2], boxes[6*i+3], boxes[6*i+4], boxes[6*i+5])) {
+					bruteCount++;
+				}
+			}
+			bruteTime = Math.min(bruteTime, System.nanoTime() - start);
+
+			start = System.nanoTime();
+			hits = 0;
+			bvhCount = bvh.queryFrustum(frustum, i -> hits++);
+			bvhTime = Math.min(bvhTime, System.nanoTime() - start);
+		}
+		Checks.check(String.format("frustum: %d visible, brute force %.3f ms, BVH %.3f ms (%.0fx)",
+				bruteCount, bruteTime / 1e6, bvhTime / 1e6, (double) bruteTime / bvhTime),
+				bruteCount == bvhCount);
+
+		// rays from the centre in random directions, nearest hit
+		float[][] directions = new float[RAYS][3];
+		for (int k = 0; k < RAYS; k++) {
+			directions[k][0] = (float) random.nextGaussian();
+			directions[k][1] = (float) random.nextGaussian();
+			directions[k][2] = (float) random.nextGaussian();
+		}
+
+		int mismatches = 0;
+		float[] hitT = new float[1];
+		start = System.nanoTime();
+		int[] bruteNearest = new int[RAYS];
+		float[] bruteT = new float[RAYS];
+		for (int k = 0; k < RAYS; k++) {
+			float[] d = directions[k];
+			bruteNearest[k] = -1;
+			bruteT[k] = Float.POSITIVE_INFINITY;
+			for (int i = 0; i < n; i++) {
+				float t = rayBox(boxes, i, d[0], d[1], d[2]);
+				if (t < bruteT[k]) {
+					bruteT[k] = t;
+					bruteNearest[k] = i;
+				}
+			}
+		}
+		bruteTime = System.nanoTime() - start;
+
+		start = System.nanoTime();
+		for (int k = 0; k < RAYS; k++) {
+			float[] d = directions[k];
+			int i = bvh.nearest(0, 0, 0, d[0], d[1], d[2], Float.POSITIVE_INFINITY, null, hitT);
+			if (i != bruteNearest[k] && !(i >= 0 && hitT[0] == bruteT[k])) {
+				mismatches++;
+			}
+		}
+		bvhTime = System.nanoTime() - start;
+		Checks.check(String.format("rays: %d nearest hits, brute force %.3f ms/ray, BVH %.4f ms/ray (%.0fx), %d mismatches",
+				RAYS, bruteTime / 1e6 / RAYS, bvhTime / 1e6 / RAYS, (double) bruteTime / bvhTime, mismatches),
+				mismatches == 0);
+
+		// let the objects drift, refitting each frame
+		float[] velocity = new float[3 * n];
+		for (int i = 0; i < 3 * n; i++) {
+			velocity[i] = (random.nextFloat() - 0.5f) * 2 * DRIFT;
+		}
+		long refitTime = 0;
+		int rebuilds = 0;
+		int firstRebuild = -1;
+		for (int f = 1; f <= DRIFT_FRAMES; f++) {
+			for (int i = 0; i < n; i++) {
+				for (int a = 0; a < 3; a++) {
+					boxes[6*i + a] += velocity[3*i + a];
+					boxes[6*i + 3 + a] += velocity[3*i + a];
+				}
+			}
+			start = System.nanoTime();
+			if (bvh.update()) {
+				rebuilds++;
+				if (firstRebuild < 0) {
+					firstRebuild = f;
+				}
+			}
+			refitTime += System.nanoTime() - start;
+		}
+		System.out.printf("  drifting %d frames: %.2f ms/frame average, %d rebuilds (first at frame %d), final cost %.1f (built %.1f)\n",
+				DRIFT_FRAMES, refitTime / 1e6 / DRIFT_FRAMES, rebuilds, firstRebuild, bvh.getCost(), bvh.getBuiltCost());
+
+		hits = 0;
+		bvhCount = bvh.queryFrustum(frustum, i -> hits++);
+		bruteCount = 0;
+		for (int i = 0; i < n; i++) {
+			if (frustum.testAab(boxes[6*i], boxes[6*i+1], boxes[6*i+2], boxes[6*i+3], boxes[6*i+4], boxes[6*i+5])) {
+				bruteCount++;
+			}
+		}
+		Checks.check(String.format("after drifting: %d visible, BVH %d", bruteCount, bvhCount), bruteCount == bvhCount);
+	}
+
+	/**
+	 * Cast rays through a scene graph, and compare the objects hit with the
+	 * nearest visible box found by brute force.
+	 */
+	private static void checkRaycast() {
+		Random random = new Random(0);
+		float extent = SPACING * (float) Math.cbrt(SCENE_OBJECTS);
+
+		TransformStore transforms = new TransformStore(SCENE_OBJECTS + 1);
+		SceneObject root = new SceneObject(transforms);
+		Box[] objects = new Box[SCENE_OBJECTS];
+		float[] boxes = new float[6 * SCENE_OBJECTS];
+		for (int i = 0; i < SCENE_OBJECTS; i++) {
+			float x = (random.nextFloat() - 0.5f) * extent;
+			float y = (random.nextFloat() - 0.5f) * extent;
+			float z = (random.nextFloat() - 0.5f) * extent;
+			float s = SIZE * (0.5f + random.nextFloat()) / 2;
+			setBox(boxes, i, x, y, z, s);
+
+			objects[i] = new Box(transforms, i, s);
+			objects[i].setPosition(x, y, z);
+			objects[i].setVisible(i % 3 != 0);
+			root.addChild(objects[i]);
+		}
+		SceneGraph graph = new SceneGraph(root);
+		graph.update();
+
+		Vector3f origin = new Vector3f();
+		Vector3f direction = new Vector3f();
+		int mismatches = 0;
+		int found = 0;
+		for (int k = 0; k < RAYS; k++) {
+			direction.set((float) random.nextGaussian(), (float) random.nextGaussian(), (float) random.nextGaussian());
+
+			int nearest = -1;
+			float nearestT = Float.POSITIVE_INFINITY;
+			for (int i = 0; i < SCENE_OBJECTS; i++) {
+				float t = rayBox(boxes, i, direction.x, direction.y, direction.z);
+				if (objects[i].isVisible() && t < nearestT) {
+					nearestT = t;
+					nearest = i;
+				}
+			}
+
+			SceneObject hit = graph.raycast(origin, direction);
+			int i = (hit == null ? -1 : ((Box) hit).index);
+			if (i >= 0) {
+				found++;
+			}
+			if (i != nearest && !(i >= 0 && hit.isVisible()
+					&& Math.abs(rayBox(boxes, i, direction.x, direction.y, direction.z) - nearestT) <= 1e-4f * nearestT)) {
+				mismatches++;
+			}
+		}
+		System.out.printf("scene graph raycast: %d objects, a third hidden, %d of %d rays hit\n",
+				SCENE_OBJECTS, found, RAYS);
+		Checks.check(String.format("nearest visible object, %d mismatches", mismatches), mismatches == 0);
+	}
+
+	private static void setBox(float[] boxes, int i, float x, float y, float z, float s) {
+		boxes[6*i] = x - s;
+		boxes[6*i+1] = y - s;
+		boxes[6*i+2] = z - s;
+		boxes[6*i+3] = x + s;
+		boxes[6*i+4] = y + s;
+		boxes[6*i+5] = z + s;
+	}
+
+	/**
+	 * Slab test for a ray from the origin
+	 */
+	private static float rayBox(float[] boxes, int i, float dx, float dy, float dz) {
+		float tmin = 0;
+		float tmax = Float.POSITIVE_INFINITY;
+		float[] d = { dx, dy, dz };
+		for (int a = 0; a < 3; a++) {
+			float t0 = boxes[6*i + a] / d[a];
+			float t1 = boxes[6*i + 3 + a] / d[a];
+			tmin = Math.max(tmin, Math.min(t0, t1));
+			tmax = Math.min(tmax, Math.max(t0, t1));
+		}
+		return (tmin <= tmax ? tmin : Float.POSITIVE_INFINITY);
+	}
+
+}
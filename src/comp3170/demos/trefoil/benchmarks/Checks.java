@@ -0,0 +1,45 @@
+package comp3170.demos.trefoil.benchmarks;
+
+/**
+ * Prints and counts the checks made by the benchmarks that test results as well
+ * as timing them.
+ *
+ *		Checks.check("cache hit", cache.getHits() == 1);
+ *		...
+ *		Checks.finish();
+ *
+ * finish() exits with status 1 if any check failed, so scripts can tell.
+ */
+
+public class Checks {
+
+	private static int failures = 0;
+
+	/**
+	 * Print what was checked, followed by OK or FAILED.
+	 */
+	public static void check(String what, boolean ok) {
+		System.out.printf("  %s %s\n", what, ok ? "OK" : "FAILED");
+		if (!ok) {
+			failures++;
+		}
+	}
+
+	/**
+	 * @return the number of checks that have failed
+	 */
+	public static int getFailures() {
+		return failures;
+	}
+
+	/**
+	 * Print the result of all the checks, and exit with status 1 if any failed.
+	 */
+	public static void finish() {
+		System.out.println(failures == 0 ? "All OK" : failures + " FAILED");
+		if (failures > 0) {
+			System.exit(1);
+		}
+	}
+
+}
@@ -0,0 +1,120 @@
+package comp3170.demos.trefoil.benchmarks;
+
+import java.util.Random;
+
+import org.joml.Matrix4f;
+import org.joml.Vector4f;
+
+import comp3170.demos.trefoil.mesh.Bounds;
+import comp3170.demos.trefoil.mesh.Mesh;
+import comp3170.demos.trefoil.sceneobjects.CrossSection;
+import comp3170.demos.trefoil.sceneobjects.FrustumCuller;
+import comp3170.demos.trefoil.sceneobjects.TubeSweep;
+import comp3170.demos.trefoil.sceneobjects.curves.TrefoilCurve;
+
+/**
+ * Scatters trefoils around the camera and frustum culls them, for the demo's
+ * orthographic and perspective cameras. Reports how many were culled and how
+ * long the tests took.
+ *
+ * Also checks that no trefoil with a vertex inside the frustum was culled, by
+ * projecting every vertex. Runs without a GL context.
+ */
+
+public class CullingBenchmark {
+
+	private static final int COUNT = 10000;
+	private static final int CHECKED = 1000;
+	private static final float SPREAD = 20;
+	private static final int REPEATS = 20;
+
+	// as in TrefoilDemo
+	private static final float CAMERA_DISTANCE = 3;
+	private static final float CAMERA_WIDTH = 8;
+	private static final float CAMERA_HEIGHT = 8;
+	private static final float CAMERA_NEAR = 1;
+	private static final float CAMERA_FAR = 10;
+	private static final float CAMERA_FOVY = (float) Math.PI / 3;
+
+	public static void main(String[] args) {
+		TubeSweep sweep = new TubeSweep(new TrefoilCurve(), CrossSection.square());
+		sweep.setScale(0.15f);
+		Mesh mesh = sweep.createMesh(100);
+		Bounds bounds = mesh.getBounds();
+		System.out.println(bounds);
+
+		Random random = new Random(0);
+		Matrix4f[] modelMatrices = new Matrix4f[COUNT];
+		for (int i = 0; i < COUNT; i++) {
+			modelMatrices[i] = new Matrix4f()
+				.translation((random.nextFloat() - 0.5f) * SPREAD, (random.nextFloat() - 0.5f) * SPREAD, (random.nextFloat() - 0.5f) * SPREAD)
+				.rotateYXZ(random.nextFloat() * 6, random.nextFloat() * 6, random.nextFloat() * 6)
+				.scale(0.25f + random.nextFloat());
+		}
+
+		Matrix4f viewMatrix = new Matrix4f().translation(0, 0, CAMERA_DISTANCE).invert();
+
+		Matrix4f ortho = new Matrix4f().setOrtho(
+				-CAMERA_WIDTH/2, CAMERA_WIDTH/2, -CAMERA_HEIGHT/2, CAMERA_HEIGHT/2, CAMERA_NEAR, CAMERA_FAR);
+		Matrix4f perspective = new Matrix4f().setPerspective(
+				CAMERA_FOVY, CAMERA_WIDTH / CAMERA_HEIGHT, CAMERA_NEAR, CAMERA_FAR);
+
+		run("orthographic", ortho, viewMatrix, bounds, modelMatrices, mesh);
+		run("perspective", perspective, viewMatrix, bounds, modelMatrices, mesh);
+		Checks.finish();
+	}
+
+	private static void run(String name, Matrix4f projectionMatrix, Matrix4f viewMatrix, Bounds bounds,
+			Matrix4f[] modelMatrices, Mesh mesh) {
+		FrustumCuller culler = new FrustumCuller();
+		culler.setFrustum(projectionMatrix, viewMatrix);
+
+		long best = Long.MAX_VALUE;
+		boolean[] visible = new boolean[modelMatrices.length];
+		for (int r = 0; r < REPEATS; r++) {
+			culler.resetCounters();
+			long start = System.nanoTime();
+			for (int i = 0; i < modelMatrices.length; i++) {
+				visible[i] = culler.isVisible(bounds, modelMatrices[i]);
+			}
+			best = Math.min(best, System.nanoTime() - start);
+		}
+		System.out.printf("%s: %s of %d, %.3f ms (%.0f ns/object)\n", name, culler, modelMatrices.length,
+				best / 1e6, (double) best / modelMatrices.length);
+
+		// no false negatives: any object with a vertex inside the frustum must be drawn
+		Matrix4f mvp = new Matrix4f();
+		Vector4f p = new Vector4f();
+		float[] positions = mesh.getPositions();
+		int wrong = 0;
+		int reallyVisible = 0;
+		for (int i = 0; i < CHECKED; i++) {
+			projectionMatrix.mul(viewMatrix, mvp).mul(modelMatrices[i]);
+			boolean inside = false;
+			for (int k = 0; k < mesh.getVertexCount() && !inside; k++) {
+				p.set(positions[4*k], positions[4*k+1], positions[4*k+2], 1);
+				mvp.transform(p);
+				inside = Math.abs(p.x) <= p.w && Math.abs(p.y) <= p.w && Math.abs(p.z) <= p.w;
+			}
+			if (inside) {
+				reallyVisible++;
+				if (!visible[i]) {
+					wrong++;
+				}
+			}
+		}
+		Checks.check(String.format("checked %d: %d have a vertex in view, %d drawn, %d wrongly culled",
+				CHECKED, reallyVisible, count(visible, CHECKED), wrong), wrong == 0);
+	}
+
+	private static int count(boolean[] values, int n) {
+		int count = 0;
+		for (int i = 0; i < n; i++) {
+			if (values[i]) {
+				count++;
+			}
+		}
+		return count;
+	}
+
+}
@@ -0,0 +1,200 @@
+package comp3170.demos.trefoil.benchmarks;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.util.Arrays;
+import java.util.Random;
+
+import comp3170.demos.trefoil.input.InputQueue;
+import comp3170.demos.trefoil.input.InputRecording;
+import comp3170.demos.trefoil.input.InputState;
+
+/**
+ * Checks and times the input queue without a window.
+ *
+ * A producer thread queues a long stream of key and mouse events, numbered in
+ * order, while the main thread drains them a frame at a time into an InputState.
+ * Checks that every event arrives once and in order, that the final held keys
+ * match the producer's, and that neither side allocates. Then checks that a full
+ * queue drops and counts events, and that a recording (saved and loaded again)
+ * replays to the same held keys in every frame.
+ */
+
+public class InputBenchmark {
+
+	private static final int EVENTS = 2_000_000;
+	private static final int CAPACITY = 1024;
+	private static final int KEYS = 256;
+	private static final int FRAMES = 1000;
+
+	/**
+	 * Checks the numbering of events drained from the queue, and passes them on
+	 */
+	private static class Checker implements InputQueue.Handler {
+		final InputState state;
+		long next = 0;
+		long outOfOrder = 0;
+
+		Checker(InputState state) {
+			this.state = state;
+		}
+
+		@Override
+		public void event(long time, int type, int code, float x, float y) {
+			long number = (long) x * (1 << 20) + (long) y;
+			if (number != next) {
+				outOfOrder++;
+			}
+			next = number + 1;
+			state.event(time, type, code, x, y);
+		}
+	}
+
+	public static void main(String[] args) throws Exception {
+		checkStream();
+		checkFull();
+		checkReplay();
+		Checks.finish();
+	}
+
+	private static void checkStream() throws InterruptedException {
+		InputQueue queue = new InputQueue(CAPACITY);
+		InputState state = new InputState(queue);
+		Checker checker = new Checker(state);
+		long[] expected = new long[InputState.MAX_KEY_CODE / 64];
+		long[] producerAllocated = new long[1];
+		long[] retries = new long[1];
+
+		Thread producer = new Thread(() -> {
+			Random random = new Random(0);
+			long allocated = 0;
+			for (int i = 0; i < EVENTS; i++) {
+				if (i == EVENTS / 10) {
+					// warmed up
+					allocated = allocatedBytes();
+				}
+
+				// the event number, split so it is exact in two floats
+				float x = i >>> 20;
+				float y = i & ((1 << 20) - 1);
+
+				int r = random.nextInt(3);
+				int type = (r == 0 ? InputQueue.KEY_DOWN : r == 1 ? InputQueue.KEY_UP : InputQueue.MOUSE_MOVE);
+				int code = random.nextInt(KEYS);
+				if (type == InputQueue.KEY_DOWN) {
+					expected[code >>> 6] |= 1L << code;
+				}
+				else if (type == InputQueue.KEY_UP) {
+					expected[code >>> 6] &= ~(1L << code);
+				}
+
+				// full: give the consumer a turn, and try again
+				while (!queue.offer(System.nanoTime(), type, code, x, y)) {
+					retries[0]++;
+					Thread.yield();
+				}
+			}
+			producerAllocated[0] = allocatedBytes() - allocated - ALLOCATION_OVERHEAD;
+		}, "producer");
+
+		long start = System.nanoTime();
+		producer.start();
+
+		// warm up the drain loop before measuring allocation
+		long frames = 0;
+		while (checker.next < EVENTS / 10) {
+			queue.drain(checker);
+			frames++;
+			Thread.yield();
+		}
+		long allocated = allocatedBytes();
+		while (checker.next < EVENTS) {
+			queue.drain(checker);
+			state.clear();
+			frames++;
+			Thread.yield();
+		}
+		long consumerAllocated = allocatedBytes() - allocated - ALLOCATION_OVERHEAD;
+		producer.join();
+		double seconds = (System.nanoTime() - start) / 1e9;
+
+		long[] keys = state.getKeysDown(new long[InputState.MAX_KEY_CODE / 64]);
+		// every retry was counted as a drop, and then queued again
+		boolean ok = checker.outOfOrder == 0 && Arrays.equals(keys, expected) && queue.getDroppedCount() == retries[0];
+		System.out.printf("stream: %d events in %.2f s (%.1f M events/s), %d drains, %d retries when full\n",
+				EVENTS, seconds, EVENTS / seconds / 1e6, frames, retries[0]);
+		Checks.check(String.format("%d out of order, held keys %s", checker.outOfOrder,
+				Arrays.equals(keys, expected) ? "match" : "differ"), ok);
+		Checks.check(String.format("allocated: producer %d bytes, consumer %d bytes", producerAllocated[0], consumerAllocated),
+				producerAllocated[0] == 0 && consumerAllocated == 0);
+	}
+
+	private static void checkFull() {
+		InputQueue queue = new InputQueue(16);
+		int accepted = 0;
+		for (int i = 0; i < 100; i++) {
+			if (queue.offer(i, InputQueue.KEY_DOWN, i, 0, 0)) {
+				accepted++;
+			}
+		}
+		int drained = queue.drain((time, type, code, x, y) -> {});
+		boolean ok = accepted == 16 && queue.getDroppedCount() == 84 && drained == 16;
+		Checks.check(String.format("full queue: %d accepted, %d dropped, %d drained",
+				accepted, queue.getDroppedCount(), drained), ok);
+	}
+
+	private static void checkReplay() throws IOException {
+		Random random = new Random(1);
+		InputQueue queue = new InputQueue(CAPACITY);
+		InputState state = new InputState(queue);
+		InputRecording recording = new InputRecording();
+		state.record(recording);
+
+		int[] hashes = new int[FRAMES];
+		long[] keys = new long[InputState.MAX_KEY_CODE / 64];
+		for (int f = 0; f < FRAMES; f++) {
+			int n = random.nextInt(5);
+			for (int i = 0; i < n; i++) {
+				queue.offer(System.nanoTime(), random.nextBoolean() ? InputQueue.KEY_DOWN : InputQueue.KEY_UP,
+						random.nextInt(KEYS), 0, 0);
+			}
+			state.poll();
+			hashes[f] = Arrays.hashCode(state.getKeysDown(keys));
+			state.clear();
+		}
+
+		File file = File.createTempFile("input", ".rec");
+		file.deleteOnExit();
+		recording.save(file);
+		InputRecording loaded = InputRecording.load(file);
+
+		InputState replayed = new InputState(new InputQueue(CAPACITY));
+		replayed.replay(loaded);
+		int mismatches = 0;
+		for (int f = 0; f < FRAMES; f++) {
+			replayed.poll();
+			if (Arrays.hashCode(replayed.getKeysDown(keys)) != hashes[f]) {
+				mismatches++;
+			}
+			replayed.clear();
+		}
+		Checks.check(String.format("replay: %d events over %d frames, %d bytes saved, %d frames differ",
+				loaded.size(), FRAMES, file.length(), mismatches),
+				mismatches == 0 && loaded.size() == recording.size());
+	}
+
+	// allocated by allocatedBytes() itself
+	private static final long ALLOCATION_OVERHEAD;
+	static {
+		allocatedBytes();
+		long a = allocatedBytes();
+		ALLOCATION_OVERHEAD = allocatedBytes() - a;
+	}
+
+	private static long allocatedBytes() {
+		return ((com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean())
+				.getThreadAllocatedBytes(Thread.currentThread().getId());
+	}
+
+}
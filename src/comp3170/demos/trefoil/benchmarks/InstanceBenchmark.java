@@ -0,0 +1,87 @@
+package comp3170.demos.trefoil.benchmarks;
+
+import java.util.Random;
+
+import org.joml.Matrix4f;
+import org.joml.Vector3f;
+
+import comp3170.demos.trefoil.sceneobjects.InstanceArray;
+import comp3170.demos.trefoil.sceneobjects.SceneObject;
+import comp3170.demos.trefoil.sceneobjects.TransformStore;
+
+/**
+ * Times packing the instance buffer for InstancedTrefoil, and checks that every
+ * packed model matrix matches the one SceneObject.calcModelMatrix() computes for
+ * the same position, angle and scale. Runs without a GL context.
+ */
+
+public class InstanceBenchmark {
+
+	private static final int[] COUNTS = { 1000, 10000, 100000 };
+	private static final int REPEATS = 20;
+	// JOML's rotations, used by InstanceArray, take each cosine from the sine, which
+	// loses precision near +-1; TransformStore calls Math.cos()
+	private static final float EPSILON = 1e-3f;
+
+	/**
+	 * A scene object that exposes its model matrix.
+	 */
+	private static class Reference extends SceneObject {
+		Reference() {
+			super(new TransformStore(1));
+		}
+
+		public Matrix4f getModelMatrix() {
+			calcModelMatrix();
+			return modelMatrix;
+		}
+	}
+
+	public static void main(String[] args) {
+		Random random = new Random(0);
+		Reference reference = new Reference();
+		Matrix4f packed = new Matrix4f();
+
+		for (int n : COUNTS) {
+			InstanceArray instances = new InstanceArray(16);
+			for (int i = 0; i < n; i++) {
+				instances.add();
+			}
+
+			// time repacking everything, as when every instance moves each frame
+			long best = Long.MAX_VALUE;
+			for (int r = 0; r < REPEATS; r++) {
+				for (int i = 0; i < n; i++) {
+					instances.setPosition(i, random.nextFloat() * 10, random.nextFloat() * 10, random.nextFloat() * 10);
+					instances.setAngle(i, random.nextFloat() * 6, random.nextFloat() * 6, random.nextFloat() * 6);
+					instances.setScale(i, 0.5f + random.nextFloat());
+				}
+				long start = System.nanoTime();
+				instances.pack();
+				best = Math.min(best, System.nanoTime() - start);
+			}
+
+			// check against the one-object-at-a-time path
+			float maxError = 0;
+			for (int i = 0; i < n; i++) {
+				reference.setPosition(instances.getPosition(i, new Vector3f()));
+				reference.setAngle(instances.getAngle(i, new Vector3f()));
+				reference.setScale(instances.getScale(i));
+
+				instances.getModelMatrix(i, packed);
+				Matrix4f expected = reference.getModelMatrix();
+				for (int c = 0; c < 4; c++) {
+					for (int row = 0; row < 4; row++) {
+						maxError = Math.max(maxError, Math.abs(packed.get(c, row) - expected.get(c, row)));
+					}
+				}
+			}
+
+			Checks.check(String.format("%d instances: pack %.2f ms (%.1f ns/instance), %d bytes, max error %g",
+					n, best / 1e6, (double) best / n, n * InstanceArray.INSTANCE_SIZE * 4, maxError),
+					maxError <= EPSILON);
+		}
+		Checks.finish();
+	}
+
+}
@@ -0,0 +1,165 @@
+package comp3170.demos.trefoil.benchmarks;
+
+import java.util.Random;
+
+import org.joml.Matrix4f;
+
+import comp3170.demos.trefoil.sceneobjects.LODSelector;
+
+/**
+ * Checks LODSelector's choice of level without a GL context.
+ *
+ * Sweeps the screen scale up and then down across every threshold, and checks
+ * that the level only changes where the projected error crosses the budget on
+ * the way up, and (1 - hysteresis) of the budget on the way down. Then jitters
+ * the scale around a threshold, as a slowly moving camera would, and checks that
+ * the level does not flip back and forth. Also checks that errors which do not
+ * increase are rejected, and pixelsPerUnit() for the demo's cameras.
+ */
+
+public class LODBenchmark {
+
+	private static final float[] ERRORS = { 0.01f, 0.02f, 0.04f, 0.08f };
+	private static final float BUDGET = 1;			// pixels
+	private static final float HYSTERESIS = 0.2f;
+	private static final float STEP = 0.01f;		// pixels per unit
+	private static final float MAX_SCALE = 200;		// pixels per unit
+	private static final int JITTER_FRAMES = 10000;
+
+	// as in TrefoilDemo
+	private static final float CAMERA_DISTANCE = 3;
+	private static final float CAMERA_HEIGHT = 8;
+	private static final float CAMERA_NEAR = 1;
+	private static final float CAMERA_FAR = 10;
+	private static final float CAMERA_FOVY = (float) Math.PI / 3;
+	private static final float VIEWPORT_HEIGHT = 800;
+
+	public static void main(String[] args) {
+		checkSweep();
+		checkJitter();
+		checkArguments();
+		checkPixelsPerUnit();
+		Checks.finish();
+	}
+
+	private static void checkSweep() {
+		System.out.println("sweep:");
+		LODSelector selector = new LODSelector(ERRORS, BUDGET, HYSTERESIS);
+		int coarsest = ERRORS.length - 1;
+		selector.select(STEP);
+		Checks.check("far away, coarsest level", selector.getLevel() == coarsest);
+
+		// closer: each level is left just after its error reaches the budget
+		int n = Math.round(MAX_SCALE / STEP);
+		int changes = 0;
+		int misplaced = 0;
+		int level = selector.getLevel();
+		for (int i = 1; i <= n; i++) {
+			float scale = i * STEP;
+			int next = selector.select(scale);
+			if (next != level) {
+				changes++;
+				float threshold = BUDGET / ERRORS[level];
+				if (next != level - 1 || scale <= threshold || scale > threshold + STEP) {
+					misplaced++;
+				}
+				level = next;
+			}
+		}
+		Checks.check(String.format("closer: %d changes, %d misplaced, ending at level %d", changes, misplaced, level),
+				changes == coarsest && misplaced == 0 && level == 0);
+
+		// further: each coarser level is taken once its error is under (1 - hysteresis) of the budget
+		changes = 0;
+		misplaced = 0;
+		for (int i = n; i >= 1; i--) {
+			float scale = i * STEP;
+			int next = selector.select(scale);
+			if (next != level) {
+				changes++;
+				float threshold = BUDGET * (1 - HYSTERESIS) / ERRORS[level + 1];
+				if (next != level + 1 || scale > threshold || scale <= threshold - STEP) {
+					misplaced++;
+				}
+				level = next;
+			}
+		}
+		Checks.check(String.format("further: %d changes, %d misplaced, ending at level %d", changes, misplaced, level),
+				changes == coarsest && misplaced == 0 && level == coarsest);
+
+		// a big jump moves several levels at once
+		selector.select(MAX_SCALE);
+		Checks.check("jump close, finest level", selector.getLevel() == 0);
+	}
+
+	private static void checkJitter() {
+		System.out.println("jitter:");
+		LODSelector selector = new LODSelector(ERRORS, BUDGET, HYSTERESIS);
+
+		// up to 5% either side of the threshold between levels 1 and 2, inside the hysteresis band
+		float threshold = BUDGET / ERRORS[2];
+		Random random = new Random(0);
+		selector.select(threshold * 0.95f);
+		int level = selector.getLevel();
+		int changes = 0;
+		for (int frame = 0; frame < JITTER_FRAMES; frame++) {
+			float scale = threshold * (0.95f + 0.1f * random.nextFloat());
+			int next = selector.select(scale);
+			if (next != level) {
+				changes++;
+				level = next;
+			}
+		}
+		Checks.check(String.format("%d frames within 5%% of a threshold: %d changes", JITTER_FRAMES, changes),
+				changes <= 1);
+
+		// without hysteresis the same jitter flips the level every few frames
+		LODSelector noHysteresis = new LODSelector(ERRORS, BUDGET, 0);
+		random.setSeed(0);
+		level = noHysteresis.select(threshold * 0.95f);
+		int flips = 0;
+		for (int frame = 0; frame < JITTER_FRAMES; frame++) {
+			int next = noHysteresis.select(threshold * (0.95f + 0.1f * random.nextFloat()));
+			if (next != level) {
+				flips++;
+				level = next;
+			}
+		}
+		System.out.printf("  (%d changes without hysteresis)\n", flips);
+	}
+
+	private static void checkArguments() {
+		System.out.println("arguments:");
+		boolean rejected = false;
+		try {
+			new LODSelector(new float[] { 0.01f, 0.04f, 0.02f }, BUDGET, HYSTERESIS);
+		} catch (IllegalArgumentException e) {
+			rejected = true;
+		}
+		Checks.check("decreasing errors rejected", rejected);
+
+		LODSelector single = new LODSelector(new float[] { 0.01f }, BUDGET, HYSTERESIS);
+		Checks.check("a single level is always chosen", single.select(STEP) == 0 && single.select(MAX_SCALE) == 0);
+	}
+
+	private static void checkPixelsPerUnit() {
+		System.out.println("pixelsPerUnit:");
+		Matrix4f ortho = new Matrix4f().setOrtho(
+				-CAMERA_HEIGHT/2, CAMERA_HEIGHT/2, -CAMERA_HEIGHT/2, CAMERA_HEIGHT/2, CAMERA_NEAR, CAMERA_FAR);
+		float orthoScale = LODSelector.pixelsPerUnit(ortho, CAMERA_DISTANCE, VIEWPORT_HEIGHT);
+		Checks.check(String.format("orthographic: %.2f, the same at any distance", orthoScale),
+				Math.abs(orthoScale - VIEWPORT_HEIGHT / CAMERA_HEIGHT) < 1e-3f
+				&& orthoScale == LODSelector.pixelsPerUnit(ortho, 2 * CAMERA_DISTANCE, VIEWPORT_HEIGHT));
+
+		Matrix4f perspective = new Matrix4f().setPerspective(CAMERA_FOVY, 1, CAMERA_NEAR, CAMERA_FAR);
+		float perspectiveScale = LODSelector.pixelsPerUnit(perspective, CAMERA_DISTANCE, VIEWPORT_HEIGHT);
+		float expected = VIEWPORT_HEIGHT / 2 / (CAMERA_DISTANCE * (float) Math.tan(CAMERA_FOVY / 2));
+		Checks.check(String.format("perspective: %.2f at distance %.0f (expected %.2f), halved at twice the distance",
+				perspectiveScale, CAMERA_DISTANCE, expected),
+				Math.abs(perspectiveScale - expected) < 1e-2f
+				&& Math.abs(LODSelector.pixelsPerUnit(perspective, 2 * CAMERA_DISTANCE, VIEWPORT_HEIGHT) - expected / 2) < 1e-2f);
+		Checks.check("behind the camera, finest level",
+				LODSelector.pixelsPerUnit(perspective, -1, VIEWPORT_HEIGHT) == Float.POSITIVE_INFINITY);
+	}
+
+}
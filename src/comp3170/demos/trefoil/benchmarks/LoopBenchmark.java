@@ -0,0 +1,125 @@
+package comp3170.demos.trefoil.benchmarks;
+
+import java.util.Random;
+
+import comp3170.demos.trefoil.loop.Simulation;
+import comp3170.demos.trefoil.loop.SimulationLoop;
+
+/**
+ * Runs SimulationLoop with a simulation that counts time, and samples it as a
+ * renderer would: at 60 fps, with random stalls, and as fast as possible.
+ *
+ * Checks that the simulation keeps its fixed rate while the sampler stalls, that
+ * sampled values never go backwards, and that no sample mixes two different steps.
+ * When the sampler is throttled, sampled values must also stay within
+ * MAX_ERROR_STEPS steps of real time minus one step, once the first step has run,
+ * allowing for the simulation thread being scheduled late. Unthrottled, the sampler competes with the simulation
+ * for the CPU, steps are dropped, and the error is only reported. Reports the
+ * frame time jitter and step timing.
+ */
+
+public class LoopBenchmark {
+
+	private static final float STEPS_PER_SECOND = 120;
+	private static final double SECONDS = 2;
+	private static final long FRAME_NANOS = 16_666_667;
+	private static final long MAX_STALL_NANOS = 50_000_000;
+	private static final int MAX_ERROR_STEPS = 3;
+
+	// fast steps with a large state, to make overwrites during sample() likely
+	private static final float FAST_STEPS_PER_SECOND = 20_000;
+	private static final int LARGE_STATE = 4096;
+
+	/**
+	 * A clock: every value in the state is the simulated time, negated in odd
+	 * places, so a sample mixing two steps shows up as a mismatch.
+	 */
+	private static class Clock implements Simulation {
+		private final int size;
+		private double time = 0;
+
+		Clock(int size) {
+			this.size = size;
+		}
+
+		@Override
+		public int getStateSize() {
+			return size;
+		}
+
+		@Override
+		public void step(float deltaTime) {
+			time += deltaTime;
+		}
+
+		@Override
+		public void save(float[] state) {
+			for (int i = 0; i < size; i++) {
+				state[i] = (i % 2 == 0 ? (float) time : -(float) time);
+			}
+		}
+	}
+
+	public static void main(String[] args) throws InterruptedException {
+		run("60 fps", STEPS_PER_SECOND, 2, false, false);
+		run("60 fps, stalls", STEPS_PER_SECOND, 2, true, false);
+		run("unthrottled", FAST_STEPS_PER_SECOND, LARGE_STATE, false, true);
+		Checks.finish();
+	}
+
+	private static void run(String name, float stepsPerSecond, int stateSize, boolean stalls, boolean unthrottled)
+			throws InterruptedException {
+		Random random = new Random(0);
+		SimulationLoop loop = new SimulationLoop(new Clock(stateSize), stepsPerSecond);
+		float[] state = new float[stateSize];
+
+		long start = System.nanoTime();
+		loop.start();
+
+		float last = 0;
+		int backwards = 0;
+		int torn = 0;
+		double maxError = 0;
+		long frames = 0;
+		long end = start + (long) (SECONDS * 1e9);
+		for (long now = System.nanoTime(); now < end; now = System.nanoTime()) {
+			loop.sample(now, state);
+			frames++;
+
+			if (state[0] < last) {
+				backwards++;
+			}
+			last = state[0];
+			for (int i = 1; i < stateSize; i++) {
+				if (state[i] != (i % 2 == 0 ? state[0] : -state[0])) {
+					torn++;
+					break;
+				}
+			}
+
+			// the sample should be one step behind real time, once the simulation thread is running
+			if (loop.getStepCount() > 0) {
+				double expected = (now - start) / 1e9 - loop.getDeltaTime();
+				maxError = Math.max(maxError, Math.abs(state[0] - Math.max(0, expected)));
+			}
+
+			if (!unthrottled) {
+				long wait = FRAME_NANOS + (stalls ? (long) (random.nextDouble() * MAX_STALL_NANOS) : 0);
+				Thread.sleep(wait / 1_000_000, (int) (wait % 1_000_000));
+			}
+		}
+		double elapsed = (System.nanoTime() - start) / 1e9;
+		loop.stop();
+
+		long expectedSteps = (long) (elapsed * stepsPerSecond);
+		System.out.printf("%-16s %d frames, %d steps (%d expected), %d dropped, %d retries\n",
+				name, frames, loop.getStepCount(), expectedSteps, loop.getDroppedSteps(), loop.getSampleRetries());
+		System.out.printf("  frame times:  %s\n", loop.getFrameStats());
+		System.out.printf("  step times:   %s\n", loop.getStepStats());
+		System.out.printf("  step delays:  %s\n", loop.getLateStats());
+		Checks.check(String.format("max error %.2f ms%s, %d backwards, %d torn", maxError * 1000,
+				unthrottled ? " (not checked)" : "", backwards, torn),
+				backwards == 0 && torn == 0 && (unthrottled || maxError <= MAX_ERROR_STEPS * loop.getDeltaTime()));
+	}
+
+}
@@ -0,0 +1,46 @@
+package comp3170.demos.trefoil.benchmarks;
+
+import comp3170.demos.trefoil.mesh.IndexFormat;
+import comp3170.demos.trefoil.mesh.Mesh;
+import comp3170.demos.trefoil.mesh.VertexFormat;
+import comp3170.demos.trefoil.sceneobjects.CrossSection;
+import comp3170.demos.trefoil.sceneobjects.TubeSweep;
+import comp3170.demos.trefoil.sceneobjects.curves.TrefoilCurve;
+
+/**
+ * Reports the GPU memory used by trefoil meshes in the FULL and COMPACT vertex
+ * formats, with the index format chosen automatically from the vertex count.
+ */
+
+public class MeshSizeReport {
+
+	private static final int[] SLICES = { 25, 100, 1000, 8191, 8192, 100000 };
+
+	public static void main(String[] args) {
+		TubeSweep sweep = new TubeSweep(new TrefoilCurve(), CrossSection.square());
+		sweep.setScale(0.15f);
+
+		System.out.printf("%8s %10s %8s %12s %12s %12s %12s %8s\n", 
+				"slices", "vertices", "indices", "index bytes", "full bytes", "compact", "total", "saving");
+
+		for (int nSlices : SLICES) {
+			Mesh mesh = sweep.createMesh(nSlices);
+
+			IndexFormat indexFormat = mesh.getIndexFormat();
+			long indexBytes = (long) mesh.getIndexCount() * indexFormat.getByteSize();
+			long intIndexBytes = (long) mesh.getIndexCount() * IndexFormat.UNSIGNED_INT.getByteSize();
+			long fullBytes = VertexFormat.FULL.getByteSize(mesh);
+			long compactBytes = VertexFormat.COMPACT.getByteSize(mesh);
+
+			// compared with the old layout: float vec4/vec4/vec3/vec2 and int indices
+			long before = fullBytes + intIndexBytes;
+			long after = compactBytes + indexBytes;
+
+			System.out.printf("%8d %10d %8s %12d %12d %12d %12d %7.1f%%\n", 
+					nSlices, mesh.getVertexCount(), 
+					indexFormat == IndexFormat.UNSIGNED_SHORT ? "short" : "int", 
+					indexBytes, fullBytes, compactBytes, after, 100f * (before - after) / before);
+		}
+	}
+
+}
@@ -0,0 +1,139 @@
+package comp3170.demos.trefoil.benchmarks;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import org.joml.Vector3f;
+
+import comp3170.demos.trefoil.mesh.Bounds;
+import comp3170.demos.trefoil.mesh.Mesh;
+import comp3170.demos.trefoil.mesh.VertexCacheOptimiser;
+import comp3170.demos.trefoil.sceneobjects.CrossSection;
+import comp3170.demos.trefoil.sceneobjects.MeshPicker;
+import comp3170.demos.trefoil.sceneobjects.PickResult;
+import comp3170.demos.trefoil.sceneobjects.TubeSweep;
+import comp3170.demos.trefoil.sceneobjects.curves.TrefoilCurve;
+
+/**
+ * Times picking a triangle on trefoil meshes of 10k to 1M triangles, with the
+ * triangle BVH and with a linear scan of every triangle. Rays are fired down
+ * the z axis at random points over the knot, like mouse clicks on the demo's
+ * orthographic view.
+ *
+ * With a square cross section, a 1M triangle knot is made of long thin slivers
+ * whose boxes overlap heavily, so a ray meets many more boxes than with a
+ * rounder cross section and squarer triangles. The last case shows this.
+ *
+ * The meshes are vertex cache optimised, as in the demo. Each BVH result is
+ * checked against the linear scan, and the slice and face reported are checked
+ * against the original layout from TubeSweep.createIndices().
+ *
+ * No GL context is needed.
+ */
+
+public class PickingBenchmark {
+
+	// slices and cross section edges for each case
+	private static final int[][] CASES = {
+		{ 1250, 4 }, { 12500, 4 }, { 125000, 4 }, { 15625, 32 },
+	};
+	private static final int RAYS = 10000;
+	private static final int LINEAR_RAYS = 100;
+
+	public static void main(String[] args) {
+		for (int[] c : CASES) {
+			int nSlices = c[0];
+			int nSections = c[1];
+			CrossSection crossSection = (nSections == 4 ? CrossSection.square() : CrossSection.regularPolygon(nSections));
+			TubeSweep sweep = new TubeSweep(new TrefoilCurve(), crossSection);
+			sweep.setScale(0.15f);
+
+			Mesh mesh = sweep.createMesh(nSlices);
+			int[] order = VertexCacheOptimiser.optimise(mesh.getIndices(), mesh.getVertexCount());
+			int[] original = TubeSweep.createIndices(nSlices, nSections);
+
+			long start = System.nanoTime();
+			MeshPicker picker = new MeshPicker(mesh, order);
+			double buildMs = (System.nanoTime() - start) / 1e6;
+			System.out.printf("%d triangles (%d slices x %d edges): build %.1f ms\n", picker.getTriangleCount(), nSlices, nSections, buildMs);
+
+			Bounds bounds = mesh.getBounds();
+			Vector3f min = bounds.getMin(new Vector3f());
+			Vector3f max = bounds.getMax(new Vector3f());
+			Random random = new Random(nSlices);
+			Vector3f[] origins = new Vector3f[RAYS];
+			for (int k = 0; k < RAYS; k++) {
+				origins[k] = new Vector3f(
+						min.x + random.nextFloat() * (max.x - min.x),
+						min.y + random.nextFloat() * (max.y - min.y),
+						max.z + 1);
+			}
+			Vector3f direction = new Vector3f(0, 0, -1);
+
+			// warm up
+			PickResult result = new PickResult();
+			for (int k = 0; k < RAYS; k++) {
+				picker.pick(origins[k], direction, result);
+			}
+
+			int hits = 0;
+			start = System.nanoTime();
+			for (int k = 0; k < RAYS; k++) {
+				if (picker.pick(origins[k], direction, result) != null) {
+					hits++;
+				}
+			}
+			double bvhUs = (System.nanoTime() - start) / 1e3 / RAYS;
+
+			int mismatches = 0;
+			int badFaces = 0;
+			long linearTime = 0;
+			int[] indices = mesh.getIndices();
+			for (int k = 0; k < LINEAR_RAYS; k++) {
+				start = System.nanoTime();
+				int linear = picker.pickLinear(origins[k], direction);
+				linearTime += System.nanoTime() - start;
+
+				PickResult pick = picker.pick(origins[k], direction, result);
+				int expected = (linear < 0 ? -1 : order[linear]);
+				if ((pick == null ? -1 : pick.getTriangle()) != expected) {
+					mismatches++;
+				}
+				if (linear >= 0 && !sameTriangle(indices, linear, original, expected)) {
+					badFaces++;
+				}
+			}
+			double linearUs = linearTime / 1e3 / LINEAR_RAYS;
+
+			Checks.check(String.format("%d rays, %d hits: BVH %.2f us/pick, linear %.1f us/pick (%.0fx), %d mismatches, %d bad faces",
+					RAYS, hits, bvhUs, linearUs, linearUs / bvhUs, mismatches, badFaces),
+					mismatches == 0 && badFaces == 0);
+
+			for (int k = 0; k < RAYS; k++) {
+				if (picker.pick(origins[k], direction, result) != null) {
+					int t = result.getTriangle();
+					Vector3f barycentric = result.getBarycentric(new Vector3f());
+					System.out.printf("  e.g. triangle %d: slice %d of %d, face %d, barycentric (%.3f, %.3f, %.3f), distance %.3f\n",
+							t, TubeSweep.getSlice(t, nSections), nSlices, TubeSweep.getFace(t, nSections),
+							barycentric.x, barycentric.y, barycentric.z, result.getDistance());
+					break;
+				}
+			}
+			System.out.println();
+		}
+		Checks.finish();
+	}
+
+	/**
+	 * Check that triangle a of one index array uses the same vertices as
+	 * triangle b of another.
+	 */
+	private static boolean sameTriangle(int[] indicesA, int a, int[] indicesB, int b) {
+		int[] va = Arrays.copyOfRange(indicesA, 3 * a, 3 * a + 3);
+		int[] vb = Arrays.copyOfRange(indicesB, 3 * b, 3 * b + 3);
+		Arrays.sort(va);
+		Arrays.sort(vb);
+		return Arrays.equals(va, vb);
+	}
+
+}
@@ -0,0 +1,221 @@
+package comp3170.demos.trefoil.benchmarks;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+
+import javax.imageio.ImageIO;
+
+import org.joml.Matrix4f;
+import org.joml.Vector3f;
+import org.joml.Vector4f;
+
+import comp3170.demos.trefoil.mesh.Mesh;
+import comp3170.demos.trefoil.mesh.MeshBuilder;
+import comp3170.demos.trefoil.renderer.Framebuffer;
+import comp3170.demos.trefoil.renderer.Material;
+import comp3170.demos.trefoil.renderer.SoftwareRenderer;
+import comp3170.demos.trefoil.sceneobjects.Axes;
+import comp3170.demos.trefoil.sceneobjects.SceneGraph;
+import comp3170.demos.trefoil.sceneobjects.SceneObject;
+import comp3170.demos.trefoil.sceneobjects.TransformStore;
+import comp3170.demos.trefoil.sceneobjects.Trefoil;
+
+/**
+ * Renders the demo's scene with SoftwareRenderer, without a GPU.
+ *
+ * First checks the rasterizer on simple cases: two triangles sharing an edge
+ * cover each pixel exactly once, the nearer of two overlapping triangles wins
+ * the depth test, and back faces are culled. Then times frames of the trefoil in
+ * wireframe (as the demo draws it) and diffuse shaded, with the tiles rasterized
+ * serially and in parallel, and checks both give the same image.
+ *
+ * Run from the project directory, so the textures can be found. With an argument,
+ * the frames are also written to that directory as PNGs.
+ */
+
+public class RenderBenchmark {
+
+	private static final int WIDTH = 800;
+	private static final int HEIGHT = 800;
+	private static final int WARM_UP_FRAMES = 10;
+	private static final int FRAMES = 20;
+
+	private static final float CAMERA_DISTANCE = 3;
+	private static final float CAMERA_SIZE = 8;
+	private static final float CAMERA_NEAR = 1;
+	private static final float CAMERA_FAR = 10;
+
+	public static void main(String[] args) throws IOException {
+		File outputDirectory = (args.length > 0 ? new File(args[0]) : null);
+
+		checkRasterizer();
+		System.out.println();
+
+		System.out.printf("%d x %d, %d processors, %d x %d tiles\n", WIDTH, HEIGHT,
+				Runtime.getRuntime().availableProcessors(), SoftwareRenderer.TILE_SIZE, SoftwareRenderer.TILE_SIZE);
+
+		TransformStore transforms = new TransformStore(3);
+		Trefoil trefoil = new Trefoil(transforms);
+		SceneObject root = new SceneObject(transforms);
+		root.addChild(trefoil);
+		trefoil.addChild(new Axes(transforms));
+		SceneGraph scene = new SceneGraph(root);
+		trefoil.setAngle(0.3f, 0.5f, 0);
+
+		Matrix4f viewMatrix = new Matrix4f().translate(0, 0, CAMERA_DISTANCE).invert();
+		Matrix4f orthographic = new Matrix4f().setOrtho(-CAMERA_SIZE / 2, CAMERA_SIZE / 2,
+				-CAMERA_SIZE / 2, CAMERA_SIZE / 2, CAMERA_NEAR, CAMERA_FAR);
+		Matrix4f perspective = new Matrix4f().setPerspective((float) Math.PI / 3, 1, CAMERA_NEAR, CAMERA_FAR);
+
+		Material wireframe = trefoil.getMaterial();
+		Material diffuse = new Material("wood.jpg");
+
+		Object[][] cases = {
+			{ "wireframe", wireframe, orthographic },
+			{ "diffuse", diffuse, orthographic },
+			{ "diffuse-perspective", diffuse, perspective },
+		};
+
+		for (Object[] c : cases) {
+			String name = (String) c[0];
+			trefoil.setMaterial((Material) c[1]);
+			Matrix4f projectionMatrix = (Matrix4f) c[2];
+
+			int[][] images = new int[2][];
+			for (int p = 0; p < 2; p++) {
+				boolean parallel = (p == 1);
+				SoftwareRenderer renderer = createRenderer(WIDTH, HEIGHT);
+				renderer.setParallel(parallel);
+
+				for (int f = 0; f < WARM_UP_FRAMES; f++) {
+					render(renderer, scene, trefoil, viewMatrix, projectionMatrix);
+				}
+
+				long start = System.nanoTime();
+				for (int f = 0; f < FRAMES; f++) {
+					render(renderer, scene, trefoil, viewMatrix, projectionMatrix);
+				}
+				double ms = (System.nanoTime() - start) / 1e6 / FRAMES;
+
+				images[p] = renderer.getFramebuffer().getPixels(new int[WIDTH * HEIGHT]);
+				System.out.printf("%-20s %-8s %8.2f ms/frame  %6d primitives, %6d culled, %7d pixels drawn, checksum %08x\n",
+						name, parallel ? "parallel" : "serial", ms, renderer.getPrimitiveCount(),
+						renderer.getCulledCount(), countDrawn(images[p]), Arrays.hashCode(images[p]));
+
+				if (parallel && outputDirectory != null) {
+					outputDirectory.mkdirs();
+					File file = new File(outputDirectory, name + ".png");
+					ImageIO.write(renderer.getFramebuffer().toImage(), "png", file);
+					System.out.println("  wrote " + file);
+				}
+			}
+			Checks.check("serial and parallel images match", Arrays.equals(images[0], images[1]));
+		}
+		Checks.finish();
+	}
+
+	private static SoftwareRenderer createRenderer(int width, int height) {
+		SoftwareRenderer renderer = new SoftwareRenderer(new Framebuffer(width, height));
+		renderer.setClearColour(0, 0, 0, 1);
+		renderer.setDepthTest(true);
+		renderer.setCullFace(true);
+		renderer.setLighting(new Vector3f(0.1f, 0.1f, 0.1f), new Vector3f(1, 1, 1), new Vector4f(0, 1, 0, 0));
+		return renderer;
+	}
+
+	private static void render(SoftwareRenderer renderer, SceneGraph scene, Trefoil trefoil,
+			Matrix4f viewMatrix, Matrix4f projectionMatrix) {
+		scene.update();
+		trefoil.selectLOD(viewMatrix, projectionMatrix, HEIGHT);
+		renderer.beginFrame();
+		scene.draw(renderer, viewMatrix, projectionMatrix);
+		renderer.endFrame();
+	}
+
+	private static int countDrawn(int[] pixels) {
+		int drawn = 0;
+		for (int argb : pixels) {
+			if (argb != 0xff000000) {
+				drawn++;
+			}
+		}
+		return drawn;
+	}
+
+	/**
+	 * Small scenes in NDC (identity matrices) with known answers
+	 */
+	private static void checkRasterizer() {
+		Matrix4f identity = new Matrix4f();
+		int size = 100;
+
+		// a square of two triangles sharing a diagonal
+		MeshBuilder builder = new MeshBuilder(4);
+		builder.setPosition(0, -0.5f, -0.5f, 0);
+		builder.setPosition(1, 0.5f, -0.5f, 0);
+		builder.setPosition(2, 0.5f, 0.5f, 0);
+		builder.setPosition(3, -0.5f, 0.5f, 0);
+		Mesh square = builder.build(new int[] { 0, 1, 2, 2, 3, 0 });
+
+		Material red = new Material();
+		red.setColour(1, 0, 0);
+		Material green = new Material();
+		green.setColour(0, 1, 0);
+
+		// drawn one at a time, the pixels of the two triangles should add up to
+		// the square, with none on the diagonal drawn twice or missed
+		SoftwareRenderer renderer = createRenderer(size, size);
+		int covered = 0;
+		for (int t = 0; t < 2; t++) {
+			renderer.beginFrame();
+			renderer.draw(square, SoftwareRenderer.Primitive.TRIANGLES, 3 * t, 3, identity, identity, identity, red);
+			renderer.endFrame();
+			covered += countColour(renderer, 0xffff0000);
+		}
+		Checks.check(String.format("shared edge: %d pixels covered, expected %d", covered, size * size / 4),
+				covered == size * size / 4);
+
+		// depth: the green square in front of the red one, drawn second then first.
+		// The red square sticks out to the right.
+		Matrix4f near = new Matrix4f().translation(0, 0, -0.5f);
+		Matrix4f far = new Matrix4f().translation(0.25f, 0, 0.5f);
+		boolean ok = true;
+		for (int order = 0; order < 2; order++) {
+			renderer.beginFrame();
+			if (order == 0) {
+				renderer.draw(square, far, identity, identity, red);
+				renderer.draw(square, near, identity, identity, green);
+			}
+			else {
+				renderer.draw(square, near, identity, identity, green);
+				renderer.draw(square, far, identity, identity, red);
+			}
+			renderer.endFrame();
+			ok &= renderer.getFramebuffer().getPixel(size / 2, size / 2) == 0xff00ff00;
+			ok &= renderer.getFramebuffer().getPixel(size * 8 / 10, size / 2) == 0xffff0000;
+		}
+		Checks.check("depth test: nearer square in front in both orders", ok);
+
+		// back face: the square turned over is culled
+		Matrix4f flipped = new Matrix4f().scaling(-1, 1, 1);
+		renderer.beginFrame();
+		renderer.draw(square, flipped, identity, identity, red);
+		renderer.endFrame();
+		int drawn = size * size - countColour(renderer, 0xff000000);
+		Checks.check(String.format("back-face culling: %d pixels drawn, %d triangles culled", drawn, renderer.getCulledCount()),
+				drawn == 0 && renderer.getCulledCount() == 2);
+	}
+
+	private static int countColour(SoftwareRenderer renderer, int argb) {
+		int[] pixels = renderer.getFramebuffer().getPixels(new int[renderer.getFramebuffer().getWidth() * renderer.getFramebuffer().getHeight()]);
+		int n = 0;
+		for (int p : pixels) {
+			if (p == argb) {
+				n++;
+			}
+		}
+		return n;
+	}
+
+}
@@ -0,0 +1,219 @@
+package comp3170.demos.trefoil.benchmarks;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import org.joml.Matrix4f;
+
+import comp3170.demos.trefoil.mesh.Mesh;
+import comp3170.demos.trefoil.mesh.MeshBuilder;
+import comp3170.demos.trefoil.renderer.Material;
+import comp3170.demos.trefoil.renderer.RenderQueue;
+import comp3170.demos.trefoil.renderer.Renderer;
+
+/**
+ * Sorts and submits a RenderQueue of many draws with mixed meshes, textures,
+ * shadings and depths, and some Commands, to a fake backend that counts state
+ * changes, without a GL context.
+ *
+ * Checks that the sorted keys are in order, that draws with equal keys keep the
+ * order they were queued in, and that every packet is drawn with the state it
+ * asked for, including packets after a Command, which may change any state.
+ * Compares the state changes needed in queued and sorted order, and times the
+ * radix sort against Arrays.sort() on the keys alone. Checks that clear() hands
+ * out texture and mesh ids from the start again.
+ */
+
+public class RenderQueueBenchmark {
+
+	private static final int PACKETS = 100_000;
+	private static final int MESHES = 50;
+	private static final String[] TEXTURES = { "wood.jpg", "wood2.jpg", "stone.jpg", "metal.jpg" };
+	private static final int REPEATS = 20;
+	private static final int COMMAND_INTERVAL = 1000;		// packets
+
+	/**
+	 * Tracks the bound state, and checks each draw against its packet
+	 */
+	private static class CountingBackend implements RenderQueue.Backend {
+		Material.Shading shading;
+		String texture;
+		Mesh mesh;
+		boolean wireframe;
+		int changes = 0;
+		int draws = 0;
+		int commands = 0;
+		int wrongState = 0;
+
+		@Override
+		public void bindShading(Material.Shading shading) {
+			this.shading = shading;
+			changes++;
+		}
+
+		@Override
+		public void bindTexture(String texture) {
+			this.texture = texture;
+			changes++;
+		}
+
+		@Override
+		public void bindMesh(Mesh mesh, Material.Shading shading) {
+			this.mesh = mesh;
+			changes++;
+		}
+
+		@Override
+		public void setWireframe(boolean wireframe) {
+			this.wireframe = wireframe;
+			changes++;
+		}
+
+		@Override
+		public void draw(RenderQueue queue, int packet) {
+			Material material = queue.getMaterial(packet);
+			if (material.getShading() != shading || queue.getMesh(packet) != mesh || material.isWireframe() != wireframe
+					|| (material.getTexture() != null && !material.getTexture().equals(texture))) {
+				wrongState++;
+			}
+			draws++;
+		}
+
+		@Override
+		public void drawCommand(RenderQueue queue, int packet) {
+			if (wireframe) {
+				wrongState++;
+			}
+			// as if the command bound its own shader and vertex array
+			shading = null;
+			mesh = null;
+			texture = null;
+			commands++;
+			draws++;
+		}
+	}
+
+	public static void main(String[] args) {
+		Random random = new Random(0);
+
+		Mesh[] meshes = new Mesh[MESHES];
+		for (int i = 0; i < MESHES; i++) {
+			MeshBuilder builder = new MeshBuilder(3);
+			builder.setPosition(0, 0, 0, 0);
+			builder.setPosition(1, 1, 0, 0);
+			builder.setPosition(2, 0, 1, 0);
+			meshes[i] = builder.build(new int[] { 0, 1, 2 });
+		}
+
+		Material[] materials = new Material[2 * (TEXTURES.length + 1)];
+		for (int i = 0; i < materials.length; i++) {
+			int t = i / 2;
+			materials[i] = (t < TEXTURES.length ? new Material(TEXTURES[t]) : new Material());
+			materials[i].setWireframe(i % 2 == 1);
+		}
+
+		// scene objects in scene graph order: each mesh with one material, at many positions
+		RenderQueue queue = new RenderQueue();
+		Matrix4f viewMatrix = new Matrix4f().translation(0, 0, -5);
+		Matrix4f projectionMatrix = new Matrix4f().setPerspective(1, 1, 0.1f, 100);
+		Matrix4f modelMatrix = new Matrix4f();
+		RenderQueue.Command command = (view, projection) -> {};
+		int nCommands = 0;
+		for (int p = 0; p < PACKETS; p++) {
+			int object = random.nextInt(MESHES * 4);
+			modelMatrix.translation(random.nextFloat() * 10 - 5, random.nextFloat() * 10 - 5, -random.nextFloat() * 50);
+			if (p % COMMAND_INTERVAL == 0) {
+				queue.add(command, meshes[object % MESHES], modelMatrix, viewMatrix, projectionMatrix);
+				nCommands++;
+			}
+			else {
+				queue.add(meshes[object % MESHES], Renderer.Primitive.TRIANGLES, 0, 3,
+						modelMatrix, viewMatrix, projectionMatrix, materials[object % materials.length]);
+			}
+		}
+
+		// state changes in the order the draws were queued, as GLRenderer used to make them
+		CountingBackend naive = new CountingBackend();
+		Material.Shading shading = null;
+		String texture = null;
+		Mesh mesh = null;
+		Boolean wireframe = null;
+		for (int p = 0; p < queue.size(); p++) {
+			Material material = queue.getMaterial(p);
+			if (material == null) {
+				// a command: everything needs binding again after it
+				shading = null;
+				texture = null;
+				mesh = null;
+				continue;
+			}
+			if (material.getShading() != shading) {
+				naive.bindShading(shading = material.getShading());
+			}
+			if (material.getTexture() != null && !material.getTexture().equals(texture)) {
+				naive.bindTexture(texture = material.getTexture());
+			}
+			if (queue.getMesh(p) != mesh) {
+				naive.bindMesh(mesh = queue.getMesh(p), shading);
+			}
+			if (wireframe == null || material.isWireframe() != wireframe) {
+				naive.setWireframe(wireframe = material.isWireframe());
+			}
+		}
+
+		CountingBackend sorted = new CountingBackend();
+		queue.submit(sorted);
+
+		// sorted, and stable, with commands after the filled draws and before wireframe
+		int outOfOrder = 0;
+		for (int i = 1; i < queue.size(); i++) {
+			int p0 = queue.getSorted(i - 1);
+			int p1 = queue.getSorted(i);
+			int c = Long.compareUnsigned(queue.getKey(p0), queue.getKey(p1));
+			if (c > 0 || (c == 0 && p0 > p1)) {
+				outOfOrder++;
+			}
+			if (queue.getCommand(p0) != null && queue.getCommand(p1) == null && !queue.getMaterial(p1).isWireframe()) {
+				outOfOrder++;
+			}
+		}
+
+		System.out.printf("%d draws (%d commands), %d meshes, %d materials\n", PACKETS, nCommands, MESHES, materials.length);
+		Checks.check(String.format("%d out of order, %d drawn with the wrong state", outOfOrder, sorted.wrongState),
+				outOfOrder == 0 && sorted.wrongState == 0 && sorted.draws == PACKETS
+				&& sorted.commands == nCommands && queue.getCommandCount() == nCommands);
+		System.out.printf("  state changes: %d in queued order (skipping repeats), %d sorted; %d every draw\n",
+				naive.changes, sorted.changes, sorted.changes + queue.getBindsSaved());
+		System.out.println("  " + queue);
+
+		// time the sort
+		long[] keys = new long[queue.size()];
+		for (int i = 0; i < keys.length; i++) {
+			keys[i] = queue.getKey(i);
+		}
+		double radix = Double.MAX_VALUE;
+		double reference = Double.MAX_VALUE;
+		int passes = 0;
+		for (int r = 0; r < REPEATS; r++) {
+			long start = System.nanoTime();
+			passes = queue.sort();
+			radix = Math.min(radix, (System.nanoTime() - start) / 1e6);
+
+			long[] copy = keys.clone();
+			start = System.nanoTime();
+			Arrays.sort(copy);
+			reference = Math.min(reference, (System.nanoTime() - start) / 1e6);
+		}
+		System.out.printf("  radix sort (keys and packet order, %d passes): %.2f ms, Arrays.sort (keys only): %.2f ms\n",
+				passes, radix, reference);
+
+		// the next frame starts from id 0, whatever was queued before
+		queue.clear();
+		modelMatrix.identity();
+		queue.add(meshes[MESHES - 1], Renderer.Primitive.TRIANGLES, 0, 3, modelMatrix, viewMatrix, projectionMatrix, materials[0]);
+		long expected = RenderQueue.makeKey(false, materials[0].getShading(), 1, 0, 5);
+		Checks.check("ids reset by clear()", queue.getKey(0) == expected);
+		Checks.finish();
+	}
+
+}
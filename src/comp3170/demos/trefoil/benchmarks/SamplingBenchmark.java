@@ -0,0 +1,71 @@
+package comp3170.demos.trefoil.benchmarks;
+
+import org.joml.Vector3f;
+
+import comp3170.demos.trefoil.sceneobjects.AdaptiveSampler;
+import comp3170.demos.trefoil.sceneobjects.CrossSection;
+import comp3170.demos.trefoil.sceneobjects.TubeSweep;
+import comp3170.demos.trefoil.sceneobjects.curves.CatmullRomCurve;
+import comp3170.demos.trefoil.sceneobjects.curves.Curve;
+import comp3170.demos.trefoil.sceneobjects.curves.LissajousCurve;
+import comp3170.demos.trefoil.sceneobjects.curves.TorusKnotCurve;
+import comp3170.demos.trefoil.sceneobjects.curves.TrefoilCurve;
+
+/**
+ * Reports how many slices (and vertices) adaptive sampling needs to meet a 
+ * given error tolerance, compared with the smallest uniform sampling that 
+ * meets the same tolerance.
+ */
+
+public class SamplingBenchmark {
+
+	private static final float CROSS_SECTION_SCALE = 0.15f;
+	private static final float[] PIXEL_ERRORS = { 2f, 1f, 0.5f, 0.25f };
+	private static final float VIEWPORT_HEIGHT = 800;
+	private static final float VIEW_HEIGHT = 8;
+	private static final int MAX_SLICES = 1000000;
+
+	public static void main(String[] args) {
+		Curve[] curves = new Curve[] {
+			new TrefoilCurve(),
+			new TorusKnotCurve(2, 5),
+			new LissajousCurve(3, 2, 5),
+			new CatmullRomCurve(new Vector3f[] {
+				new Vector3f(-1, -1, 0),
+				new Vector3f( 1, -1, 0.5f),
+				new Vector3f( 1,  1, 0),
+				new Vector3f(-1,  1, -0.5f),
+			}),
+		};
+
+		CrossSection crossSection = CrossSection.square();
+		float radius = CROSS_SECTION_SCALE * crossSection.getRadius();
+		int verticesPerSlice = 2 * crossSection.size();
+
+		System.out.printf("%-16s %8s %10s %10s %12s %12s %8s\n", 
+				"curve", "pixels", "tolerance", "uniform", "adaptive", "max error", "saving");
+
+		for (Curve curve : curves) {
+			TubeSweep sweep = new TubeSweep(curve, crossSection);
+			AdaptiveSampler sampler = new AdaptiveSampler(curve, radius);
+			sampler.setMaxSlices(MAX_SLICES);
+
+			for (float pixels : PIXEL_ERRORS) {
+				float tolerance = AdaptiveSampler.toleranceForScreen(pixels, VIEWPORT_HEIGHT, VIEW_HEIGHT);
+				sampler.setTolerance(tolerance);
+
+				float[] ts = sampler.sample();
+				int adaptive = ts.length - 1;
+				int uniform = sampler.uniformSlicesNeeded(sweep);
+
+				int adaptiveVertices = (adaptive + 1) * verticesPerSlice;
+				int uniformVertices = (uniform + 1) * verticesPerSlice;
+
+				System.out.printf("%-16s %8.2f %10.5f %10d %12d %12.5f %7.1f%%\n", 
+						curve.getClass().getSimpleName(), pixels, tolerance, uniform, adaptive, 
+						sampler.maxError(ts), 100f * (uniformVertices - adaptiveVertices) / uniformVertices);
+			}
+		}
+	}
+
+}
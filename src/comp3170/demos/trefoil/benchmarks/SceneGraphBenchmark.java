@@ -0,0 +1,112 @@
+package comp3170.demos.trefoil.benchmarks;
+
+import java.util.Random;
+
+import org.joml.Matrix4f;
+
+import comp3170.demos.trefoil.sceneobjects.SceneGraph;
+import comp3170.demos.trefoil.sceneobjects.SceneObject;
+import comp3170.demos.trefoil.sceneobjects.TransformStore;
+
+/**
+ * Times scene graph updates for a large assembly (a root with many groups, each
+ * with many children), when moving one leaf, one group, the root, or every leaf.
+ *
+ * Also checks the world matrices against a recursive parent * local calculation.
+ * Runs without a GL context.
+ */
+
+public class SceneGraphBenchmark {
+
+	private static final int GROUPS = 1000;
+	private static final int CHILDREN = 100;
+	private static final int FRAMES = 20;
+	private static final float EPSILON = 1e-4f;
+
+	public static void main(String[] args) {
+		Random random = new Random(0);
+		TransformStore transforms = new TransformStore(GROUPS * (CHILDREN + 1) + 1);
+
+		SceneObject root = new SceneObject(transforms);
+		SceneObject[] groups = new SceneObject[GROUPS];
+		SceneObject[] leaves = new SceneObject[GROUPS * CHILDREN];
+		for (int g = 0; g < GROUPS; g++) {
+			groups[g] = new SceneObject(transforms);
+			groups[g].setPosition(random.nextFloat() * 100, 0, random.nextFloat() * 100);
+			groups[g].setAngle(0, random.nextFloat() * 6, 0);
+			root.addChild(groups[g]);
+
+			for (int c = 0; c < CHILDREN; c++) {
+				SceneObject leaf = new SceneObject(transforms);
+				leaf.setPosition(random.nextFloat(), random.nextFloat(), random.nextFloat());
+				leaf.setAngle(random.nextFloat(), random.nextFloat(), random.nextFloat());
+				leaf.setScale(0.5f + random.nextFloat());
+				groups[g].addChild(leaf);
+				leaves[g * CHILDREN + c] = leaf;
+			}
+		}
+
+		SceneGraph graph = new SceneGraph(root);
+		long start = System.nanoTime();
+		graph.update();
+		System.out.printf("%d nodes, first update (flatten and compute all): %.2f ms\n",
+				graph.size(), (System.nanoTime() - start) / 1e6);
+
+		time("one leaf moved", graph, () -> leaves[random.nextInt(leaves.length)].setPosition(1, 2, 3));
+		time("one group moved", graph, () -> groups[random.nextInt(GROUPS)].setPosition(random.nextFloat(), 0, 0));
+		time("root moved", graph, () -> root.setPosition(random.nextFloat(), 0, 0));
+		time("every leaf moved", graph, () -> {
+			for (SceneObject leaf : leaves) {
+				leaf.setPosition(random.nextFloat(), random.nextFloat(), random.nextFloat());
+			}
+		});
+
+		check(graph, root, new Matrix4f());
+		Checks.finish();
+	}
+
+	private static void time(String name, SceneGraph graph, Runnable change) {
+		long best = Long.MAX_VALUE;
+		int updated = 0;
+		for (int f = 0; f < FRAMES; f++) {
+			change.run();
+			long start = System.nanoTime();
+			updated = graph.update();
+			best = Math.min(best, System.nanoTime() - start);
+		}
+		System.out.printf("  %s: %d world matrices recomputed, %.3f ms\n", name, updated, best / 1e6);
+	}
+
+	private static void check(SceneGraph graph, SceneObject root, Matrix4f parentWorld) {
+		float maxError = 0;
+		Matrix4f expected = new Matrix4f();
+		Matrix4f actual = new Matrix4f();
+		Matrix4f local = new Matrix4f();
+
+		// the graph is flattened depth first, so each node's parent has a lower index
+		Matrix4f[] worlds = new Matrix4f[graph.size()];
+		for (int k = 0; k < graph.size(); k++) {
+			SceneObject node = graph.getNode(k);
+			node.getTransforms().getMatrix(node.getTransformIndex(), local);
+
+			int p = -1;
+			for (int q = k - 1; q >= 0; q--) {
+				if (graph.getNode(q) == node.getParent()) {
+					p = q;
+					break;
+				}
+			}
+			expected.set(p < 0 ? parentWorld : worlds[p]).mul(local);
+			worlds[k] = new Matrix4f(expected);
+
+			graph.getWorldMatrix(k, actual);
+			for (int c = 0; c < 4; c++) {
+				for (int r = 0; r < 4; r++) {
+					maxError = Math.max(maxError, Math.abs(expected.get(c, r) - actual.get(c, r)));
+				}
+			}
+		}
+		Checks.check(String.format("max difference from recursive calculation: %g", maxError), maxError <= EPSILON);
+	}
+
+}
@@ -0,0 +1,192 @@
+package comp3170.demos.trefoil.benchmarks;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+
+import comp3170.demos.trefoil.shaders.ProgramBinaryCache;
+import comp3170.demos.trefoil.shaders.ProgramKey;
+import comp3170.demos.trefoil.shaders.ShaderLibrary;
+import comp3170.demos.trefoil.shaders.ShaderPreprocessor;
+
+/**
+ * Checks the parts of ShaderLibrary's program building that need no GL context:
+ * the preprocessor, the binary cache keys and the binary cache files.
+ *
+ * Checks #include expansion, #line numbering, define insertion and the errors
+ * for cycles, missing files and bad defines on small made-up sources, and that
+ * the repo's own shaders expand unchanged. Checks that cache keys change with
+ * each input, and that a saved binary loads back while a damaged file is
+ * ignored. Then times preloading the shaders folder, and expanding and keying
+ * many variants, as a startup with a warm binary cache would.
+ */
+
+public class ShaderCacheBenchmark {
+
+	private static final int VARIANTS = 256;
+	private static final String[] FEATURES = { "INSTANCED", "TEXTURED", "FOG", "SKINNED", "SHADOWS", "MAX_LIGHTS 4" };
+
+	private static boolean throwsIOException(ShaderPreprocessor.Sources sources, String name, List<String> defines) {
+		try {
+			ShaderPreprocessor.process(name, sources, defines);
+			return false;
+		} catch (IOException e) {
+			return true;
+		}
+	}
+
+	public static void main(String[] args) throws IOException {
+		checkPreprocessor();
+		checkKeys();
+		checkCacheFiles();
+		timeStartup();
+		Checks.finish();
+	}
+
+	private static void checkPreprocessor() throws IOException {
+		System.out.println("preprocessor:");
+		Map<String, String> files = new HashMap<String, String>();
+		files.put("main.glsl", "#version 410\n#include \"common.glsl\"\nvoid main() {}\n");
+		files.put("common.glsl", "#include \"consts.glsl\"\nfloat f() { return PI; }");
+		files.put("consts.glsl", "const float PI = 3.14159;\n");
+		files.put("loop.glsl", "#include \"loop2.glsl\"\n");
+		files.put("loop2.glsl", "#include \"loop.glsl\"\n");
+		ShaderPreprocessor.Sources sources = files::get;
+
+		String expanded = ShaderPreprocessor.process("main.glsl", sources, List.of("INSTANCED", "MAX_LIGHTS 4"));
+		String expected = "#version 410\n"
+				+ "#define INSTANCED\n"
+				+ "#define MAX_LIGHTS 4\n"
+				+ "#line 2\n"
+				+ "#line 1\n"
+				+ "#line 1\n"
+				+ "const float PI = 3.14159;\n"
+				+ "#line 2\n"
+				+ "float f() { return PI; }\n"
+				+ "#line 3\n"
+				+ "void main() {}\n";
+		Checks.check("includes expanded, defines after #version, #lines kept", expanded.equals(expected));
+		if (!expanded.equals(expected)) {
+			System.out.println(expanded);
+		}
+
+		Checks.check("include cycle rejected", throwsIOException(sources, "loop.glsl", List.of()));
+		Checks.check("missing include rejected", throwsIOException(sources, "missing.glsl", List.of()));
+		Checks.check("multi-line define rejected", throwsIOException(sources, "main.glsl", List.of("A\n#version 100")));
+
+		File directory = new File("src/comp3170/demos/trefoil/shaders");
+		File[] shaders = directory.listFiles((dir, name) -> name.endsWith(".glsl"));
+		int unchanged = 0;
+		for (File file : shaders) {
+			String source = Files.readString(file.toPath());
+			if (ShaderPreprocessor.process(file.getName(), ShaderLibrary::getSource, List.of()).equals(source.replace("\r\n", "\n"))) {
+				unchanged++;
+			}
+		}
+		Checks.check(String.format("%d of %d repo shaders expand unchanged", unchanged, shaders.length), unchanged == shaders.length);
+	}
+
+	private static void checkKeys() {
+		System.out.println("keys:");
+		String driver = "Vendor | Renderer | 4.1 Driver 1.0";
+		String key = ProgramBinaryCache.key("vertex", "fragment", driver);
+		Checks.check("same inputs, same key", key.equals(ProgramBinaryCache.key("vertex", "fragment", driver)));
+		Checks.check("driver change, new key", !key.equals(ProgramBinaryCache.key("vertex", "fragment", driver + ".1")));
+		Checks.check("source change, new key", !key.equals(ProgramBinaryCache.key("vertex ", "fragment", driver))
+				&& !key.equals(ProgramBinaryCache.key("vertex", "fragment ", driver)));
+		Checks.check("sources swapped or split differently, new key",
+				!key.equals(ProgramBinaryCache.key("fragment", "vertex", driver))
+				&& !ProgramBinaryCache.key("ab", "c", driver).equals(ProgramBinaryCache.key("a", "bc", driver)));
+
+		ProgramKey a = new ProgramKey("v.glsl", "f.glsl", "A", "B");
+		Checks.check("program keys compare by value", a.equals(new ProgramKey("v.glsl", "f.glsl", "A", "B"))
+				&& a.hashCode() == new ProgramKey("v.glsl", "f.glsl", "A", "B").hashCode()
+				&& !a.equals(new ProgramKey("v.glsl", "f.glsl", "B", "A"))
+				&& !new ProgramKey("ab", "c").equals(new ProgramKey("a", "bc")));
+
+		// ShaderLibrary's maps used to hash pairs as (h1 + h2) * h2 + h1
+		Set<Integer> hashes = new HashSet<Integer>();
+		String[] names = new File("src/comp3170/demos/trefoil/shaders").list((dir, name) -> name.endsWith(".glsl"));
+		for (String v : names) {
+			for (String f : names) {
+				hashes.add(new ProgramKey(v, f).hashCode());
+			}
+		}
+		Checks.check(String.format("%d distinct hashes for %d pairs", hashes.size(), names.length * names.length),
+				hashes.size() == names.length * names.length);
+	}
+
+	private static void checkCacheFiles() throws IOException {
+		System.out.println("binary cache:");
+		File directory = new File(System.getProperty("java.io.tmpdir"), "trefoil-shader-cache-benchmark");
+		ProgramBinaryCache cache = new ProgramBinaryCache(directory);
+
+		byte[] data = new byte[50_000];
+		new Random(0).nextBytes(data);
+		String key = ProgramBinaryCache.key("v", "f", "driver");
+		cache.save(key, new ProgramBinaryCache.Binary(0x8741, data));
+		ProgramBinaryCache.Binary loaded = new ProgramBinaryCache(directory).load(key);
+		Checks.check("saved binary loads back", loaded != null && loaded.getFormat() == 0x8741
+				&& Arrays.equals(loaded.getData(), data));
+		Checks.check("missing key loads nothing", cache.load(ProgramBinaryCache.key("v", "f", "other driver")) == null);
+
+		try (RandomAccessFile file = new RandomAccessFile(cache.getFile(key), "rw")) {
+			file.setLength(file.length() - 1);
+		}
+		Checks.check("truncated file ignored", cache.load(key) == null);
+
+		try (RandomAccessFile file = new RandomAccessFile(cache.getFile(key), "rw")) {
+			file.writeInt(0);
+		}
+		Checks.check("bad magic ignored", cache.load(key) == null);
+		cache.getFile(key).delete();
+	}
+
+	private static void timeStartup() throws IOException {
+		System.out.println("startup:");
+		long start = System.nanoTime();
+		int n = ShaderLibrary.preload();
+		System.out.printf("  preloaded %d sources in %.2f ms\n", n, (System.nanoTime() - start) / 1e6);
+
+		// every combination of features, over the repo's shading programs
+		String[][] programs = { { "flatVertex.glsl", "flatFragment.glsl" }, { "diffuseVertex.glsl", "diffuseFragment.glsl" },
+				{ "instancedVertex.glsl", "colourFragment.glsl" }, { "textureVertex.glsl", "textureFragment.glsl" } };
+		List<ProgramKey> keys = new ArrayList<ProgramKey>();
+		for (int i = 0; keys.size() < VARIANTS; i++) {
+			String[] program = programs[i % programs.length];
+			int mask = i / programs.length;
+			List<String> defines = new ArrayList<String>();
+			for (int f = 0; f < FEATURES.length; f++) {
+				if ((mask & (1 << f)) != 0) {
+					defines.add(FEATURES[f]);
+				}
+			}
+			keys.add(new ProgramKey(program[0], program[1], defines.toArray(new String[0])));
+		}
+
+		for (int r = 0; r < 3; r++) {
+			start = System.nanoTime();
+			Set<String> cacheKeys = new HashSet<String>();
+			for (ProgramKey key : keys) {
+				String vertex = ShaderPreprocessor.process(key.getVertex(), ShaderLibrary::getSource, key.getDefines());
+				String fragment = ShaderPreprocessor.process(key.getFragment(), ShaderLibrary::getSource, key.getDefines());
+				cacheKeys.add(ProgramBinaryCache.key(vertex, fragment, "driver"));
+			}
+			double ms = (System.nanoTime() - start) / 1e6;
+			if (r == 2) {
+				Checks.check(String.format("%d variants expanded and keyed in %.1f ms (%.3f ms each), %d distinct keys",
+						keys.size(), ms, ms / keys.size(), cacheKeys.size()), cacheKeys.size() == keys.size());
+			}
+		}
+	}
+
+}
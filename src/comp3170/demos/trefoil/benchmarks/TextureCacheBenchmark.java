@@ -0,0 +1,183 @@
+package comp3170.demos.trefoil.benchmarks;
+
+import java.nio.ByteBuffer;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+import comp3170.demos.trefoil.textures.ImageData;
+import comp3170.demos.trefoil.textures.TextureCache;
+import comp3170.demos.trefoil.textures.TextureHandle;
+import comp3170.demos.trefoil.textures.TextureLoader;
+import comp3170.demos.trefoil.textures.TextureUploader;
+
+/**
+ * Checks TextureLoader's cache eviction without image files or a GL context.
+ *
+ * Textures are "decoded" by a fake source that makes a blank image of the size
+ * given in the file name, and "uploaded" by a fake uploader that tracks the live
+ * textures, so the cache's byte count can be checked against what was really
+ * created and deleted.
+ *
+ * Checks least recently used eviction, pinning, shrinking the budget and
+ * reloading an evicted texture, then soaks the cache with a kiosk that cycles
+ * through random sets of textures, checking the budget is kept every frame.
+ */
+
+public class TextureCacheBenchmark {
+
+	private static final int FRAMES = 2000;
+	private static final int KIOSK_TEXTURES = 40;
+	private static final int SET_SIZE = 4;
+	private static final int FRAMES_PER_SET = 20;
+	private static final long KIOSK_BUDGET = 16L << 20;
+
+	/**
+	 * Tracks the textures created and not yet deleted
+	 */
+	private static class FakeUploader implements TextureUploader {
+		final Map<Integer, Long> live = new HashMap<Integer, Long>();
+		long liveBytes = 0;
+		int nextID = 1;
+		int badDeletes = 0;
+
+		@Override
+		public int upload(ImageData image) {
+			long bytes = TextureCache.estimateBytes(image.getWidth(), image.getHeight());
+			live.put(nextID, bytes);
+			liveBytes += bytes;
+			return nextID++;
+		}
+
+		@Override
+		public void delete(int texture) {
+			Long bytes = live.remove(texture);
+			if (bytes == null) {
+				badDeletes++;
+				return;
+			}
+			liveBytes -= bytes;
+		}
+	}
+
+	/**
+	 * "name-size" is a blank size x size image
+	 */
+	private static ImageData blank(String filename) {
+		int size = Integer.parseInt(filename.substring(filename.lastIndexOf('-') + 1));
+		return new ImageData(size, size, ByteBuffer.allocateDirect(size * size * ImageData.BYTES_PER_PIXEL));
+	}
+
+	/**
+	 * Upload everything requested so far
+	 */
+	private static void drain(TextureLoader loader) {
+		while (loader.getPendingCount() > 0) {
+			loader.update(Long.MAX_VALUE);
+			Thread.yield();
+		}
+	}
+
+	public static void main(String[] args) {
+		checkPolicy();
+		checkKiosk();
+		Checks.finish();
+	}
+
+	private static void checkPolicy() {
+		long size = TextureCache.estimateBytes(256, 256);
+		FakeUploader uploader = new FakeUploader();
+		TextureLoader loader = new TextureLoader(2, 3 * size, TextureCacheBenchmark::blank, uploader);
+		TextureCache cache = loader.getCache();
+		System.out.printf("policy: 256 x 256 textures of %d bytes with mipmaps, budget for 3\n", size);
+		// 256^2 + 128^2 + ... + 1 = (4^9 - 1) / 3 texels, and 4 + 2 + 1 texels for 4 x 1
+		Checks.check("size includes mipmaps", size == 4 * ((1 << 18) - 1) / 3 && TextureCache.estimateBytes(4, 1) == 4 * 7);
+
+		TextureHandle a = loader.load("a-256");
+		TextureHandle b = loader.load("b-256");
+		TextureHandle c = loader.load("c-256");
+		drain(loader);
+		loader.load("a-256");	// a is now more recent than b
+		TextureHandle d = loader.load("d-256");
+		drain(loader);
+		Checks.check("least recently used evicted", b.getStatus() == TextureHandle.Status.EVICTED
+				&& a.isLoaded() && c.isLoaded() && d.isLoaded() && cache.getEvictions() == 1);
+		Checks.check("hits and misses counted", cache.getHits() == 1 && cache.getMisses() == 4);
+
+		c.pin();
+		loader.load("e-256");
+		loader.load("f-256");
+		drain(loader);
+		Checks.check("pinned texture kept", c.isLoaded() && a.getStatus() == TextureHandle.Status.EVICTED
+				&& d.getStatus() == TextureHandle.Status.EVICTED);
+
+		cache.setBudget(0);
+		Checks.check("shrinking the budget keeps only pinned", cache.size() == 1 && c.isLoaded()
+				&& uploader.live.size() == 1 && uploader.liveBytes == cache.getBytes());
+
+		cache.setBudget(3 * size);
+		TextureHandle b2 = loader.load("b-256");
+		drain(loader);
+		Checks.check("evicted texture reloads", b2 != b && b2.isLoaded() && b.getStatus() == TextureHandle.Status.EVICTED);
+
+		c.unpin();
+		cache.setBudget(0);
+		Checks.check("unpinned texture evicted", !c.isLoaded() && uploader.live.isEmpty() && cache.getBytes() == 0
+				&& uploader.badDeletes == 0);
+		System.out.println("  " + cache);
+		loader.shutdown();
+	}
+
+	private static void checkKiosk() {
+		Random random = new Random(0);
+		String[] names = new String[KIOSK_TEXTURES];
+		long total = 0;
+		for (int i = 0; i < names.length; i++) {
+			int size = 64 << random.nextInt(5);		// 64 to 1024
+			names[i] = "kiosk" + i + "-" + size;
+			total += TextureCache.estimateBytes(size, size);
+		}
+
+		FakeUploader uploader = new FakeUploader();
+		TextureLoader loader = new TextureLoader(2, KIOSK_BUDGET, TextureCacheBenchmark::blank, uploader);
+		TextureCache cache = loader.getCache();
+		String[] set = new String[SET_SIZE];
+		int overBudget = 0;
+		int mismatches = 0;
+		long maxBytes = 0;
+
+		for (int frame = 0; frame < FRAMES; frame++) {
+			if (frame % FRAMES_PER_SET == 0) {
+				// favour a few popular textures, as a kiosk's home screen would
+				for (int i = 0; i < set.length; i++) {
+					int k = random.nextInt(KIOSK_TEXTURES);
+					set[i] = names[random.nextBoolean() ? k : k % 8];
+				}
+			}
+
+			loader.update(2_000_000);
+			for (String name : set) {
+				loader.load(name);
+			}
+
+			if (cache.getBytes() > cache.getBudget()) {
+				overBudget++;
+			}
+			if (cache.getBytes() != uploader.liveBytes) {
+				mismatches++;
+			}
+			maxBytes = Math.max(maxBytes, uploader.liveBytes);
+			Thread.yield();
+		}
+		drain(loader);
+
+		System.out.printf("kiosk: %d frames over %d textures (%.1f MB in all), budget %.1f MB, peak %.1f MB\n",
+				FRAMES, KIOSK_TEXTURES, total / 1e6, KIOSK_BUDGET / 1e6, maxBytes / 1e6);
+		Checks.check(String.format("over budget in %d frames, cache and uploader differ in %d", overBudget, mismatches),
+				overBudget == 0 && mismatches == 0 && uploader.badDeletes == 0);
+		double hitRate = 100.0 * cache.getHits() / (cache.getHits() + cache.getMisses());
+		System.out.printf("  %s; hit rate %.1f%%\n", cache, hitRate);
+		loader.shutdown();
+	}
+
+}
@@ -0,0 +1,75 @@
+package comp3170.demos.trefoil.benchmarks;
+
+import java.awt.image.BufferedImage;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import comp3170.demos.trefoil.textures.ImageData;
+import comp3170.demos.trefoil.textures.TextureLibrary;
+
+/**
+ * Checks and times the decode half of TextureLoader, which needs no GL context.
+ *
+ * Checks that TextureLibrary.readImageData() gives the same pixels as the image
+ * SoftwareRenderer samples, then times decoding a batch of textures on one
+ * thread, as TextureLibrary.loadTexture() does on the GL thread, and on a pool of
+ * worker threads, as TextureLoader does.
+ */
+
+public class TextureDecodeBenchmark {
+
+	private static final String[] TEXTURES = { "wood.jpg", "wood2.jpg" };
+	private static final int BATCH = 16;
+	private static final int REPEATS = 3;
+
+	public static void main(String[] args) throws Exception {
+		for (String filename : TEXTURES) {
+			ImageData data = TextureLibrary.readImageData(filename);
+			BufferedImage image = TextureLibrary.loadImage(filename);
+			int differ = 0;
+			for (int y = 0; y < image.getHeight(); y++) {
+				for (int x = 0; x < image.getWidth(); x++) {
+					if (data.getRGB(x, y) != image.getRGB(x, y)) {
+						differ++;
+					}
+				}
+			}
+			boolean ok = differ == 0 && data.getWidth() == image.getWidth() && data.getHeight() == image.getHeight();
+			Checks.check(String.format("%s: %d x %d, %d bytes, %d pixels differ", filename, data.getWidth(), data.getHeight(),
+					data.getByteSize(), differ), ok);
+		}
+
+		int threads = Runtime.getRuntime().availableProcessors();
+		ExecutorService pool = Executors.newFixedThreadPool(threads);
+
+		for (int r = 0; r < REPEATS; r++) {
+			long start = System.nanoTime();
+			long bytes = 0;
+			for (int i = 0; i < BATCH; i++) {
+				bytes += TextureLibrary.readImageData(TEXTURES[i % TEXTURES.length]).getByteSize();
+			}
+			double serial = (System.nanoTime() - start) / 1e6;
+
+			start = System.nanoTime();
+			List<Future<ImageData>> futures = new ArrayList<Future<ImageData>>();
+			for (int i = 0; i < BATCH; i++) {
+				String filename = TEXTURES[i % TEXTURES.length];
+				futures.add(pool.submit(() -> TextureLibrary.readImageData(filename)));
+			}
+			for (Future<ImageData> future : futures) {
+				future.get();
+			}
+			double pooled = (System.nanoTime() - start) / 1e6;
+
+			System.out.printf("%d textures (%.1f MB): one thread %.1f ms (%.1f ms each), %d workers %.1f ms\n",
+					BATCH, bytes / 1e6, serial, serial / BATCH, threads, pooled);
+		}
+
+		pool.shutdown();
+		Checks.finish();
+	}
+
+}
@@ -0,0 +1,156 @@
+package comp3170.demos.trefoil.benchmarks;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+
+import comp3170.demos.trefoil.textures.ImageData;
+import comp3170.demos.trefoil.textures.MipmapBuilder;
+import comp3170.demos.trefoil.textures.TextureDiskCache;
+import comp3170.demos.trefoil.textures.TextureLibrary;
+
+/**
+ * Checks and times CPU mipmaps and the texture disk cache.
+ *
+ * Checks that MipmapBuilder averages in linear intensity (a black and white
+ * checkerboard filters to the grey that looks as bright, not to 128), that the
+ * last column of an odd width is not dropped, that its serial and parallel
+ * results match, and that its chain ends at 1 x 1. Then times
+ * a cold read of each texture through TextureDiskCache, which decodes, builds
+ * mipmaps and writes the cache, against a warm read by a new cache, as in a later
+ * run, which maps the file. Checks the warm read has the same pixels, and that a
+ * truncated cache file is rebuilt.
+ */
+
+public class TextureDiskCacheBenchmark {
+
+	private static final String[] TEXTURES = { "wood.jpg", "wood2.jpg" };
+	private static final int REPEATS = 3;
+
+	public static void main(String[] args) throws IOException {
+		checkMipmaps();
+		for (String filename : TEXTURES) {
+			checkCache(filename);
+		}
+		Checks.finish();
+	}
+
+	private static void checkMipmaps() throws IOException {
+		System.out.println("mipmaps:");
+
+		// 4 x 4 checkerboard of black and white pixels
+		ByteBuffer pixels = ByteBuffer.allocateDirect(4 * 4 * ImageData.BYTES_PER_PIXEL);
+		for (int y = 0; y < 4; y++) {
+			for (int x = 0; x < 4; x++) {
+				byte v = (byte) ((x + y) % 2 == 0 ? 0 : 255);
+				pixels.put(v).put(v).put(v).put((byte) 255);
+			}
+		}
+		pixels.flip();
+		ImageData checkerboard = new MipmapBuilder().build(new ImageData(4, 4, pixels));
+		int grey = checkerboard.getLevel(1).getRGB(0, 0) & 0xff;
+		int expected = (int) Math.round(Math.pow(0.5, 1 / 2.2) * 255);
+		Checks.check(String.format("checkerboard filters to %d (expected %d, not 128)", grey, expected),
+				grey == expected && checkerboard.getLevelCount() == 3);
+
+		// 5 x 1 with only the last texel opaque: it makes up 2/5 of the second halved texel
+		pixels = ByteBuffer.allocateDirect(5 * ImageData.BYTES_PER_PIXEL);
+		for (int x = 0; x < 5; x++) {
+			pixels.put((byte) 0).put((byte) 0).put((byte) 0).put((byte) (x == 4 ? 255 : 0));
+		}
+		pixels.flip();
+		ImageData odd = new MipmapBuilder().build(new ImageData(5, 1, pixels)).getLevel(1);
+		int alpha0 = odd.getRGB(0, 0) >>> 24;
+		int alpha1 = odd.getRGB(1, 0) >>> 24;
+		Checks.check(String.format("odd width: 5 -> %d, alpha %d and %d (expected 0 and 102)", odd.getWidth(), alpha0, alpha1),
+				odd.getWidth() == 2 && alpha0 == 0 && alpha1 == 102);
+
+		ImageData base = TextureLibrary.readImageData(TEXTURES[0]);
+		MipmapBuilder builder = new MipmapBuilder();
+		ImageData serial = null;
+		ImageData parallel = null;
+		double serialTime = Double.MAX_VALUE;
+		double parallelTime = Double.MAX_VALUE;
+		for (int r = 0; r < REPEATS; r++) {
+			builder.setParallel(false);
+			long start = System.nanoTime();
+			serial = builder.build(base);
+			serialTime = Math.min(serialTime, (System.nanoTime() - start) / 1e6);
+
+			builder.setParallel(true);
+			start = System.nanoTime();
+			parallel = builder.build(base);
+			parallelTime = Math.min(parallelTime, (System.nanoTime() - start) / 1e6);
+		}
+
+		int levels = serial.getLevelCount();
+		ImageData last = serial.getLevel(levels - 1);
+		Checks.check(String.format("%s: %d levels, %d x %d down to %d x %d", TEXTURES[0], levels,
+				base.getWidth(), base.getHeight(), last.getWidth(), last.getHeight()),
+				levels == MipmapBuilder.levelCount(base.getWidth(), base.getHeight())
+				&& last.getWidth() == 1 && last.getHeight() == 1);
+		Checks.check(String.format("serial %.1f ms, parallel %.1f ms, same pixels", serialTime, parallelTime),
+				samePixels(serial, parallel));
+	}
+
+	private static void checkCache(String filename) throws IOException {
+		File directory = new File(System.getProperty("java.io.tmpdir"), "trefoil-texture-cache-benchmark");
+		File[] old = directory.listFiles();
+		if (old != null) {
+			for (File file : old) {
+				file.delete();
+			}
+		}
+		System.out.println(filename + ":");
+
+		long start = System.nanoTime();
+		TextureLibrary.readImageData(filename);
+		double decode = (System.nanoTime() - start) / 1e6;
+
+		TextureDiskCache cold = new TextureDiskCache(directory);
+		start = System.nanoTime();
+		ImageData built = cold.read(filename);
+		double miss = (System.nanoTime() - start) / 1e6;
+
+		// a new cache, as in the next run
+		double hit = Double.MAX_VALUE;
+		ImageData mapped = null;
+		TextureDiskCache warm = new TextureDiskCache(directory);
+		for (int r = 0; r < REPEATS; r++) {
+			start = System.nanoTime();
+			mapped = warm.read(filename);
+			hit = Math.min(hit, (System.nanoTime() - start) / 1e6);
+		}
+
+		File cached = new File(directory, TextureDiskCache.hash(TextureLibrary.getFile(filename)) + ".mip");
+		System.out.printf("  decode only %.1f ms; cold read (decode, mipmaps, write) %.1f ms; warm read (hash, map) %.2f ms\n",
+				decode, miss, hit);
+		Checks.check(String.format("cache file %.1f MB, %d levels, same pixels", cached.length() / 1e6, mapped.getLevelCount()),
+				cold.getMisses() == 1 && warm.getHits() == REPEATS && warm.getMisses() == 0 && samePixels(built, mapped));
+
+		try (RandomAccessFile file = new RandomAccessFile(cached, "rw")) {
+			file.setLength(file.length() / 2);
+		}
+		TextureDiskCache truncated = new TextureDiskCache(directory);
+		ImageData rebuilt = truncated.read(filename);
+		Checks.check("truncated cache file rebuilt", truncated.getMisses() == 1 && samePixels(built, rebuilt)
+				&& new TextureDiskCache(directory).read(filename) != null);
+	}
+
+	private static boolean samePixels(ImageData a, ImageData b) {
+		if (a.getLevelCount() != b.getLevelCount()) {
+			return false;
+		}
+		for (int i = 0; i < a.getLevelCount(); i++) {
+			ImageData la = a.getLevel(i);
+			ImageData lb = b.getLevel(i);
+			if (la.getWidth() != lb.getWidth() || la.getHeight() != lb.getHeight()
+					|| !la.getPixels().duplicate().clear().equals(lb.getPixels().duplicate().clear())) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+}
@@ -0,0 +1,116 @@
+package comp3170.demos.trefoil.benchmarks;
+
+import java.util.Random;
+
+import org.joml.Matrix4d;
+import org.joml.Matrix4f;
+
+import comp3170.demos.trefoil.sceneobjects.TransformStore;
+
+/**
+ * Times updating the model matrices of many objects per frame: one Matrix4f per
+ * object recomputed every frame (as SceneObject used to do), against a
+ * TransformStore updating only the dirty transforms, serially and in parallel.
+ *
+ * Also checks the store's matrices against the same calculation done in double
+ * precision.
+ */
+
+public class TransformBenchmark {
+
+	private static final int COUNT = 100000;
+	private static final float[] DIRTY_FRACTIONS = { 1, 0.1f, 0.01f };
+	private static final String[] CHANGES = { "angle", "position" };
+	private static final int FRAMES = 50;
+	private static final float EPSILON = 1e-5f;
+
+	public static void main(String[] args) {
+		Random random = new Random(0);
+
+		float[] x = new float[COUNT];
+		float[] y = new float[COUNT];
+		float[] z = new float[COUNT];
+		float[] pitch = new float[COUNT];
+		float[] heading = new float[COUNT];
+		float[] roll = new float[COUNT];
+		float[] scale = new float[COUNT];
+		for (int i = 0; i < COUNT; i++) {
+			x[i] = random.nextFloat() * 100;
+			y[i] = random.nextFloat() * 100;
+			z[i] = random.nextFloat() * 100;
+			pitch[i] = random.nextFloat() * 6;
+			heading[i] = random.nextFloat() * 6;
+			roll[i] = random.nextFloat() * 6;
+			scale[i] = 0.5f + random.nextFloat();
+		}
+
+		// one matrix per object, all recomputed every frame
+		Matrix4f[] matrices = new Matrix4f[COUNT];
+		for (int i = 0; i < COUNT; i++) {
+			matrices[i] = new Matrix4f();
+		}
+		long best = Long.MAX_VALUE;
+		for (int f = 0; f < FRAMES; f++) {
+			long start = System.nanoTime();
+			for (int i = 0; i < COUNT; i++) {
+				Matrix4f m = matrices[i];
+				m.identity();
+				m.translate(x[i], y[i], z[i]);
+				m.rotateY(heading[i]);
+				m.rotateX(pitch[i]);
+				m.rotateZ(roll[i]);
+				m.scale(scale[i]);
+			}
+			best = Math.min(best, System.nanoTime() - start);
+		}
+		System.out.printf("%d objects, Matrix4f per object: %.2f ms\n", COUNT, best / 1e6);
+
+		for (boolean parallel : new boolean[] { false, true }) {
+			TransformStore store = new TransformStore(COUNT);
+			store.setParallel(parallel);
+			for (int i = 0; i < COUNT; i++) {
+				store.add();
+				store.setPosition(i, x[i], y[i], z[i]);
+				store.setAngle(i, pitch[i], heading[i], roll[i]);
+				store.setScale(i, scale[i]);
+			}
+			store.update();
+
+			for (String change : CHANGES) {
+				for (float fraction : DIRTY_FRACTIONS) {
+					int step = Math.round(1 / fraction);
+					best = Long.MAX_VALUE;
+					for (int f = 0; f < FRAMES; f++) {
+						for (int i = f % step; i < COUNT; i += step) {
+							if (change.equals("angle")) {
+								store.setAngle(i, pitch[i], heading[i], roll[i]);
+							}
+							else {
+								store.setPosition(i, x[i], y[i], z[i]);
+							}
+						}
+						long start = System.nanoTime();
+						store.update();
+						best = Math.min(best, System.nanoTime() - start);
+					}
+					System.out.printf("%d objects, TransformStore (%s), %d%% %s changed: %.2f ms\n", COUNT,
+							parallel ? "parallel" : "serial", Math.round(fraction * 100), change, best / 1e6);
+				}
+			}
+
+			float maxError = 0;
+			Matrix4d reference = new Matrix4d();
+			for (int i = 0; i < COUNT; i++) {
+				reference.translation(x[i], y[i], z[i]).rotateY(heading[i]).rotateX(pitch[i]).rotateZ(roll[i]).scale(scale[i]);
+				for (int k = 0; k < TransformStore.MATRIX_SIZE; k++) {
+					float expected = (float) reference.get(k / 4, k % 4);
+					float actual = store.getMatrices().get(i * TransformStore.MATRIX_SIZE + k);
+					maxError = Math.max(maxError, Math.abs(expected - actual));
+				}
+			}
+			Checks.check(String.format("max difference from double precision: %g", maxError), maxError <= EPSILON);
+		}
+		Checks.finish();
+	}
+
+}
@@ -0,0 +1,103 @@
+package comp3170.demos.trefoil.benchmarks;
+
+import java.util.Arrays;
+
+import comp3170.demos.trefoil.mesh.Mesh;
+import comp3170.demos.trefoil.sceneobjects.CrossSection;
+import comp3170.demos.trefoil.sceneobjects.TubeSweep;
+import comp3170.demos.trefoil.sceneobjects.curves.TrefoilCurve;
+
+/**
+ * Measures the CPU cost of TubeSweep.createMesh() against the number of slices
+ * and the number of cross section edges. No GL context is needed.
+ * 
+ * Run as a Java application. Each case is repeated until it has run for at 
+ * least MIN_TIME seconds, after a warm-up pass to let the JIT settle.
+ *
+ * First checks that serial and parallel generation give bit-identical positions,
+ * normals, UVs and indices.
+ *
+ * Cases too big for the heap (at about BYTES_PER_VERTEX while a mesh is being
+ * built) are skipped. All of them fit with -Xmx10g.
+ */
+
+public class TubeBenchmark {
+
+	private static final int[] SLICES = { 100, 1000, 10000, 100000, 1000000 };
+	private static final int[] SECTIONS = { 4, 8, 16, 32 };
+	private static final int[] CHECKED_SLICES = { 100, 5000, 100000 };
+	private static final double MIN_TIME = 0.5;
+	private static final long BYTES_PER_VERTEX = 150;
+
+	public static void main(String[] args) {
+		checkParallel();
+		time();
+		Checks.finish();
+	}
+
+	private static TubeSweep createSweep(int nSections) {
+		CrossSection crossSection = (nSections == 4 ? CrossSection.square() : CrossSection.regularPolygon(nSections));
+		TubeSweep sweep = new TubeSweep(new TrefoilCurve(), crossSection);
+		sweep.setScale(0.15f);
+		return sweep;
+	}
+
+	private static void checkParallel() {
+		System.out.println("serial and parallel meshes:");
+		for (int nSections : SECTIONS) {
+			TubeSweep sweep = createSweep(nSections);
+			for (int nSlices : CHECKED_SLICES) {
+				sweep.setParallel(false);
+				Mesh serial = sweep.createMesh(nSlices);
+				sweep.setParallel(true);
+				Mesh parallel = sweep.createMesh(nSlices);
+
+				Checks.check(String.format("%d slices, %d edges: identical", nSlices, nSections),
+						Arrays.equals(serial.getPositions(), parallel.getPositions())
+						&& Arrays.equals(serial.getNormals(), parallel.getNormals())
+						&& Arrays.equals(serial.getUVs(), parallel.getUVs())
+						&& Arrays.equals(serial.getIndices(), parallel.getIndices()));
+			}
+		}
+	}
+
+	private static void time() {
+		System.out.printf("%10s %8s %10s %12s %12s %12s\n", 
+				"slices", "edges", "mode", "vertices", "ms/mesh", "Mvert/s");
+
+		for (int nSections : SECTIONS) {
+			TubeSweep sweep = createSweep(nSections);
+			
+			for (int nSlices : SLICES) {
+				long vertices = 2L * (nSlices + 1) * sweep.getCrossSection().size();
+				if (vertices * BYTES_PER_VERTEX > Runtime.getRuntime().maxMemory()) {
+					System.out.printf("%10d %8d %10s %12d   skipped, needs a bigger heap\n",
+							nSlices, nSections, "", vertices);
+					continue;
+				}
+
+				for (boolean parallel : new boolean[] {false, true}) {
+					sweep.setParallel(parallel);
+					
+					// warm up, without keeping the mesh while the next one is built
+					int vertexCount = sweep.createMesh(nSlices).getVertexCount();
+
+					int runs = 0;
+					long start = System.nanoTime();
+					long elapsed;
+					do {
+						sweep.createMesh(nSlices);
+						runs++;
+						elapsed = System.nanoTime() - start;
+					} while (elapsed < MIN_TIME * 1e9);
+					
+					double ms = elapsed / 1e6 / runs;
+					System.out.printf("%10d %8d %10s %12d %12.3f %12.1f\n", 
+							nSlices, nSections, parallel ? "parallel" : "serial", 
+							vertexCount, ms, vertexCount / ms / 1e3);
+				}
+			}
+		}
+	}
+
+}
@@ -0,0 +1,59 @@
+package comp3170.demos.trefoil.benchmarks;
+
+import comp3170.demos.trefoil.mesh.Mesh;
+import comp3170.demos.trefoil.mesh.MeshWelder;
+import comp3170.demos.trefoil.mesh.VertexCacheOptimiser;
+import comp3170.demos.trefoil.mesh.VertexCacheStats;
+import comp3170.demos.trefoil.sceneobjects.CrossSection;
+import comp3170.demos.trefoil.sceneobjects.TubeSweep;
+import comp3170.demos.trefoil.sceneobjects.curves.TrefoilCurve;
+
+/**
+ * Reports vertex cache statistics (ACMR and ATVR) for trefoil tube meshes, 
+ * before and after welding and vertex cache optimisation.
+ */
+
+public class VertexCacheBenchmark {
+
+	private static final int[] SLICES = { 100, 1000, 100000 };
+	private static final int[] SECTIONS = { 4, 16 };
+	private static final int[] CACHE_SIZES = { 16, 32 };
+
+	public static void main(String[] args) {
+		for (int nSections : SECTIONS) {
+			CrossSection crossSection = (nSections == 4 ? CrossSection.square() : CrossSection.regularPolygon(nSections));
+			TubeSweep sweep = new TubeSweep(new TrefoilCurve(), crossSection);
+			sweep.setScale(0.15f);
+
+			for (int nSlices : SLICES) {
+				Mesh mesh = sweep.createMesh(nSlices);
+				System.out.printf("%d slices, %d edges: %d vertices, %d triangles\n", 
+						nSlices, nSections, mesh.getVertexCount(), mesh.getIndexCount() / 3);
+
+				report("original", mesh);
+				
+				optimise("all attributes", MeshWelder.weld(mesh));
+				optimise("positions only", MeshWelder.weld(mesh, 0));
+				System.out.println();
+			}
+		}
+	}
+
+	private static void optimise(String name, Mesh welded) {
+		System.out.printf("  welded, %s: %d vertices\n", name, welded.getVertexCount());
+		report("welded", welded);
+
+		long start = System.nanoTime();
+		VertexCacheOptimiser.optimise(welded.getIndices(), welded.getVertexCount());
+		long time = System.nanoTime() - start;
+		report(String.format("welded and optimised (%.1f ms)", time / 1e6), welded);
+	}
+
+	private static void report(String name, Mesh mesh) {
+		System.out.printf("  %s\n", name);
+		for (int cacheSize : CACHE_SIZES) {
+			System.out.printf("    %s\n", new VertexCacheStats(mesh.getIndices(), mesh.getVertexCount(), cacheSize));
+		}
+	}
+
+}
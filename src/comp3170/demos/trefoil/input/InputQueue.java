@@ -0,0 +1,126 @@
+package comp3170.demos.trefoil.input;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A lock-free ring buffer of input events, from one producer thread (the AWT
+ * event thread) to one consumer thread (e.g. the render or simulation thread).
+ *
+ * Each event is packed into EVENT_SIZE longs in a preallocated array, so neither
+ * side allocates. The producer publishes an event by advancing the tail after
+ * writing it, and the consumer frees space by advancing the head after reading,
+ * each with a release store the other side reads. The producer caches the
+ * head, and only reads it again when the cached value says the ring is full.
+ *
+ * If the consumer stops draining and the ring fills, new events are dropped and
+ * counted rather than blocking the event thread.
+ */
+
+public class InputQueue {
+
+	public static final int KEY_DOWN = 0;
+	public static final int KEY_UP = 1;
+	public static final int MOUSE_DOWN = 2;
+	public static final int MOUSE_UP = 3;
+	public static final int MOUSE_MOVE = 4;
+
+	// | time | type << 32 | code | x bits << 32 | y bits |
+	private static final int EVENT_SIZE = 3;
+
+	/**
+	 * Receives events drained from a queue
+	 */
+	public interface Handler {
+		/**
+		 * @param time	The System.nanoTime() the event was queued
+		 * @param type	KEY_DOWN, KEY_UP, MOUSE_DOWN, MOUSE_UP or MOUSE_MOVE
+		 * @param code	The keycode, for key events
+		 * @param x		The mouse x position, for mouse events
+		 * @param y		The mouse y position, for mouse events
+		 */
+		public void event(long time, int type, int code, float x, float y);
+	}
+
+	private final long[] events;
+	private final int capacity;
+	private final int mask;
+
+	private final AtomicLong head = new AtomicLong();		// next event to read, written by the consumer
+	private final AtomicLong tail = new AtomicLong();		// next event to write, written by the producer
+	private final AtomicLong dropped = new AtomicLong();	// written by the producer
+
+	private long cachedHead = 0;	// the producer's copy of head
+
+	/**
+	 * @param capacity	The number of events the queue can hold, rounded up to a power of 2
+	 */
+	public InputQueue(int capacity) {
+		if (capacity <= 0 || capacity > 1 << 24) {
+			throw new IllegalArgumentException("Capacity must be in 1..2^24: " + capacity);
+		}
+		int size = 1;
+		while (size < capacity) {
+			size <<= 1;
+		}
+		this.capacity = size;
+		this.mask = size - 1;
+		this.events = new long[size * EVENT_SIZE];
+	}
+
+	public int getCapacity() {
+		return capacity;
+	}
+
+	/**
+	 * Add an event. Must only be called from the producer thread.
+	 *
+	 * @return false if the queue was full and the event was dropped
+	 */
+	public boolean offer(long time, int type, int code, float x, float y) {
+		long t = tail.get();
+		if (t - cachedHead == capacity) {
+			cachedHead = head.get();
+			if (t - cachedHead == capacity) {
+				dropped.lazySet(dropped.get() + 1);
+				return false;
+			}
+		}
+
+		int i = (int) (t & mask) * EVENT_SIZE;
+		events[i] = time;
+		events[i+1] = ((long) type << 32) | (code & 0xffffffffL);
+		events[i+2] = ((long) Float.floatToRawIntBits(x) << 32) | (Float.floatToRawIntBits(y) & 0xffffffffL);
+		tail.lazySet(t + 1);
+		return true;
+	}
+
+	/**
+	 * Pass all queued events to a handler, oldest first. Must only be called from
+	 * the consumer thread.
+	 *
+	 * @return the number of events drained
+	 */
+	public int drain(Handler handler) {
+		long h = head.get();
+		long t = tail.get();
+
+		int n = 0;
+		for (; h != t; h++, n++) {
+			int i = (int) (h & mask) * EVENT_SIZE;
+			long typeCode = events[i+1];
+			long xy = events[i+2];
+			handler.event(events[i], (int) (typeCode >>> 32), (int) typeCode,
+					Float.intBitsToFloat((int) (xy >>> 32)), Float.intBitsToFloat((int) xy));
+		}
+		head.lazySet(h);
+		return n;
+	}
+
+	/**
+	 * @return the number of events dropped because the queue was full
+	 */
+	public long getDroppedCount() {
+		return dropped.get();
+	}
+
+}
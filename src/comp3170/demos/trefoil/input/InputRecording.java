@@ -0,0 +1,119 @@
+package comp3170.demos.trefoil.input;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * A stream of input events, each with the frame it was applied in, recorded by
+ * InputState for replaying later.
+ *
+ * Events are packed into a growable long array, like InputQueue, and can be saved
+ * to and loaded from a file.
+ */
+
+public class InputRecording {
+
+	private static final int MAGIC = 0x54494e50;	// "TINP"
+	private static final int VERSION = 1;
+
+	// | frame | time | type << 32 | code | x bits << 32 | y bits |
+	private static final int EVENT_SIZE = 4;
+
+	private long[] events = new long[256 * EVENT_SIZE];
+	private int size = 0;
+
+	/**
+	 * Add an event. Not thread safe: only the thread polling the recording
+	 * InputState should add to it.
+	 */
+	public void add(long frame, long time, int type, int code, float x, float y) {
+		if ((size + 1) * EVENT_SIZE > events.length) {
+			events = Arrays.copyOf(events, 2 * events.length);
+		}
+
+		int i = size * EVENT_SIZE;
+		events[i] = frame;
+		events[i+1] = time;
+		events[i+2] = ((long) type << 32) | (code & 0xffffffffL);
+		events[i+3] = ((long) Float.floatToRawIntBits(x) << 32) | (Float.floatToRawIntBits(y) & 0xffffffffL);
+		size++;
+	}
+
+	/**
+	 * @return the number of events
+	 */
+	public int size() {
+		return size;
+	}
+
+	public long getFrame(int i) {
+		return events[i * EVENT_SIZE];
+	}
+
+	/**
+	 * @return the System.nanoTime() the event was queued
+	 */
+	public long getTime(int i) {
+		return events[i * EVENT_SIZE + 1];
+	}
+
+	public int getType(int i) {
+		return (int) (events[i * EVENT_SIZE + 2] >>> 32);
+	}
+
+	public int getCode(int i) {
+		return (int) events[i * EVENT_SIZE + 2];
+	}
+
+	public float getX(int i) {
+		return Float.intBitsToFloat((int) (events[i * EVENT_SIZE + 3] >>> 32));
+	}
+
+	public float getY(int i) {
+		return Float.intBitsToFloat((int) events[i * EVENT_SIZE + 3]);
+	}
+
+	public void save(File file) throws IOException {
+		try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file)))) {
+			out.writeInt(MAGIC);
+			out.writeInt(VERSION);
+			out.writeInt(size);
+			for (int i = 0; i < size * EVENT_SIZE; i++) {
+				out.writeLong(events[i]);
+			}
+		}
+	}
+
+	public static InputRecording load(File file) throws IOException {
+		try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+			if (in.readInt() != MAGIC) {
+				throw new IOException(file + " is not an input recording");
+			}
+			int version = in.readInt();
+			if (version != VERSION) {
+				throw new IOException(file + ": unsupported version " + version);
+			}
+
+			int size = in.readInt();
+			if (size < 0) {
+				throw new IOException(file + ": bad event count " + size);
+			}
+
+			InputRecording recording = new InputRecording();
+			recording.events = new long[Math.max(1, size) * EVENT_SIZE];
+			for (int i = 0; i < size * EVENT_SIZE; i++) {
+				recording.events[i] = in.readLong();
+			}
+			recording.size = size;
+			return recording;
+		}
+	}
+
+}
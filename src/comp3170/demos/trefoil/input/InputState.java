@@ -0,0 +1,201 @@
+package comp3170.demos.trefoil.input;
+
+import org.joml.Vector3f;
+
+import comp3170.demos.trefoil.KeyState;
+
+/**
+ * The keyboard and mouse state seen by one consumer thread, updated from an
+ * InputQueue once per frame by poll().
+ *
+ * Keys are held in bitsets indexed by keycode, so reading and updating them
+ * does not allocate. Keycodes of MAX_KEY_CODE and over (Unicode keys on some
+ * layouts) are ignored.
+ *
+ * Each frame:
+ *
+ * 		state.poll();		// apply the events queued since the last frame
+ * 		...					// read the state
+ * 		state.clear();		// clear the pressed and clicked flags
+ *
+ * The events applied can be recorded, and a recording replayed instead of the
+ * queue. Events are recorded against the frame (the count of poll() calls) they
+ * were applied in, so a replay gives the same state in the same frames, which
+ * makes fixed-step simulations reproducible.
+ */
+
+public class InputState implements KeyState, InputQueue.Handler {
+
+	public static final int MAX_KEY_CODE = 0x10000;
+
+	private final InputQueue queue;
+
+	private final long[] keysDown = new long[MAX_KEY_CODE / 64];
+	private final long[] keysPressed = new long[MAX_KEY_CODE / 64];
+	private boolean mouseDown = false;
+	private boolean mouseClicked = false;
+	private float mouseX = 0;
+	private float mouseY = 0;
+
+	private long frame = 0;
+	private InputRecording recording = null;
+	private InputRecording replay = null;
+	private int replayIndex = 0;
+
+	/**
+	 * @param queue	The queue this state is fed from
+	 */
+	public InputState(InputQueue queue) {
+		this.queue = queue;
+	}
+
+	/**
+	 * Apply the events queued since the last call, or the recorded events for this
+	 * frame when replaying. Must only be called from the queue's consumer thread.
+	 *
+	 * @return the number of events applied
+	 */
+	public int poll() {
+		frame++;
+
+		if (replay == null) {
+			return queue.drain(this);
+		}
+
+		// keep the queue empty, but play back the recording instead
+		queue.drain(IGNORE);
+		int n = 0;
+		for (; replayIndex < replay.size() && replay.getFrame(replayIndex) <= frame; replayIndex++, n++) {
+			apply(replay.getType(replayIndex), replay.getCode(replayIndex), replay.getX(replayIndex), replay.getY(replayIndex));
+		}
+		return n;
+	}
+
+	private static final InputQueue.Handler IGNORE = (time, type, code, x, y) -> {};
+
+	@Override
+	public void event(long time, int type, int code, float x, float y) {
+		if (recording != null) {
+			recording.add(frame, time, type, code, x, y);
+		}
+		apply(type, code, x, y);
+	}
+
+	private void apply(int type, int code, float x, float y) {
+		switch (type) {
+		case InputQueue.KEY_DOWN:
+			if (code >= 0 && code < MAX_KEY_CODE) {
+				keysDown[code >>> 6] |= 1L << code;
+				keysPressed[code >>> 6] |= 1L << code;
+			}
+			break;
+
+		case InputQueue.KEY_UP:
+			if (code >= 0 && code < MAX_KEY_CODE) {
+				keysDown[code >>> 6] &= ~(1L << code);
+			}
+			break;
+
+		case InputQueue.MOUSE_DOWN:
+			mouseDown = true;
+			mouseClicked = true;
+			mouseX = x;
+			mouseY = y;
+			break;
+
+		case InputQueue.MOUSE_UP:
+			mouseDown = false;
+			mouseX = x;
+			mouseY = y;
+			break;
+
+		case InputQueue.MOUSE_MOVE:
+			mouseX = x;
+			mouseY = y;
+			break;
+		}
+	}
+
+	/**
+	 * Clear the pressed and clicked flags, at the end of a frame.
+	 */
+	public void clear() {
+		for (int i = 0; i < keysPressed.length; i++) {
+			keysPressed[i] = 0;
+		}
+		mouseClicked = false;
+	}
+
+	/**
+	 * @return the number of calls to poll() so far
+	 */
+	public long getFrame() {
+		return frame;
+	}
+
+	/**
+	 * Start recording the events applied by poll() into a recording, or stop
+	 * recording if it is null.
+	 */
+	public void record(InputRecording recording) {
+		this.recording = recording;
+	}
+
+	/**
+	 * Replay a recording from the start: from now on, poll() applies the events
+	 * recorded for each frame rather than those in the queue. Frames are counted
+	 * from the next poll(), as when the recording was made from a new state.
+	 */
+	public void replay(InputRecording recording) {
+		this.replay = recording;
+		this.replayIndex = 0;
+		this.frame = 0;
+	}
+
+	/**
+	 * @return true while replaying and the recording has events left
+	 */
+	public boolean isReplaying() {
+		return replay != null && replayIndex < replay.size();
+	}
+
+	@Override
+	public boolean isKeyDown(int keyCode) {
+		return keyCode >= 0 && keyCode < MAX_KEY_CODE && (keysDown[keyCode >>> 6] & (1L << keyCode)) != 0;
+	}
+
+	/**
+	 * @return true if the key has been pressed since the last call to clear()
+	 */
+	public boolean wasKeyPressed(int keyCode) {
+		return keyCode >= 0 && keyCode < MAX_KEY_CODE && (keysPressed[keyCode >>> 6] & (1L << keyCode)) != 0;
+	}
+
+	public boolean isMouseDown() {
+		return mouseDown;
+	}
+
+	/**
+	 * @return true if the mouse button has been pressed since the last call to clear()
+	 */
+	public boolean wasMouseClicked() {
+		return mouseClicked;
+	}
+
+	/**
+	 * Write the mouse position in viewport coordinates into dest as a 2D
+	 * homogenous point of the form (x, y, 1)
+	 */
+	public Vector3f getMousePosition(Vector3f dest) {
+		return dest.set(mouseX, mouseY, 1);
+	}
+
+	/**
+	 * Copy the held keys into an array of MAX_KEY_CODE / 64 longs
+	 */
+	public long[] getKeysDown(long[] dest) {
+		System.arraycopy(keysDown, 0, dest, 0, keysDown.length);
+		return dest;
+	}
+
+}
@@ -0,0 +1,31 @@
+package comp3170.demos.trefoil.loop;
+
+/**
+ * Something SimulationLoop steps at a fixed rate.
+ *
+ * The state is saved as a fixed number of floats after each step, and rendering
+ * linearly interpolates between the last two saved states. So the state should
+ * only hold values that can be interpolated that way, such as positions, scales
+ * and unwrapped angles.
+ */
+
+public interface Simulation {
+
+	/**
+	 * @return the number of floats save() writes
+	 */
+	public int getStateSize();
+
+	/**
+	 * Advance the simulation. Called on the simulation thread.
+	 *
+	 * @param deltaTime	The fixed time step in seconds
+	 */
+	public void step(float deltaTime);
+
+	/**
+	 * Write the current state. Called on the simulation thread, after each step.
+	 */
+	public void save(float[] state);
+
+}
@@ -0,0 +1,255 @@
+package comp3170.demos.trefoil.loop;
+
+import java.lang.invoke.VarHandle;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Runs a Simulation at a fixed rate on its own thread, for rendering to sample
+ * at whatever rate it draws.
+ *
+ * Step n simulates the time T0 + n * stepTime, and is run as soon as System.nanoTime()
+ * reaches it, so the simulation does not stall when rendering does, and does not
+ * speed up or slow down with the frame rate. If the thread falls more than
+ * MAX_CATCH_UP steps behind (e.g. while debugging), the missed time is dropped
+ * rather than simulated in a burst.
+ *
+ * Rendering calls sample(), which interpolates between the states saved after the
+ * last two steps, one step behind real time, so motion is smooth even when the
+ * frame rate and step rate don't divide evenly.
+ *
+ * The states are kept in a ring of three slots: the simulation writes step n into
+ * slot n % 3 while rendering reads the two before it. Neither side locks. The
+ * simulation never waits, and sample() checks a sequence number after reading and
+ * tries again in the rare case that the simulation got two steps ahead and
+ * overwrote a slot while it was being read (as in a seqlock).
+ *
+ * 		SimulationLoop loop = new SimulationLoop(simulation, 120);
+ * 		loop.start();
+ * 		...
+ * 		// each frame
+ * 		loop.sample(System.nanoTime(), state);
+ */
+
+public class SimulationLoop {
+
+	private static final int SLOTS = 3;
+	private static final int MAX_CATCH_UP = 10;				// steps
+	private static final long SPIN_NANOS = 200_000;			// spin rather than park for the last 0.2 ms
+	private static final long PUBLISH_INTERVAL = 1_000_000_000L;	// how often step stats are published
+
+	private final Simulation simulation;
+	private final long stepNanos;
+	private final float deltaTime;
+
+	private final float[][] states;
+	private final long[] times;			// the simulated time of each slot, in nanoTime
+	private volatile long started = -1;		// the step being written
+	private volatile long published = -1;	// the last step written
+
+	private Thread thread;
+	private volatile boolean running = false;
+
+	// written by the simulation thread
+	private final TimingStats stepStats = new TimingStats();		// time spent in step() and save()
+	private final TimingStats lateStats = new TimingStats();		// how late each step started
+	private long droppedSteps = 0;
+	private volatile TimingStats publishedStepStats = new TimingStats();
+	private volatile TimingStats publishedLateStats = new TimingStats();
+	private volatile long publishedDroppedSteps = 0;
+
+	// written by the thread calling sample()
+	private final TimingStats frameStats = new TimingStats();		// time between samples
+	private long lastSample = -1;
+	private long retries = 0;
+
+	/**
+	 * @param simulation		The simulation to run
+	 * @param stepsPerSecond	The fixed step rate
+	 */
+	public SimulationLoop(Simulation simulation, float stepsPerSecond) {
+		if (stepsPerSecond <= 0) {
+			throw new IllegalArgumentException("Step rate must be positive: " + stepsPerSecond);
+		}
+
+		this.simulation = simulation;
+		this.stepNanos = Math.round(1e9 / stepsPerSecond);
+		this.deltaTime = stepNanos / 1e9f;
+		this.states = new float[SLOTS][simulation.getStateSize()];
+		this.times = new long[SLOTS];
+	}
+
+	/**
+	 * @return the fixed time step in seconds
+	 */
+	public float getDeltaTime() {
+		return deltaTime;
+	}
+
+	/**
+	 * Save the initial state and start the simulation thread.
+	 */
+	public void start() {
+		if (thread != null) {
+			throw new IllegalStateException("Simulation loop already started");
+		}
+
+		// step 0 is the initial state, and the step before it is the same
+		long now = System.nanoTime();
+		simulation.save(states[0]);
+		times[0] = now;
+		System.arraycopy(states[0], 0, states[SLOTS - 1], 0, states[0].length);
+		times[SLOTS - 1] = now - stepNanos;
+		started = 0;
+		published = 0;
+
+		running = true;
+		thread = new Thread(() -> run(now), "simulation");
+		thread.setDaemon(true);
+		thread.start();
+	}
+
+	/**
+	 * Stop the simulation thread, waiting for the current step to finish.
+	 */
+	public void stop() throws InterruptedException {
+		running = false;
+		if (thread != null) {
+			LockSupport.unpark(thread);
+			thread.join();
+		}
+	}
+
+	private void run(long startTime) {
+		long step = 0;
+		long next = startTime + stepNanos;
+
+		while (running) {
+			long now = System.nanoTime();
+			long wait = next - now;
+			if (wait > SPIN_NANOS) {
+				LockSupport.parkNanos(wait - SPIN_NANOS);
+				continue;
+			}
+			if (wait > 0) {
+				Thread.onSpinWait();
+				continue;
+			}
+
+			lateStats.add(-wait);
+			if (-wait > MAX_CATCH_UP * stepNanos) {
+				// too far behind: skip ahead and carry on from now
+				long skipped = -wait / stepNanos;
+				droppedSteps += skipped;
+				next += skipped * stepNanos;
+			}
+
+			step++;
+			int slot = (int) (step % SLOTS);
+			started = step;
+			VarHandle.storeStoreFence();
+
+			simulation.step(deltaTime);
+			simulation.save(states[slot]);
+			times[slot] = next;
+			published = step;
+
+			stepStats.add(System.nanoTime() - now);
+			next += stepNanos;
+
+			if (stepStats.getCount() % Math.max(1, PUBLISH_INTERVAL / stepNanos) == 0) {
+				publishStats();
+			}
+		}
+		publishStats();
+	}
+
+	private void publishStats() {
+		publishedStepStats = stepStats.copy();
+		publishedLateStats = lateStats.copy();
+		publishedDroppedSteps = droppedSteps;
+	}
+
+	/**
+	 * Interpolate the simulation's state for a frame drawn at the given time.
+	 *
+	 * Must only be called from one thread (normally the render thread).
+	 *
+	 * @param now	The frame time, from System.nanoTime()
+	 * @param dest	An array of at least the simulation's state size
+	 * @return the interpolation parameter used, in [0,1] from the step before last to the last step
+	 */
+	public float sample(long now, float[] dest) {
+		if (published < 0) {
+			throw new IllegalStateException("Simulation loop not started");
+		}
+
+		if (lastSample >= 0) {
+			frameStats.add(now - lastSample);
+		}
+		lastSample = now;
+
+		while (true) {
+			long step = published;
+			float[] previous = states[(int) ((step + SLOTS - 1) % SLOTS)];
+			float[] current = states[(int) (step % SLOTS)];
+			long time = times[(int) (step % SLOTS)];
+
+			// draw the state one step behind now
+			float alpha = Math.min(1, Math.max(0, (float) (now - time) / stepNanos));
+			for (int i = 0; i < dest.length && i < current.length; i++) {
+				dest[i] = previous[i] + alpha * (current[i] - previous[i]);
+			}
+
+			// slot (step - 1) is only overwritten by step + 2
+			VarHandle.loadLoadFence();
+			if (started - step < SLOTS - 1) {
+				return alpha;
+			}
+			retries++;
+		}
+	}
+
+	/**
+	 * @return the time spent running each step, as of about a second ago
+	 */
+	public TimingStats getStepStats() {
+		return publishedStepStats;
+	}
+
+	/**
+	 * @return how late each step started after its scheduled time, as of about a second ago
+	 */
+	public TimingStats getLateStats() {
+		return publishedLateStats;
+	}
+
+	/**
+	 * @return the number of steps skipped because the simulation fell too far behind
+	 */
+	public long getDroppedSteps() {
+		return publishedDroppedSteps;
+	}
+
+	/**
+	 * @return the time between calls to sample(). The standard deviation is the frame time jitter.
+	 * Only valid on the thread calling sample().
+	 */
+	public TimingStats getFrameStats() {
+		return frameStats;
+	}
+
+	/**
+	 * @return the number of times sample() had to read again because a slot was overwritten
+	 */
+	public long getSampleRetries() {
+		return retries;
+	}
+
+	/**
+	 * @return the number of steps run
+	 */
+	public long getStepCount() {
+		return published;
+	}
+
+}
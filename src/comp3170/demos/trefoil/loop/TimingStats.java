@@ -0,0 +1,86 @@
+package comp3170.demos.trefoil.loop;
+
+/**
+ * Count, mean, standard deviation and range of a series of times in nanoseconds.
+ *
+ * Not thread safe: each series is added to by one thread, and handed to others
+ * with copy().
+ */
+
+public class TimingStats {
+
+	private long count = 0;
+	private double sum = 0;
+	private double sumSquares = 0;
+	private long min = Long.MAX_VALUE;
+	private long max = Long.MIN_VALUE;
+
+	public void add(long nanos) {
+		count++;
+		sum += nanos;
+		sumSquares += (double) nanos * nanos;
+		min = Math.min(min, nanos);
+		max = Math.max(max, nanos);
+	}
+
+	public void clear() {
+		count = 0;
+		sum = 0;
+		sumSquares = 0;
+		min = Long.MAX_VALUE;
+		max = Long.MIN_VALUE;
+	}
+
+	public TimingStats copy() {
+		TimingStats copy = new TimingStats();
+		copy.count = count;
+		copy.sum = sum;
+		copy.sumSquares = sumSquares;
+		copy.min = min;
+		copy.max = max;
+		return copy;
+	}
+
+	public long getCount() {
+		return count;
+	}
+
+	/**
+	 * @return the mean in milliseconds
+	 */
+	public double getMean() {
+		return (count == 0 ? 0 : sum / count / 1e6);
+	}
+
+	/**
+	 * @return the standard deviation in milliseconds
+	 */
+	public double getStandardDeviation() {
+		if (count == 0) {
+			return 0;
+		}
+		double mean = sum / count;
+		return Math.sqrt(Math.max(0, sumSquares / count - mean * mean)) / 1e6;
+	}
+
+	/**
+	 * @return the minimum in milliseconds
+	 */
+	public double getMin() {
+		return (count == 0 ? 0 : min / 1e6);
+	}
+
+	/**
+	 * @return the maximum in milliseconds
+	 */
+	public double getMax() {
+		return (count == 0 ? 0 : max / 1e6);
+	}
+
+	@Override
+	public String toString() {
+		return String.format("%d samples, mean %.3f ms, sd %.3f ms, min %.3f ms, max %.3f ms",
+				count, getMean(), getStandardDeviation(), getMin(), getMax());
+	}
+
+}
@@ -0,0 +1,142 @@
+package comp3170.demos.trefoil.mesh;
+
+import java.nio.ByteBuffer;
+
+import com.jogamp.opengl.GL;
+import com.jogamp.opengl.GL3ES3;
+
+/**
+ * How a single vertex attribute is stored in a GL buffer.
+ * 
+ * The quantised formats trade precision for size:
+ * 
+ *		HALF2		2 x 16-bit float (about 3 decimal digits)
+ *		UNORM8x4	4 x 8-bit unsigned normalised, for colours in [0,1]
+ *		SNORM10x3	3 x 10-bit signed normalised + 2 bit w packed into 32 bits, for unit normals
+ *
+ * Normalised formats are expanded back to floats by the GPU, so shaders don't change.
+ */
+
+public enum AttributeFormat {
+	FLOAT4(4, GL.GL_FLOAT, 16, false),
+	FLOAT3(3, GL.GL_FLOAT, 12, false),
+	FLOAT2(2, GL.GL_FLOAT, 8, false),
+	HALF2(2, GL.GL_HALF_FLOAT, 4, false),
+	UNORM8x4(4, GL.GL_UNSIGNED_BYTE, 4, true),
+	SNORM10x3(4, GL3ES3.GL_INT_2_10_10_10_REV, 4, true);
+
+	private final int components;
+	private final int glType;
+	private final int byteSize;
+	private final boolean normalised;
+
+	private AttributeFormat(int components, int glType, int byteSize, boolean normalised) {
+		this.components = components;
+		this.glType = glType;
+		this.byteSize = byteSize;
+		this.normalised = normalised;
+	}
+
+	/**
+	 * @return the number of components, as passed to glVertexAttribPointer
+	 */
+	public int getComponents() {
+		return components;
+	}
+
+	public int getGLType() {
+		return glType;
+	}
+
+	/**
+	 * @return the size of one vertex's attribute in bytes
+	 */
+	public int getByteSize() {
+		return byteSize;
+	}
+
+	public boolean isNormalised() {
+		return normalised;
+	}
+
+	/**
+	 * Convert one vertex's attribute from floats and write it into a buffer.
+	 * Missing components are filled in with 0 (or 1 for alpha).
+	 * 
+	 * @param dest		The buffer to write (in native byte order)
+	 * @param src		The packed float data
+	 * @param offset	The index of the first float
+	 * @param size		The number of floats per vertex in src
+	 */
+	public void put(ByteBuffer dest, float[] src, int offset, int size) {
+		switch (this) {
+		case FLOAT4:
+		case FLOAT3:
+		case FLOAT2:
+			for (int i = 0; i < components; i++) {
+				dest.putFloat(i < size ? src[offset + i] : 0);
+			}
+			break;
+
+		case HALF2:
+			dest.putShort(toHalf(src[offset]));
+			dest.putShort(toHalf(size > 1 ? src[offset+1] : 0));
+			break;
+
+		case UNORM8x4:
+			for (int i = 0; i < 4; i++) {
+				float v = (i < size ? src[offset + i] : 1);
+				dest.put((byte) Math.round(Math.max(0, Math.min(1, v)) * 255));
+			}
+			break;
+
+		case SNORM10x3:
+			int packed = 0;
+			for (int i = 0; i < 3; i++) {
+				float v = (i < size ? src[offset + i] : 0);
+				int q = Math.round(Math.max(-1, Math.min(1, v)) * 511);
+				packed |= (q & 0x3FF) << (10 * i);
+			}
+			float w = (size > 3 ? src[offset + 3] : 0);
+			packed |= (Math.round(Math.max(-1, Math.min(1, w))) & 0x3) << 30;
+			dest.putInt(packed);
+			break;
+		}
+	}
+
+	/**
+	 * Convert a float to IEEE 754 half precision, rounding to nearest.
+	 */
+	static short toHalf(float value) {
+		int bits = Float.floatToIntBits(value);
+		int sign = (bits >>> 16) & 0x8000;
+		int exponent = ((bits >>> 23) & 0xFF) - 127 + 15;
+		int mantissa = bits & 0x7FFFFF;
+
+		if (exponent >= 31) {
+			// overflow, infinity or NaN
+			boolean nan = ((bits >>> 23) & 0xFF) == 0xFF && mantissa != 0;
+			return (short) (sign | 0x7C00 | (nan ? 0x200 : 0));
+		}
+		if (exponent <= 0) {
+			if (exponent < -10) {
+				return (short) sign;	// too small, flush to zero
+			}
+			// subnormal
+			mantissa |= 0x800000;
+			int shift = 14 - exponent;
+			int half = mantissa >> shift;
+			if (((mantissa >> (shift - 1)) & 1) != 0) {
+				half++;
+			}
+			return (short) (sign | half);
+		}
+
+		int half = sign | (exponent << 10) | (mantissa >> 13);
+		if ((mantissa & 0x1000) != 0) {
+			half++;		// round up, carrying into the exponent if need be
+		}
+		return (short) half;
+	}
+
+}
@@ -0,0 +1,152 @@
+package comp3170.demos.trefoil.mesh;
+
+import org.joml.Matrix4fc;
+import org.joml.Vector3f;
+
+/**
+ * An axis-aligned bounding box and a bounding sphere around a set of points,
+ * in model space.
+ *
+ * The sphere is centred on the box, with a radius just large enough to contain
+ * every point, which is usually much tighter than half the box's diagonal.
+ *
+ * No GL context is needed.
+ */
+
+public class Bounds {
+
+	private final Vector3f min = new Vector3f(Float.POSITIVE_INFINITY);
+	private final Vector3f max = new Vector3f(Float.NEGATIVE_INFINITY);
+	private final Vector3f centre = new Vector3f();
+	private float radius = 0;
+
+	/**
+	 * Create empty bounds
+	 */
+	public Bounds() {
+	}
+
+	/**
+	 * Calculate the bounds of packed positions.
+	 *
+	 * @param positions	Position data
+	 * @param stride	The number of floats per position (at least 3)
+	 * @param count		The number of positions
+	 */
+	public Bounds(float[] positions, int stride, int count) {
+		for (int k = 0; k < count; k++) {
+			int i = k * stride;
+			min.x = Math.min(min.x, positions[i]);
+			min.y = Math.min(min.y, positions[i+1]);
+			min.z = Math.min(min.z, positions[i+2]);
+			max.x = Math.max(max.x, positions[i]);
+			max.y = Math.max(max.y, positions[i+1]);
+			max.z = Math.max(max.z, positions[i+2]);
+		}
+
+		if (count > 0) {
+			min.add(max, centre).mul(0.5f);
+
+			float r2 = 0;
+			for (int k = 0; k < count; k++) {
+				int i = k * stride;
+				float dx = positions[i] - centre.x;
+				float dy = positions[i+1] - centre.y;
+				float dz = positions[i+2] - centre.z;
+				r2 = Math.max(r2, dx * dx + dy * dy + dz * dz);
+			}
+			radius = (float) Math.sqrt(r2);
+		}
+	}
+
+	public boolean isEmpty() {
+		return min.x > max.x;
+	}
+
+	public Vector3f getMin(Vector3f dest) {
+		return dest.set(min);
+	}
+
+	public Vector3f getMax(Vector3f dest) {
+		return dest.set(max);
+	}
+
+	public Vector3f getCentre(Vector3f dest) {
+		return dest.set(centre);
+	}
+
+	public float getRadius() {
+		return radius;
+	}
+
+	/**
+	 * Grow these bounds to include another set.
+	 *
+	 * @param other	The bounds to include
+	 * @return this
+	 */
+	public Bounds union(Bounds other) {
+		if (other.isEmpty()) {
+			return this;
+		}
+		if (isEmpty()) {
+			min.set(other.min);
+			max.set(other.max);
+			centre.set(other.centre);
+			radius = other.radius;
+			return this;
+		}
+
+		min.min(other.min);
+		max.max(other.max);
+
+		// the smallest sphere containing both spheres
+		float d = centre.distance(other.centre);
+		if (d + other.radius <= radius) {
+			return this;
+		}
+		if (d + radius <= other.radius) {
+			centre.set(other.centre);
+			radius = other.radius;
+			return this;
+		}
+		float r = (d + radius + other.radius) / 2;
+		centre.lerp(other.centre, (r - radius) / d);
+		radius = r;
+		return this;
+	}
+
+	/**
+	 * Transform the box into another space, e.g. world space. The result is the
+	 * axis-aligned box containing the transformed box.
+	 *
+	 * @param matrix	An affine transformation
+	 * @param destMin	The minimum corner of the result
+	 * @param destMax	The maximum corner of the result
+	 */
+	public void transformBox(Matrix4fc matrix, Vector3f destMin, Vector3f destMax) {
+		matrix.transformAab(min, max, destMin, destMax);
+	}
+
+	/**
+	 * Transform the sphere into another space, e.g. world space.
+	 *
+	 * @param matrix		An affine transformation
+	 * @param destCentre	The centre of the result
+	 * @return the radius of the result (scaled by the largest axis scale)
+	 */
+	public float transformSphere(Matrix4fc matrix, Vector3f destCentre) {
+		matrix.transformPosition(centre, destCentre);
+
+		float sx = matrix.m00() * matrix.m00() + matrix.m01() * matrix.m01() + matrix.m02() * matrix.m02();
+		float sy = matrix.m10() * matrix.m10() + matrix.m11() * matrix.m11() + matrix.m12() * matrix.m12();
+		float sz = matrix.m20() * matrix.m20() + matrix.m21() * matrix.m21() + matrix.m22() * matrix.m22();
+		return radius * (float) Math.sqrt(Math.max(sx, Math.max(sy, sz)));
+	}
+
+	@Override
+	public String toString() {
+		return String.format("Bounds[min=%s, max=%s, centre=%s, radius=%f]", min, max, centre, radius);
+	}
+
+}
@@ -0,0 +1,57 @@
+package comp3170.demos.trefoil.mesh;
+
+import java.nio.ByteBuffer;
+
+import com.jogamp.opengl.GL;
+
+/**
+ * The type of the indices in an index buffer.
+ */
+
+public enum IndexFormat {
+	UNSIGNED_SHORT(GL.GL_UNSIGNED_SHORT, Short.BYTES),
+	UNSIGNED_INT(GL.GL_UNSIGNED_INT, Integer.BYTES);
+
+	private static final int MAX_SHORT_VERTICES = 1 << 16;
+
+	private final int glType;
+	private final int byteSize;
+
+	private IndexFormat(int glType, int byteSize) {
+		this.glType = glType;
+		this.byteSize = byteSize;
+	}
+
+	/**
+	 * Choose the smallest format that can index the given number of vertices.
+	 * 
+	 * @param vertexCount	The number of vertices
+	 * @return UNSIGNED_SHORT if every index fits in 16 bits, otherwise UNSIGNED_INT
+	 */
+	public static IndexFormat forVertexCount(int vertexCount) {
+		return vertexCount <= MAX_SHORT_VERTICES ? UNSIGNED_SHORT : UNSIGNED_INT;
+	}
+
+	/**
+	 * @return the type to pass to glDrawElements
+	 */
+	public int getGLType() {
+		return glType;
+	}
+
+	/**
+	 * @return the size of one index in bytes
+	 */
+	public int getByteSize() {
+		return byteSize;
+	}
+
+	public void put(ByteBuffer dest, int index) {
+		if (this == UNSIGNED_SHORT) {
+			dest.putShort((short) index);
+		}
+		else {
+			dest.putInt(index);
+		}
+	}
+}
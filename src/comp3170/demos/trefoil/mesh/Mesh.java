@@ -0,0 +1,264 @@
+package comp3170.demos.trefoil.mesh;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+import com.jogamp.opengl.GL;
+import com.jogamp.opengl.GL4;
+import com.jogamp.opengl.GLContext;
+
+/**
+ * A mesh built by a MeshBuilder, stored as packed float arrays.
+ *
+ * Calling upload() copies the data into a single interleaved vertex buffer,
+ * converting each attribute to the requested VertexFormat (see VertexLayout).
+ * Indices are stored as 16 bit values whenever the vertex count allows it.
+ * Unless keepData(true) has been called first, the CPU-side arrays are released
+ * once they have been uploaded, so that large meshes don't stay on the heap.
+ *
+ * The bounding box and sphere of the positions are calculated when the mesh is
+ * built, and are kept after the data is released.
+ *
+ * Meshes are usually drawn through a Renderer. GLRenderer uploads a mesh in its
+ * preferred format (see setVertexFormat()) the first time it is drawn, so meshes
+ * can be built without a GL context. SoftwareRenderer draws from the CPU-side
+ * arrays, so they must not have been released.
+ */
+
+public class Mesh {
+
+	public enum Attribute {
+		POSITION(MeshBuilder.POSITION_SIZE, "a_position"),
+		NORMAL(MeshBuilder.NORMAL_SIZE, "a_normal"),
+		COLOUR(MeshBuilder.COLOUR_SIZE, "a_colour"),
+		UV(MeshBuilder.UV_SIZE, "a_texcoord");
+
+		private final int size;
+		private final String shaderName;
+
+		private Attribute(int size, String shaderName) {
+			this.size = size;
+			this.shaderName = shaderName;
+		}
+
+		/**
+		 * @return the name of the matching attribute in the shaders
+		 */
+		public String getShaderName() {
+			return shaderName;
+		}
+
+		/**
+		 * @return the number of floats per vertex in the CPU-side array
+		 */
+		public int getSize() {
+			return size;
+		}
+	}
+
+	private final int vertexCount;
+	private final int indexCount;
+	private final IndexFormat indexFormat;
+	private final Bounds bounds;
+
+	private float[][] data;		// indexed by Attribute.ordinal()
+	private int[] indices;
+
+	private boolean keepData = false;
+	private boolean uploaded = false;
+	private VertexFormat vertexFormat = VertexFormat.FULL;
+
+	private VertexLayout layout;
+	private int vertexBuffer;
+	private int indexBuffer;
+
+	Mesh(int vertexCount, float[] positions, float[] normals, float[] colours, float[] uvs, int[] indices) {
+		this.vertexCount = vertexCount;
+		this.indexCount = indices.length;
+		this.indexFormat = IndexFormat.forVertexCount(vertexCount);
+		this.bounds = new Bounds(positions, Attribute.POSITION.getSize(), vertexCount);
+		this.data = new float[][] { positions, normals, colours, uvs };
+		this.indices = indices;
+	}
+
+	/**
+	 * Set whether the CPU-side arrays are kept after upload.
+	 *
+	 * @param keepData	true to keep the arrays, false to release them (the default)
+	 * @return this mesh
+	 */
+	public Mesh keepData(boolean keepData) {
+		this.keepData = keepData;
+		return this;
+	}
+
+	/**
+	 * Set the format used by upload().
+	 *
+	 * @param format	The format to store each attribute in (FULL by default)
+	 * @return this mesh
+	 */
+	public Mesh setVertexFormat(VertexFormat format) {
+		this.vertexFormat = format;
+		return this;
+	}
+
+	public VertexFormat getVertexFormat() {
+		return vertexFormat;
+	}
+
+	/**
+	 * Copy the mesh data into GL buffers in the format set by setVertexFormat().
+	 * Must be called with a current GL context.
+	 */
+	public void upload() {
+		upload(vertexFormat);
+	}
+
+	/**
+	 * Copy the mesh data into GL buffers in the given format, with the attributes
+	 * of each vertex interleaved in a single buffer.
+	 * Must be called with a current GL context.
+	 *
+	 * @param format	The format to store each attribute in
+	 */
+	public void upload(VertexFormat format) {
+		if (uploaded) {
+			return;
+		}
+
+		this.layout = new VertexLayout(format, this);
+
+		ByteBuffer vertices = allocate(vertexCount * layout.getStride());
+		for (int k = 0; k < vertexCount; k++) {
+			for (VertexLayout.Element element : layout.getElements()) {
+				Attribute attribute = element.getAttribute();
+				element.getFormat().put(vertices, data[attribute.ordinal()], k * attribute.getSize(), attribute.getSize());
+			}
+		}
+		this.vertexBuffer = createBuffer(GL.GL_ARRAY_BUFFER, vertices);
+
+		ByteBuffer buffer = allocate(indexCount * indexFormat.getByteSize());
+		for (int i = 0; i < indexCount; i++) {
+			indexFormat.put(buffer, indices[i]);
+		}
+		this.indexBuffer = createBuffer(GL.GL_ELEMENT_ARRAY_BUFFER, buffer);
+		this.uploaded = true;
+
+		if (!keepData) {
+			data = new float[Attribute.values().length][];
+			indices = null;
+		}
+	}
+
+	private static ByteBuffer allocate(int size) {
+		return ByteBuffer.allocateDirect(size).order(ByteOrder.nativeOrder());
+	}
+
+	private static int createBuffer(int target, ByteBuffer data) {
+		GL4 gl = (GL4) GLContext.getCurrentGL();
+		data.flip();
+
+		int[] buffer = new int[1];
+		gl.glGenBuffers(buffer.length, buffer, 0);
+		gl.glBindBuffer(target, buffer[0]);
+		gl.glBufferData(target, data.limit(), data, GL.GL_STATIC_DRAW);
+		return buffer[0];
+	}
+
+	/**
+	 * @return the number of bytes used on the GPU by the vertex and index buffers
+	 */
+	public long getByteSize() {
+		return getVertexByteSize() + (long) indexCount * indexFormat.getByteSize();
+	}
+
+	private long getVertexByteSize() {
+		return uploaded ? (long) vertexCount * layout.getStride() : 0;
+	}
+
+	public boolean isUploaded() {
+		return uploaded;
+	}
+
+	public boolean hasData() {
+		return data[Attribute.POSITION.ordinal()] != null;
+	}
+
+	/**
+	 * @return true if the mesh has the given attribute
+	 */
+	public boolean hasAttribute(Attribute attribute) {
+		if (layout != null) {
+			for (VertexLayout.Element element : layout.getElements()) {
+				if (element.getAttribute() == attribute) {
+					return true;
+				}
+			}
+		}
+		return data[attribute.ordinal()] != null;
+	}
+
+	public int getVertexCount() {
+		return vertexCount;
+	}
+
+	public int getIndexCount() {
+		return indexCount;
+	}
+
+	public IndexFormat getIndexFormat() {
+		return indexFormat;
+	}
+
+	/**
+	 * @return the bounding box and sphere of the positions, in model space
+	 */
+	public Bounds getBounds() {
+		return bounds;
+	}
+
+	/**
+	 * @return the layout of the interleaved vertex buffer (null before upload)
+	 */
+	public VertexLayout getLayout() {
+		return layout;
+	}
+
+	// CPU-side data (null if released after upload)
+
+	public float[] getData(Attribute attribute) {
+		return data[attribute.ordinal()];
+	}
+
+	public float[] getPositions() {
+		return getData(Attribute.POSITION);
+	}
+
+	public float[] getNormals() {
+		return getData(Attribute.NORMAL);
+	}
+
+	public float[] getColours() {
+		return getData(Attribute.COLOUR);
+	}
+
+	public float[] getUVs() {
+		return getData(Attribute.UV);
+	}
+
+	public int[] getIndices() {
+		return indices;
+	}
+
+	// GL buffers (0 before upload)
+
+	public int getVertexBuffer() {
+		return vertexBuffer;
+	}
+
+	public int getIndexBuffer() {
+		return indexBuffer;
+	}
+
+}
@@ -0,0 +1,177 @@
+package comp3170.demos.trefoil.mesh;
+
+import org.joml.Vector2f;
+import org.joml.Vector3f;
+import org.joml.Vector4f;
+
+/**
+ * Writes vertex attributes straight into packed float arrays, rather than
+ * allocating a Vector object for every vertex.
+ *
+ * Usage:
+ *
+ * Create a builder with the number of vertices and the attributes you need:
+ *
+ *		MeshBuilder builder = new MeshBuilder(nVertices, MeshBuilder.NORMAL | MeshBuilder.UV);
+ *
+ * Write each vertex by index:
+ *
+ *		builder.setPosition(k, p);
+ *		builder.setNormal(k, n);
+ *		builder.setUV(k, u, v);
+ *
+ * Then build the mesh and upload it to the GPU:
+ *
+ *		Mesh mesh = builder.build(indices);
+ *		mesh.upload();
+ *
+ * Positions are always present. Each vertex is written to its own range of the
+ * arrays, so different vertices can safely be written from different threads.
+ */
+
+public class MeshBuilder {
+
+	public static final int NORMAL = 1;
+	public static final int COLOUR = 2;
+	public static final int UV = 4;
+
+	public static final int POSITION_SIZE = 4;	// vec4
+	public static final int NORMAL_SIZE = 4;	// vec4
+	public static final int COLOUR_SIZE = 3;	// vec3
+	public static final int UV_SIZE = 2;		// vec2
+
+	private final int vertexCount;
+	private final float[] positions;
+	private final float[] normals;
+	private final float[] colours;
+	private final float[] uvs;
+
+	/**
+	 * Create a builder for a mesh with positions only
+	 *
+	 * @param vertexCount	The number of vertices in the mesh
+	 */
+	public MeshBuilder(int vertexCount) {
+		this(vertexCount, 0);
+	}
+
+	/**
+	 * Create a builder for a mesh with positions and the specified optional attributes
+	 *
+	 * @param vertexCount	The number of vertices in the mesh
+	 * @param attributes	A combination of the NORMAL, COLOUR and UV flags
+	 */
+	public MeshBuilder(int vertexCount, int attributes) {
+		this.vertexCount = vertexCount;
+		this.positions = new float[vertexCount * POSITION_SIZE];
+		this.normals = (attributes & NORMAL) != 0 ? new float[vertexCount * NORMAL_SIZE] : null;
+		this.colours = (attributes & COLOUR) != 0 ? new float[vertexCount * COLOUR_SIZE] : null;
+		this.uvs = (attributes & UV) != 0 ? new float[vertexCount * UV_SIZE] : null;
+	}
+
+	public int getVertexCount() {
+		return vertexCount;
+	}
+
+	public void setPosition(int k, float x, float y, float z) {
+		int i = k * POSITION_SIZE;
+		positions[i] = x;
+		positions[i+1] = y;
+		positions[i+2] = z;
+		positions[i+3] = 1;
+	}
+
+	public void setPosition(int k, Vector4f p) {
+		int i = k * POSITION_SIZE;
+		positions[i] = p.x;
+		positions[i+1] = p.y;
+		positions[i+2] = p.z;
+		positions[i+3] = p.w;
+	}
+
+	public void setNormal(int k, float x, float y, float z) {
+		int i = k * NORMAL_SIZE;
+		normals[i] = x;
+		normals[i+1] = y;
+		normals[i+2] = z;
+		normals[i+3] = 0;
+	}
+
+	public void setNormal(int k, Vector4f n) {
+		int i = k * NORMAL_SIZE;
+		normals[i] = n.x;
+		normals[i+1] = n.y;
+		normals[i+2] = n.z;
+		normals[i+3] = n.w;
+	}
+
+	public void setColour(int k, float r, float g, float b) {
+		int i = k * COLOUR_SIZE;
+		colours[i] = r;
+		colours[i+1] = g;
+		colours[i+2] = b;
+	}
+
+	public void setColour(int k, Vector3f c) {
+		setColour(k, c.x, c.y, c.z);
+	}
+
+	public void setUV(int k, float u, float v) {
+		int i = k * UV_SIZE;
+		uvs[i] = u;
+		uvs[i+1] = v;
+	}
+
+	public void setUV(int k, Vector2f uv) {
+		setUV(k, uv.x, uv.y);
+	}
+
+	/**
+	 * Copy all the attributes of one vertex onto another.
+	 *
+	 * @param dest	The index of the vertex to write
+	 * @param src	The index of the vertex to copy
+	 */
+	public void copyVertex(int dest, int src) {
+		System.arraycopy(positions, src * POSITION_SIZE, positions, dest * POSITION_SIZE, POSITION_SIZE);
+		if (normals != null) {
+			System.arraycopy(normals, src * NORMAL_SIZE, normals, dest * NORMAL_SIZE, NORMAL_SIZE);
+		}
+		if (colours != null) {
+			System.arraycopy(colours, src * COLOUR_SIZE, colours, dest * COLOUR_SIZE, COLOUR_SIZE);
+		}
+		if (uvs != null) {
+			System.arraycopy(uvs, src * UV_SIZE, uvs, dest * UV_SIZE, UV_SIZE);
+		}
+	}
+
+	// direct access to the packed arrays, for mesh processing within this package
+
+	float[] getPositions() {
+		return positions;
+	}
+
+	float[] getNormals() {
+		return normals;
+	}
+
+	float[] getColours() {
+		return colours;
+	}
+
+	float[] getUVs() {
+		return uvs;
+	}
+
+	/**
+	 * Build a mesh from the vertices written so far, drawn using the given indices.
+	 * The builder hands its arrays over to the mesh, so it should not be used afterwards.
+	 *
+	 * @param indices	The index array
+	 * @return the resulting mesh
+	 */
+	public Mesh build(int[] indices) {
+		return new Mesh(vertexCount, positions, normals, colours, uvs, indices);
+	}
+
+}
@@ -0,0 +1,123 @@
+package comp3170.demos.trefoil.mesh;
+
+import java.util.Arrays;
+
+/**
+ * Merges vertices whose attributes are all identical, so that triangles share 
+ * them through the index buffer instead of each carrying its own copy.
+ * 
+ * Vertices are compared bit for bit on every attribute that is kept. A tube with
+ * flat shaded faces has a different normal on each side of every edge, so welding
+ * with all attributes merges very little. Welding only the attributes a shader
+ * actually uses (e.g. positions alone for a wireframe) merges far more.
+ * 
+ * The mesh must still have its CPU-side data (i.e. not yet uploaded, or uploaded
+ * with keepData(true)).
+ */
+
+public class MeshWelder {
+
+	/**
+	 * Create a new mesh with duplicate vertices merged, keeping all attributes.
+	 * 
+	 * @param mesh	The mesh to weld
+	 * @return the welded mesh
+	 */
+	public static Mesh weld(Mesh mesh) {
+		return weld(mesh, MeshBuilder.NORMAL | MeshBuilder.COLOUR | MeshBuilder.UV);
+	}
+
+	/**
+	 * Create a new mesh with duplicate vertices merged, keeping positions and 
+	 * the specified attributes. Vertices keep the order of their first use, so 
+	 * the result is deterministic.
+	 * 
+	 * @param mesh			The mesh to weld
+	 * @param attributes	A combination of the MeshBuilder NORMAL, COLOUR and UV flags
+	 * @return the welded mesh
+	 */
+	public static Mesh weld(Mesh mesh, int attributes) {
+		if (!mesh.hasData()) {
+			throw new IllegalStateException("Mesh data has been released");
+		}
+
+		int n = mesh.getVertexCount();
+		float[][] streams = { 
+			mesh.getPositions(), 
+			(attributes & MeshBuilder.NORMAL) != 0 ? mesh.getNormals() : null, 
+			(attributes & MeshBuilder.COLOUR) != 0 ? mesh.getColours() : null, 
+			(attributes & MeshBuilder.UV) != 0 ? mesh.getUVs() : null,
+		};
+		int[] sizes = { MeshBuilder.POSITION_SIZE, MeshBuilder.NORMAL_SIZE, MeshBuilder.COLOUR_SIZE, MeshBuilder.UV_SIZE };
+
+		// open addressing hash table of new vertex ids
+		int tableSize = Integer.highestOneBit(Math.max(n, 1) * 2) * 2;
+		int[] table = new int[tableSize];
+		Arrays.fill(table, -1);
+
+		int[] remap = new int[n];
+		int[] firstVertex = new int[n];	// new id -> an old vertex with those attributes
+		int count = 0;
+
+		for (int v = 0; v < n; v++) {
+			int slot = hash(streams, sizes, v) & (tableSize - 1);
+			while (table[slot] >= 0 && !equal(streams, sizes, firstVertex[table[slot]], v)) {
+				slot = (slot + 1) & (tableSize - 1);
+			}
+
+			if (table[slot] < 0) {
+				table[slot] = count;
+				firstVertex[count] = v;
+				count++;
+			}
+			remap[v] = table[slot];
+		}
+
+		MeshBuilder builder = new MeshBuilder(count, 
+				(streams[1] != null ? MeshBuilder.NORMAL : 0) |
+				(streams[2] != null ? MeshBuilder.COLOUR : 0) | 
+				(streams[3] != null ? MeshBuilder.UV : 0));
+
+		float[][] newStreams = { builder.getPositions(), builder.getNormals(), builder.getColours(), builder.getUVs() };
+		for (int v = 0; v < count; v++) {
+			for (int s = 0; s < streams.length; s++) {
+				if (streams[s] != null) {
+					System.arraycopy(streams[s], firstVertex[v] * sizes[s], newStreams[s], v * sizes[s], sizes[s]);
+				}
+			}
+		}
+
+		int[] indices = mesh.getIndices().clone();
+		for (int i = 0; i < indices.length; i++) {
+			indices[i] = remap[indices[i]];
+		}
+
+		return builder.build(indices);
+	}
+
+	private static int hash(float[][] streams, int[] sizes, int v) {
+		int h = 17;
+		for (int s = 0; s < streams.length; s++) {
+			if (streams[s] != null) {
+				for (int i = v * sizes[s]; i < (v + 1) * sizes[s]; i++) {
+					h = h * 31 + Float.floatToIntBits(streams[s][i]);
+				}
+			}
+		}
+		return h ^ (h >>> 16);
+	}
+
+	private static boolean equal(float[][] streams, int[] sizes, int v0, int v1) {
+		for (int s = 0; s < streams.length; s++) {
+			if (streams[s] != null) {
+				for (int i = 0; i < sizes[s]; i++) {
+					if (Float.floatToIntBits(streams[s][v0 * sizes[s] + i]) != Float.floatToIntBits(streams[s][v1 * sizes[s] + i])) {
+						return false;
+					}
+				}
+			}
+		}
+		return true;
+	}
+
+}
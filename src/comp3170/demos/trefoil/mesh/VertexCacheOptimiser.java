@@ -0,0 +1,182 @@
+package comp3170.demos.trefoil.mesh;
+
+/**
+ * Reorders triangles to make better use of the GPU's post-transform vertex cache,
+ * using Tom Forsyth's "Linear-Speed Vertex Cache Optimisation" (2006).
+ *
+ * Each vertex is scored by how recently it was used (an LRU cache is modelled)
+ * and by how many triangles still need it. Triangles are emitted greedily in
+ * order of the sum of their vertices' scores, so that vertices already in the
+ * cache are reused before they are evicted.
+ *
+ * Usage:
+ *
+ *		int[] order = VertexCacheOptimiser.optimise(indices, vertexCount);
+ *
+ * The indices array is rewritten in place. The returned array maps each new
+ * triangle to its original triangle index, for code that needs to know which
+ * triangle is which (e.g. picking).
+ */
+
+public class VertexCacheOptimiser {
+
+	private static final int CACHE_SIZE = 32;
+	private static final float CACHE_DECAY_POWER = 1.5f;
+	private static final float LAST_TRIANGLE_SCORE = 0.75f;
+	private static final float VALENCE_BOOST_SCALE = 2.0f;
+	private static final float VALENCE_BOOST_POWER = 0.5f;
+
+	/**
+	 * Reorder the triangles in an index array.
+	 *
+	 * @param indices		Triangle indices, rewritten in place
+	 * @param vertexCount	The number of vertices the indices refer to
+	 * @return the original index of each triangle in the new order
+	 */
+	public static int[] optimise(int[] indices, int vertexCount) {
+		int nTriangles = indices.length / 3;
+
+		// build the list of triangles using each vertex
+		int[] valence = new int[vertexCount];
+		for (int i = 0; i < indices.length; i++) {
+			valence[indices[i]]++;
+		}
+
+		int[] offset = new int[vertexCount + 1];
+		for (int v = 0; v < vertexCount; v++) {
+			offset[v+1] = offset[v] + valence[v];
+		}
+
+		int[] triangles = new int[indices.length];
+		int[] activeCount = new int[vertexCount];
+		for (int t = 0; t < nTriangles; t++) {
+			for (int c = 0; c < 3; c++) {
+				int v = indices[3*t + c];
+				triangles[offset[v] + activeCount[v]++] = t;
+			}
+		}
+
+		// initial scores
+		int[] cachePosition = new int[vertexCount];
+		float[] vertexScore = new float[vertexCount];
+		for (int v = 0; v < vertexCount; v++) {
+			cachePosition[v] = -1;
+			vertexScore[v] = score(-1, activeCount[v]);
+		}
+
+		float[] triangleScore = new float[nTriangles];
+		boolean[] emitted = new boolean[nTriangles];
+		int best = -1;
+		float bestScore = -1;
+		for (int t = 0; t < nTriangles; t++) {
+			triangleScore[t] = vertexScore[indices[3*t]] + vertexScore[indices[3*t+1]] + vertexScore[indices[3*t+2]];
+			if (triangleScore[t] > bestScore) {
+				bestScore = triangleScore[t];
+				best = t;
+			}
+		}
+
+		int[] cache = new int[CACHE_SIZE + 3];
+		int[] newCache = new int[CACHE_SIZE + 3];
+		int cacheCount = 0;
+
+		int[] output = new int[indices.length];
+		int[] order = new int[nTriangles];
+		int scanPosition = 0;
+
+		for (int n = 0; n < nTriangles; n++) {
+			if (best < 0) {
+				// nothing in the cache is useful, so start again from the next unused triangle
+				while (emitted[scanPosition]) {
+					scanPosition++;
+				}
+				best = scanPosition;
+			}
+
+			// emit the best triangle
+			emitted[best] = true;
+			order[n] = best;
+
+			int newCount = 0;
+			for (int c = 0; c < 3; c++) {
+				int v = indices[3*best + c];
+				output[3*n + c] = v;
+				newCache[newCount++] = v;
+
+				// remove the triangle from the vertex's active list
+				int end = offset[v] + activeCount[v] - 1;
+				for (int i = offset[v]; i <= end; i++) {
+					if (triangles[i] == best) {
+						triangles[i] = triangles[end];
+						triangles[end] = best;
+						break;
+					}
+				}
+				activeCount[v]--;
+			}
+
+			// push the triangle's vertices to the front of the cache
+			for (int i = 0; i < cacheCount; i++) {
+				int v = cache[i];
+				if (v != newCache[0] && v != newCache[1] && v != newCache[2]) {
+					newCache[newCount++] = v;
+				}
+			}
+
+			// rescore everything that was in the cache
+			best = -1;
+			bestScore = -1;
+			for (int i = 0; i < newCount; i++) {
+				int v = newCache[i];
+				cachePosition[v] = (i < CACHE_SIZE ? i : -1);
+				vertexScore[v] = score(cachePosition[v], activeCount[v]);
+			}
+			for (int i = 0; i < newCount; i++) {
+				int v = newCache[i];
+				for (int j = offset[v]; j < offset[v] + activeCount[v]; j++) {
+					int t = triangles[j];
+					triangleScore[t] = vertexScore[indices[3*t]] + vertexScore[indices[3*t+1]] + vertexScore[indices[3*t+2]];
+					if (triangleScore[t] > bestScore) {
+						bestScore = triangleScore[t];
+						best = t;
+					}
+				}
+			}
+
+			// swap the caches, dropping anything that fell off the end
+			int[] tmp = cache;
+			cache = newCache;
+			newCache = tmp;
+			cacheCount = Math.min(newCount, CACHE_SIZE);
+		}
+
+		System.arraycopy(output, 0, indices, 0, indices.length);
+		return order;
+	}
+
+	private static float score(int cachePosition, int remainingValence) {
+		if (remainingValence == 0) {
+			// no triangles left, so it doesn't matter
+			return -1;
+		}
+
+		float score = 0;
+		if (cachePosition >= 0) {
+			if (cachePosition < 3) {
+				// used by the last triangle, so slightly penalised to avoid
+				// strips that double back on themselves
+				score = LAST_TRIANGLE_SCORE;
+			}
+			else {
+				float scaler = 1.0f / (CACHE_SIZE - 3);
+				score = 1.0f - (cachePosition - 3) * scaler;
+				score = (float) Math.pow(score, CACHE_DECAY_POWER);
+			}
+		}
+
+		// boost vertices with few triangles left, to finish them off
+		score += VALENCE_BOOST_SCALE * (float) Math.pow(remainingValence, -VALENCE_BOOST_POWER);
+		return score;
+	}
+
+}
@@ -0,0 +1,84 @@
+package comp3170.demos.trefoil.mesh;
+
+import java.util.Arrays;
+
+/**
+ * Measures how well an index buffer uses a post-transform vertex cache, by 
+ * simulating a FIFO cache of a given size.
+ * 
+ *		ACMR (average cache miss ratio) = vertex shader invocations / triangles
+ *		ATVR (average transformed vertex ratio) = vertex shader invocations / vertices used
+ *  
+ * ACMR is at best about 0.5 for a regular grid and at worst 3. ATVR is at best 1,
+ * meaning every vertex is transformed exactly once.
+ */
+
+public class VertexCacheStats {
+
+	private final int cacheSize;
+	private final int triangles;
+	private final int vertices;
+	private final int misses;
+
+	/**
+	 * Simulate drawing the given triangles.
+	 * 
+	 * @param indices		Triangle indices
+	 * @param vertexCount	The number of vertices the indices refer to
+	 * @param cacheSize		The number of entries in the simulated FIFO cache
+	 */
+	public VertexCacheStats(int[] indices, int vertexCount, int cacheSize) {
+		this.cacheSize = cacheSize;
+		this.triangles = indices.length / 3;
+
+		// In a FIFO, a vertex is still cached if fewer than cacheSize misses
+		// have happened since it was loaded. So record when each one entered.
+		int[] entered = new int[vertexCount];
+		Arrays.fill(entered, -1);
+		boolean[] used = new boolean[vertexCount];
+		
+		int misses = 0;
+		int vertices = 0;
+		for (int i = 0; i < indices.length; i++) {
+			int v = indices[i];
+			if (!used[v]) {
+				used[v] = true;
+				vertices++;
+			}
+			
+			if (entered[v] >= 0 && misses - entered[v] < cacheSize) {
+				continue;	// hit
+			}
+			
+			// miss
+			entered[v] = misses;
+			misses++;
+		}
+
+		this.misses = misses;
+		this.vertices = vertices;
+	}
+
+	public int getCacheSize() {
+		return cacheSize;
+	}
+
+	public int getMisses() {
+		return misses;
+	}
+
+	public float getACMR() {
+		return triangles == 0 ? 0 : (float) misses / triangles;
+	}
+
+	public float getATVR() {
+		return vertices == 0 ? 0 : (float) misses / vertices;
+	}
+
+	@Override
+	public String toString() {
+		return String.format("cache %d: ACMR %.3f, ATVR %.3f (%d transforms, %d vertices, %d triangles)", 
+				cacheSize, getACMR(), getATVR(), misses, vertices, triangles);
+	}
+
+}
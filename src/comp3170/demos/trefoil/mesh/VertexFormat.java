@@ -0,0 +1,64 @@
+package comp3170.demos.trefoil.mesh;
+
+/**
+ * The storage format for each attribute of a mesh.
+ * 
+ *		FULL		positions and normals as vec4, colours as vec3, uvs as vec2 (all floats)
+ *		COMPACT		positions as vec3, normals as 10:10:10:2, colours as unorm8, uvs as half floats
+ * 
+ * COMPACT uses 24 bytes for a vertex with every attribute, against 52 for FULL.
+ * Positions are left as full floats, since quantising them would need a 
+ * per-mesh scale and offset in the vertex shader.
+ */
+
+public class VertexFormat {
+
+	public static final VertexFormat FULL = new VertexFormat(
+			AttributeFormat.FLOAT4, AttributeFormat.FLOAT4, AttributeFormat.FLOAT3, AttributeFormat.FLOAT2);
+	
+	public static final VertexFormat COMPACT = new VertexFormat(
+			AttributeFormat.FLOAT3, AttributeFormat.SNORM10x3, AttributeFormat.UNORM8x4, AttributeFormat.HALF2);
+
+	private final AttributeFormat position;
+	private final AttributeFormat normal;
+	private final AttributeFormat colour;
+	private final AttributeFormat uv;
+
+	public VertexFormat(AttributeFormat position, AttributeFormat normal, AttributeFormat colour, AttributeFormat uv) {
+		this.position = position;
+		this.normal = normal;
+		this.colour = colour;
+		this.uv = uv;
+	}
+
+	public AttributeFormat get(Mesh.Attribute attribute) {
+		switch (attribute) {
+		case POSITION: 
+			return position;
+		case NORMAL: 
+			return normal;
+		case COLOUR: 
+			return colour;
+		case UV: 
+			return uv;
+		}
+		throw new IllegalArgumentException(attribute.toString());
+	}
+
+	/**
+	 * Calculate the size of a mesh's vertex data in this format
+	 * 
+	 * @param mesh	The mesh (before upload, or with its data kept)
+	 * @return the size in bytes
+	 */
+	public long getByteSize(Mesh mesh) {
+		long size = 0;
+		for (Mesh.Attribute attribute : Mesh.Attribute.values()) {
+			if (mesh.hasAttribute(attribute)) {
+				size += (long) mesh.getVertexCount() * get(attribute).getByteSize();
+			}
+		}
+		return size;
+	}
+
+}
@@ -0,0 +1,82 @@
+package comp3170.demos.trefoil.mesh;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Describes how a mesh's attributes are interleaved in a single vertex buffer.
+ * 
+ * Each vertex occupies getStride() bytes, with the attributes stored one after
+ * another in Mesh.Attribute order, each at its own byte offset:
+ * 
+ *		| position | normal | colour | uv | position | normal | ...
+ *		|<-------------- stride -------->|
+ */
+
+public class VertexLayout {
+
+	public static class Element {
+		private final Mesh.Attribute attribute;
+		private final AttributeFormat format;
+		private final int offset;
+
+		private Element(Mesh.Attribute attribute, AttributeFormat format, int offset) {
+			this.attribute = attribute;
+			this.format = format;
+			this.offset = offset;
+		}
+
+		public Mesh.Attribute getAttribute() {
+			return attribute;
+		}
+
+		public AttributeFormat getFormat() {
+			return format;
+		}
+
+		/**
+		 * @return the byte offset of the attribute within a vertex
+		 */
+		public int getOffset() {
+			return offset;
+		}
+	}
+
+	private final List<Element> elements;
+	private final int stride;
+
+	/**
+	 * Lay out the attributes a mesh has, in the given format.
+	 * 
+	 * @param format	The format for each attribute
+	 * @param mesh		The mesh
+	 */
+	public VertexLayout(VertexFormat format, Mesh mesh) {
+		List<Element> elements = new ArrayList<Element>();
+		int offset = 0;
+		
+		for (Mesh.Attribute attribute : Mesh.Attribute.values()) {
+			if (mesh.hasAttribute(attribute)) {
+				AttributeFormat f = format.get(attribute);
+				elements.add(new Element(attribute, f, offset));
+				offset += f.getByteSize();	// all formats are multiples of 4 bytes, so stay aligned
+			}
+		}
+
+		this.elements = Collections.unmodifiableList(elements);
+		this.stride = offset;
+	}
+
+	public List<Element> getElements() {
+		return elements;
+	}
+
+	/**
+	 * @return the size of one vertex in bytes
+	 */
+	public int getStride() {
+		return stride;
+	}
+
+}
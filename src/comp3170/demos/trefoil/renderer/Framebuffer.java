@@ -0,0 +1,110 @@
+package comp3170.demos.trefoil.renderer;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
+
+/**
+ * A colour and depth buffer in direct (off-heap) memory, for SoftwareRenderer.
+ *
+ * Colours are packed as 0xAARRGGBB ints, one per pixel, with row 0 at the top as
+ * in a BufferedImage. Depths are window depths in [0,1], with 0 at the near plane.
+ *
+ * Direct buffers keep large frames off the Java heap, and can be handed straight
+ * to file writers or to glTexSubImage2D().
+ */
+
+public class Framebuffer {
+
+	private final int width;
+	private final int height;
+	private final IntBuffer colour;
+	private final FloatBuffer depth;
+
+	public Framebuffer(int width, int height) {
+		if (width <= 0 || height <= 0) {
+			throw new IllegalArgumentException("Framebuffer size must be positive: " + width + " x " + height);
+		}
+
+		this.width = width;
+		this.height = height;
+		this.colour = ByteBuffer.allocateDirect(width * height * Integer.BYTES).order(ByteOrder.nativeOrder()).asIntBuffer();
+		this.depth = ByteBuffer.allocateDirect(width * height * Float.BYTES).order(ByteOrder.nativeOrder()).asFloatBuffer();
+	}
+
+	public int getWidth() {
+		return width;
+	}
+
+	public int getHeight() {
+		return height;
+	}
+
+	/**
+	 * @return the colour buffer, one 0xAARRGGBB int per pixel, row by row from the top
+	 */
+	public IntBuffer getColourBuffer() {
+		return colour;
+	}
+
+	/**
+	 * @return the depth buffer, one float per pixel, row by row from the top
+	 */
+	public FloatBuffer getDepthBuffer() {
+		return depth;
+	}
+
+	public int getPixel(int x, int y) {
+		return colour.get(y * width + x);
+	}
+
+	public float getDepth(int x, int y) {
+		return depth.get(y * width + x);
+	}
+
+	/**
+	 * Clear the whole buffer.
+	 */
+	public void clear(int argb, float clearDepth) {
+		clear(0, 0, width, height, argb, clearDepth);
+	}
+
+	/**
+	 * Clear a rectangle [x0, x1) x [y0, y1).
+	 */
+	public void clear(int x0, int y0, int x1, int y1, int argb, float clearDepth) {
+		for (int y = y0; y < y1; y++) {
+			int row = y * width;
+			for (int x = x0; x < x1; x++) {
+				colour.put(row + x, argb);
+				depth.put(row + x, clearDepth);
+			}
+		}
+	}
+
+	/**
+	 * Copy the colours into an array.
+	 *
+	 * @param dest	An array of at least width * height ints
+	 * @return dest
+	 */
+	public int[] getPixels(int[] dest) {
+		IntBuffer pixels = colour.duplicate();
+		pixels.clear();
+		pixels.get(dest, 0, width * height);
+		return dest;
+	}
+
+	/**
+	 * @return a copy of the colour buffer as an image
+	 */
+	public BufferedImage toImage() {
+		BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_INT_ARGB);
+		getPixels(((DataBufferInt) image.getRaster().getDataBuffer()).getData());
+		return image;
+	}
+
+}
@@ -0,0 +1,422 @@
+package comp3170.demos.trefoil.renderer;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.joml.Matrix4f;
+import org.joml.Matrix4fc;
+import org.joml.Vector3f;
+import org.joml.Vector3fc;
+import org.joml.Vector4f;
+import org.joml.Vector4fc;
+
+import com.jogamp.opengl.GL;
+import com.jogamp.opengl.GL4;
+import com.jogamp.opengl.GLContext;
+
+import comp3170.demos.trefoil.mesh.Mesh;
+import comp3170.demos.trefoil.mesh.VertexLayout;
+import comp3170.demos.trefoil.shaders.CachedShader;
+import comp3170.demos.trefoil.shaders.ProgramKey;
+import comp3170.demos.trefoil.shaders.ShaderLibrary;
+import comp3170.demos.trefoil.textures.GLTextureUploader;
+import comp3170.demos.trefoil.textures.TextureDiskCache;
+import comp3170.demos.trefoil.textures.TextureHandle;
+import comp3170.demos.trefoil.textures.TextureLibrary;
+import comp3170.demos.trefoil.textures.TextureLoader;
+
+/**
+ * Draws with OpenGL. Must only be used with a current GL context.
+ *
+ * Draws are not made straight away, but queued in a RenderQueue, which sorts
+ * them at endFrame() and makes them with as few shader, texture, vertex array
+ * and polygon mode changes as it can. getQueue() has the counts for the last
+ * frame. Scene objects that set their own GL state, such as instanced draws,
+ * queue a RenderQueue.Command with draw(Command, ...) rather than drawing
+ * directly, so they are sorted and counted too.
+ *
+ * GL resources are created the first time they are needed: each material's
+ * shader when it is first drawn with (or all of them at once, in precompile()),
+ * each mesh's buffers when it is first drawn (see Mesh.upload()), and one vertex
+ * array per mesh and shader.
+ *
+ * Textures are loaded by a TextureLoader: files are decoded on worker threads,
+ * and beginFrame() uploads the decoded ones within a time budget. Materials
+ * whose texture has not loaded yet are drawn with the loader's placeholder.
+ * Loaded textures are kept within a memory budget, set through
+ * getTextureLoader().getCache().setBudget(), by deleting the least recently
+ * drawn. Textures used by the frame's queued draws are pinned from draw() to
+ * endFrame(), so they cannot be deleted before the draws are made. Decoded
+ * textures and their mipmaps are cached on disk (see TextureDiskCache), so
+ * later runs map them instead of decoding.
+ */
+
+public class GLRenderer implements Renderer, RenderQueue.Backend {
+
+	/**
+	 * A shader and the handles of the uniforms set on it
+	 */
+	private static class Program {
+		final CachedShader shader;
+		final int u_modelMatrix;
+		final int u_viewMatrix;
+		final int u_projectionMatrix;
+		final int u_normalMatrix;
+		final int u_colour;
+		final int u_texture;
+		final int u_ambientIntensity;
+		final int u_diffuseIntensity;
+		final int u_lightDirection;
+
+		Program(Material.Shading shading) {
+			this.shader = ShaderLibrary.getCachedShader(shading.getVertexShader(), shading.getFragmentShader());
+			this.u_modelMatrix = shader.getUniform("u_modelMatrix");
+			this.u_viewMatrix = shader.getUniform("u_viewMatrix");
+			this.u_projectionMatrix = shader.getUniform("u_projectionMatrix");
+			this.u_normalMatrix = shader.getUniform("u_normalMatrix");
+			this.u_colour = shader.getUniform("u_colour");
+			this.u_texture = shader.getUniform("u_texture");
+			this.u_ambientIntensity = shader.getUniform("u_ambientIntensity");
+			this.u_diffuseIntensity = shader.getUniform("u_diffuseIntensity");
+			this.u_lightDirection = shader.getUniform("u_lightDirection");
+		}
+	}
+
+	private final Map<Material.Shading, Program> programs = new EnumMap<Material.Shading, Program>(Material.Shading.class);
+	private final Map<Mesh, Map<CachedShader, Integer>> vertexArrays = new HashMap<Mesh, Map<CachedShader, Integer>>();
+
+	private final Vector4f clearColour = new Vector4f(0, 0, 0, 1);
+	private boolean depthTest = true;
+	private boolean cullFace = false;
+
+	private final Vector3f ambientIntensity = new Vector3f(0.1f, 0.1f, 0.1f);
+	private final Vector3f diffuseIntensity = new Vector3f(1, 1, 1);
+	private final Vector4f lightDirection = new Vector4f(0, 1, 0, 0);
+
+	private static final long TEXTURE_UPLOAD_BUDGET = 2_000_000;	// ns per frame
+	private static final int TEXTURE_THREADS = Math.max(1, Runtime.getRuntime().availableProcessors() - 1);
+	private static final long TEXTURE_MEMORY_BUDGET = 256L << 20;	// bytes
+
+	private final TextureDiskCache textureDiskCache;
+	private final TextureLoader textures;
+	private long textureUploadBudget = TEXTURE_UPLOAD_BUDGET;
+
+	// the textures of this frame's queued draws, pinned until endFrame()
+	private final Map<String, TextureHandle> frameTextures = new HashMap<String, TextureHandle>();
+
+	private final RenderQueue queue = new RenderQueue();
+	private Program program;	// bound by the queue
+
+	private final Matrix4f modelMatrix = new Matrix4f();
+	private final Matrix4f viewMatrix = new Matrix4f();
+	private final Matrix4f projectionMatrix = new Matrix4f();
+	private final Matrix4f normalMatrix = new Matrix4f();
+	private final Vector3f colour = new Vector3f();
+
+	public GLRenderer() {
+		this(TextureDiskCache.DEFAULT_DIRECTORY);
+	}
+
+	/**
+	 * @param textureCacheDirectory	The directory to cache decoded textures in, or
+	 * 								null to decode them on every run
+	 */
+	public GLRenderer(File textureCacheDirectory) {
+		TextureDiskCache diskCache = null;
+		if (textureCacheDirectory != null) {
+			try {
+				diskCache = new TextureDiskCache(textureCacheDirectory);
+			} catch (IOException e) {
+				System.err.println("Not caching textures: " + e.getMessage());
+			}
+		}
+
+		this.textureDiskCache = diskCache;
+		TextureLoader.Source source = (diskCache != null ? diskCache::read : TextureLibrary::readImageData);
+		this.textures = new TextureLoader(TEXTURE_THREADS, TEXTURE_MEMORY_BUDGET, source, new GLTextureUploader());
+	}
+
+	/**
+	 * Build the shaders for every shading now, rather than on first use, along with
+	 * any other programs the scene will need, so they can be compiled together
+	 * (see ShaderLibrary.precompile()).
+	 *
+	 * @param others	Other programs to build
+	 */
+	public void precompile(Collection<ProgramKey> others) {
+		List<ProgramKey> keys = new ArrayList<ProgramKey>(others);
+		for (Material.Shading shading : Material.Shading.values()) {
+			keys.add(new ProgramKey(shading.getVertexShader(), shading.getFragmentShader()));
+		}
+		ShaderLibrary.precompile(keys);
+
+		for (Material.Shading shading : Material.Shading.values()) {
+			if (!programs.containsKey(shading)) {
+				programs.put(shading, new Program(shading));
+			}
+		}
+	}
+
+	/**
+	 * @return the queue, with the counts for the last frame
+	 */
+	public RenderQueue getQueue() {
+		return queue;
+	}
+
+	/**
+	 * @return the texture loader, with the decode and upload times so far
+	 */
+	public TextureLoader getTextureLoader() {
+		return textures;
+	}
+
+	/**
+	 * @return the disk cache of decoded textures, or null if there is none
+	 */
+	public TextureDiskCache getTextureDiskCache() {
+		return textureDiskCache;
+	}
+
+	/**
+	 * Set the time beginFrame() may spend uploading decoded textures.
+	 *
+	 * @param nanos	The budget per frame, in nanoseconds
+	 */
+	public void setTextureUploadBudget(long nanos) {
+		this.textureUploadBudget = nanos;
+	}
+
+	@Override
+	public void setClearColour(float red, float green, float blue, float alpha) {
+		clearColour.set(red, green, blue, alpha);
+	}
+
+	@Override
+	public void setDepthTest(boolean enabled) {
+		this.depthTest = enabled;
+	}
+
+	@Override
+	public void setCullFace(boolean enabled) {
+		this.cullFace = enabled;
+	}
+
+	@Override
+	public void setLighting(Vector3fc ambient, Vector3fc diffuse, Vector4fc direction) {
+		ambientIntensity.set(ambient);
+		diffuseIntensity.set(diffuse);
+		lightDirection.set(direction);
+	}
+
+	@Override
+	public void beginFrame() {
+		GL4 gl = (GL4) GLContext.getCurrentGL();
+
+		setEnabled(gl, GL.GL_DEPTH_TEST, depthTest);
+		setEnabled(gl, GL.GL_CULL_FACE, cullFace);
+		gl.glCullFace(GL.GL_BACK);
+
+		gl.glClearColor(clearColour.x, clearColour.y, clearColour.z, clearColour.w);
+		gl.glClear(GL.GL_COLOR_BUFFER_BIT | GL.GL_DEPTH_BUFFER_BIT);
+
+		textures.update(textureUploadBudget);
+		queue.clear();
+	}
+
+	private static void setEnabled(GL4 gl, int capability, boolean enabled) {
+		if (enabled) {
+			gl.glEnable(capability);
+		}
+		else {
+			gl.glDisable(capability);
+		}
+	}
+
+	@Override
+	public void draw(Mesh mesh, Primitive primitive, int first, int count,
+			Matrix4fc modelMatrix, Matrix4fc viewMatrix, Matrix4fc projectionMatrix, Material material) {
+		String texture = material.getTexture();
+		if (texture != null && !frameTextures.containsKey(texture)) {
+			TextureHandle handle = textures.load(texture);
+			handle.pin();
+			frameTextures.put(texture, handle);
+		}
+		queue.add(mesh, primitive, first, count, modelMatrix, viewMatrix, projectionMatrix, material);
+	}
+
+	/**
+	 * Queue a draw that binds its own shader and vertex array (see
+	 * RenderQueue.Command). It is made at endFrame(), in polygon fill mode.
+	 *
+	 * @param command			The command
+	 * @param mesh				The mesh it draws, to group commands by
+	 * @param modelMatrix		The matrix whose origin gives the depth to sort by
+	 * @param viewMatrix		WORLD -> VIEW
+	 * @param projectionMatrix	VIEW -> NDC
+	 */
+	public void draw(RenderQueue.Command command, Mesh mesh,
+			Matrix4fc modelMatrix, Matrix4fc viewMatrix, Matrix4fc projectionMatrix) {
+		queue.add(command, mesh, modelMatrix, viewMatrix, projectionMatrix);
+	}
+
+	@Override
+	public void endFrame() {
+		queue.submit(this);
+		queue.clear();
+
+		for (TextureHandle handle : frameTextures.values()) {
+			handle.unpin();
+		}
+		frameTextures.clear();
+
+		// leave the default polygon mode, and no vertex array bound for later uploads
+		GL4 gl = (GL4) GLContext.getCurrentGL();
+		gl.glPolygonMode(GL.GL_FRONT_AND_BACK, GL4.GL_FILL);
+		gl.glBindVertexArray(0);
+
+		// the canvas swaps the buffers
+	}
+
+	// RenderQueue.Backend methods
+
+	@Override
+	public void bindShading(Material.Shading shading) {
+		program = programs.get(shading);
+		if (program == null) {
+			program = new Program(shading);
+			programs.put(shading, program);
+		}
+		program.shader.enable();
+	}
+
+	@Override
+	public void bindTexture(String texture) {
+		GL4 gl = (GL4) GLContext.getCurrentGL();
+		gl.glActiveTexture(GL.GL_TEXTURE0);
+		gl.glBindTexture(GL.GL_TEXTURE_2D, frameTextures.get(texture).getTextureID());
+	}
+
+	@Override
+	public void bindMesh(Mesh mesh, Material.Shading shading) {
+		GL4 gl = (GL4) GLContext.getCurrentGL();
+		gl.glBindVertexArray(getVertexArray(mesh, programs.get(shading).shader));
+	}
+
+	@Override
+	public void setWireframe(boolean wireframe) {
+		GL4 gl = (GL4) GLContext.getCurrentGL();
+		gl.glPolygonMode(GL.GL_FRONT_AND_BACK, wireframe ? GL4.GL_LINE : GL4.GL_FILL);
+	}
+
+	@Override
+	public void draw(RenderQueue queue, int packet) {
+		GL4 gl = (GL4) GLContext.getCurrentGL();
+		CachedShader shader = program.shader;
+		Material material = queue.getMaterial(packet);
+		Mesh mesh = queue.getMesh(packet);
+
+		// unchanged uniforms are skipped by the CachedShader
+		queue.getModelMatrix(packet, modelMatrix);
+		shader.setUniform(program.u_modelMatrix, modelMatrix);
+		shader.setUniform(program.u_viewMatrix, queue.getViewMatrix(packet, viewMatrix));
+		shader.setUniform(program.u_projectionMatrix, queue.getProjectionMatrix(packet, projectionMatrix));
+
+		switch (material.getShading()) {
+		case FLAT:
+			shader.setUniform(program.u_colour, material.getColour(colour));
+			break;
+
+		case DIFFUSE:
+			shader.setUniform(program.u_normalMatrix, modelMatrix.normal(normalMatrix));
+			shader.setUniform(program.u_ambientIntensity, ambientIntensity);
+			shader.setUniform(program.u_diffuseIntensity, diffuseIntensity);
+			shader.setUniform(program.u_lightDirection, lightDirection);
+			shader.setUniform(program.u_texture, 0);
+			break;
+		}
+
+		int mode = (queue.getPrimitive(packet) == Primitive.LINES ? GL.GL_LINES : GL.GL_TRIANGLES);
+		gl.glDrawElements(mode, queue.getCount(packet), mesh.getIndexFormat().getGLType(),
+				(long) queue.getFirst(packet) * mesh.getIndexFormat().getByteSize());
+	}
+
+	@Override
+	public void drawCommand(RenderQueue queue, int packet) {
+		queue.getCommand(packet).draw(queue.getViewMatrix(packet, viewMatrix),
+				queue.getProjectionMatrix(packet, projectionMatrix));
+		program = null;
+	}
+
+	/**
+	 * Get the vertex array connecting a mesh to a shader, uploading the mesh and
+	 * creating the vertex array the first time.
+	 */
+	private int getVertexArray(Mesh mesh, CachedShader shader) {
+		Map<CachedShader, Integer> arrays = vertexArrays.get(mesh);
+		if (arrays == null) {
+			arrays = new HashMap<CachedShader, Integer>();
+			vertexArrays.put(mesh, arrays);
+		}
+
+		Integer vertexArray = arrays.get(shader);
+		if (vertexArray == null) {
+			// the index buffer binding would otherwise replace the one in the bound VAO
+			GL4 gl = (GL4) GLContext.getCurrentGL();
+			gl.glBindVertexArray(0);
+			mesh.upload();
+			vertexArray = createVertexArray(shader, mesh);
+			arrays.put(shader, vertexArray);
+		}
+		return vertexArray;
+	}
+
+	/**
+	 * Create a vertex array object that connects an uploaded mesh's interleaved
+	 * vertex buffer to a shader, and binds its index buffer.
+	 *
+	 * This only needs to be done once, after which drawing the mesh just requires
+	 *
+	 * 		gl.glBindVertexArray(vertexArray);
+	 *
+	 * Attributes the shader does not use are skipped. The mesh must be uploaded
+	 * with no vertex array bound, and no vertex array is left bound afterwards.
+	 *
+	 * @param shader	The shader
+	 * @param mesh		An uploaded mesh
+	 * @return the vertex array object
+	 */
+	public static int createVertexArray(CachedShader shader, Mesh mesh) {
+		GL4 gl = (GL4) GLContext.getCurrentGL();
+
+		int[] vao = new int[1];
+		gl.glGenVertexArrays(vao.length, vao, 0);
+		gl.glBindVertexArray(vao[0]);
+
+		VertexLayout layout = mesh.getLayout();
+		gl.glBindBuffer(GL.GL_ARRAY_BUFFER, mesh.getVertexBuffer());
+		for (VertexLayout.Element element : layout.getElements()) {
+			int location = shader.getAttribute(element.getAttribute().getShaderName());
+			if (location < 0) {
+				continue;
+			}
+			gl.glVertexAttribPointer(location, element.getFormat().getComponents(),
+					element.getFormat().getGLType(), element.getFormat().isNormalised(),
+					layout.getStride(), element.getOffset());
+			gl.glEnableVertexAttribArray(location);
+		}
+
+		// the element array binding is part of the VAO state
+		gl.glBindBuffer(GL.GL_ELEMENT_ARRAY_BUFFER, mesh.getIndexBuffer());
+		gl.glBindVertexArray(0);
+
+		return vao[0];
+	}
+
+}
@@ -0,0 +1,99 @@
+package comp3170.demos.trefoil.renderer;
+
+import java.awt.Color;
+
+import org.joml.Vector3f;
+
+/**
+ * How a mesh is shaded. Each shading mode names the shaders GLRenderer uses for
+ * it, and SoftwareRenderer computes the same result:
+ *
+ *		FLAT		a single colour (flatVertex/flatFragment.glsl)
+ *		DIFFUSE		a texture lit by an ambient and a directional light, in linear
+ *					space (diffuseVertex/diffuseFragment.glsl)
+ *
+ * In wireframe, only the edges of each triangle are drawn, as with
+ * glPolygonMode(GL_FRONT_AND_BACK, GL_LINE).
+ */
+
+public class Material {
+
+	public enum Shading {
+		FLAT("flatVertex.glsl", "flatFragment.glsl"),
+		DIFFUSE("diffuseVertex.glsl", "diffuseFragment.glsl");
+
+		private final String vertexShader;
+		private final String fragmentShader;
+
+		private Shading(String vertexShader, String fragmentShader) {
+			this.vertexShader = vertexShader;
+			this.fragmentShader = fragmentShader;
+		}
+
+		public String getVertexShader() {
+			return vertexShader;
+		}
+
+		public String getFragmentShader() {
+			return fragmentShader;
+		}
+	}
+
+	private final Shading shading;
+	private final Vector3f colour = new Vector3f(1, 1, 1);
+	private final String texture;
+	private boolean wireframe = false;
+
+	/**
+	 * A flat shaded material, white by default.
+	 */
+	public Material() {
+		this.shading = Shading.FLAT;
+		this.texture = null;
+	}
+
+	/**
+	 * A diffuse shaded material.
+	 *
+	 * @param texture	The name of a file in the textures directory
+	 */
+	public Material(String texture) {
+		this.shading = Shading.DIFFUSE;
+		this.texture = texture;
+	}
+
+	public Shading getShading() {
+		return shading;
+	}
+
+	/**
+	 * @return the texture file name, or null for FLAT shading
+	 */
+	public String getTexture() {
+		return texture;
+	}
+
+	public Vector3f getColour(Vector3f dest) {
+		return dest.set(colour);
+	}
+
+	/**
+	 * Set the colour used by FLAT shading.
+	 */
+	public void setColour(float red, float green, float blue) {
+		colour.set(red, green, blue);
+	}
+
+	public void setColour(Color color) {
+		setColour(color.getRed() / 255f, color.getGreen() / 255f, color.getBlue() / 255f);
+	}
+
+	public boolean isWireframe() {
+		return wireframe;
+	}
+
+	public void setWireframe(boolean wireframe) {
+		this.wireframe = wireframe;
+	}
+
+}
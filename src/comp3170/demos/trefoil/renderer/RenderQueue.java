@@ -0,0 +1,551 @@
+package comp3170.demos.trefoil.renderer;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Map;
+
+import org.joml.Matrix4f;
+import org.joml.Matrix4fc;
+
+import comp3170.demos.trefoil.mesh.Mesh;
+
+/**
+ * Collects a frame's draws from all scene objects as packets, sorts them by the
+ * GL state they need, and submits them with redundant state changes removed.
+ *
+ * Each packet gets a 64-bit key, most significant bits first:
+ *
+ *		| wireframe 1 | shading 3 | texture 12 | mesh 16 | depth 32 |
+ *
+ * so sorting by key groups draws by shader, then texture, then vertex array,
+ * and within those orders them front to back, for early depth rejection. The
+ * depth is the view space distance to the object's origin, whose float bits sort
+ * in the same order as the distances themselves. Texture and mesh ids are handed
+ * out as they are first seen each frame, and only wrap around with more than 4096
+ * textures or 65536 meshes in one frame, which makes sorting less effective but
+ * not wrong.
+ *
+ * The keys are sorted with an LSD radix sort, 8 bits per pass, skipping passes
+ * where every key has the same byte. The sort is stable, so draws with equal keys
+ * keep the order they were queued in.
+ *
+ * submit() passes the sorted packets to a Backend, only telling it to change
+ * shader, texture, mesh or polygon mode when the next packet needs a different
+ * one, and counts the changes made and saved. Nothing here needs a GL context,
+ * so the sort and the counts can be checked with a fake backend.
+ *
+ * Draws that set their own GL state, such as instanced draws, are queued as
+ * Commands. They get the highest shading value, so they are made after every
+ * filled Material draw, grouped by mesh and front to back. Each is counted as a
+ * draw, a shader bind and a mesh bind, and as the backend's state is unknown
+ * after one, the next packet binds everything again.
+ *
+ * Meshes, materials and commands are held by reference until the queue is
+ * cleared, so they must not change until the frame is submitted. Matrices are
+ * copied.
+ */
+
+public class RenderQueue {
+
+	private static final int WIREFRAME_SHIFT = 63;
+	private static final int SHADING_SHIFT = 60;
+	private static final int TEXTURE_SHIFT = 48;
+	private static final int MESH_SHIFT = 32;
+	private static final int SHADING_MASK = 0x7;
+	private static final int TEXTURE_MASK = 0xfff;
+	private static final int MESH_MASK = 0xffff;
+	private static final int COMMAND_SHADING = SHADING_MASK;	// after every Material.Shading
+
+	private static final int RADIX_BITS = 8;
+	private static final int RADIX = 1 << RADIX_BITS;
+
+	/**
+	 * Carries out the state changes and draws of a sorted queue.
+	 */
+	public interface Backend {
+		public void bindShading(Material.Shading shading);
+
+		/**
+		 * @param texture	The texture file name, for shadings that use a texture
+		 */
+		public void bindTexture(String texture);
+
+		/**
+		 * Bind the mesh's vertex array for the current shading.
+		 */
+		public void bindMesh(Mesh mesh, Material.Shading shading);
+
+		public void setWireframe(boolean wireframe);
+
+		/**
+		 * Draw a packet, with its state bound. Read it with the queue's getters.
+		 */
+		public void draw(RenderQueue queue, int packet);
+
+		/**
+		 * Make a Command packet's draw, in polygon fill mode. Read it with the
+		 * queue's getters.
+		 */
+		public void drawCommand(RenderQueue queue, int packet);
+	}
+
+	/**
+	 * A draw that binds its own shader and vertex array and sets its own uniforms,
+	 * such as an instanced draw.
+	 */
+	public interface Command {
+		public void draw(Matrix4fc viewMatrix, Matrix4fc projectionMatrix);
+	}
+
+	// the packets, in the order they were queued
+	private int size = 0;
+	private long[] keys = new long[256];
+	private Mesh[] meshes = new Mesh[256];
+	private Material[] materials = new Material[256];
+	private Command[] commands = new Command[256];
+	private Renderer.Primitive[] primitives = new Renderer.Primitive[256];
+	private int[] firsts = new int[256];
+	private int[] counts = new int[256];
+	private int[] cameras = new int[256];
+	private float[] modelMatrices = new float[256 * 16];
+
+	// view and projection matrices, 32 floats per camera, shared by consecutive packets
+	private int cameraCount = 0;
+	private float[] cameraMatrices = new float[32];
+
+	// the order to submit in, and scratch for sorting
+	private int[] order = new int[256];
+	private long[] sortKeys = new long[256];
+	private int[] scratchOrder = new int[256];
+	private long[] scratchKeys = new long[256];
+	private final int[] histogram = new int[RADIX];
+
+	private final Map<String, Integer> textureIds = new HashMap<String, Integer>();
+	private final Map<Mesh, Integer> meshIds = new IdentityHashMap<Mesh, Integer>();
+
+	private final Matrix4f modelView = new Matrix4f();
+	private final float[] matrixScratch = new float[16];
+
+	// counts for the last submit()
+	private int drawCount = 0;
+	private int commandCount = 0;
+	private int shaderBinds = 0;
+	private int textureBinds = 0;
+	private int meshBinds = 0;
+	private int modeChanges = 0;
+	private int shaderBindsSaved = 0;
+	private int textureBindsSaved = 0;
+	private int meshBindsSaved = 0;
+	private int modeChangesSaved = 0;
+
+	/**
+	 * @return the number of packets queued
+	 */
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * Remove all packets, ready for the next frame.
+	 */
+	public void clear() {
+		Arrays.fill(meshes, 0, size, null);
+		Arrays.fill(materials, 0, size, null);
+		Arrays.fill(commands, 0, size, null);
+		size = 0;
+		cameraCount = 0;
+		textureIds.clear();
+		meshIds.clear();
+	}
+
+	/**
+	 * Queue a draw, as Renderer.draw() would draw it.
+	 */
+	public void add(Mesh mesh, Renderer.Primitive primitive, int first, int count,
+			Matrix4fc modelMatrix, Matrix4fc viewMatrix, Matrix4fc projectionMatrix, Material material) {
+		int p = addPacket(mesh, modelMatrix, viewMatrix, projectionMatrix);
+		materials[p] = material;
+		primitives[p] = primitive;
+		firsts[p] = first;
+		counts[p] = count;
+		keys[p] = makeKey(material.isWireframe(), material.getShading().ordinal(), textureId(material.getTexture()),
+				meshId(mesh), depth(modelMatrix, viewMatrix));
+	}
+
+	/**
+	 * Queue a Command.
+	 *
+	 * @param command			The command
+	 * @param mesh				The mesh it draws, to group commands by
+	 * @param modelMatrix		The matrix whose origin gives the depth to sort by
+	 * @param viewMatrix		Passed to the command
+	 * @param projectionMatrix	Passed to the command
+	 */
+	public void add(Command command, Mesh mesh, Matrix4fc modelMatrix, Matrix4fc viewMatrix, Matrix4fc projectionMatrix) {
+		int p = addPacket(mesh, modelMatrix, viewMatrix, projectionMatrix);
+		commands[p] = command;
+		keys[p] = makeKey(false, COMMAND_SHADING, 0, meshId(mesh), depth(modelMatrix, viewMatrix));
+	}
+
+	private int addPacket(Mesh mesh, Matrix4fc modelMatrix, Matrix4fc viewMatrix, Matrix4fc projectionMatrix) {
+		if (size == keys.length) {
+			grow(2 * size);
+		}
+
+		int p = size++;
+		meshes[p] = mesh;
+		modelMatrix.get(modelMatrices, 16 * p);
+		cameras[p] = addCamera(viewMatrix, projectionMatrix);
+		return p;
+	}
+
+	/**
+	 * @return the view space distance to the object's origin
+	 */
+	private float depth(Matrix4fc modelMatrix, Matrix4fc viewMatrix) {
+		viewMatrix.mul(modelMatrix, modelView);
+		return Math.max(0, -modelView.m32());
+	}
+
+	/**
+	 * Build a sort key.
+	 *
+	 * @param wireframe	Whether the packet is drawn in wireframe
+	 * @param shading	The shading
+	 * @param texture	The texture id (only the low 12 bits are used)
+	 * @param mesh		The mesh id (only the low 16 bits are used)
+	 * @param depth		The distance from the camera, >= 0
+	 */
+	public static long makeKey(boolean wireframe, Material.Shading shading, int texture, int mesh, float depth) {
+		return makeKey(wireframe, shading.ordinal(), texture, mesh, depth);
+	}
+
+	private static long makeKey(boolean wireframe, int shading, int texture, int mesh, float depth) {
+		return (wireframe ? 1L << WIREFRAME_SHIFT : 0)
+				| (long) (shading & SHADING_MASK) << SHADING_SHIFT
+				| (long) (texture & TEXTURE_MASK) << TEXTURE_SHIFT
+				| (long) (mesh & MESH_MASK) << MESH_SHIFT
+				| (Float.floatToIntBits(Math.max(0, depth)) & 0xffffffffL);
+	}
+
+	private int textureId(String texture) {
+		if (texture == null) {
+			return 0;
+		}
+		Integer id = textureIds.get(texture);
+		if (id == null) {
+			id = textureIds.size() + 1;
+			textureIds.put(texture, id);
+		}
+		return id;
+	}
+
+	private int meshId(Mesh mesh) {
+		Integer id = meshIds.get(mesh);
+		if (id == null) {
+			id = meshIds.size();
+			meshIds.put(mesh, id);
+		}
+		return id;
+	}
+
+	/**
+	 * @return the index of the camera, reusing the last one if it is the same
+	 */
+	private int addCamera(Matrix4fc viewMatrix, Matrix4fc projectionMatrix) {
+		if (cameraCount > 0) {
+			int last = 32 * (cameraCount - 1);
+			if (matches(viewMatrix, last) && matches(projectionMatrix, last + 16)) {
+				return cameraCount - 1;
+			}
+		}
+
+		if (32 * (cameraCount + 1) > cameraMatrices.length) {
+			cameraMatrices = Arrays.copyOf(cameraMatrices, 2 * cameraMatrices.length);
+		}
+		viewMatrix.get(cameraMatrices, 32 * cameraCount);
+		projectionMatrix.get(cameraMatrices, 32 * cameraCount + 16);
+		return cameraCount++;
+	}
+
+	private boolean matches(Matrix4fc matrix, int offset) {
+		matrix.get(matrixScratch);
+		for (int i = 0; i < 16; i++) {
+			if (matrixScratch[i] != cameraMatrices[offset + i]) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private void grow(int capacity) {
+		keys = Arrays.copyOf(keys, capacity);
+		meshes = Arrays.copyOf(meshes, capacity);
+		materials = Arrays.copyOf(materials, capacity);
+		commands = Arrays.copyOf(commands, capacity);
+		primitives = Arrays.copyOf(primitives, capacity);
+		firsts = Arrays.copyOf(firsts, capacity);
+		counts = Arrays.copyOf(counts, capacity);
+		cameras = Arrays.copyOf(cameras, capacity);
+		modelMatrices = Arrays.copyOf(modelMatrices, 16 * capacity);
+		order = new int[capacity];
+		sortKeys = new long[capacity];
+		scratchOrder = new int[capacity];
+		scratchKeys = new long[capacity];
+	}
+
+	/**
+	 * Sort the packets by key. Called by submit(), and separately for testing.
+	 *
+	 * @return the number of radix passes made
+	 */
+	public int sort() {
+		for (int i = 0; i < size; i++) {
+			order[i] = i;
+		}
+		System.arraycopy(keys, 0, sortKeys, 0, size);
+
+		int passes = 0;
+		for (int shift = 0; shift < Long.SIZE; shift += RADIX_BITS) {
+			Arrays.fill(histogram, 0);
+			for (int i = 0; i < size; i++) {
+				histogram[(int) (sortKeys[i] >>> shift) & (RADIX - 1)]++;
+			}
+
+			// every key has the same digit: this pass wouldn't move anything
+			if (size == 0 || histogram[(int) (sortKeys[0] >>> shift) & (RADIX - 1)] == size) {
+				continue;
+			}
+
+			int total = 0;
+			for (int d = 0; d < RADIX; d++) {
+				int n = histogram[d];
+				histogram[d] = total;
+				total += n;
+			}
+
+			for (int i = 0; i < size; i++) {
+				int d = (int) (sortKeys[i] >>> shift) & (RADIX - 1);
+				int j = histogram[d]++;
+				scratchKeys[j] = sortKeys[i];
+				scratchOrder[j] = order[i];
+			}
+
+			long[] k = sortKeys;
+			sortKeys = scratchKeys;
+			scratchKeys = k;
+			int[] o = order;
+			order = scratchOrder;
+			scratchOrder = o;
+			passes++;
+		}
+		return passes;
+	}
+
+	/**
+	 * @return the packet drawn i'th after sort()
+	 */
+	public int getSorted(int i) {
+		return order[i];
+	}
+
+	/**
+	 * Sort the packets and pass them to the backend, changing state only when it
+	 * differs from the previous packet's. The backend's state is assumed unknown
+	 * at the start, so the first packet binds everything.
+	 */
+	public void submit(Backend backend) {
+		sort();
+
+		drawCount = 0;
+		commandCount = 0;
+		shaderBinds = textureBinds = meshBinds = modeChanges = 0;
+		shaderBindsSaved = textureBindsSaved = meshBindsSaved = modeChangesSaved = 0;
+
+		Material.Shading shading = null;
+		String texture = null;
+		Mesh mesh = null;
+		Material.Shading meshShading = null;
+		Boolean wireframe = null;
+
+		for (int i = 0; i < size; i++) {
+			int p = order[i];
+			if (commands[p] != null) {
+				if (wireframe == null || wireframe) {
+					wireframe = false;
+					backend.setWireframe(false);
+					modeChanges++;
+				}
+				else {
+					modeChangesSaved++;
+				}
+
+				// the command binds its own shader and vertex array, and may change anything else
+				backend.drawCommand(this, p);
+				shaderBinds++;
+				meshBinds++;
+				shading = null;
+				texture = null;
+				mesh = null;
+				meshShading = null;
+				commandCount++;
+				drawCount++;
+				continue;
+			}
+
+			Material material = materials[p];
+
+			if (material.getShading() != shading) {
+				shading = material.getShading();
+				backend.bindShading(shading);
+				shaderBinds++;
+			}
+			else {
+				shaderBindsSaved++;
+			}
+
+			if (material.getTexture() != null) {
+				if (!material.getTexture().equals(texture)) {
+					texture = material.getTexture();
+					backend.bindTexture(texture);
+					textureBinds++;
+				}
+				else {
+					textureBindsSaved++;
+				}
+			}
+
+			if (meshes[p] != mesh || shading != meshShading) {
+				mesh = meshes[p];
+				meshShading = shading;
+				backend.bindMesh(mesh, shading);
+				meshBinds++;
+			}
+			else {
+				meshBindsSaved++;
+			}
+
+			if (wireframe == null || material.isWireframe() != wireframe) {
+				wireframe = material.isWireframe();
+				backend.setWireframe(wireframe);
+				modeChanges++;
+			}
+			else {
+				modeChangesSaved++;
+			}
+
+			backend.draw(this, p);
+			drawCount++;
+		}
+	}
+
+	// Packet data, for the backend
+
+	public long getKey(int packet) {
+		return keys[packet];
+	}
+
+	public Mesh getMesh(int packet) {
+		return meshes[packet];
+	}
+
+	/**
+	 * @return the packet's material, or null for a Command
+	 */
+	public Material getMaterial(int packet) {
+		return materials[packet];
+	}
+
+	/**
+	 * @return the packet's command, or null for a Material draw
+	 */
+	public Command getCommand(int packet) {
+		return commands[packet];
+	}
+
+	public Renderer.Primitive getPrimitive(int packet) {
+		return primitives[packet];
+	}
+
+	public int getFirst(int packet) {
+		return firsts[packet];
+	}
+
+	public int getCount(int packet) {
+		return counts[packet];
+	}
+
+	public Matrix4f getModelMatrix(int packet, Matrix4f dest) {
+		return dest.set(modelMatrices, 16 * packet);
+	}
+
+	public Matrix4f getViewMatrix(int packet, Matrix4f dest) {
+		return dest.set(cameraMatrices, 32 * cameras[packet]);
+	}
+
+	public Matrix4f getProjectionMatrix(int packet, Matrix4f dest) {
+		return dest.set(cameraMatrices, 32 * cameras[packet] + 16);
+	}
+
+	// Counts for the last submit()
+
+	public int getDrawCount() {
+		return drawCount;
+	}
+
+	/**
+	 * @return the number of the draws that were Commands
+	 */
+	public int getCommandCount() {
+		return commandCount;
+	}
+
+	public int getShaderBinds() {
+		return shaderBinds;
+	}
+
+	public int getTextureBinds() {
+		return textureBinds;
+	}
+
+	public int getMeshBinds() {
+		return meshBinds;
+	}
+
+	public int getModeChanges() {
+		return modeChanges;
+	}
+
+	/**
+	 * @return the number of binds and mode changes skipped, compared to making
+	 * every change for every packet
+	 */
+	public int getBindsSaved() {
+		return shaderBindsSaved + textureBindsSaved + meshBindsSaved + modeChangesSaved;
+	}
+
+	public int getShaderBindsSaved() {
+		return shaderBindsSaved;
+	}
+
+	public int getTextureBindsSaved() {
+		return textureBindsSaved;
+	}
+
+	public int getMeshBindsSaved() {
+		return meshBindsSaved;
+	}
+
+	public int getModeChangesSaved() {
+		return modeChangesSaved;
+	}
+
+	@Override
+	public String toString() {
+		return String.format("%d draws (%d commands); binds made/saved: shader %d/%d, texture %d/%d, mesh %d/%d, polygon mode %d/%d",
+				drawCount, commandCount, shaderBinds, shaderBindsSaved, textureBinds, textureBindsSaved,
+				meshBinds, meshBindsSaved, modeChanges, modeChangesSaved);
+	}
+
+}
@@ -0,0 +1,78 @@
+package comp3170.demos.trefoil.renderer;
+
+import org.joml.Matrix4fc;
+import org.joml.Vector3fc;
+import org.joml.Vector4fc;
+
+import comp3170.demos.trefoil.mesh.Mesh;
+
+/**
+ * Draws meshes for scene objects, so that the same scene can be drawn with
+ * OpenGL (GLRenderer) or in software without a GPU (SoftwareRenderer).
+ *
+ * Each frame:
+ *
+ *		renderer.beginFrame();		// clear the colour and depth buffers
+ *		scene.draw(renderer, viewMatrix, projectionMatrix);
+ *		renderer.endFrame();		// finish drawing
+ *
+ * The state follows GL's defaults: counter-clockwise triangles face forwards,
+ * the depth test passes nearer fragments (GL_LESS), and the depth buffer is
+ * cleared to the far plane.
+ */
+
+public interface Renderer {
+
+	public enum Primitive {
+		TRIANGLES, LINES
+	}
+
+	public void setClearColour(float red, float green, float blue, float alpha);
+
+	/**
+	 * @param enabled	true to hide fragments behind those already drawn
+	 */
+	public void setDepthTest(boolean enabled);
+
+	/**
+	 * @param enabled	true to skip back-facing triangles, also in wireframe
+	 */
+	public void setCullFace(boolean enabled);
+
+	/**
+	 * Set the light used by DIFFUSE materials.
+	 *
+	 * @param ambient	The ambient intensity (linear)
+	 * @param diffuse	The diffuse intensity (linear)
+	 * @param direction	The direction towards the light (WORLD)
+	 */
+	public void setLighting(Vector3fc ambient, Vector3fc diffuse, Vector4fc direction);
+
+	public void beginFrame();
+
+	/**
+	 * Draw part of a mesh's index buffer, as glDrawElements() would.
+	 *
+	 * @param mesh				The mesh
+	 * @param primitive			How the indices are grouped
+	 * @param first				The first index to draw
+	 * @param count				The number of indices to draw
+	 * @param modelMatrix		MODEL -> WORLD
+	 * @param viewMatrix		WORLD -> VIEW
+	 * @param projectionMatrix	VIEW -> NDC
+	 * @param material			How to shade it
+	 */
+	public void draw(Mesh mesh, Primitive primitive, int first, int count,
+			Matrix4fc modelMatrix, Matrix4fc viewMatrix, Matrix4fc projectionMatrix, Material material);
+
+	/**
+	 * Draw every triangle of a mesh.
+	 */
+	public default void draw(Mesh mesh, Matrix4fc modelMatrix, Matrix4fc viewMatrix, Matrix4fc projectionMatrix,
+			Material material) {
+		draw(mesh, Primitive.TRIANGLES, 0, mesh.getIndexCount(), modelMatrix, viewMatrix, projectionMatrix, material);
+	}
+
+	public void endFrame();
+
+}
@@ -0,0 +1,957 @@
+package comp3170.demos.trefoil.renderer;
+
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.IntBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.IntStream;
+
+import org.joml.Matrix4f;
+import org.joml.Matrix4fc;
+import org.joml.Vector3f;
+import org.joml.Vector3fc;
+import org.joml.Vector4f;
+import org.joml.Vector4fc;
+
+import comp3170.demos.trefoil.mesh.Mesh;
+import comp3170.demos.trefoil.textures.TextureLibrary;
+
+/**
+ * Draws in software into a Framebuffer, so scenes can be rendered without a GPU,
+ * e.g. for golden image tests or batches of frames on build machines.
+ *
+ * draw() runs the vertex stage straight away: vertices are transformed (in
+ * parallel for large meshes), triangles are clipped against the near plane,
+ * projected and back-face culled, and the results queued in screen space. The
+ * queue is then rasterized by endFrame(). Each primitive is binned into the
+ * TILE_SIZE square tiles it overlaps, and the tiles are rasterized in parallel.
+ * No two threads touch the same pixel, and each tile draws its primitives in
+ * the order they were submitted, so the image does not depend on the number of
+ * threads.
+ *
+ * Rasterization follows GL's conventions: pixels are sampled at their centres,
+ * triangle edges use the top-left rule with SUBPIXEL_BITS of precision, depth is
+ * interpolated linearly in screen space and attributes with perspective correction.
+ *
+ * Shading matches the GL shaders for each Material (see Material.Shading). The
+ * DIFFUSE texture is sampled with GL_NEAREST and GL_REPEAT as TextureLibrary
+ * sets up, with row 0 of the image at v = 0.
+ *
+ * Usage:
+ *
+ *		SoftwareRenderer renderer = new SoftwareRenderer(new Framebuffer(800, 800));
+ *		renderer.beginFrame();
+ *		scene.draw(renderer, viewMatrix, projectionMatrix);
+ *		renderer.endFrame();
+ *		BufferedImage image = renderer.getFramebuffer().toImage();
+ *
+ * Meshes must still have their data, so they must not have been uploaded
+ * unless keepData(true) was set first.
+ */
+
+public class SoftwareRenderer implements Renderer {
+
+	public static final int TILE_SIZE = 64;
+
+	private static final int MIN_PARALLEL_VERTICES = 8192;
+	private static final int VERTICES_PER_CHUNK = 4096;
+	private static final float GAMMA = 2.2f;
+	private static final int ENCODE_TABLE_SIZE = 4096;
+
+	// primitive kinds
+	private static final byte TRIANGLE = 0;
+	private static final byte WIREFRAME = 1;	// a triangle drawn as its edges
+	private static final byte LINE = 2;
+
+	// a queued vertex in screen space:
+	// | x | y | depth | 1/w | nx/w | ny/w | nz/w | u/w | v/w |
+	private static final int VERTEX_SIZE = 9;
+	private static final int PRIMITIVE_SIZE = 3 * VERTEX_SIZE;
+
+	// a vertex in clip space: | x | y | z | w | nx | ny | nz | u | v |
+	private static final int CLIP_SIZE = 9;
+
+	// the near plane and the four sides of the guard band, at |x| and |y| <= GUARD_BAND * w
+	private static final int CLIP_PLANES = 5;
+	private static final float GUARD_BAND = 4;
+
+	private static final int SUBPIXEL_BITS = 8;
+	private static final int SUBPIXEL = 1 << SUBPIXEL_BITS;
+
+	/**
+	 * A texture decoded to linear RGB
+	 */
+	private static class Texture {
+		final int width;
+		final int height;
+		final float[] texels;	// r, g, b per texel
+
+		Texture(BufferedImage image) {
+			this.width = image.getWidth();
+			this.height = image.getHeight();
+			this.texels = new float[3 * width * height];
+
+			float[] decode = new float[256];
+			for (int i = 0; i < decode.length; i++) {
+				decode[i] = (float) Math.pow(i / 255.0, GAMMA);
+			}
+
+			int[] row = new int[width];
+			for (int y = 0; y < height; y++) {
+				image.getRGB(0, y, width, 1, row, 0, width);
+				for (int x = 0; x < width; x++) {
+					int k = 3 * (y * width + x);
+					texels[k] = decode[(row[x] >> 16) & 0xff];
+					texels[k+1] = decode[(row[x] >> 8) & 0xff];
+					texels[k+2] = decode[row[x] & 0xff];
+				}
+			}
+		}
+	}
+
+	/**
+	 * The material and lighting of one draw() call, as they were when it was made
+	 */
+	private static class DrawState {
+		Material.Shading shading;
+		int argb;				// FLAT
+		Texture texture;		// DIFFUSE
+		float ambientR, ambientG, ambientB;
+		float diffuseR, diffuseG, diffuseB;
+		float lightX, lightY, lightZ;	// normalised
+	}
+
+	private Framebuffer framebuffer;
+	private final int width;
+	private final int height;
+	private final int tilesX;
+	private final int tilesY;
+
+	private int clearColour = 0xff000000;
+	private boolean depthTest = true;
+	private boolean cullFace = false;
+	private boolean parallel = true;
+
+	private final Vector3f ambientIntensity = new Vector3f(0.1f, 0.1f, 0.1f);
+	private final Vector3f diffuseIntensity = new Vector3f(1, 1, 1);
+	private final Vector4f lightDirection = new Vector4f(0, 1, 0, 0);
+
+	private final Map<String, Texture> textures = new HashMap<String, Texture>();
+	private final float[] encode = new float[ENCODE_TABLE_SIZE + 1];
+
+	// the queue for this frame
+	private final List<DrawState> states = new ArrayList<DrawState>();
+	private float[] vertices = new float[1024 * PRIMITIVE_SIZE];
+	private byte[] kinds = new byte[1024];
+	private int[] stateOf = new int[1024];
+	private int primitiveCount = 0;
+	private int culledCount = 0;
+
+	// bins: the primitives overlapping tile t are tileItems[tileStart[t]] to tileItems[tileStart[t+1]-1]
+	private int[] tileStart;
+	private int[] tileItems = new int[1024];
+
+	// scratch for draw()
+	private final Matrix4f mvpMatrix = new Matrix4f();
+	private final Matrix4f normalMatrix = new Matrix4f();
+	private float[] clip = new float[0];		// CLIP_SIZE per mesh vertex
+	private float[] polygon = new float[(3 + CLIP_PLANES) * CLIP_SIZE];
+	private float[] clipped = new float[(3 + CLIP_PLANES) * CLIP_SIZE];
+
+	public SoftwareRenderer(Framebuffer framebuffer) {
+		this.framebuffer = framebuffer;
+		this.width = framebuffer.getWidth();
+		this.height = framebuffer.getHeight();
+		this.tilesX = (width + TILE_SIZE - 1) / TILE_SIZE;
+		this.tilesY = (height + TILE_SIZE - 1) / TILE_SIZE;
+		this.tileStart = new int[tilesX * tilesY + 1];
+
+		// linear intensity -> 0..255, as pow(intensity, 1/GAMMA) written to an 8 bit buffer
+		for (int i = 0; i <= ENCODE_TABLE_SIZE; i++) {
+			encode[i] = (float) Math.pow((double) i / ENCODE_TABLE_SIZE, 1 / GAMMA) * 255;
+		}
+	}
+
+	public Framebuffer getFramebuffer() {
+		return framebuffer;
+	}
+
+	/**
+	 * Draw the following frames into another framebuffer of the same size, so a
+	 * pool of buffers can be rendered into in turn.
+	 */
+	public void setFramebuffer(Framebuffer framebuffer) {
+		if (framebuffer.getWidth() != width || framebuffer.getHeight() != height) {
+			throw new IllegalArgumentException(String.format("Framebuffer is %d x %d, expected %d x %d",
+					framebuffer.getWidth(), framebuffer.getHeight(), width, height));
+		}
+		this.framebuffer = framebuffer;
+	}
+
+	/**
+	 * @param parallel	true to rasterize tiles and transform large meshes across threads (the default)
+	 */
+	public void setParallel(boolean parallel) {
+		this.parallel = parallel;
+	}
+
+	/**
+	 * @return the number of primitives queued in the current or last frame
+	 */
+	public int getPrimitiveCount() {
+		return primitiveCount;
+	}
+
+	/**
+	 * @return the number of back-facing triangles culled in the current or last frame
+	 */
+	public int getCulledCount() {
+		return culledCount;
+	}
+
+	@Override
+	public void setClearColour(float red, float green, float blue, float alpha) {
+		clearColour = pack(alpha, red, green, blue);
+	}
+
+	@Override
+	public void setDepthTest(boolean enabled) {
+		this.depthTest = enabled;
+	}
+
+	@Override
+	public void setCullFace(boolean enabled) {
+		this.cullFace = enabled;
+	}
+
+	@Override
+	public void setLighting(Vector3fc ambient, Vector3fc diffuse, Vector4fc direction) {
+		ambientIntensity.set(ambient);
+		diffuseIntensity.set(diffuse);
+		lightDirection.set(direction);
+	}
+
+	@Override
+	public void beginFrame() {
+		states.clear();
+		primitiveCount = 0;
+		culledCount = 0;
+	}
+
+	// Vertex stage
+
+	@Override
+	public void draw(Mesh mesh, Primitive primitive, int first, int count,
+			Matrix4fc modelMatrix, Matrix4fc viewMatrix, Matrix4fc projectionMatrix, Material material) {
+		if (!mesh.hasData()) {
+			throw new IllegalStateException("The mesh data has been released. Call keepData(true) before uploading it.");
+		}
+
+		states.add(createState(material));
+		int state = states.size() - 1;
+
+		projectionMatrix.mul(viewMatrix, mvpMatrix).mul(modelMatrix);
+		modelMatrix.normal(normalMatrix);
+		transformVertices(mesh);
+
+		int[] indices = mesh.getIndices();
+		if (primitive == Primitive.LINES) {
+			for (int k = first; k + 1 < first + count; k += 2) {
+				addLine(indices[k], indices[k+1], state);
+			}
+		}
+		else {
+			byte kind = material.isWireframe() ? WIREFRAME : TRIANGLE;
+			for (int k = first; k + 2 < first + count; k += 3) {
+				addTriangle(indices[k], indices[k+1], indices[k+2], kind, state);
+			}
+		}
+	}
+
+	private DrawState createState(Material material) {
+		DrawState state = new DrawState();
+		state.shading = material.getShading();
+
+		Vector3f colour = material.getColour(new Vector3f());
+		state.argb = pack(1, colour.x, colour.y, colour.z);
+
+		if (state.shading == Material.Shading.DIFFUSE) {
+			state.texture = getTexture(material.getTexture());
+			state.ambientR = ambientIntensity.x;
+			state.ambientG = ambientIntensity.y;
+			state.ambientB = ambientIntensity.z;
+			state.diffuseR = diffuseIntensity.x;
+			state.diffuseG = diffuseIntensity.y;
+			state.diffuseB = diffuseIntensity.z;
+
+			// the shader normalises the vec4, and the normal's w is 0
+			float length = lightDirection.length();
+			state.lightX = lightDirection.x / length;
+			state.lightY = lightDirection.y / length;
+			state.lightZ = lightDirection.z / length;
+		}
+		return state;
+	}
+
+	private Texture getTexture(String filename) {
+		Texture texture = textures.get(filename);
+		if (texture == null) {
+			try {
+				texture = new Texture(TextureLibrary.loadImage(filename));
+			} catch (IOException e) {
+				throw new UncheckedIOException(e);
+			}
+			textures.put(filename, texture);
+		}
+		return texture;
+	}
+
+	/**
+	 * Transform every vertex of the mesh into clip space, with its normal in world space
+	 */
+	private void transformVertices(Mesh mesh) {
+		int n = mesh.getVertexCount();
+		if (clip.length < n * CLIP_SIZE) {
+			clip = new float[n * CLIP_SIZE];
+		}
+
+		float[] positions = mesh.getPositions();
+		float[] normals = mesh.getNormals();
+		float[] uvs = mesh.getUVs();
+
+		if (!parallel || n < MIN_PARALLEL_VERTICES) {
+			transformVertices(positions, normals, uvs, 0, n);
+			return;
+		}
+
+		int nChunks = (n + VERTICES_PER_CHUNK - 1) / VERTICES_PER_CHUNK;
+		IntStream.range(0, nChunks).parallel().forEach(c -> {
+			int from = c * VERTICES_PER_CHUNK;
+			transformVertices(positions, normals, uvs, from, Math.min(from + VERTICES_PER_CHUNK, n));
+		});
+	}
+
+	private void transformVertices(float[] positions, float[] normals, float[] uvs, int from, int to) {
+		Matrix4f m = mvpMatrix;
+		Matrix4f nm = normalMatrix;
+		int ps = Mesh.Attribute.POSITION.getSize();
+		int ns = Mesh.Attribute.NORMAL.getSize();
+		int us = Mesh.Attribute.UV.getSize();
+
+		for (int i = from; i < to; i++) {
+			float x = positions[ps*i];
+			float y = positions[ps*i+1];
+			float z = positions[ps*i+2];
+			int c = CLIP_SIZE * i;
+			clip[c] = m.m00() * x + m.m10() * y + m.m20() * z + m.m30();
+			clip[c+1] = m.m01() * x + m.m11() * y + m.m21() * z + m.m31();
+			clip[c+2] = m.m02() * x + m.m12() * y + m.m22() * z + m.m32();
+			clip[c+3] = m.m03() * x + m.m13() * y + m.m23() * z + m.m33();
+
+			if (normals != null) {
+				float nx = normals[ns*i];
+				float ny = normals[ns*i+1];
+				float nz = normals[ns*i+2];
+				clip[c+4] = nm.m00() * nx + nm.m10() * ny + nm.m20() * nz;
+				clip[c+5] = nm.m01() * nx + nm.m11() * ny + nm.m21() * nz;
+				clip[c+6] = nm.m02() * nx + nm.m12() * ny + nm.m22() * nz;
+			}
+			else {
+				clip[c+4] = clip[c+5] = clip[c+6] = 0;
+			}
+
+			if (uvs != null) {
+				clip[c+7] = uvs[us*i];
+				clip[c+8] = uvs[us*i+1];
+			}
+			else {
+				clip[c+7] = clip[c+8] = 0;
+			}
+		}
+	}
+
+	private void addTriangle(int i0, int i1, int i2, byte kind, int state) {
+		int c0 = CLIP_SIZE * i0;
+		int c1 = CLIP_SIZE * i1;
+		int c2 = CLIP_SIZE * i2;
+
+		if (outside(c0, c1, c2)) {
+			return;
+		}
+
+		System.arraycopy(clip, c0, polygon, 0, CLIP_SIZE);
+		System.arraycopy(clip, c1, polygon, CLIP_SIZE, CLIP_SIZE);
+		System.arraycopy(clip, c2, polygon, 2 * CLIP_SIZE, CLIP_SIZE);
+		int n = clipPolygon(3);
+
+		// fan triangulate what's left. Clipping keeps the winding, so culling can
+		// be done on each piece.
+		for (int k = 1; k + 1 < n; k++) {
+			int p = reserve();
+			project(polygon, 0, p);
+			project(polygon, k * CLIP_SIZE, p + VERTEX_SIZE);
+			project(polygon, (k + 1) * CLIP_SIZE, p + 2 * VERTEX_SIZE);
+
+			// counter-clockwise in NDC is clockwise on screen, since y is flipped
+			long area = signedArea(p, p + VERTEX_SIZE, p + 2 * VERTEX_SIZE);
+			if (cullFace && area >= 0) {
+				culledCount++;
+				continue;
+			}
+			if (area == 0 && kind == TRIANGLE) {
+				continue;
+			}
+			commit(kind, state);
+		}
+	}
+
+	private void addLine(int i0, int i1, int state) {
+		System.arraycopy(clip, CLIP_SIZE * i0, polygon, 0, CLIP_SIZE);
+		System.arraycopy(clip, CLIP_SIZE * i1, polygon, CLIP_SIZE, CLIP_SIZE);
+
+		for (int plane = 0; plane < CLIP_PLANES; plane++) {
+			float d0 = distance(polygon, 0, plane);
+			float d1 = distance(polygon, CLIP_SIZE, plane);
+			if (d0 < 0 && d1 < 0) {
+				return;
+			}
+			if (d0 < 0) {
+				lerp(polygon, CLIP_SIZE, 0, d1 / (d1 - d0), polygon, 0);
+			}
+			else if (d1 < 0) {
+				lerp(polygon, 0, CLIP_SIZE, d0 / (d0 - d1), polygon, CLIP_SIZE);
+			}
+		}
+
+		int p = reserve();
+		project(polygon, 0, p);
+		project(polygon, CLIP_SIZE, p + VERTEX_SIZE);
+		commit(LINE, state);
+	}
+
+	/**
+	 * @return true if all three vertices are outside the same frustum plane
+	 */
+	private boolean outside(int c0, int c1, int c2) {
+		for (int a = 0; a < 3; a++) {
+			if (clip[c0+a] > clip[c0+3] && clip[c1+a] > clip[c1+3] && clip[c2+a] > clip[c2+3]) {
+				return true;
+			}
+			if (clip[c0+a] < -clip[c0+3] && clip[c1+a] < -clip[c1+3] && clip[c2+a] < -clip[c2+3]) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * The distance of a clip space vertex inside one of the clipping planes: the
+	 * near plane, then the four sides of the guard band. The guard band is wider
+	 * than the screen, so few triangles need clipping to it, but it keeps screen
+	 * coordinates small enough for exact fixed point rasterization.
+	 */
+	private static float distance(float[] v, int c, int plane) {
+		switch (plane) {
+		case 0:
+			return v[c+2] + v[c+3];
+		case 1:
+			return GUARD_BAND * v[c+3] + v[c];
+		case 2:
+			return GUARD_BAND * v[c+3] - v[c];
+		case 3:
+			return GUARD_BAND * v[c+3] + v[c+1];
+		default:
+			return GUARD_BAND * v[c+3] - v[c+1];
+		}
+	}
+
+	/**
+	 * Clip the polygon in clip space against each plane that one of its vertices
+	 * is outside of.
+	 *
+	 * @return the number of vertices left in polygon (0 if it is all outside)
+	 */
+	private int clipPolygon(int n) {
+		for (int plane = 0; plane < CLIP_PLANES && n > 0; plane++) {
+			boolean crosses = false;
+			for (int k = 0; k < n && !crosses; k++) {
+				crosses = distance(polygon, k * CLIP_SIZE, plane) < 0;
+			}
+			if (!crosses) {
+				continue;
+			}
+
+			int m = 0;
+			for (int k = 0; k < n; k++) {
+				int a = k * CLIP_SIZE;
+				int b = ((k + 1) % n) * CLIP_SIZE;
+				float da = distance(polygon, a, plane);
+				float db = distance(polygon, b, plane);
+
+				if (da >= 0) {
+					System.arraycopy(polygon, a, clipped, m * CLIP_SIZE, CLIP_SIZE);
+					m++;
+				}
+				if ((da >= 0) != (db >= 0)) {
+					lerp(polygon, a, b, da / (da - db), clipped, m * CLIP_SIZE);
+					m++;
+				}
+			}
+
+			float[] tmp = polygon;
+			polygon = clipped;
+			clipped = tmp;
+			n = m;
+		}
+		return n;
+	}
+
+	private static void lerp(float[] in, int a, int b, float t, float[] out, int o) {
+		for (int i = 0; i < CLIP_SIZE; i++) {
+			out[o+i] = in[a+i] + t * (in[b+i] - in[a+i]);
+		}
+	}
+
+	/**
+	 * Make room for another primitive in the queue
+	 *
+	 * @return the offset of its first vertex
+	 */
+	private int reserve() {
+		if (primitiveCount == kinds.length) {
+			int capacity = 2 * kinds.length;
+			vertices = Arrays.copyOf(vertices, capacity * PRIMITIVE_SIZE);
+			kinds = Arrays.copyOf(kinds, capacity);
+			stateOf = Arrays.copyOf(stateOf, capacity);
+		}
+		return primitiveCount * PRIMITIVE_SIZE;
+	}
+
+	private void commit(byte kind, int state) {
+		kinds[primitiveCount] = kind;
+		stateOf[primitiveCount] = state;
+		primitiveCount++;
+	}
+
+	/**
+	 * Perspective divide and viewport transform a clip space vertex into the queue
+	 */
+	private void project(float[] in, int c, int v) {
+		float w = 1 / in[c+3];
+		vertices[v] = (in[c] * w + 1) / 2 * width;
+		vertices[v+1] = (1 - in[c+1] * w) / 2 * height;
+		vertices[v+2] = (in[c+2] * w + 1) / 2;
+		vertices[v+3] = w;
+		for (int i = 4; i < CLIP_SIZE; i++) {
+			vertices[v+i] = in[c+i] * w;
+		}
+	}
+
+	/**
+	 * Twice the signed area of a queued triangle, in fixed point
+	 */
+	private long signedArea(int a, int b, int c) {
+		long ax = fixed(vertices[a]);
+		long ay = fixed(vertices[a+1]);
+		return (fixed(vertices[b]) - ax) * (fixed(vertices[c+1]) - ay)
+				- (fixed(vertices[c]) - ax) * (fixed(vertices[b+1]) - ay);
+	}
+
+	/**
+	 * @return a screen coordinate in fixed point, with SUBPIXEL_BITS fractional bits
+	 */
+	private static long fixed(float coordinate) {
+		return Math.round(coordinate * SUBPIXEL);
+	}
+
+	// Raster stage
+
+	@Override
+	public void endFrame() {
+		bin();
+
+		int nTiles = tilesX * tilesY;
+		if (parallel) {
+			IntStream.range(0, nTiles).parallel().forEach(this::rasterizeTile);
+		}
+		else {
+			for (int t = 0; t < nTiles; t++) {
+				rasterizeTile(t);
+			}
+		}
+	}
+
+	/**
+	 * Sort the queued primitives into the tiles their screen boxes overlap, in
+	 * submission order, with a counting pass and a filling pass.
+	 */
+	private void bin() {
+		int nTiles = tilesX * tilesY;
+		int[] counts = new int[nTiles + 1];
+		int[] range = new int[4];
+
+		for (int p = 0; p < primitiveCount; p++) {
+			if (tileRange(p, range)) {
+				for (int ty = range[1]; ty <= range[3]; ty++) {
+					for (int tx = range[0]; tx <= range[2]; tx++) {
+						counts[ty * tilesX + tx + 1]++;
+					}
+				}
+			}
+		}
+
+		for (int t = 0; t < nTiles; t++) {
+			counts[t+1] += counts[t];
+		}
+		System.arraycopy(counts, 0, tileStart, 0, nTiles + 1);
+		if (tileItems.length < counts[nTiles]) {
+			tileItems = new int[Math.max(counts[nTiles], 2 * tileItems.length)];
+		}
+
+		for (int p = 0; p < primitiveCount; p++) {
+			if (tileRange(p, range)) {
+				for (int ty = range[1]; ty <= range[3]; ty++) {
+					for (int tx = range[0]; tx <= range[2]; tx++) {
+						tileItems[counts[ty * tilesX + tx]++] = p;
+					}
+				}
+			}
+		}
+	}
+
+	/**
+	 * Find the tiles a primitive's screen box overlaps.
+	 *
+	 * @param range	Set to the first and last tile x and y: | x0 | y0 | x1 | y1 |
+	 * @return false if the box is off the screen
+	 */
+	private boolean tileRange(int p, int[] range) {
+		int n = (kinds[p] == LINE ? 2 : 3);
+		int v = p * PRIMITIVE_SIZE;
+		float minX = Float.POSITIVE_INFINITY;
+		float minY = Float.POSITIVE_INFINITY;
+		float maxX = Float.NEGATIVE_INFINITY;
+		float maxY = Float.NEGATIVE_INFINITY;
+		for (int k = 0; k < n; k++) {
+			minX = Math.min(minX, vertices[v + k * VERTEX_SIZE]);
+			maxX = Math.max(maxX, vertices[v + k * VERTEX_SIZE]);
+			minY = Math.min(minY, vertices[v + k * VERTEX_SIZE + 1]);
+			maxY = Math.max(maxY, vertices[v + k * VERTEX_SIZE + 1]);
+		}
+
+		// lines can light the pixel either side of their end points
+		int x0 = (int) Math.floor(minX) - 1;
+		int y0 = (int) Math.floor(minY) - 1;
+		int x1 = (int) Math.ceil(maxX) + 1;
+		int y1 = (int) Math.ceil(maxY) + 1;
+		if (x1 < 0 || y1 < 0 || x0 >= width || y0 >= height) {
+			return false;
+		}
+
+		range[0] = Math.max(x0, 0) / TILE_SIZE;
+		range[1] = Math.max(y0, 0) / TILE_SIZE;
+		range[2] = Math.min(x1, width - 1) / TILE_SIZE;
+		range[3] = Math.min(y1, height - 1) / TILE_SIZE;
+		return true;
+	}
+
+	private void rasterizeTile(int tile) {
+		int x0 = (tile % tilesX) * TILE_SIZE;
+		int y0 = (tile / tilesX) * TILE_SIZE;
+		int x1 = Math.min(x0 + TILE_SIZE, width);
+		int y1 = Math.min(y0 + TILE_SIZE, height);
+
+		framebuffer.clear(x0, y0, x1, y1, clearColour, 1);
+
+		float[] attributes = new float[VERTEX_SIZE];
+		for (int k = tileStart[tile]; k < tileStart[tile+1]; k++) {
+			int p = tileItems[k];
+			int v = p * PRIMITIVE_SIZE;
+			DrawState state = states.get(stateOf[p]);
+
+			switch (kinds[p]) {
+			case TRIANGLE:
+				fillTriangle(v, state, x0, y0, x1, y1, attributes);
+				break;
+
+			case WIREFRAME:
+				drawLine(v, v + VERTEX_SIZE, state, x0, y0, x1, y1, attributes);
+				drawLine(v + VERTEX_SIZE, v + 2 * VERTEX_SIZE, state, x0, y0, x1, y1, attributes);
+				drawLine(v + 2 * VERTEX_SIZE, v, state, x0, y0, x1, y1, attributes);
+				break;
+
+			case LINE:
+				drawLine(v, v + VERTEX_SIZE, state, x0, y0, x1, y1, attributes);
+				break;
+			}
+		}
+	}
+
+	/**
+	 * Fill the part of a triangle inside the tile [tx0, tx1) x [ty0, ty1).
+	 *
+	 * The edge functions are evaluated in fixed point with longs, so they are
+	 * exact. Whether a pixel is covered then does not depend on which tile or
+	 * span it was reached from, and pixels on an edge shared by two triangles are
+	 * drawn by exactly one of them.
+	 */
+	private void fillTriangle(int v, DrawState state, int tx0, int ty0, int tx1, int ty1, float[] attributes) {
+		int a = v;
+		int b = v + VERTEX_SIZE;
+		int c = v + 2 * VERTEX_SIZE;
+
+		// order the vertices so the area is positive
+		long area = signedArea(a, b, c);
+		if (area == 0) {
+			return;
+		}
+		if (area < 0) {
+			int tmp = b;
+			b = c;
+			c = tmp;
+			area = -area;
+		}
+
+		long ax = fixed(vertices[a]);
+		long ay = fixed(vertices[a+1]);
+		long bx = fixed(vertices[b]);
+		long by = fixed(vertices[b+1]);
+		long cx = fixed(vertices[c]);
+		long cy = fixed(vertices[c+1]);
+
+		int minX = (int) Math.max(tx0, Math.min(ax, Math.min(bx, cx)) >> SUBPIXEL_BITS);
+		int maxX = (int) Math.min(tx1 - 1, Math.max(ax, Math.max(bx, cx)) >> SUBPIXEL_BITS);
+		int minY = (int) Math.max(ty0, Math.min(ay, Math.min(by, cy)) >> SUBPIXEL_BITS);
+		int maxY = (int) Math.min(ty1 - 1, Math.max(ay, Math.max(by, cy)) >> SUBPIXEL_BITS);
+		if (minX > maxX || minY > maxY) {
+			return;
+		}
+
+		// edge functions, each positive inside and zero on the edge opposite one
+		// vertex, and their change per pixel along x
+		long stepA = -(cy - by) * SUBPIXEL;		// edge b -> c, opposite a
+		long stepB = -(ay - cy) * SUBPIXEL;		// edge c -> a, opposite b
+		long stepC = -(by - ay) * SUBPIXEL;		// edge a -> b, opposite c
+		boolean topLeftA = isTopLeft(bx, by, cx, cy);
+		boolean topLeftB = isTopLeft(cx, cy, ax, ay);
+		boolean topLeftC = isTopLeft(ax, ay, bx, by);
+
+		float inverseArea = 1f / area;
+		float za = vertices[a+2];
+		float zb = vertices[b+2];
+		float zc = vertices[c+2];
+
+		IntBuffer colour = framebuffer.getColourBuffer();
+		long px = ((long) minX << SUBPIXEL_BITS) + SUBPIXEL / 2;
+		for (int y = minY; y <= maxY; y++) {
+			long py = ((long) y << SUBPIXEL_BITS) + SUBPIXEL / 2;
+			long eA = (cx - bx) * (py - by) - (cy - by) * (px - bx);
+			long eB = (ax - cx) * (py - cy) - (ay - cy) * (px - cx);
+			long eC = (bx - ax) * (py - ay) - (by - ay) * (px - ax);
+
+			// skip to the part of the row where every edge function can be positive
+			int span = maxX - minX;
+			int from = Math.max(spanStart(eA, stepA, span), Math.max(spanStart(eB, stepB, span), spanStart(eC, stepC, span)));
+			int to = Math.min(spanEnd(eA, stepA, span), Math.min(spanEnd(eB, stepB, span), spanEnd(eC, stepC, span)));
+			eA += stepA * from;
+			eB += stepB * from;
+			eC += stepC * from;
+
+			for (int x = minX + from; x <= minX + to; x++, eA += stepA, eB += stepB, eC += stepC) {
+				if (!inside(eA, topLeftA) || !inside(eB, topLeftB) || !inside(eC, topLeftC)) {
+					continue;
+				}
+
+				float wA = eA * inverseArea;
+				float wB = eB * inverseArea;
+				float wC = eC * inverseArea;
+				float z = wA * za + wB * zb + wC * zc;
+				int pixel = y * width + x;
+				if (!depthPasses(pixel, z)) {
+					continue;
+				}
+
+				int argb;
+				if (state.shading == Material.Shading.FLAT) {
+					argb = state.argb;
+				}
+				else {
+					interpolate(a, b, c, wA, wB, wC, attributes);
+					argb = shade(state, attributes);
+				}
+				colour.put(pixel, argb);
+			}
+		}
+	}
+
+	/**
+	 * @return the first pixel along a row of span + 1 pixels where an edge
+	 * function starting at e and changing by step per pixel may be inside
+	 */
+	private static int spanStart(long e, long step, int span) {
+		if (e >= 0) {
+			return 0;
+		}
+		if (step <= 0) {
+			return span + 1;
+		}
+		return (int) Math.min(-e / step, span + 1);
+	}
+
+	/**
+	 * @return the last pixel along a row of span + 1 pixels where an edge
+	 * function starting at e and changing by step per pixel may be inside
+	 */
+	private static int spanEnd(long e, long step, int span) {
+		if (step >= 0) {
+			return (e >= 0 || step > 0 ? span : -1);
+		}
+		if (e < 0) {
+			return -1;
+		}
+		return (int) Math.min(e / -step, span);
+	}
+
+	private static boolean isTopLeft(long ax, long ay, long bx, long by) {
+		// with y down and positive area: a top edge runs along +x, a left edge up the screen
+		return (ay == by && bx > ax) || by < ay;
+	}
+
+	private static boolean inside(long e, boolean topLeft) {
+		return e > 0 || (e == 0 && topLeft);
+	}
+
+	/**
+	 * Draw the part of a line inside the tile [tx0, tx1) x [ty0, ty1), lighting
+	 * one pixel per column or row along its major axis.
+	 */
+	private void drawLine(int a, int b, DrawState state, int tx0, int ty0, int tx1, int ty1, float[] attributes) {
+		float ax = vertices[a];
+		float ay = vertices[a+1];
+		float dx = vertices[b] - ax;
+		float dy = vertices[b+1] - ay;
+		boolean xMajor = Math.abs(dx) >= Math.abs(dy);
+		float length = xMajor ? dx : dy;
+		if (length == 0) {
+			return;
+		}
+
+		// the pixel centres along the major axis that lie between the end points
+		float start = xMajor ? ax : ay;
+		float lo = Math.min(start, start + length);
+		float hi = Math.max(start, start + length);
+		int from = (int) Math.ceil(lo - 0.5f);
+		int to = (int) Math.ceil(hi - 0.5f) - 1;
+		from = Math.max(from, xMajor ? tx0 : ty0);
+		to = Math.min(to, (xMajor ? tx1 : ty1) - 1);
+
+		for (int i = from; i <= to; i++) {
+			float t = (i + 0.5f - start) / length;
+			int x;
+			int y;
+			if (xMajor) {
+				x = i;
+				y = (int) Math.floor(ay + t * dy);
+				if (y < ty0 || y >= ty1) {
+					continue;
+				}
+			}
+			else {
+				y = i;
+				x = (int) Math.floor(ax + t * dx);
+				if (x < tx0 || x >= tx1) {
+					continue;
+				}
+			}
+
+			float z = vertices[a+2] + t * (vertices[b+2] - vertices[a+2]);
+			if (!depthPasses(y * width + x, z)) {
+				continue;
+			}
+
+			int argb;
+			if (state.shading == Material.Shading.FLAT) {
+				argb = state.argb;
+			}
+			else {
+				interpolate(a, b, b, 1 - t, t, 0, attributes);
+				argb = shade(state, attributes);
+			}
+			framebuffer.getColourBuffer().put(y * width + x, argb);
+		}
+	}
+
+	/**
+	 * Depth test a fragment, writing its depth if it passes. Fragments beyond
+	 * the far plane are always discarded.
+	 */
+	private boolean depthPasses(int pixel, float z) {
+		if (z > 1) {
+			return false;
+		}
+		if (!depthTest) {
+			return true;
+		}
+		if (z >= framebuffer.getDepthBuffer().get(pixel)) {
+			return false;
+		}
+		framebuffer.getDepthBuffer().put(pixel, z);
+		return true;
+	}
+
+	/**
+	 * Perspective correct interpolation of the attributes of three queued vertices
+	 * with screen space weights. Sets attributes[4..8] to the normal and uv.
+	 */
+	private void interpolate(int a, int b, int c, float wA, float wB, float wC, float[] attributes) {
+		float w = 1 / (wA * vertices[a+3] + wB * vertices[b+3] + wC * vertices[c+3]);
+		for (int i = 4; i < VERTEX_SIZE; i++) {
+			attributes[i] = (wA * vertices[a+i] + wB * vertices[b+i] + wC * vertices[c+i]) * w;
+		}
+	}
+
+	/**
+	 * The diffuse shader: a gamma decoded texel lit by ambient and diffuse light,
+	 * then gamma encoded.
+	 */
+	private int shade(DrawState state, float[] attributes) {
+		float nx = attributes[4];
+		float ny = attributes[5];
+		float nz = attributes[6];
+		float length = (float) Math.sqrt(nx * nx + ny * ny + nz * nz);
+		float lambert = 0;
+		if (length > 0) {
+			lambert = Math.max(0, (nx * state.lightX + ny * state.lightY + nz * state.lightZ) / length);
+		}
+
+		Texture texture = state.texture;
+		int tx = Math.floorMod((int) Math.floor(attributes[7] * texture.width), texture.width);
+		int ty = Math.floorMod((int) Math.floor(attributes[8] * texture.height), texture.height);
+		int k = 3 * (ty * texture.width + tx);
+
+		float r = texture.texels[k] * (state.ambientR + state.diffuseR * lambert);
+		float g = texture.texels[k+1] * (state.ambientG + state.diffuseG * lambert);
+		float b = texture.texels[k+2] * (state.ambientB + state.diffuseB * lambert);
+
+		return 0xff000000 | (encode(r) << 16) | (encode(g) << 8) | encode(b);
+	}
+
+	private int encode(float intensity) {
+		float i = Math.min(Math.max(intensity, 0), 1) * ENCODE_TABLE_SIZE;
+		return (int) (encode[(int) (i + 0.5f)] + 0.5f);
+	}
+
+	private static int pack(float alpha, float red, float green, float blue) {
+		return (toByte(alpha) << 24) | (toByte(red) << 16) | (toByte(green) << 8) | toByte(blue);
+	}
+
+	private static int toByte(float value) {
+		return Math.round(Math.min(Math.max(value, 0), 1) * 255);
+	}
+
+}
@@ -0,0 +1,248 @@
+package comp3170.demos.trefoil.sceneobjects;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.joml.Vector3f;
+
+import comp3170.demos.trefoil.sceneobjects.curves.Curve;
+
+/**
+ * Chooses where to place the slices of a tube so that the mesh stays within a
+ * given distance of the true surface, using as few slices as possible.
+ *
+ * Usage:
+ *
+ *		AdaptiveSampler sampler = new AdaptiveSampler(curve, tubeRadius);
+ *		sampler.setTolerance(AdaptiveSampler.toleranceForScreen(0.5f, 800, 8));
+ *		sampler.setMaxSlices(1000);
+ *		Mesh mesh = sweep.createMesh(sampler.sample());
+ *
+ * Slices are placed so that the estimated error is spread evenly along the curve.
+ * An arc of length ds and curvature k sags by about k ds^2 / 8 from its chord, and
+ * the outside of a tube of radius r sags by a further r k^2 ds^2 / 8. So an interval
+ * meets the tolerance if
+ *
+ *		ds <= sqrt(8 tolerance / (k + r k^2))
+ *
+ * The curve is first measured on a fine uniform grid, the number of slices each
+ * grid segment needs is summed, and the slices are placed at equal steps along that
+ * running total. Straight parts of the curve end up with few slices and tight bends
+ * with many. Any interval that still exceeds the tolerance is then split in half,
+ * as long as the slice budget allows.
+ */
+
+public class AdaptiveSampler {
+
+	private static final int GRID_SIZE = 4096;
+	private static final int PROBES = 4;	// measure the chord error at 1/4, 1/2 and 3/4
+
+	private final Curve curve;
+	private final float tubeRadius;
+
+	private float tolerance = 0.01f;
+	private int minSlices = 8;
+	private int maxSlices = 10000;
+
+	/**
+	 * @param curve			The curve to sample
+	 * @param tubeRadius	The distance of the tube surface from the curve
+	 */
+	public AdaptiveSampler(Curve curve, float tubeRadius) {
+		this.curve = curve;
+		this.tubeRadius = tubeRadius;
+	}
+
+	/**
+	 * @param tolerance	The maximum allowed distance between the mesh and the surface (in model units),
+	 * 					or 0 to always use maxSlices
+	 */
+	public void setTolerance(float tolerance) {
+		this.tolerance = tolerance;
+	}
+
+	/**
+	 * @param minSlices	The number of uniform slices to start from
+	 */
+	public void setMinSlices(int minSlices) {
+		this.minSlices = minSlices;
+	}
+
+	/**
+	 * @param maxSlices	The largest number of slices to produce, even if the tolerance is not met
+	 */
+	public void setMaxSlices(int maxSlices) {
+		this.maxSlices = maxSlices;
+	}
+
+	/**
+	 * Convert a screen space error into a model space tolerance.
+	 *
+	 * @param pixels			The allowed error in pixels
+	 * @param viewportHeight	The height of the viewport in pixels
+	 * @param viewHeight		The height of the view volume at the object (in model units)
+	 * @return the equivalent tolerance in model units
+	 */
+	public static float toleranceForScreen(float pixels, float viewportHeight, float viewHeight) {
+		return pixels * viewHeight / viewportHeight;
+	}
+
+	/**
+	 * Sample the curve adaptively.
+	 *
+	 * @return increasing parameter values from the start to the end of the curve, one per slice
+	 */
+	public float[] sample() {
+		float start = curve.getStart();
+		float end = curve.getEnd();
+
+		// measure how many slices each segment of a fine grid needs
+		int m = Math.max(GRID_SIZE, 4 * minSlices);
+		float[] gridT = new float[m+1];
+		double[] needed = new double[m+1];	// running total of slices needed
+
+		Vector3f p0 = new Vector3f();
+		Vector3f p1 = new Vector3f();
+		Vector3f t0 = new Vector3f();
+		Vector3f t1 = new Vector3f();
+
+		gridT[0] = start;
+		curve.getPosition(start, p0);
+		curve.getTangent(start, t0).normalize();
+
+		for (int i = 1; i <= m; i++) {
+			gridT[i] = (i == m ? end : start + i * (end - start) / m);
+			curve.getPosition(gridT[i], p1);
+			curve.getTangent(gridT[i], t1).normalize();
+
+			double ds = p0.distance(p1);
+			double theta = t0.angle(t1);	// = k ds
+
+			// ds / sqrt(8 tol / (k + r k^2)), without the 1 / sqrt(tol) factor
+			needed[i] = needed[i-1] + Math.sqrt((theta * ds + tubeRadius * theta * theta) / 8);
+
+			p0.set(p1);
+			t0.set(t1);
+		}
+
+		int n = maxSlices;
+		if (tolerance > 0) {
+			n = (int) Math.min(maxSlices, Math.ceil(needed[m] / Math.sqrt(tolerance)));
+		}
+		n = Math.max(n, Math.min(minSlices, maxSlices));
+		
+		if (needed[m] == 0) {
+			// the curve is straight, so any sampling will do
+			return uniformSamples(n);
+		}
+
+		// place slices at equal steps of the running total
+		List<Float> ts = new ArrayList<Float>(n + 1);
+		ts.add(start);
+		int g = 0;
+		for (int k = 1; k < n; k++) {
+			double target = k * needed[m] / n;
+			while (needed[g+1] < target) {
+				g++;
+			}
+			double f = (target - needed[g]) / (needed[g+1] - needed[g]);
+			ts.add((float) (gridT[g] + f * (gridT[g+1] - gridT[g])));
+		}
+		ts.add(end);
+
+		// split anything the estimate got wrong
+		for (int i = 0; i + 1 < ts.size() && ts.size() <= maxSlices; ) {
+			float a = ts.get(i);
+			float b = ts.get(i+1);
+			float mid = (a + b) / 2;
+			if (error(a, b) > tolerance && mid > a && mid < b) {
+				ts.add(i+1, mid);
+			}
+			else {
+				i++;
+			}
+		}
+
+		float[] result = new float[ts.size()];
+		for (int i = 0; i < result.length; i++) {
+			result[i] = ts.get(i);
+		}
+		return result;
+	}
+
+	private float[] uniformSamples(int n) {
+		float start = curve.getStart();
+		float end = curve.getEnd();
+		float[] ts = new float[n+1];
+		for (int i = 0; i <= n; i++) {
+			ts[i] = (i == n ? end : start + i * (end - start) / n);
+		}
+		return ts;
+	}
+
+	/**
+	 * @param ts	A sampling of the curve
+	 * @return the largest estimated error of any interval
+	 */
+	public float maxError(float[] ts) {
+		float max = 0;
+		for (int i = 0; i + 1 < ts.length; i++) {
+			max = Math.max(max, error(ts[i], ts[i+1]));
+		}
+		return max;
+	}
+
+	/**
+	 * Find the smallest uniform sampling that meets the tolerance, for comparison.
+	 *
+	 * @param sweep	The tube sweep used to generate uniform samples
+	 * @return the number of uniform slices needed (or maxSlices if that is not enough)
+	 */
+	public int uniformSlicesNeeded(TubeSweep sweep) {
+		int lo = minSlices;
+		int hi = minSlices;
+		while (hi < maxSlices && maxError(sweep.uniformSamples(hi)) > tolerance) {
+			lo = hi + 1;
+			hi = Math.min(hi * 2, maxSlices);
+		}
+
+		while (lo < hi) {
+			int mid = (lo + hi) / 2;
+			if (maxError(sweep.uniformSamples(mid)) > tolerance) {
+				lo = mid + 1;
+			}
+			else {
+				hi = mid;
+			}
+		}
+		return hi;
+	}
+
+	/**
+	 * Estimate the distance between the mesh and the surface over [a,b]
+	 */
+	private float error(float a, float b) {
+		Vector3f pa = curve.getPosition(a, new Vector3f());
+		Vector3f pb = curve.getPosition(b, new Vector3f());
+		Vector3f chord = pb.sub(pa, new Vector3f());
+		float chordLength2 = chord.lengthSquared();
+
+		// largest distance of the curve from the chord
+		float chordError = 0;
+		Vector3f p = new Vector3f();
+		for (int i = 1; i < PROBES; i++) {
+			curve.getPosition(a + (b - a) * i / PROBES, p).sub(pa);
+			float f = (chordLength2 > 0 ? Math.max(0, Math.min(1, p.dot(chord) / chordLength2)) : 0);
+			chordError = Math.max(chordError, p.fma(-f, chord).length());
+		}
+
+		// sag of the outer wall of the tube
+		Vector3f ta = curve.getTangent(a, new Vector3f()).normalize();
+		Vector3f tb = curve.getTangent(b, new Vector3f()).normalize();
+		float theta = ta.angle(tb);
+		float wallError = tubeRadius * (1 - (float) Math.cos(theta / 2));
+
+		return chordError + wallError;
+	}
+
+}
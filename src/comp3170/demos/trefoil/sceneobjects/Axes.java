@@ -1,79 +1,53 @@
 package comp3170.demos.trefoil.sceneobjects;
 
 import org.joml.Matrix4f;
-import org.joml.Vector4f;
 
-import com.jogamp.opengl.GL;
-import com.jogamp.opengl.GL4;
-import com.jogamp.opengl.GLContext;
-
-import comp3170.GLBuffers;
-import comp3170.Shader;
-import comp3170.demos.trefoil.shaders.ShaderLibrary;
+import comp3170.demos.trefoil.mesh.Bounds;
+import comp3170.demos.trefoil.mesh.Mesh;
+import comp3170.demos.trefoil.mesh.MeshBuilder;
+import comp3170.demos.trefoil.renderer.Material;
+import comp3170.demos.trefoil.renderer.Renderer;
 
 public class Axes extends SceneObject {
-	
-	private final static String VERTEX_SHADER = "vertex.glsl";
-	private final static String FRAGMENT_SHADER = "fragment.glsl";
-
-	private Vector4f[] vertices;
-	private int vertexBuffer;
-	private int indexBufferX;
-	private int indexBufferY;
-	private int indexBufferZ;
 
-	public Axes() {
-		super(ShaderLibrary.compileShader(VERTEX_SHADER, FRAGMENT_SHADER));
-		
-		// A set of i,j,k axes		
-		
-		this.vertices = new Vector4f[] {
-			new Vector4f(0,0,0,1),
-			new Vector4f(1,0,0,1),
-			new Vector4f(0,1,0,1),
-			new Vector4f(0,0,1,1),				
-		};
-		this.vertexBuffer = GLBuffers.createBuffer(vertices);
+	private Mesh mesh;
+	private Material[] materials;	// one colour per axis
 
-		this.indexBufferX = GLBuffers.createIndexBuffer(new int[] {0,1});		
-		this.indexBufferY = GLBuffers.createIndexBuffer(new int[] {0,2});		
-		this.indexBufferZ = GLBuffers.createIndexBuffer(new int[] {0,3});		
-	}
-	
+	public Axes(TransformStore transforms) {
+		super(transforms);
 
-	@Override
-	public void draw(Matrix4f viewMatrix, Matrix4f projectionMatrix) {
-		GL4 gl = (GL4) GLContext.getCurrentGL();
-
-		// activate the shader
-		shader.enable();		
-
-		calcModelMatrix();
-		shader.setUniform("u_modelMatrix", modelMatrix);
-		shader.setUniform("u_viewMatrix", viewMatrix);
-		shader.setUniform("u_projectionMatrix", projectionMatrix);
+		// A set of i,j,k axes
 
-		// connect the vertex buffer to the a_position attribute
-		shader.setAttribute("a_position", vertexBuffer);
+		MeshBuilder builder = new MeshBuilder(4);
+		builder.setPosition(0, 0, 0, 0);
+		builder.setPosition(1, 1, 0, 0);
+		builder.setPosition(2, 0, 1, 0);
+		builder.setPosition(3, 0, 0, 1);
 
-		// X axis in red
+		// one line per axis, drawn separately using an offset into the index buffer
+		this.mesh = builder.build(new int[] {0,1, 0,2, 0,3});
 
-		shader.setUniform("u_colour", new float[] {1,0,0});
-		gl.glBindBuffer(GL.GL_ELEMENT_ARRAY_BUFFER, indexBufferX);
-		gl.glDrawElements(GL.GL_LINES, 2, GL.GL_UNSIGNED_INT, 0);		
-
-		// Y axis in green
+		// X axis in red, Y axis in green, Z axis in blue
+		this.materials = new Material[3];
+		for (int i = 0; i < materials.length; i++) {
+			materials[i] = new Material();
+			materials[i].setColour(i == 0 ? 1 : 0, i == 1 ? 1 : 0, i == 2 ? 1 : 0);
+		}
+	}
 
-		shader.setUniform("u_colour", new float[] {0,1,0});
-		gl.glBindBuffer(GL.GL_ELEMENT_ARRAY_BUFFER, indexBufferY);
-		gl.glDrawElements(GL.GL_LINES, 2, GL.GL_UNSIGNED_INT, 0);		
 
-		// Z axis in blue
+	@Override
+	public Bounds getBounds() {
+		return mesh.getBounds();
+	}
 
-		shader.setUniform("u_colour", new float[] {0,0,1});
-		gl.glBindBuffer(GL.GL_ELEMENT_ARRAY_BUFFER, indexBufferZ);
-		gl.glDrawElements(GL.GL_LINES, 2, GL.GL_UNSIGNED_INT, 0);		
+	@Override
+	public void draw(Renderer renderer, Matrix4f viewMatrix, Matrix4f projectionMatrix) {
+		calcModelMatrix();
 
+		for (int i = 0; i < materials.length; i++) {
+			renderer.draw(mesh, Renderer.Primitive.LINES, 2 * i, 2, modelMatrix, viewMatrix, projectionMatrix, materials[i]);
+		}
 	}
 
 }
@@ -0,0 +1,591 @@
+package comp3170.demos.trefoil.sceneobjects;
+
+import java.util.Arrays;
+import java.util.function.IntConsumer;
+
+import org.joml.FrustumIntersection;
+
+/**
+ * A bounding volume hierarchy over a set of axis-aligned boxes, for finding the
+ * items in a frustum or along a ray without testing every one of them.
+ *
+ * Items are identified by their index in the boxes array, which holds six floats
+ * per item:
+ *
+ *		| minX | minY | minZ | maxX | maxY | maxZ |
+ *
+ * The tree is built top down with a binned surface area heuristic (SAH), and
+ * stored in flat arrays. Children are always stored after their parent, so the
+ * tree can be refitted bottom up with one backwards pass. The items under each
+ * node are a contiguous range of the items array, so a whole subtree can be
+ * visited without walking it.
+ *
+ * When items move, refit() updates the node boxes without changing the tree. This
+ * is fast, but the tree gets worse as items drift away from where they were when
+ * it was built. refit() tracks the SAH cost of the tree, and update() rebuilds it
+ * once the cost is REBUILD_RATIO times what it was after the last build.
+ *
+ * No GL context is needed.
+ */
+
+public class BVH {
+
+	/**
+	 * An exact test of a ray against one item, for nearest().
+	 */
+	public interface RayTest {
+		/**
+		 * @param item	The item whose box the ray hits
+		 * @return the distance along the ray to the item, or Float.POSITIVE_INFINITY if it misses
+		 */
+		public float intersect(int item);
+	}
+
+	private static final int MAX_LEAF_SIZE = 4;
+	private static final int BINS = 16;
+	private static final float TRAVERSAL_COST = 1;
+	private static final float INTERSECTION_COST = 1;
+	public static final float REBUILD_RATIO = 1.5f;
+
+	private float[] boxes;
+	private int itemCount = 0;
+	private int[] items = new int[0];		// item indices, grouped by leaf
+
+	private int nodeCount = 0;
+	private float[] nodeBounds = new float[0];	// 6 per node
+	private int[] left = new int[0];			// left child (right = left + 1), or -1 for a leaf
+	private int[] first = new int[0];			// first entry in items for the node's subtree
+	private int[] count = new int[0];			// number of items in the node's subtree
+
+	private float builtCost = 0;
+	private float cost = 0;
+	private int buildCount = 0;
+
+	// scratch for building
+	private float[] centroids = new float[0];
+	private final int[] binCount = new int[BINS];
+	private final float[] binBounds = new float[BINS * 6];
+	private final float[] leftArea = new float[BINS];
+	private final int[] leftCount = new int[BINS];
+	private final float[] scratchBox = new float[6];
+
+	// traversal stack
+	private int[] stack = new int[64];
+	private float[] stackT = new float[64];
+
+	/**
+	 * Build the tree from scratch.
+	 *
+	 * @param boxes		The items' boxes, 6 floats each. Kept by reference for refit().
+	 * @param itemCount	The number of items
+	 */
+	public void build(float[] boxes, int itemCount) {
+		this.boxes = boxes;
+		this.itemCount = itemCount;
+
+		if (items.length < itemCount) {
+			items = new int[itemCount];
+			centroids = new float[3 * itemCount];
+		}
+		int maxNodes = Math.max(1, 2 * itemCount - 1);
+		if (left.length < maxNodes) {
+			nodeBounds = new float[6 * maxNodes];
+			left = new int[maxNodes];
+			first = new int[maxNodes];
+			count = new int[maxNodes];
+		}
+
+		for (int i = 0; i < itemCount; i++) {
+			items[i] = i;
+			for (int a = 0; a < 3; a++) {
+				centroids[3*i + a] = (boxes[6*i + a] + boxes[6*i + 3 + a]) / 2;
+			}
+		}
+
+		nodeCount = 1;
+		left[0] = -1;
+		first[0] = 0;
+		count[0] = itemCount;
+		fitLeaf(0);
+
+		// split nodes until every leaf is small enough or not worth splitting
+		int top = 0;
+		stack[top++] = 0;
+		while (top > 0) {
+			int node = stack[--top];
+			if (split(node)) {
+				ensureStack(top + 2);
+				stack[top++] = left[node] + 1;
+				stack[top++] = left[node];
+			}
+		}
+
+		cost = computeCost();
+		builtCost = cost;
+		buildCount++;
+	}
+
+	public int getItemCount() {
+		return itemCount;
+	}
+
+	public int getNodeCount() {
+		return nodeCount;
+	}
+
+	/**
+	 * @return the SAH cost of the tree, relative to testing against the root's box
+	 */
+	public float getCost() {
+		return cost;
+	}
+
+	/**
+	 * @return the SAH cost straight after the last build
+	 */
+	public float getBuiltCost() {
+		return builtCost;
+	}
+
+	/**
+	 * @return the number of times the tree has been built
+	 */
+	public int getBuildCount() {
+		return buildCount;
+	}
+
+	/**
+	 * Update the node boxes after items have moved, keeping the tree's structure.
+	 * The boxes array passed to build() must have been updated in place.
+	 */
+	public void refit() {
+		for (int node = nodeCount - 1; node >= 0; node--) {
+			if (left[node] < 0) {
+				fitLeaf(node);
+			}
+			else {
+				int l = left[node];
+				for (int a = 0; a < 3; a++) {
+					nodeBounds[6*node + a] = Math.min(nodeBounds[6*l + a], nodeBounds[6*(l+1) + a]);
+					nodeBounds[6*node + 3 + a] = Math.max(nodeBounds[6*l + 3 + a], nodeBounds[6*(l+1) + 3 + a]);
+				}
+			}
+		}
+		cost = computeCost();
+	}
+
+	/**
+	 * @return true if refitting has made the tree much worse than a fresh build
+	 */
+	public boolean isDegraded() {
+		return cost > builtCost * REBUILD_RATIO;
+	}
+
+	/**
+	 * Refit the tree after items have moved, and rebuild it if it has degraded.
+	 *
+	 * @return true if the tree was rebuilt
+	 */
+	public boolean update() {
+		refit();
+		if (isDegraded()) {
+			build(boxes, itemCount);
+			return true;
+		}
+		return false;
+	}
+
+	// Queries
+
+	/**
+	 * Visit every item whose box is inside or crosses the frustum. Subtrees entirely
+	 * inside the frustum are visited without further tests.
+	 *
+	 * @param frustum	The frustum
+	 * @param visitor	Called with the index of each item
+	 * @return the number of items visited
+	 */
+	public int queryFrustum(FrustumIntersection frustum, IntConsumer visitor) {
+		if (itemCount == 0) {
+			return 0;
+		}
+
+		int visited = 0;
+		int top = 0;
+		stack[top++] = 0;
+		while (top > 0) {
+			int node = stack[--top];
+			int b = 6 * node;
+			int result = frustum.intersectAab(nodeBounds[b], nodeBounds[b+1], nodeBounds[b+2],
+					nodeBounds[b+3], nodeBounds[b+4], nodeBounds[b+5]);
+			if (result == FrustumIntersection.INSIDE) {
+				visited += visitAll(node, visitor);
+			}
+			else if (result == FrustumIntersection.INTERSECT) {
+				if (left[node] < 0) {
+					// test the items in the leaf individually
+					for (int k = first[node]; k < first[node] + count[node]; k++) {
+						int i = items[k];
+						if (frustum.testAab(boxes[6*i], boxes[6*i+1], boxes[6*i+2], boxes[6*i+3], boxes[6*i+4], boxes[6*i+5])) {
+							visitor.accept(i);
+							visited++;
+						}
+					}
+				}
+				else {
+					ensureStack(top + 2);
+					stack[top++] = left[node] + 1;
+					stack[top++] = left[node];
+				}
+			}
+		}
+		return visited;
+	}
+
+	private int visitAll(int node, IntConsumer visitor) {
+		for (int k = first[node]; k < first[node] + count[node]; k++) {
+			visitor.accept(items[k]);
+		}
+		return count[node];
+	}
+
+	/**
+	 * Visit every item whose box the ray hits, within a maximum distance.
+	 *
+	 * @param ox, oy, oz	The ray origin
+	 * @param dx, dy, dz	The ray direction
+	 * @param maxT			The maximum distance along the ray, in units of the direction's length
+	 * @param visitor		Called with the index of each item
+	 * @return the number of items visited
+	 */
+	public int queryRay(float ox, float oy, float oz, float dx, float dy, float dz, float maxT, IntConsumer visitor) {
+		if (itemCount == 0) {
+			return 0;
+		}
+
+		float ix = 1 / dx;
+		float iy = 1 / dy;
+		float iz = 1 / dz;
+
+		int visited = 0;
+		int top = 0;
+		stack[top++] = 0;
+		while (top > 0) {
+			int node = stack[--top];
+			if (rayBox(nodeBounds, 6 * node, ox, oy, oz, ix, iy, iz, maxT) == Float.POSITIVE_INFINITY) {
+				continue;
+			}
+			if (left[node] < 0) {
+				for (int k = first[node]; k < first[node] + count[node]; k++) {
+					int i = items[k];
+					if (rayBox(boxes, 6 * i, ox, oy, oz, ix, iy, iz, maxT) != Float.POSITIVE_INFINITY) {
+						visitor.accept(i);
+						visited++;
+					}
+				}
+			}
+			else {
+				ensureStack(top + 2);
+				stack[top++] = left[node] + 1;
+				stack[top++] = left[node];
+			}
+		}
+		return visited;
+	}
+
+	/**
+	 * Find the nearest item along a ray. Nodes are visited nearest first, and
+	 * anything further away than the best hit so far is skipped. Of items hit at
+	 * the same distance, the first one tested is kept.
+	 *
+	 * @param ox, oy, oz	The ray origin
+	 * @param dx, dy, dz	The ray direction
+	 * @param maxT			The maximum distance along the ray, in units of the direction's length
+	 * @param test			The exact test for each item, or null to use the item's box
+	 * @param hitT			If not null, hitT[0] is set to the distance to the hit
+	 * @return the nearest item hit, or -1 if none
+	 */
+	public int nearest(float ox, float oy, float oz, float dx, float dy, float dz, float maxT, RayTest test, float[] hitT) {
+		int best = -1;
+		float bestT = maxT;
+		if (itemCount == 0) {
+			return best;
+		}
+
+		float ix = 1 / dx;
+		float iy = 1 / dy;
+		float iz = 1 / dz;
+
+		float rootT = rayBox(nodeBounds, 0, ox, oy, oz, ix, iy, iz, bestT);
+		if (rootT == Float.POSITIVE_INFINITY) {
+			return best;
+		}
+
+		int top = 0;
+		stack[top] = 0;
+		stackT[top++] = rootT;
+		while (top > 0) {
+			top--;
+			int node = stack[top];
+			if (stackT[top] > bestT) {
+				continue;
+			}
+
+			if (left[node] < 0) {
+				for (int k = first[node]; k < first[node] + count[node]; k++) {
+					int i = items[k];
+					float t = rayBox(boxes, 6 * i, ox, oy, oz, ix, iy, iz, bestT);
+					if (t == Float.POSITIVE_INFINITY) {
+						continue;
+					}
+					if (test != null) {
+						t = test.intersect(i);
+					}
+					// strictly nearer, so a tie keeps the first hit (and a miss is never a hit)
+					if (t < bestT) {
+						best = i;
+						bestT = t;
+					}
+				}
+			}
+			else {
+				// push the further child first, so the nearer one is visited next
+				int l = left[node];
+				float tl = rayBox(nodeBounds, 6 * l, ox, oy, oz, ix, iy, iz, bestT);
+				float tr = rayBox(nodeBounds, 6 * (l+1), ox, oy, oz, ix, iy, iz, bestT);
+				ensureStack(top + 2);
+				if (tl <= tr) {
+					top = push(top, l + 1, tr);
+					top = push(top, l, tl);
+				}
+				else {
+					top = push(top, l, tl);
+					top = push(top, l + 1, tr);
+				}
+			}
+		}
+
+		if (hitT != null) {
+			hitT[0] = bestT;
+		}
+		return best;
+	}
+
+	private int push(int top, int node, float t) {
+		if (t != Float.POSITIVE_INFINITY) {
+			stack[top] = node;
+			stackT[top++] = t;
+		}
+		return top;
+	}
+
+	/**
+	 * Slab test of a ray against a box.
+	 *
+	 * @return the distance to where the ray enters the box (0 if it starts inside),
+	 * or Float.POSITIVE_INFINITY if it misses or the box is further than maxT
+	 */
+	static float rayBox(float[] box, int b, float ox, float oy, float oz,
+			float ix, float iy, float iz, float maxT) {
+		float t0 = (box[b] - ox) * ix;
+		float t1 = (box[b+3] - ox) * ix;
+		float tmin = Math.min(t0, t1);
+		float tmax = Math.max(t0, t1);
+
+		t0 = (box[b+1] - oy) * iy;
+		t1 = (box[b+4] - oy) * iy;
+		tmin = Math.max(tmin, Math.min(t0, t1));
+		tmax = Math.min(tmax, Math.max(t0, t1));
+
+		t0 = (box[b+2] - oz) * iz;
+		t1 = (box[b+5] - oz) * iz;
+		tmin = Math.max(tmin, Math.min(t0, t1));
+		tmax = Math.min(tmax, Math.max(t0, t1));
+
+		tmin = Math.max(tmin, 0);
+		if (tmin > tmax || tmin > maxT) {
+			return Float.POSITIVE_INFINITY;
+		}
+		return tmin;
+	}
+
+	// Building
+
+	/**
+	 * Split a leaf in two with a binned SAH, if that is cheaper than leaving it.
+	 *
+	 * @return true if the node was split
+	 */
+	private boolean split(int node) {
+		int n = count[node];
+		if (n <= MAX_LEAF_SIZE) {
+			return false;
+		}
+		int start = first[node];
+
+		// bin along the longest axis of the centroids
+		float[] cMin = { Float.POSITIVE_INFINITY, Float.POSITIVE_INFINITY, Float.POSITIVE_INFINITY };
+		float[] cMax = { Float.NEGATIVE_INFINITY, Float.NEGATIVE_INFINITY, Float.NEGATIVE_INFINITY };
+		for (int k = start; k < start + n; k++) {
+			int i = items[k];
+			for (int a = 0; a < 3; a++) {
+				cMin[a] = Math.min(cMin[a], centroids[3*i + a]);
+				cMax[a] = Math.max(cMax[a], centroids[3*i + a]);
+			}
+		}
+		int axis = 0;
+		for (int a = 1; a < 3; a++) {
+			if (cMax[a] - cMin[a] > cMax[axis] - cMin[axis]) {
+				axis = a;
+			}
+		}
+		float extent = cMax[axis] - cMin[axis];
+
+		int mid;
+		if (extent <= 0) {
+			// every centroid is in the same place, so split the list in half
+			mid = start + n / 2;
+		}
+		else {
+			float scale = BINS / extent;
+			for (int bin = 0; bin < BINS; bin++) {
+				binCount[bin] = 0;
+				emptyBox(binBounds, 6 * bin);
+			}
+			for (int k = start; k < start + n; k++) {
+				int i = items[k];
+				int bin = binOf(centroids[3*i + axis], cMin[axis], scale);
+				binCount[bin]++;
+				growBox(binBounds, 6 * bin, boxes, 6 * i);
+			}
+
+			// sweep from the left, recording the area and count left of each split
+			emptyBox(scratchBox, 0);
+			int total = 0;
+			for (int bin = 0; bin < BINS - 1; bin++) {
+				growBox(scratchBox, 0, binBounds, 6 * bin);
+				total += binCount[bin];
+				leftArea[bin] = area(scratchBox, 0);
+				leftCount[bin] = total;
+			}
+
+			// sweep from the right, finding the cheapest split
+			emptyBox(scratchBox, 0);
+			float bestCost = Float.POSITIVE_INFINITY;
+			int bestSplit = -1;
+			total = 0;
+			for (int bin = BINS - 1; bin > 0; bin--) {
+				growBox(scratchBox, 0, binBounds, 6 * bin);
+				total += binCount[bin];
+				float c = leftArea[bin-1] * leftCount[bin-1] + area(scratchBox, 0) * total;
+				if (leftCount[bin-1] > 0 && total > 0 && c < bestCost) {
+					bestCost = c;
+					bestSplit = bin;
+				}
+			}
+
+			float leafCost = area(nodeBounds, 6 * node) * n * INTERSECTION_COST;
+			float splitCost = TRAVERSAL_COST * area(nodeBounds, 6 * node) + INTERSECTION_COST * bestCost;
+			if (bestSplit < 0) {
+				// everything fell in one bin, so split the list in half
+				mid = start + n / 2;
+			}
+			else if (splitCost >= leafCost && n <= 4 * MAX_LEAF_SIZE) {
+				// not worth splitting
+				return false;
+			}
+			else {
+				// partition the items either side of the split
+				int i = start;
+				int j = start + n - 1;
+				while (i <= j) {
+					if (binOf(centroids[3*items[i] + axis], cMin[axis], scale) < bestSplit) {
+						i++;
+					}
+					else {
+						int tmp = items[i];
+						items[i] = items[j];
+						items[j--] = tmp;
+					}
+				}
+				mid = i;
+			}
+		}
+
+		int l = nodeCount;
+		nodeCount += 2;
+		left[node] = l;
+
+		left[l] = -1;
+		first[l] = start;
+		count[l] = mid - start;
+		fitLeaf(l);
+
+		left[l+1] = -1;
+		first[l+1] = mid;
+		count[l+1] = start + n - mid;
+		fitLeaf(l+1);
+
+		return true;
+	}
+
+	private static int binOf(float c, float min, float scale) {
+		return Math.min(BINS - 1, (int) ((c - min) * scale));
+	}
+
+	private void fitLeaf(int node) {
+		emptyBox(nodeBounds, 6 * node);
+		for (int k = first[node]; k < first[node] + count[node]; k++) {
+			growBox(nodeBounds, 6 * node, boxes, 6 * items[k]);
+		}
+	}
+
+	/**
+	 * SAH cost of the tree: the expected number of node and item tests for a ray
+	 * that hits the root, using each node's surface area relative to the root's
+	 * as the chance it is hit.
+	 */
+	private float computeCost() {
+		float rootArea = area(nodeBounds, 0);
+		if (itemCount == 0 || rootArea <= 0) {
+			return 0;
+		}
+
+		float total = 0;
+		for (int node = 0; node < nodeCount; node++) {
+			float p = area(nodeBounds, 6 * node) / rootArea;
+			total += p * (left[node] < 0 ? INTERSECTION_COST * count[node] : TRAVERSAL_COST);
+		}
+		return total;
+	}
+
+	private static void emptyBox(float[] box, int b) {
+		box[b] = box[b+1] = box[b+2] = Float.POSITIVE_INFINITY;
+		box[b+3] = box[b+4] = box[b+5] = Float.NEGATIVE_INFINITY;
+	}
+
+	private static void growBox(float[] box, int b, float[] other, int o) {
+		for (int a = 0; a < 3; a++) {
+			box[b+a] = Math.min(box[b+a], other[o+a]);
+			box[b+3+a] = Math.max(box[b+3+a], other[o+3+a]);
+		}
+	}
+
+	private static float area(float[] box, int b) {
+		float dx = box[b+3] - box[b];
+		float dy = box[b+4] - box[b+1];
+		float dz = box[b+5] - box[b+2];
+		if (dx < 0 || dy < 0 || dz < 0) {
+			return 0;
+		}
+		return 2 * (dx * dy + dy * dz + dz * dx);
+	}
+
+	private void ensureStack(int size) {
+		if (size > stack.length) {
+			stack = Arrays.copyOf(stack, 2 * size);
+			stackT = Arrays.copyOf(stackT, 2 * size);
+		}
+	}
+
+}
@@ -0,0 +1,151 @@
+package comp3170.demos.trefoil.sceneobjects;
+
+import org.joml.Vector2f;
+import org.joml.Vector3f;
+
+/**
+ * A closed polygon in the XY plane, swept along a curve by TubeSweep.
+ *
+ * Points should be listed anticlockwise, so that the edge normals point outwards.
+ * Each edge j runs from point j to point j+1 and has a single flat normal.
+ */
+
+public class CrossSection {
+
+	private static final float TAU = (float) (Math.PI * 2);
+
+	private final float[] points;	// (x,y) pairs
+	private final float[] normals;	// (x,y) pairs, one per edge
+	private final float[] colours;	// (r,g,b) triples, one per point
+
+	/**
+	 * Create a white cross section
+	 *
+	 * @param points	The polygon points, anticlockwise
+	 */
+	public CrossSection(Vector2f[] points) {
+		this(points, null);
+	}
+
+	/**
+	 * Create a cross section with a colour at each point
+	 *
+	 * @param points	The polygon points, anticlockwise
+	 * @param colours	The colour at each point (or null for white)
+	 */
+	public CrossSection(Vector2f[] points, Vector3f[] colours) {
+		int n = points.length;
+		if (n < 3) {
+			throw new IllegalArgumentException("A cross section needs at least 3 points");
+		}
+		if (colours != null && colours.length != n) {
+			throw new IllegalArgumentException("Expected " + n + " colours, got " + colours.length);
+		}
+
+		this.points = new float[2 * n];
+		this.normals = new float[2 * n];
+		this.colours = new float[3 * n];
+
+		for (int j = 0; j < n; j++) {
+			this.points[2*j] = points[j].x;
+			this.points[2*j+1] = points[j].y;
+
+			// outward normal of edge j: rotate the edge direction by -90°
+			Vector2f p0 = points[j];
+			Vector2f p1 = points[(j+1) % n];
+			float dx = p1.x - p0.x;
+			float dy = p1.y - p0.y;
+			float length = (float) Math.sqrt(dx * dx + dy * dy);
+			this.normals[2*j] = dy / length;
+			this.normals[2*j+1] = -dx / length;
+
+			Vector3f c = (colours == null ? new Vector3f(1,1,1) : colours[j]);
+			this.colours[3*j] = c.x;
+			this.colours[3*j+1] = c.y;
+			this.colours[3*j+2] = c.z;
+		}
+	}
+
+	/**
+	 * The square cross section originally used by the trefoil:
+	 *
+	 *  3-----2
+	 *  |     |
+	 *  |  *  |    Y
+	 *  |     |    |
+	 *  0-----1    +--X
+	 */
+	public static CrossSection square() {
+		return new CrossSection(
+			new Vector2f[] {
+				new Vector2f(-1, -1),
+				new Vector2f( 1, -1),
+				new Vector2f( 1,  1),
+				new Vector2f(-1,  1),
+			},
+			new Vector3f[] {
+				new Vector3f(1, 0, 0),		// Red
+				new Vector3f(1, 1, 0),		// Yellow
+				new Vector3f(0, 1, 0),		// Green
+				new Vector3f(0, 0, 1),		// Blue
+			});
+	}
+
+	/**
+	 * A regular n-sided polygon of radius 1, with the first point on the X axis.
+	 *
+	 * @param n	The number of sides
+	 */
+	public static CrossSection regularPolygon(int n) {
+		Vector2f[] points = new Vector2f[n];
+		for (int j = 0; j < n; j++) {
+			float a = j * TAU / n;
+			points[j] = new Vector2f((float) Math.cos(a), (float) Math.sin(a));
+		}
+		return new CrossSection(points);
+	}
+
+	public int size() {
+		return points.length / 2;
+	}
+
+	public float getX(int j) {
+		return points[2*j];
+	}
+
+	public float getY(int j) {
+		return points[2*j+1];
+	}
+
+	public float getNormalX(int j) {
+		return normals[2*j];
+	}
+
+	public float getNormalY(int j) {
+		return normals[2*j+1];
+	}
+
+	public float getRed(int j) {
+		return colours[3*j];
+	}
+
+	public float getGreen(int j) {
+		return colours[3*j+1];
+	}
+
+	public float getBlue(int j) {
+		return colours[3*j+2];
+	}
+
+	/**
+	 * @return the largest distance of any point from the origin
+	 */
+	public float getRadius() {
+		float r2 = 0;
+		for (int j = 0; j < size(); j++) {
+			r2 = Math.max(r2, getX(j) * getX(j) + getY(j) * getY(j));
+		}
+		return (float) Math.sqrt(r2);
+	}
+
+}
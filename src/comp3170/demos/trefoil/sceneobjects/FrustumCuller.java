@@ -0,0 +1,119 @@
+package comp3170.demos.trefoil.sceneobjects;
+
+import org.joml.FrustumIntersection;
+import org.joml.Matrix4f;
+import org.joml.Matrix4fc;
+import org.joml.Vector3f;
+
+import comp3170.demos.trefoil.mesh.Bounds;
+
+/**
+ * Tests objects' bounds against the view frustum, so objects that can't be seen
+ * are not drawn.
+ *
+ * The six frustum planes are extracted from projectionMatrix * viewMatrix once
+ * per frame. Each object's model space bounds are moved into world space with
+ * its model matrix. The bounding sphere is tested first, since it is cheap. Only
+ * spheres that cross a plane are tested again as a box, which is tighter.
+ *
+ * The counters record how many objects were tested, culled and drawn since the
+ * last resetCounters().
+ *
+ * No GL context is needed.
+ */
+
+public class FrustumCuller {
+
+	private final FrustumIntersection frustum = new FrustumIntersection();
+	private final Matrix4f projectionView = new Matrix4f();
+
+	private final Vector3f centre = new Vector3f();
+	private final Vector3f min = new Vector3f();
+	private final Vector3f max = new Vector3f();
+
+	private int culled = 0;
+	private int drawn = 0;
+
+	/**
+	 * Set the frustum for this frame.
+	 *
+	 * @param projectionMatrix	The projection matrix
+	 * @param viewMatrix		The view matrix
+	 */
+	public void setFrustum(Matrix4fc projectionMatrix, Matrix4fc viewMatrix) {
+		projectionMatrix.mul(viewMatrix, projectionView);
+		frustum.set(projectionView);
+	}
+
+	/**
+	 * Test whether an object may be visible, and count the result.
+	 *
+	 * @param bounds		The object's bounds in model space
+	 * @param modelMatrix	The object's MODEL -> WORLD matrix
+	 * @return false if the object is definitely outside the frustum
+	 */
+	public boolean isVisible(Bounds bounds, Matrix4fc modelMatrix) {
+		return count(test(bounds, modelMatrix));
+	}
+
+	/**
+	 * Count the result of a test made elsewhere, e.g. by a BVH query.
+	 *
+	 * @param visible	The result
+	 * @return visible
+	 */
+	public boolean count(boolean visible) {
+		if (visible) {
+			drawn++;
+		}
+		else {
+			culled++;
+		}
+		return visible;
+	}
+
+	private boolean test(Bounds bounds, Matrix4fc modelMatrix) {
+		if (bounds.isEmpty()) {
+			return false;
+		}
+
+		float radius = bounds.transformSphere(modelMatrix, centre);
+		int result = frustum.intersectSphere(centre.x, centre.y, centre.z, radius);
+		if (result == FrustumIntersection.OUTSIDE) {
+			return false;
+		}
+		if (result == FrustumIntersection.INSIDE) {
+			return true;
+		}
+
+		// the sphere crosses a plane, so try the tighter box
+		bounds.transformBox(modelMatrix, min, max);
+		return frustum.testAab(min, max);
+	}
+
+	/**
+	 * @return the frustum set by the last setFrustum()
+	 */
+	public FrustumIntersection getFrustum() {
+		return frustum;
+	}
+
+	public int getCulledCount() {
+		return culled;
+	}
+
+	public int getDrawnCount() {
+		return drawn;
+	}
+
+	public void resetCounters() {
+		culled = 0;
+		drawn = 0;
+	}
+
+	@Override
+	public String toString() {
+		return String.format("drawn %d, culled %d", drawn, culled);
+	}
+
+}
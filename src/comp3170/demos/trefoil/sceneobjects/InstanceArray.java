@@ -0,0 +1,218 @@
+package comp3170.demos.trefoil.sceneobjects;
+
+import java.util.Arrays;
+
+import org.joml.Matrix4f;
+import org.joml.Vector3f;
+
+/**
+ * The per-instance data for an instanced scene object: a position, angle, scale
+ * and colour for each copy, packed into a single float array ready to upload as
+ * an instance buffer.
+ *
+ * Each instance is packed as INSTANCE_SIZE floats:
+ *
+ *		| model matrix (16, column major) | r | g | b | 1 |
+ *
+ * The model matrix is built the same way as SceneObject.calcModelMatrix().
+ * Only instances changed since the last pack() are recomputed, and the range
+ * they cover is recorded so it can be uploaded in one call.
+ *
+ * No GL context is needed, so the packing can be checked headlessly.
+ */
+
+public class InstanceArray {
+
+	public static final int MATRIX_SIZE = 16;
+	public static final int COLOUR_SIZE = 4;
+	public static final int INSTANCE_SIZE = MATRIX_SIZE + COLOUR_SIZE;
+
+	private int count = 0;
+
+	private float[] positions;	// x, y, z
+	private float[] angles;		// pitch, heading, roll
+	private float[] scales;
+	private float[] colours;	// r, g, b
+	private float[] packed;
+
+	// instances in [dirtyStart, dirtyEnd) need repacking
+	private int dirtyStart = Integer.MAX_VALUE;
+	private int dirtyEnd = 0;
+
+	// range repacked by the last pack()
+	private int packedStart = 0;
+	private int packedEnd = 0;
+
+	private final Matrix4f matrix = new Matrix4f();
+
+	/**
+	 * @param capacity	The number of instances to allocate space for (grows as needed)
+	 */
+	public InstanceArray(int capacity) {
+		allocate(Math.max(capacity, 1));
+	}
+
+	private void allocate(int capacity) {
+		positions = Arrays.copyOf(positions == null ? new float[0] : positions, 3 * capacity);
+		angles = Arrays.copyOf(angles == null ? new float[0] : angles, 3 * capacity);
+		scales = Arrays.copyOf(scales == null ? new float[0] : scales, capacity);
+		colours = Arrays.copyOf(colours == null ? new float[0] : colours, 3 * capacity);
+		packed = Arrays.copyOf(packed == null ? new float[0] : packed, INSTANCE_SIZE * capacity);
+	}
+
+	public int size() {
+		return count;
+	}
+
+	/**
+	 * @return the number of instances that fit without reallocating
+	 */
+	public int getCapacity() {
+		return scales.length;
+	}
+
+	/**
+	 * Add an instance at the origin, with no rotation, scale 1 and colour white.
+	 *
+	 * @return the index of the new instance
+	 */
+	public int add() {
+		if (count == getCapacity()) {
+			allocate(2 * count);
+		}
+
+		int i = count++;
+		setPosition(i, 0, 0, 0);
+		setAngle(i, 0, 0, 0);
+		setScale(i, 1);
+		setColour(i, 1, 1, 1);
+		return i;
+	}
+
+	/**
+	 * Remove all instances.
+	 */
+	public void clear() {
+		count = 0;
+		dirtyStart = Integer.MAX_VALUE;
+		dirtyEnd = 0;
+	}
+
+	public void setPosition(int i, float x, float y, float z) {
+		positions[3*i] = x;
+		positions[3*i+1] = y;
+		positions[3*i+2] = z;
+		markDirty(i);
+	}
+
+	public void setPosition(int i, Vector3f position) {
+		setPosition(i, position.x, position.y, position.z);
+	}
+
+	public Vector3f getPosition(int i, Vector3f dest) {
+		return dest.set(positions[3*i], positions[3*i+1], positions[3*i+2]);
+	}
+
+	public void setAngle(int i, float pitch, float heading, float roll) {
+		angles[3*i] = pitch;
+		angles[3*i+1] = heading;
+		angles[3*i+2] = roll;
+		markDirty(i);
+	}
+
+	public Vector3f getAngle(int i, Vector3f dest) {
+		return dest.set(angles[3*i], angles[3*i+1], angles[3*i+2]);
+	}
+
+	public void setScale(int i, float scale) {
+		scales[i] = scale;
+		markDirty(i);
+	}
+
+	public float getScale(int i) {
+		return scales[i];
+	}
+
+	public void setColour(int i, float red, float green, float blue) {
+		colours[3*i] = red;
+		colours[3*i+1] = green;
+		colours[3*i+2] = blue;
+		markDirty(i);
+	}
+
+	public Vector3f getColour(int i, Vector3f dest) {
+		return dest.set(colours[3*i], colours[3*i+1], colours[3*i+2]);
+	}
+
+	private void markDirty(int i) {
+		dirtyStart = Math.min(dirtyStart, i);
+		dirtyEnd = Math.max(dirtyEnd, i + 1);
+	}
+
+	/**
+	 * Recompute the packed data for every instance changed since the last call.
+	 *
+	 * @return true if anything was repacked
+	 */
+	public boolean pack() {
+		if (dirtyStart >= dirtyEnd) {
+			packedStart = packedEnd = 0;
+			return false;
+		}
+
+		for (int i = dirtyStart; i < dirtyEnd; i++) {
+			int k = INSTANCE_SIZE * i;
+
+			matrix.translation(positions[3*i], positions[3*i+1], positions[3*i+2]);
+			matrix.rotateY(angles[3*i+1]);	// heading
+			matrix.rotateX(angles[3*i]);	// pitch
+			matrix.rotateZ(angles[3*i+2]);	// roll
+			matrix.scale(scales[i]);
+			matrix.get(packed, k);
+
+			packed[k + MATRIX_SIZE] = colours[3*i];
+			packed[k + MATRIX_SIZE + 1] = colours[3*i+1];
+			packed[k + MATRIX_SIZE + 2] = colours[3*i+2];
+			packed[k + MATRIX_SIZE + 3] = 1;
+		}
+
+		packedStart = dirtyStart;
+		packedEnd = dirtyEnd;
+		dirtyStart = Integer.MAX_VALUE;
+		dirtyEnd = 0;
+		return true;
+	}
+
+	/**
+	 * @return the first instance repacked by the last pack()
+	 */
+	public int getPackedStart() {
+		return packedStart;
+	}
+
+	/**
+	 * @return one past the last instance repacked by the last pack()
+	 */
+	public int getPackedEnd() {
+		return packedEnd;
+	}
+
+	/**
+	 * @return the packed instance data (INSTANCE_SIZE floats per instance)
+	 */
+	public float[] getPacked() {
+		return packed;
+	}
+
+	/**
+	 * Read an instance's model matrix back from the packed data.
+	 *
+	 * @param i		The instance
+	 * @param dest	The matrix to write
+	 * @return dest
+	 */
+	public Matrix4f getModelMatrix(int i, Matrix4f dest) {
+		return dest.set(packed, INSTANCE_SIZE * i);
+	}
+
+}
@@ -0,0 +1,321 @@
+package comp3170.demos.trefoil.sceneobjects;
+
+import java.nio.FloatBuffer;
+import java.util.Arrays;
+
+import org.joml.Matrix4f;
+import org.joml.Matrix4fc;
+import org.joml.Vector3f;
+
+import com.jogamp.common.nio.Buffers;
+import com.jogamp.opengl.GL;
+import com.jogamp.opengl.GL4;
+import com.jogamp.opengl.GLContext;
+
+import comp3170.demos.trefoil.mesh.Mesh;
+import comp3170.demos.trefoil.mesh.VertexFormat;
+import comp3170.demos.trefoil.renderer.GLRenderer;
+import comp3170.demos.trefoil.renderer.Material;
+import comp3170.demos.trefoil.renderer.RenderQueue;
+import comp3170.demos.trefoil.renderer.Renderer;
+import comp3170.demos.trefoil.sceneobjects.curves.TrefoilCurve;
+import comp3170.demos.trefoil.shaders.CachedShader;
+import comp3170.demos.trefoil.shaders.ProgramKey;
+import comp3170.demos.trefoil.shaders.ShaderLibrary;
+
+/**
+ * Many copies of the trefoil, drawn with a single glDrawElementsInstanced call.
+ *
+ * Each copy's position, angle, scale and colour is stored in an InstanceArray,
+ * which is packed into one instance buffer. Only the instances changed since the
+ * last frame are repacked and uploaded.
+ *
+ * Usage:
+ *
+ *		InstancedTrefoil trefoils = new InstancedTrefoil(1000, transforms);
+ *		int i = trefoils.getInstances().add();
+ *		trefoils.getInstances().setPosition(i, x, y, z);
+ *		...
+ *		trefoils.draw(renderer, viewMatrix, projectionMatrix);
+ *
+ * With setInstanced(false) the copies are drawn one at a time instead, with the
+ * instance attributes set as constant vertex attributes from the same packed data.
+ * This is slower, but is useful for comparison.
+ *
+ * With a GLRenderer the draw is queued as a RenderQueue.Command and made at
+ * endFrame(), so the instances must not change between draw() and endFrame().
+ * The GL resources are created the first time it is made. Other renderers draw
+ * each copy as a separate mesh, flat shaded in its instance colour.
+ */
+
+public class InstancedTrefoil extends SceneObject {
+
+	private final static String VERTEX_SHADER = "instancedVertex.glsl";
+	private final static String FRAGMENT_SHADER = "colourFragment.glsl";
+	public final static ProgramKey PROGRAM = new ProgramKey(VERTEX_SHADER, FRAGMENT_SHADER);
+
+	private static final int SLICES = 100;
+	private static final float CROSS_SECTION_SCALE = 0.15f;
+
+	private static final int INSTANCE_STRIDE = InstanceArray.INSTANCE_SIZE * Buffers.SIZEOF_FLOAT;
+	private static final int MATRIX_COLUMNS = 4;
+
+	// instances are in world space, so they are sorted by the distance to the origin
+	private static final Matrix4fc ORIGIN = new Matrix4f();
+
+	private Mesh mesh;
+	private InstanceArray instances;
+	private CachedShader shader;	// created on the first GL draw
+	private int vertexArray = 0;
+	private Material[] materials = new Material[0];	// one per instance, as renderers may queue draws
+	private Matrix4f instanceMatrix = new Matrix4f();
+	private Vector3f instanceColour = new Vector3f();
+	private final RenderQueue.Command command = this::drawGL;
+
+	private int instanceBuffer;
+	private int bufferCapacity;		// in instances
+	private FloatBuffer uploadBuffer;
+
+	private int a_instanceMatrix;
+	private int a_instanceColour;
+	private int u_viewMatrix;
+	private int u_projectionMatrix;
+
+	private boolean instanced = true;
+	private boolean instanceArraysEnabled = true;
+
+	/**
+	 * @param capacity		The number of instances to allocate space for (grows as needed)
+	 * @param transforms	The store for the object's own transform, which the
+	 * 						instances do not use
+	 */
+	public InstancedTrefoil(int capacity, TransformStore transforms) {
+		super(transforms);
+
+		TubeSweep sweep = new TubeSweep(new TrefoilCurve(), CrossSection.square());
+		sweep.setScale(CROSS_SECTION_SCALE);
+
+		AdaptiveSampler sampler = new AdaptiveSampler(sweep.getCurve(),
+				CROSS_SECTION_SCALE * sweep.getCrossSection().getRadius());
+		sampler.setTolerance(0);
+		sampler.setMaxSlices(SLICES);
+
+		this.mesh = sweep.createMesh(sampler.sample());
+		this.mesh.setVertexFormat(VertexFormat.COMPACT);
+		this.instances = new InstanceArray(capacity);
+	}
+
+	/**
+	 * Create the shader, vertex array and instance buffer.
+	 * Must be called with a current GL context.
+	 */
+	private void createGLResources() {
+		this.shader = ShaderLibrary.getCachedShader(PROGRAM);
+
+		// the index buffer binding would otherwise replace the one in the bound VAO
+		GL4 gl = (GL4) GLContext.getCurrentGL();
+		gl.glBindVertexArray(0);
+		this.mesh.upload();
+		this.vertexArray = GLRenderer.createVertexArray(shader, mesh);
+
+		this.a_instanceMatrix = shader.getAttribute("a_instanceMatrix");
+		this.a_instanceColour = shader.getAttribute("a_instanceColour");
+		this.u_viewMatrix = shader.getUniform("u_viewMatrix");
+		this.u_projectionMatrix = shader.getUniform("u_projectionMatrix");
+
+		createInstanceBuffer();
+	}
+
+	/**
+	 * Create the instance buffer and add its attributes to the vertex array,
+	 * advancing once per instance rather than once per vertex.
+	 */
+	private void createInstanceBuffer() {
+		GL4 gl = (GL4) GLContext.getCurrentGL();
+
+		int[] buffer = new int[1];
+		gl.glGenBuffers(buffer.length, buffer, 0);
+		this.instanceBuffer = buffer[0];
+		resizeInstanceBuffer(instances.getCapacity());
+
+		gl.glBindVertexArray(vertexArray);
+		gl.glBindBuffer(GL.GL_ARRAY_BUFFER, instanceBuffer);
+
+		// a mat4 attribute takes one location per column
+		for (int c = 0; c < MATRIX_COLUMNS; c++) {
+			int location = a_instanceMatrix + c;
+			gl.glVertexAttribPointer(location, 4, GL.GL_FLOAT, false, INSTANCE_STRIDE,
+					c * 4 * Buffers.SIZEOF_FLOAT);
+			gl.glVertexAttribDivisor(location, 1);
+			gl.glEnableVertexAttribArray(location);
+		}
+
+		gl.glVertexAttribPointer(a_instanceColour, InstanceArray.COLOUR_SIZE, GL.GL_FLOAT, false, INSTANCE_STRIDE,
+				InstanceArray.MATRIX_SIZE * Buffers.SIZEOF_FLOAT);
+		gl.glVertexAttribDivisor(a_instanceColour, 1);
+		gl.glEnableVertexAttribArray(a_instanceColour);
+		gl.glBindVertexArray(0);
+	}
+
+	/**
+	 * Reallocate the instance buffer. The VAO refers to the buffer by name, so its
+	 * attribute bindings stay valid.
+	 */
+	private void resizeInstanceBuffer(int capacity) {
+		GL4 gl = (GL4) GLContext.getCurrentGL();
+
+		this.bufferCapacity = capacity;
+		this.uploadBuffer = Buffers.newDirectFloatBuffer(capacity * InstanceArray.INSTANCE_SIZE);
+
+		gl.glBindBuffer(GL.GL_ARRAY_BUFFER, instanceBuffer);
+		gl.glBufferData(GL.GL_ARRAY_BUFFER, (long) capacity * INSTANCE_STRIDE, null, GL.GL_DYNAMIC_DRAW);
+	}
+
+	public InstanceArray getInstances() {
+		return instances;
+	}
+
+	/**
+	 * @param instanced	true to draw every copy in one call (the default), false to draw them one at a time
+	 */
+	public void setInstanced(boolean instanced) {
+		this.instanced = instanced;
+	}
+
+	/**
+	 * Copy any changed instances into the instance buffer.
+	 */
+	private void upload() {
+		GL4 gl = (GL4) GLContext.getCurrentGL();
+
+		int start;
+		int end;
+		if (instances.getCapacity() > bufferCapacity) {
+			// the buffer has been reallocated, so everything needs uploading
+			resizeInstanceBuffer(instances.getCapacity());
+			instances.pack();
+			start = 0;
+			end = instances.size();
+		}
+		else if (instances.pack()) {
+			start = instances.getPackedStart();
+			end = instances.getPackedEnd();
+		}
+		else {
+			return;
+		}
+
+		int offset = start * InstanceArray.INSTANCE_SIZE;
+		int length = (end - start) * InstanceArray.INSTANCE_SIZE;
+		uploadBuffer.clear();
+		uploadBuffer.put(instances.getPacked(), offset, length);
+		uploadBuffer.flip();
+
+		gl.glBindBuffer(GL.GL_ARRAY_BUFFER, instanceBuffer);
+		gl.glBufferSubData(GL.GL_ARRAY_BUFFER, (long) offset * Buffers.SIZEOF_FLOAT,
+				(long) length * Buffers.SIZEOF_FLOAT, uploadBuffer);
+	}
+
+	@Override
+	public void draw(Renderer renderer, Matrix4f viewMatrix, Matrix4f projectionMatrix) {
+		if (instances.size() == 0) {
+			return;
+		}
+
+		if (renderer instanceof GLRenderer) {
+			((GLRenderer) renderer).draw(command, mesh, ORIGIN, viewMatrix, projectionMatrix);
+		}
+		else {
+			drawMeshes(renderer, viewMatrix, projectionMatrix);
+		}
+	}
+
+	/**
+	 * Draw every instance with GL, as a queued command
+	 */
+	private void drawGL(Matrix4fc viewMatrix, Matrix4fc projectionMatrix) {
+		GL4 gl = (GL4) GLContext.getCurrentGL();
+		if (vertexArray == 0) {
+			createGLResources();
+		}
+		upload();
+
+		shader.enable();
+		shader.setUniform(u_viewMatrix, viewMatrix);
+		shader.setUniform(u_projectionMatrix, projectionMatrix);
+
+		gl.glBindVertexArray(vertexArray);
+		setInstanceArraysEnabled(instanced);
+
+		int indexType = mesh.getIndexFormat().getGLType();
+		if (instanced) {
+			gl.glDrawElementsInstanced(GL.GL_TRIANGLES, mesh.getIndexCount(), indexType, 0, instances.size());
+		}
+		else {
+			drawEach();
+		}
+	}
+
+	/**
+	 * Draw each instance through a renderer without instancing.
+	 */
+	private void drawMeshes(Renderer renderer, Matrix4f viewMatrix, Matrix4f projectionMatrix) {
+		instances.pack();
+		if (materials.length < instances.size()) {
+			int n = materials.length;
+			materials = Arrays.copyOf(materials, Math.max(instances.size(), 2 * n));
+			for (int i = n; i < materials.length; i++) {
+				materials[i] = new Material();
+			}
+		}
+
+		for (int i = 0; i < instances.size(); i++) {
+			instances.getModelMatrix(i, instanceMatrix);
+			instances.getColour(i, instanceColour);
+			materials[i].setColour(instanceColour.x, instanceColour.y, instanceColour.z);
+			renderer.draw(mesh, instanceMatrix, viewMatrix, projectionMatrix, materials[i]);
+		}
+	}
+
+	/**
+	 * Fallback: one draw call per instance, setting the instance attributes as
+	 * constant vertex attributes.
+	 */
+	private void drawEach() {
+		GL4 gl = (GL4) GLContext.getCurrentGL();
+		float[] packed = instances.getPacked();
+		int indexType = mesh.getIndexFormat().getGLType();
+
+		for (int i = 0; i < instances.size(); i++) {
+			int k = i * InstanceArray.INSTANCE_SIZE;
+			for (int c = 0; c < MATRIX_COLUMNS; c++) {
+				gl.glVertexAttrib4fv(a_instanceMatrix + c, packed, k + 4 * c);
+			}
+			gl.glVertexAttrib4fv(a_instanceColour, packed, k + InstanceArray.MATRIX_SIZE);
+			gl.glDrawElements(GL.GL_TRIANGLES, mesh.getIndexCount(), indexType, 0);
+		}
+	}
+
+	/**
+	 * Switch the instance attributes between reading from the instance buffer and
+	 * using the constant values set in drawEach(). Must be called with the VAO bound.
+	 */
+	private void setInstanceArraysEnabled(boolean enabled) {
+		if (enabled == instanceArraysEnabled) {
+			return;
+		}
+
+		GL4 gl = (GL4) GLContext.getCurrentGL();
+		for (int c = 0; c <= MATRIX_COLUMNS; c++) {
+			int location = (c < MATRIX_COLUMNS ? a_instanceMatrix + c : a_instanceColour);
+			if (enabled) {
+				gl.glEnableVertexAttribArray(location);
+			}
+			else {
+				gl.glDisableVertexAttribArray(location);
+			}
+		}
+		instanceArraysEnabled = enabled;
+	}
+
+}
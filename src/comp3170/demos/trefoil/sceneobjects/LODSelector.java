@@ -0,0 +1,95 @@
+package comp3170.demos.trefoil.sceneobjects;
+
+import org.joml.Matrix4fc;
+
+/**
+ * Chooses a level of detail for an object from how large it appears on screen.
+ *
+ * Each level is described by its geometric error in model units (e.g. from
+ * AdaptiveSampler.maxError()), with level 0 the finest. The selector picks the
+ * coarsest level whose error, projected to the screen, is within the pixel budget.
+ *
+ * To stop the level popping back and forth when the object sits near a threshold,
+ * a coarser level is only chosen once its error falls below (1 - hysteresis) of
+ * the budget, while a finer level is chosen as soon as the budget is exceeded.
+ *
+ * No GL context is needed.
+ */
+
+public class LODSelector {
+
+	private final float[] levelErrors;
+	private final float pixelBudget;
+	private final float hysteresis;
+	private int level;
+
+	/**
+	 * @param levelErrors	The error of each level in model units, increasing from level 0
+	 * @param pixelBudget	The largest acceptable error on screen in pixels
+	 * @param hysteresis	The fraction of the budget a coarser level must be under before switching to it
+	 */
+	public LODSelector(float[] levelErrors, float pixelBudget, float hysteresis) {
+		for (int i = 1; i < levelErrors.length; i++) {
+			if (levelErrors[i] < levelErrors[i-1]) {
+				throw new IllegalArgumentException("Level errors must increase from level 0");
+			}
+		}
+
+		this.levelErrors = levelErrors.clone();
+		this.pixelBudget = pixelBudget;
+		this.hysteresis = hysteresis;
+		this.level = 0;
+	}
+
+	public int getLevel() {
+		return level;
+	}
+
+	public int getLevelCount() {
+		return levelErrors.length;
+	}
+
+	/**
+	 * Update the current level for the given screen scale.
+	 *
+	 * @param pixelsPerUnit	The size of one model unit on screen, in pixels
+	 * @return the selected level
+	 */
+	public int select(float pixelsPerUnit) {
+		// finer, if the current level is visibly wrong
+		while (level > 0 && levelErrors[level] * pixelsPerUnit > pixelBudget) {
+			level--;
+		}
+
+		// coarser, if the next level is comfortably within budget
+		while (level < levelErrors.length - 1
+				&& levelErrors[level+1] * pixelsPerUnit <= pixelBudget * (1 - hysteresis)) {
+			level++;
+		}
+
+		return level;
+	}
+
+	/**
+	 * Calculate how many pixels one unit covers at a given distance in front of
+	 * the camera. Works for both perspective and orthographic projections.
+	 *
+	 * @param projectionMatrix	The projection matrix
+	 * @param distance			The distance from the camera along the view direction
+	 * @param viewportHeight	The height of the viewport in pixels
+	 * @return the number of pixels per unit
+	 */
+	public static float pixelsPerUnit(Matrix4fc projectionMatrix, float distance, float viewportHeight) {
+		// clip space w for a point at view space z = -distance
+		// (distance for a perspective projection, 1 for orthographic)
+		float w = projectionMatrix.m23() * -distance + projectionMatrix.m33();
+		if (w <= 0) {
+			// behind the camera, so use the finest level
+			return Float.POSITIVE_INFINITY;
+		}
+
+		// NDC spans 2 units across the viewport
+		return projectionMatrix.m11() / w * viewportHeight / 2;
+	}
+
+}
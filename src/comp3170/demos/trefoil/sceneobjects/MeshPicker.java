@@ -0,0 +1,218 @@
+package comp3170.demos.trefoil.sceneobjects;
+
+import org.joml.Matrix4f;
+import org.joml.Matrix4fc;
+import org.joml.Vector3f;
+import org.joml.Vector3fc;
+
+import comp3170.demos.trefoil.mesh.Mesh;
+
+/**
+ * Finds the triangle of a mesh hit by a ray, using a BVH over the triangles so
+ * that only the few triangles near the ray are tested exactly.
+ *
+ * The picker keeps its own copy of the positions and indices, so it must be
+ * created before the mesh's data is released by upload() (or the mesh kept
+ * with keepData(true)).
+ *
+ * Usage:
+ *
+ *		MeshPicker picker = new MeshPicker(mesh, triangleOrder);
+ *		...
+ *		MeshPicker.mouseRay(projectionMatrix, viewMatrix, x, y, origin, direction);
+ *		// move the ray into model space, then
+ *		PickResult hit = picker.pick(origin, direction, new PickResult());
+ *
+ * No GL context is needed.
+ */
+
+public class MeshPicker {
+
+	private static final float EPSILON = 1e-7f;
+
+	private final float[] positions;	// x, y, z per vertex
+	private final int[] indices;
+	private final int[] triangleOrder;
+	private final float[] boxes;
+	private final BVH bvh = new BVH();
+
+	// the closest hit found by the current pick
+	private float hitU;
+	private float hitV;
+	private final Vector3f point = new Vector3f();
+
+	/**
+	 * @param mesh			A mesh with its data still present
+	 * @param triangleOrder	The original index of each triangle (as returned by
+	 * 						VertexCacheOptimiser.optimise()), or null if the triangles
+	 * 						are in their original order
+	 */
+	public MeshPicker(Mesh mesh, int[] triangleOrder) {
+		if (!mesh.hasData()) {
+			throw new IllegalArgumentException("The mesh data has been released");
+		}
+
+		int n = mesh.getVertexCount();
+		int stride = Mesh.Attribute.POSITION.getSize();
+		float[] source = mesh.getPositions();
+		this.positions = new float[3 * n];
+		for (int k = 0; k < n; k++) {
+			positions[3*k] = source[stride*k];
+			positions[3*k+1] = source[stride*k+1];
+			positions[3*k+2] = source[stride*k+2];
+		}
+
+		this.indices = mesh.getIndices().clone();
+		this.triangleOrder = triangleOrder;
+
+		int nTriangles = indices.length / 3;
+		this.boxes = new float[6 * nTriangles];
+		for (int t = 0; t < nTriangles; t++) {
+			for (int a = 0; a < 3; a++) {
+				float p0 = positions[3*indices[3*t] + a];
+				float p1 = positions[3*indices[3*t+1] + a];
+				float p2 = positions[3*indices[3*t+2] + a];
+				boxes[6*t + a] = Math.min(p0, Math.min(p1, p2));
+				boxes[6*t + 3 + a] = Math.max(p0, Math.max(p1, p2));
+			}
+		}
+		bvh.build(boxes, nTriangles);
+	}
+
+	public int getTriangleCount() {
+		return indices.length / 3;
+	}
+
+	/**
+	 * Find the nearest triangle hit by a ray in model space. Both sides of each
+	 * triangle can be hit.
+	 *
+	 * @param origin	The ray origin
+	 * @param direction	The ray direction
+	 * @param dest		The result to write
+	 * @return dest, or null if the ray misses the mesh
+	 */
+	public PickResult pick(Vector3fc origin, Vector3fc direction, PickResult dest) {
+		float ox = origin.x();
+		float oy = origin.y();
+		float oz = origin.z();
+		float dx = direction.x();
+		float dy = direction.y();
+		float dz = direction.z();
+
+		float[] best = { Float.POSITIVE_INFINITY };
+		float[] hitT = new float[1];
+		int t = bvh.nearest(ox, oy, oz, dx, dy, dz, Float.POSITIVE_INFINITY, triangle -> {
+			float d = intersect(triangle, ox, oy, oz, dx, dy, dz, best[0]);
+			if (d < best[0]) {
+				best[0] = d;
+			}
+			return d;
+		}, hitT);
+
+		if (t < 0 || hitT[0] == Float.POSITIVE_INFINITY) {
+			return null;
+		}
+
+		point.set(dx, dy, dz).mul(hitT[0]).add(ox, oy, oz);
+		int original = (triangleOrder == null ? t : triangleOrder[t]);
+		dest.set(original, hitT[0], hitU, hitV, point);
+		return dest;
+	}
+
+	/**
+	 * Moller-Trumbore ray/triangle intersection. Records the barycentric
+	 * coordinates if the hit is strictly nearer than the best so far, the same
+	 * test BVH.nearest() uses to keep a hit, so they belong to the triangle returned.
+	 *
+	 * @return the distance along the ray, or Float.POSITIVE_INFINITY if it misses
+	 */
+	private float intersect(int t, float ox, float oy, float oz, float dx, float dy, float dz, float bestT) {
+		int i0 = 3 * indices[3*t];
+		int i1 = 3 * indices[3*t+1];
+		int i2 = 3 * indices[3*t+2];
+
+		float e1x = positions[i1] - positions[i0];
+		float e1y = positions[i1+1] - positions[i0+1];
+		float e1z = positions[i1+2] - positions[i0+2];
+		float e2x = positions[i2] - positions[i0];
+		float e2y = positions[i2+1] - positions[i0+1];
+		float e2z = positions[i2+2] - positions[i0+2];
+
+		// p = d x e2
+		float px = dy * e2z - dz * e2y;
+		float py = dz * e2x - dx * e2z;
+		float pz = dx * e2y - dy * e2x;
+		float det = e1x * px + e1y * py + e1z * pz;
+		if (Math.abs(det) < EPSILON) {
+			// parallel to the triangle
+			return Float.POSITIVE_INFINITY;
+		}
+		float inv = 1 / det;
+
+		float sx = ox - positions[i0];
+		float sy = oy - positions[i0+1];
+		float sz = oz - positions[i0+2];
+		float u = (sx * px + sy * py + sz * pz) * inv;
+		if (u < 0 || u > 1) {
+			return Float.POSITIVE_INFINITY;
+		}
+
+		// q = s x e1
+		float qx = sy * e1z - sz * e1y;
+		float qy = sz * e1x - sx * e1z;
+		float qz = sx * e1y - sy * e1x;
+		float v = (dx * qx + dy * qy + dz * qz) * inv;
+		if (v < 0 || u + v > 1) {
+			return Float.POSITIVE_INFINITY;
+		}
+
+		float d = (e2x * qx + e2y * qy + e2z * qz) * inv;
+		if (d < 0) {
+			return Float.POSITIVE_INFINITY;
+		}
+
+		if (d < bestT) {
+			hitU = u;
+			hitV = v;
+		}
+		return d;
+	}
+
+	/**
+	 * Find the nearest triangle by testing every one, for comparison.
+	 *
+	 * @return the triangle index in the mesh's current order, or -1
+	 */
+	public int pickLinear(Vector3fc origin, Vector3fc direction) {
+		int best = -1;
+		float bestT = Float.POSITIVE_INFINITY;
+		for (int t = 0; t < indices.length / 3; t++) {
+			float d = intersect(t, origin.x(), origin.y(), origin.z(), direction.x(), direction.y(), direction.z(), bestT);
+			if (d < bestT) {
+				bestT = d;
+				best = t;
+			}
+		}
+		return best;
+	}
+
+	/**
+	 * Calculate the world space ray through a point on the screen, from the near
+	 * plane to the far plane.
+	 *
+	 * @param projectionMatrix	The projection matrix
+	 * @param viewMatrix		The view matrix
+	 * @param x, y				The point in NDC, e.g. from InputManager.getMousePosition()
+	 * @param origin			Set to the point on the near plane
+	 * @param direction			Set to the vector from the near plane to the far plane
+	 */
+	public static void mouseRay(Matrix4fc projectionMatrix, Matrix4fc viewMatrix, float x, float y,
+			Vector3f origin, Vector3f direction) {
+		Matrix4f inverse = projectionMatrix.mul(viewMatrix, new Matrix4f()).invert();
+		inverse.transformProject(x, y, -1, origin);
+		inverse.transformProject(x, y, 1, direction);
+		direction.sub(origin);
+	}
+
+}
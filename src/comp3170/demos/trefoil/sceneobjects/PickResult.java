@@ -0,0 +1,83 @@
+package comp3170.demos.trefoil.sceneobjects;
+
+import org.joml.Vector3f;
+
+/**
+ * The triangle hit by a pick ray, and where on it.
+ *
+ * The barycentric coordinates (w0, w1, w2) weight the triangle's three corners,
+ * in index order, so that the hit point is w0 * p0 + w1 * p1 + w2 * p2.
+ *
+ * For a tube mesh, the slice i and cross-section face j of the triangle are also
+ * given (see TubeSweep.createIndices()), or -1 for other meshes.
+ */
+
+public class PickResult {
+
+	private int triangle = -1;
+	private int slice = -1;
+	private int face = -1;
+	private float distance = Float.POSITIVE_INFINITY;
+	private final Vector3f barycentric = new Vector3f();
+	private final Vector3f point = new Vector3f();
+
+	void set(int triangle, float distance, float w1, float w2, Vector3f point) {
+		this.triangle = triangle;
+		this.distance = distance;
+		this.barycentric.set(1 - w1 - w2, w1, w2);
+		this.point.set(point);
+		this.slice = -1;
+		this.face = -1;
+	}
+
+	void setTubeFace(int slice, int face) {
+		this.slice = slice;
+		this.face = face;
+	}
+
+	/**
+	 * @return the index of the triangle hit, in the mesh's original triangle order
+	 */
+	public int getTriangle() {
+		return triangle;
+	}
+
+	/**
+	 * @return the tube slice i, or -1
+	 */
+	public int getSlice() {
+		return slice;
+	}
+
+	/**
+	 * @return the cross-section face j, or -1
+	 */
+	public int getFace() {
+		return face;
+	}
+
+	/**
+	 * @return the distance along the ray in model space, in units of the ray direction's length
+	 */
+	public float getDistance() {
+		return distance;
+	}
+
+	public Vector3f getBarycentric(Vector3f dest) {
+		return dest.set(barycentric);
+	}
+
+	/**
+	 * @return the point hit, in model space
+	 */
+	public Vector3f getPoint(Vector3f dest) {
+		return dest.set(point);
+	}
+
+	@Override
+	public String toString() {
+		return String.format("triangle %d (slice %d, face %d), barycentric (%.3f, %.3f, %.3f), distance %.3f",
+				triangle, slice, face, barycentric.x, barycentric.y, barycentric.z, distance);
+	}
+
+}
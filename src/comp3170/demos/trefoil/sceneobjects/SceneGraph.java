@@ -0,0 +1,364 @@
+package comp3170.demos.trefoil.sceneobjects;
+
+import java.nio.FloatBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.function.IntConsumer;
+
+import org.joml.Matrix4f;
+import org.joml.Vector3f;
+import org.joml.Vector3fc;
+
+import com.jogamp.common.nio.Buffers;
+
+import comp3170.demos.trefoil.mesh.Bounds;
+import comp3170.demos.trefoil.renderer.Renderer;
+
+/**
+ * A hierarchy of scene objects, with each object's world matrix composed from
+ * its parent's world matrix and its own local (model) matrix.
+ *
+ * Parent/child links are kept on the SceneObjects themselves. The graph flattens
+ * them depth first into parallel arrays, so a parent always comes before its
+ * children and each subtree is a contiguous range:
+ *
+ *		nodes		| root | a | a1 | a2 | b | b1 |
+ *		parent		|  -1  | 0 |  1 |  1 | 0 |  4 |
+ *		subtreeEnd	|   6  | 4 |  3 |  4 | 6 |  6 |
+ *
+ * update() walks those arrays once. A node's world matrix is only recomputed if
+ * its local transform is dirty or its parent's world matrix was recomputed, so
+ * moving a node only touches its own subtree. The arrays are rebuilt whenever a
+ * child is added or removed.
+ *
+ * Every object in the graph must use the graph's TransformStore. Local matrices
+ * are recomputed by that store in one batch before the world matrices are updated.
+ *
+ * Objects are frustum culled as they are drawn (see FrustumCuller). An object
+ * outside the frustum is skipped, but its children are still tested, since
+ * they may have moved away from it.
+ *
+ * The world space boxes of every object with bounds are also kept in a BVH,
+ * which is refitted as objects move. Once there are enough objects for it to
+ * pay off, culling queries the BVH rather than testing each object. raycast()
+ * uses it to find the object under the mouse.
+ *
+ * Usage:
+ *
+ *		SceneGraph graph = new SceneGraph(root);
+ *		...
+ *		graph.update();
+ *		graph.draw(renderer, viewMatrix, projectionMatrix);
+ */
+
+public class SceneGraph {
+
+	private static final int MATRIX_SIZE = TransformStore.MATRIX_SIZE;
+	private static final int SPATIAL_INDEX_THRESHOLD = 256;		// objects with bounds
+
+	private final SceneObject root;
+	private final TransformStore transforms;
+
+	private boolean structureChanged = true;
+	private int count = 0;
+	private SceneObject[] nodes = new SceneObject[0];
+	private int[] parent = new int[0];
+	private int[] subtreeEnd = new int[0];
+	private boolean[] worldDirty = new boolean[0];
+	private FloatBuffer worldMatrices = Buffers.newDirectFloatBuffer(0);
+
+	private int lastUpdateCount = 0;
+	private final FrustumCuller culler = new FrustumCuller();
+	private boolean culling = true;
+
+	private final Matrix4f parentMatrix = new Matrix4f();
+	private final Matrix4f localMatrix = new Matrix4f();
+	private final Matrix4f worldMatrix = new Matrix4f();
+
+	// spatial index over the objects with bounds
+	private final BVH bvh = new BVH();
+	private int boundedCount = 0;
+	private int[] boundedNodes = new int[0];	// BVH item -> node
+	private int[] itemOf = new int[0];			// node -> BVH item, or -1
+	private float[] worldBoxes = new float[0];	// 6 per BVH item
+	private boolean[] inFrustum = new boolean[0];	// per BVH item
+	private final IntConsumer markInFrustum = item -> inFrustum[item] = true;
+	private final Vector3f boxMin = new Vector3f();
+	private final Vector3f boxMax = new Vector3f();
+
+	/**
+	 * @param root	The root of the graph. Its transform store is used for the whole graph.
+	 */
+	public SceneGraph(SceneObject root) {
+		this.root = root;
+		this.transforms = root.getTransforms();
+	}
+
+	public SceneObject getRoot() {
+		return root;
+	}
+
+	/**
+	 * @return the number of objects in the graph, as of the last update()
+	 */
+	public int size() {
+		return count;
+	}
+
+	/**
+	 * @return the number of world matrices recomputed by the last update()
+	 */
+	public int getLastUpdateCount() {
+		return lastUpdateCount;
+	}
+
+	/**
+	 * Called by SceneObject when a child is added or removed.
+	 */
+	void structureChanged() {
+		structureChanged = true;
+	}
+
+	/**
+	 * Flatten the hierarchy depth first into the node arrays.
+	 */
+	private void flatten() {
+		List<SceneObject> order = new ArrayList<SceneObject>();
+		List<Integer> parents = new ArrayList<Integer>();
+		collect(root, -1, order, parents);
+
+		count = order.size();
+		nodes = order.toArray(new SceneObject[count]);
+		parent = new int[count];
+		subtreeEnd = new int[count];
+		worldDirty = new boolean[count];
+		worldMatrices = Buffers.newDirectFloatBuffer(count * MATRIX_SIZE);
+
+		for (int k = 0; k < count; k++) {
+			parent[k] = parents.get(k);
+			subtreeEnd[k] = k + 1;
+			nodes[k].attach(this, k);
+		}
+
+		// children come after their parents, so this accumulates bottom up
+		for (int k = count - 1; k > 0; k--) {
+			subtreeEnd[parent[k]] = Math.max(subtreeEnd[parent[k]], subtreeEnd[k]);
+		}
+
+		// everything has moved
+		for (int k = 0; k < count; k++) {
+			worldDirty[k] = true;
+		}
+
+		itemOf = new int[count];
+		boundedNodes = new int[count];
+		boundedCount = 0;
+		for (int k = 0; k < count; k++) {
+			if (nodes[k].getBounds() != null) {
+				itemOf[k] = boundedCount;
+				boundedNodes[boundedCount++] = k;
+			}
+			else {
+				itemOf[k] = -1;
+			}
+		}
+		worldBoxes = new float[6 * boundedCount];
+		inFrustum = new boolean[boundedCount];
+
+		structureChanged = false;
+	}
+
+	private void collect(SceneObject node, int parentIndex, List<SceneObject> order, List<Integer> parents) {
+		if (node.getTransforms() != transforms) {
+			throw new IllegalArgumentException("Every object in a scene graph must use the same TransformStore");
+		}
+
+		int k = order.size();
+		order.add(node);
+		parents.add(parentIndex);
+		for (SceneObject child : node.getChildren()) {
+			collect(child, k, order, parents);
+		}
+	}
+
+	/**
+	 * Bring every world matrix up to date.
+	 *
+	 * @return the number of world matrices recomputed
+	 */
+	public int update() {
+		boolean rebuilt = structureChanged;
+		if (rebuilt) {
+			flatten();
+		}
+		else {
+			// note which local transforms have changed, before the store clears its dirty bits
+			for (int k = 0; k < count; k++) {
+				worldDirty[k] = transforms.isDirty(nodes[k].getTransformIndex());
+			}
+		}
+
+		transforms.update();
+
+		int updated = 0;
+		FloatBuffer locals = transforms.getMatrices();
+		for (int k = 0; k < count; k++) {
+			int p = parent[k];
+			if (p >= 0 && worldDirty[p]) {
+				worldDirty[k] = true;
+			}
+			if (!worldDirty[k]) {
+				continue;
+			}
+
+			localMatrix.set(nodes[k].getTransformIndex() * MATRIX_SIZE, locals);
+			if (p >= 0) {
+				parentMatrix.set(p * MATRIX_SIZE, worldMatrices);
+				parentMatrix.mulAffine(localMatrix, localMatrix);
+			}
+			localMatrix.get(k * MATRIX_SIZE, worldMatrices);
+			updated++;
+
+			int item = itemOf[k];
+			if (item >= 0) {
+				nodes[k].getBounds().transformBox(localMatrix, boxMin, boxMax);
+				int b = 6 * item;
+				worldBoxes[b] = boxMin.x;
+				worldBoxes[b+1] = boxMin.y;
+				worldBoxes[b+2] = boxMin.z;
+				worldBoxes[b+3] = boxMax.x;
+				worldBoxes[b+4] = boxMax.y;
+				worldBoxes[b+5] = boxMax.z;
+			}
+		}
+
+		if (rebuilt) {
+			bvh.build(worldBoxes, boundedCount);
+		}
+		else if (updated > 0) {
+			bvh.update();
+		}
+
+		lastUpdateCount = updated;
+		return updated;
+	}
+
+	/**
+	 * Get the world matrix of a node, as of the last update().
+	 *
+	 * @param node	The node's index in the flattened order
+	 * @param dest	The matrix to write
+	 * @return dest
+	 */
+	public Matrix4f getWorldMatrix(int node, Matrix4f dest) {
+		return dest.set(node * MATRIX_SIZE, worldMatrices);
+	}
+
+	/**
+	 * @return the world matrices in flattened order, 16 floats each
+	 */
+	public FloatBuffer getWorldMatrices() {
+		return worldMatrices;
+	}
+
+	/**
+	 * @return the node at a flattened index
+	 */
+	public SceneObject getNode(int k) {
+		return nodes[k];
+	}
+
+	/**
+	 * @return one past the last index in the subtree rooted at node k
+	 */
+	public int getSubtreeEnd(int k) {
+		return subtreeEnd[k];
+	}
+
+	/**
+	 * @param culling	true to skip objects outside the view frustum (the default)
+	 */
+	public void setCulling(boolean culling) {
+		this.culling = culling;
+	}
+
+	/**
+	 * @return the culler, whose counters cover the last draw()
+	 */
+	public FrustumCuller getCuller() {
+		return culler;
+	}
+
+	/**
+	 * @return the spatial index over the world space boxes of objects with bounds
+	 */
+	public BVH getSpatialIndex() {
+		return bvh;
+	}
+
+	/**
+	 * Draw every visible object, parents before children. Hiding an object
+	 * hides its subtree.
+	 */
+	public void draw(Renderer renderer, Matrix4f viewMatrix, Matrix4f projectionMatrix) {
+		culler.setFrustum(projectionMatrix, viewMatrix);
+		culler.resetCounters();
+
+		boolean useIndex = culling && boundedCount >= SPATIAL_INDEX_THRESHOLD;
+		if (useIndex) {
+			Arrays.fill(inFrustum, 0, boundedCount, false);
+			bvh.queryFrustum(culler.getFrustum(), markInFrustum);
+		}
+
+		for (int k = 0; k < count; ) {
+			SceneObject node = nodes[k];
+			if (!node.isVisible()) {
+				k = subtreeEnd[k];
+				continue;
+			}
+
+			Bounds bounds = node.getBounds();
+			boolean draw;
+			if (!culling || bounds == null) {
+				draw = true;
+			}
+			else if (useIndex) {
+				draw = culler.count(inFrustum[itemOf[k]]);
+			}
+			else {
+				draw = culler.isVisible(bounds, getWorldMatrix(k, worldMatrix));
+			}
+
+			if (draw) {
+				node.draw(renderer, viewMatrix, projectionMatrix);
+			}
+			k++;
+		}
+	}
+
+	/**
+	 * Find the nearest visible object whose world space box is hit by a ray,
+	 * as of the last update().
+	 *
+	 * @param origin	The ray origin (world space)
+	 * @param direction	The ray direction (world space)
+	 * @return the object, or null if the ray misses everything
+	 */
+	public SceneObject raycast(Vector3fc origin, Vector3fc direction) {
+		float ox = origin.x();
+		float oy = origin.y();
+		float oz = origin.z();
+		float ix = 1 / direction.x();
+		float iy = 1 / direction.y();
+		float iz = 1 / direction.z();
+
+		// hidden objects are skipped, visible ones are hit where the ray enters their box
+		int item = bvh.nearest(ox, oy, oz, direction.x(), direction.y(), direction.z(), Float.POSITIVE_INFINITY,
+				i -> nodes[boundedNodes[i]].isVisible() ?
+						BVH.rayBox(worldBoxes, 6 * i, ox, oy, oz, ix, iy, iz, Float.POSITIVE_INFINITY) :
+						Float.POSITIVE_INFINITY, null);
+		return (item < 0 ? null : nodes[boundedNodes[item]]);
+	}
+
+}
@@ -1,66 +1,156 @@
 package comp3170.demos.trefoil.sceneobjects;
 
 import java.awt.Color;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
 
 import org.joml.Matrix4f;
 import org.joml.Vector3f;
 
-import comp3170.Shader;
+import comp3170.demos.trefoil.mesh.Bounds;
+import comp3170.demos.trefoil.renderer.Renderer;
 
 public class SceneObject {
 
-	protected Shader shader;
 	protected Vector3f colour;
-	protected Vector3f position;
-	protected Vector3f angle;
-	protected float scale;
+	protected TransformStore transforms;
+	protected int transform;		// index into transforms
 	protected Matrix4f modelMatrix;
 
-	public SceneObject() {
-		this(null);
-	}
+	private SceneObject parent = null;
+	private List<SceneObject> children = new ArrayList<SceneObject>();
+	private boolean visible = true;
 	
-	public SceneObject(Shader shader) {
-		this.shader = shader;
-		
-		this.position = new Vector3f();
-		this.angle = new Vector3f();
-		this.scale = 1;
+	private SceneGraph graph = null;
+	private int node;				// index in the graph's flattened order
+
+	/**
+	 * @param transforms	The store to keep this object's transform in, shared by
+	 * 						every object in the same scene graph. Call update() on it
+	 * 						once per frame (SceneGraph.update() does) to recompute every
+	 * 						changed transform in one batch.
+	 */
+	public SceneObject(TransformStore transforms) {
+		this.transforms = transforms;
+		this.transform = transforms.add();
 		this.modelMatrix = new Matrix4f();
 		
 		this.colour = new Vector3f(1,1,1); // default to white;
 	}
 
+	public TransformStore getTransforms() {
+		return transforms;
+	}
+
+	public int getTransformIndex() {
+		return transform;
+	}
+
+	// Hierarchy
+
+	public SceneObject getParent() {
+		return parent;
+	}
+
+	public List<SceneObject> getChildren() {
+		return Collections.unmodifiableList(children);
+	}
+
+	/**
+	 * Make an object a child of this one, removing it from its old parent.
+	 * Its transform is then relative to this object.
+	 * 
+	 * @param child	The object to add
+	 */
+	public void addChild(SceneObject child) {
+		for (SceneObject ancestor = this; ancestor != null; ancestor = ancestor.parent) {
+			if (ancestor == child) {
+				throw new IllegalArgumentException("An object cannot be its own ancestor");
+			}
+		}
+		
+		if (child.parent != null) {
+			child.parent.removeChild(child);
+		}
+		
+		children.add(child);
+		child.parent = this;
+		if (graph != null) {
+			graph.structureChanged();
+		}
+	}
+
+	public void removeChild(SceneObject child) {
+		if (!children.remove(child)) {
+			return;
+		}
+
+		child.parent = null;
+		child.detach();
+		if (graph != null) {
+			graph.structureChanged();
+		}
+	}
+
+	public boolean isVisible() {
+		return visible;
+	}
+
+	/**
+	 * @param visible	false to stop the scene graph drawing this object and its children
+	 */
+	public void setVisible(boolean visible) {
+		this.visible = visible;
+	}
+
+	/**
+	 * Called by SceneGraph when the hierarchy is flattened
+	 */
+	void attach(SceneGraph graph, int node) {
+		this.graph = graph;
+		this.node = node;
+	}
+
+	private void detach() {
+		this.graph = null;
+		for (SceneObject child : children) {
+			child.detach();
+		}
+	}
+
+	// Transform
+
 	public Vector3f getPosition(Vector3f dest) {
-		return dest.get(position);
+		return transforms.getPosition(transform, dest);
 	}
 
 	public void setPosition(float x, float y, float z) {
-		this.position.set(x, y, z);
+		transforms.setPosition(transform, x, y, z);
 	}
 
 	public void setPosition(Vector3f position) {
-		this.position.set(position);
+		setPosition(position.x, position.y, position.z);
 	}
 
 	public Vector3f getAngle(Vector3f angle) {
-		return angle.set(this.angle);
+		return transforms.getAngle(transform, angle);
 	}
 
 	public void setAngle(float pitch, float heading, float roll) {
-		this.angle.set(pitch, heading, roll);
+		transforms.setAngle(transform, pitch, heading, roll);
 	}
 
 	public void setAngle(Vector3f angle) {
-		this.angle.set(angle);
+		setAngle(angle.x, angle.y, angle.z);
 	}
 
 	public float getScale() {
-		return scale;
+		return transforms.getScale(transform);
 	}
 
 	public void setScale(float scale) {
-		this.scale = scale;
+		transforms.setScale(transform, scale);
 	}
 
 	public Vector3f getColour(Vector3f dest) {
@@ -73,17 +163,39 @@ public class SceneObject {
 		colour.z = color.getBlue() / 255f;
 	}
 
-	public void draw(Matrix4f viewMatrix, Matrix4f projectionMatrix) {
+	/**
+	 * @return the bounds of what this object draws, in model space, or null if it 
+	 * has nothing to cull (the default)
+	 */
+	public Bounds getBounds() {
+		return null;
+	}
+
+	/**
+	 * Draw this object (but not its children).
+	 * 
+	 * @param renderer			The renderer to draw with
+	 * @param viewMatrix		The view matrix
+	 * @param projectionMatrix	The projection matrix
+	 */
+	public void draw(Renderer renderer, Matrix4f viewMatrix, Matrix4f projectionMatrix) {
 		// does nothing by default		
 	}
 
+	/**
+	 * Set modelMatrix to this object's MODEL -> WORLD matrix. 
+	 * 
+	 * In a scene graph this is the world matrix from the graph's last update(). 
+	 * Otherwise it is the local matrix from the transform store, recomputed only 
+	 * if it has changed since the store was last updated.
+	 */
 	protected void calcModelMatrix() {
-		modelMatrix.identity();
-		modelMatrix.translate(this.position);
-		modelMatrix.rotateY(this.angle.y);	// heading
-		modelMatrix.rotateX(this.angle.x); 	// pitch
-		modelMatrix.rotateZ(this.angle.z); 	// roll
-		modelMatrix.scale(this.scale);
+		if (graph != null) {
+			graph.getWorldMatrix(node, modelMatrix);
+		}
+		else {
+			transforms.getMatrix(transform, modelMatrix);
+		}
 	}
 
 }
\ No newline at end of file
@@ -0,0 +1,313 @@
+package comp3170.demos.trefoil.sceneobjects;
+
+import java.nio.FloatBuffer;
+import java.util.Arrays;
+import java.util.stream.IntStream;
+
+import org.joml.Matrix4f;
+import org.joml.Vector3f;
+
+import com.jogamp.common.nio.Buffers;
+
+/**
+ * The transforms of many scene objects, stored as a structure of arrays.
+ *
+ * Each object holds an index into the store rather than its own vectors and
+ * matrix. Setting a position, angle or scale marks the transform dirty, and
+ * update() recomputes the model matrices of the dirty transforms in one batch,
+ * writing them straight into a direct float buffer (16 floats per transform,
+ * column major) that can be uploaded as is.
+ *
+ * The matrices are built the same way as SceneObject.calcModelMatrix() always has:
+ *
+ *		T(position) * Ry(heading) * Rx(pitch) * Rz(roll) * S(scale)
+ *
+ * The rotation part of each matrix is cached, and only recalculated when the
+ * angle changes, since the sines and cosines are most of the cost. Objects that
+ * only move or scale are much cheaper to update.
+ *
+ * Large batches are split across threads. Each thread writes a separate part of
+ * the buffer, so the result is the same either way.
+ *
+ * No GL context is needed.
+ */
+
+public class TransformStore {
+
+	public static final int MATRIX_SIZE = 16;
+	private static final int ROTATION_SIZE = 9;
+
+	private static final int CHUNK_WORDS = 16;			// 1024 transforms per parallel task
+	private static final int PARALLEL_THRESHOLD = 4096;	// dirty transforms
+
+	private int count = 0;
+
+	private float[] x;
+	private float[] y;
+	private float[] z;
+	private float[] pitch;
+	private float[] heading;
+	private float[] roll;
+	private float[] scale;
+	private float[] rotation;	// Ry * Rx * Rz, 3x3 column major
+
+	private long[] dirty;		// one bit per transform
+	private long[] angleDirty;	// one bit per transform whose rotation needs recalculating
+	private int dirtyCount = 0;
+	private FloatBuffer matrices;
+
+	private boolean parallel = true;
+	private int lastUpdateCount = 0;
+
+	/**
+	 * @param capacity	The number of transforms to allocate space for (grows as needed)
+	 */
+	public TransformStore(int capacity) {
+		allocate(Math.max(capacity, 64));
+	}
+
+	private void allocate(int capacity) {
+		x = grow(x, capacity);
+		y = grow(y, capacity);
+		z = grow(z, capacity);
+		pitch = grow(pitch, capacity);
+		heading = grow(heading, capacity);
+		roll = grow(roll, capacity);
+		scale = grow(scale, capacity);
+		rotation = grow(rotation, capacity * ROTATION_SIZE);
+		dirty = grow(dirty, (capacity + 63) / 64);
+		angleDirty = grow(angleDirty, (capacity + 63) / 64);
+
+		FloatBuffer newMatrices = Buffers.newDirectFloatBuffer(capacity * MATRIX_SIZE);
+		if (matrices != null) {
+			matrices.clear();
+			newMatrices.put(matrices);
+			newMatrices.clear();
+		}
+		matrices = newMatrices;
+	}
+
+	private static float[] grow(float[] array, int capacity) {
+		return (array == null ? new float[capacity] : Arrays.copyOf(array, capacity));
+	}
+
+	private static long[] grow(long[] array, int capacity) {
+		return (array == null ? new long[capacity] : Arrays.copyOf(array, capacity));
+	}
+
+	/**
+	 * @param parallel	true to split large updates across threads (the default)
+	 */
+	public void setParallel(boolean parallel) {
+		this.parallel = parallel;
+	}
+
+	public int size() {
+		return count;
+	}
+
+	public int getCapacity() {
+		return scale.length;
+	}
+
+	/**
+	 * Add an identity transform.
+	 *
+	 * @return the index of the new transform
+	 */
+	public int add() {
+		if (count == getCapacity()) {
+			allocate(2 * count);
+		}
+
+		int i = count++;
+		scale[i] = 1;
+		angleDirty[i >>> 6] |= 1L << i;
+		markDirty(i);
+		return i;
+	}
+
+	// Setters
+
+	public void setPosition(int i, float x, float y, float z) {
+		this.x[i] = x;
+		this.y[i] = y;
+		this.z[i] = z;
+		markDirty(i);
+	}
+
+	public void setAngle(int i, float pitch, float heading, float roll) {
+		this.pitch[i] = pitch;
+		this.heading[i] = heading;
+		this.roll[i] = roll;
+		angleDirty[i >>> 6] |= 1L << i;
+		markDirty(i);
+	}
+
+	public void setScale(int i, float scale) {
+		this.scale[i] = scale;
+		markDirty(i);
+	}
+
+	// Getters
+
+	public Vector3f getPosition(int i, Vector3f dest) {
+		return dest.set(x[i], y[i], z[i]);
+	}
+
+	/**
+	 * @return the angle as (pitch, heading, roll)
+	 */
+	public Vector3f getAngle(int i, Vector3f dest) {
+		return dest.set(pitch[i], heading[i], roll[i]);
+	}
+
+	public float getScale(int i) {
+		return scale[i];
+	}
+
+	/**
+	 * Get a transform's model matrix, recomputing it first if it is dirty.
+	 *
+	 * @param i		The transform
+	 * @param dest	The matrix to write
+	 * @return dest
+	 */
+	public Matrix4f getMatrix(int i, Matrix4f dest) {
+		if (isDirty(i)) {
+			compute(i);
+			dirty[i >>> 6] &= ~(1L << i);
+			dirtyCount--;
+		}
+		return dest.set(i * MATRIX_SIZE, matrices);
+	}
+
+	/**
+	 * @return the model matrices of every transform, 16 floats each. Call update() first.
+	 */
+	public FloatBuffer getMatrices() {
+		return matrices;
+	}
+
+	public boolean isDirty(int i) {
+		return (dirty[i >>> 6] & (1L << i)) != 0;
+	}
+
+	/**
+	 * @return the number of transforms waiting to be recomputed
+	 */
+	public int getDirtyCount() {
+		return dirtyCount;
+	}
+
+	/**
+	 * @return the number of transforms recomputed by the last update()
+	 */
+	public int getLastUpdateCount() {
+		return lastUpdateCount;
+	}
+
+	private void markDirty(int i) {
+		long bit = 1L << i;
+		if ((dirty[i >>> 6] & bit) == 0) {
+			dirty[i >>> 6] |= bit;
+			dirtyCount++;
+		}
+	}
+
+	/**
+	 * Recompute the matrix of every dirty transform.
+	 *
+	 * @return the number of transforms recomputed
+	 */
+	public int update() {
+		lastUpdateCount = dirtyCount;
+		if (dirtyCount == 0) {
+			return 0;
+		}
+
+		int nWords = (count + 63) >>> 6;
+		if (parallel && dirtyCount >= PARALLEL_THRESHOLD) {
+			int nChunks = (nWords + CHUNK_WORDS - 1) / CHUNK_WORDS;
+			IntStream.range(0, nChunks).parallel().forEach(c ->
+				updateWords(c * CHUNK_WORDS, Math.min(nWords, (c + 1) * CHUNK_WORDS)));
+		}
+		else {
+			updateWords(0, nWords);
+		}
+
+		dirtyCount = 0;
+		return lastUpdateCount;
+	}
+
+	/**
+	 * Recompute the dirty transforms in the given words of the dirty bitset, and clear them.
+	 */
+	private void updateWords(int from, int to) {
+		for (int w = from; w < to; w++) {
+			long bits = dirty[w];
+			while (bits != 0) {
+				int i = (w << 6) + Long.numberOfTrailingZeros(bits);
+				bits &= bits - 1;
+				compute(i);
+			}
+			dirty[w] = 0;
+		}
+	}
+
+	/**
+	 * Write transform i's matrix into the buffer, using absolute puts so that
+	 * threads don't share a buffer position.
+	 */
+	private void compute(int i) {
+		int r = i * ROTATION_SIZE;
+		long bit = 1L << i;
+		if ((angleDirty[i >>> 6] & bit) != 0) {
+			computeRotation(i);
+			angleDirty[i >>> 6] &= ~bit;
+		}
+
+		float s = scale[i];
+		int k = i * MATRIX_SIZE;
+		matrices.put(k, rotation[r] * s);
+		matrices.put(k + 1, rotation[r + 1] * s);
+		matrices.put(k + 2, rotation[r + 2] * s);
+		matrices.put(k + 3, 0);
+		matrices.put(k + 4, rotation[r + 3] * s);
+		matrices.put(k + 5, rotation[r + 4] * s);
+		matrices.put(k + 6, rotation[r + 5] * s);
+		matrices.put(k + 7, 0);
+		matrices.put(k + 8, rotation[r + 6] * s);
+		matrices.put(k + 9, rotation[r + 7] * s);
+		matrices.put(k + 10, rotation[r + 8] * s);
+		matrices.put(k + 11, 0);
+		matrices.put(k + 12, x[i]);
+		matrices.put(k + 13, y[i]);
+		matrices.put(k + 14, z[i]);
+		matrices.put(k + 15, 1);
+	}
+
+	/**
+	 * Ry(heading) * Rx(pitch) * Rz(roll), multiplied out
+	 */
+	private void computeRotation(int i) {
+		float sh = (float) Math.sin(heading[i]);
+		float ch = (float) Math.cos(heading[i]);
+		float sp = (float) Math.sin(pitch[i]);
+		float cp = (float) Math.cos(pitch[i]);
+		float sr = (float) Math.sin(roll[i]);
+		float cr = (float) Math.cos(roll[i]);
+
+		int r = i * ROTATION_SIZE;
+		rotation[r] = ch * cr + sh * sp * sr;
+		rotation[r + 1] = cp * sr;
+		rotation[r + 2] = -sh * cr + ch * sp * sr;
+		rotation[r + 3] = -ch * sr + sh * sp * cr;
+		rotation[r + 4] = cp * cr;
+		rotation[r + 5] = sh * sr + ch * sp * cr;
+		rotation[r + 6] = sh * cp;
+		rotation[r + 7] = -sp;
+		rotation[r + 8] = ch * cp;
+	}
+
+}
@@ -1,283 +1,165 @@
 package comp3170.demos.trefoil.sceneobjects;
 
-import java.io.IOException;
-
 import org.joml.Matrix4f;
-import org.joml.Vector2f;
 import org.joml.Vector3f;
-import org.joml.Vector4f;
-
-import com.jogamp.opengl.GL;
-import com.jogamp.opengl.GL4;
-import com.jogamp.opengl.GLContext;
 
-import comp3170.GLBuffers;
-import comp3170.demos.trefoil.shaders.ShaderLibrary;
-import comp3170.demos.trefoil.textures.TextureLibrary;
+import comp3170.demos.trefoil.mesh.Bounds;
+import comp3170.demos.trefoil.mesh.Mesh;
+import comp3170.demos.trefoil.mesh.VertexCacheOptimiser;
+import comp3170.demos.trefoil.mesh.VertexFormat;
+import comp3170.demos.trefoil.renderer.Material;
+import comp3170.demos.trefoil.renderer.Renderer;
+import comp3170.demos.trefoil.sceneobjects.curves.TrefoilCurve;
 
 public class Trefoil extends SceneObject {
 	
-	private final static String VERTEX_SHADER = "vertex.glsl";
-	private final static String FRAGMENT_SHADER = "fragment.glsl";
-
 	private static final float TAU = (float) (Math.PI * 2);
 	
-	private static final int NSLICES = 100;
+	private static final int[] LOD_SLICES = { 400, 200, 100, 50, 25 };
+	private static final float LOD_PIXEL_ERROR = 0.5f;
+	private static final float LOD_HYSTERESIS = 0.25f;
+	private static final boolean OPTIMISE_VERTEX_CACHE = true;
 	private static final float CROSS_SECTION_SCALE = 0.15f;
 	private static final float U_MAX = 20;
 	private static final float V_MAX = 1;	
-	private static final String TEXTURE = "wood.jpg";
-			
-	private static final Vector3f AMBIENT_INTENSITY= new Vector3f(0.1f, 0.1f, 0.1f);
-	private static final Vector3f DIFFUSE_INTENSITY= new Vector3f(1f, 1f, 1f);
-	private static final Vector4f LIGHT_DIRECTION = new Vector4f(0f, 1f, 0f, 0);
+	
+	private Mesh[] meshes;		// one per level of detail
+	private Material material;
+	private LODSelector lodSelector;
+	private Bounds bounds;		// of every level
+	private MeshPicker[] pickers;	// one per level of detail
+	private int nSections;
+	private Matrix4f modelViewMatrix = new Matrix4f();
+	private Matrix4f inverseModelMatrix = new Matrix4f();
+	private Vector3f rayOrigin = new Vector3f();
+	private Vector3f rayDirection = new Vector3f();
+	private Vector3f modelViewScale = new Vector3f();
 
-	private Matrix4f normalMatrix = new Matrix4f();
 	
-	private Vector4f[] crossSection;
-	private Vector3f[] crossSectionColour;
+	public Trefoil(TransformStore transforms) {
+		super(transforms);
 
-	private Vector4f[] vertices;
-	private int vertexBuffer;
-	private Vector4f[] normals;
-	private int normalBuffer;
-	private Vector3f[] colours;
-	private int colourBuffer;
-	private Vector2f[] uvs;
-	private int uvBuffer;
-	private int[] indices;
-	private int indexBuffer;
+		TubeSweep sweep = new TubeSweep(new TrefoilCurve(), CrossSection.square());
+		sweep.setScale(CROSS_SECTION_SCALE);
+		sweep.setTextureScale(U_MAX, V_MAX);
 
-	private int texture;
-	private Vector4f[] crossSectionNormal;
+		createLODs(sweep);
 
-	
-	public Trefoil() {
-		super(ShaderLibrary.compileShader(VERTEX_SHADER, FRAGMENT_SHADER));		
-		
-		createCrossSection();		
-		createVertices();		
-		createIndexBuffer();
-		
-		try {
-			this.texture = TextureLibrary.loadTexture(TEXTURE);
-		} catch (IOException e) {
-			e.printStackTrace();
-			System.exit(1);
-		}		
+		// white wireframe
+		this.material = new Material();
+		this.material.setWireframe(true);
 	}
 	
-	private void createCrossSection() {
-		// cross section is a square:
-		//
-		//  3-----2
-		//  |     |
-		//  |  *  |    Y
-		//  |     |    |
-		//  0-----1    +--X
-				
-		this.crossSection = new Vector4f[] {
-			new Vector4f(-1, -1, 0, 1),
-			new Vector4f( 1, -1, 0, 1),
-			new Vector4f( 1,  1, 0, 1),
-			new Vector4f(-1,  1, 0, 1),
-		};
-
-		this.crossSectionNormal = new Vector4f[] {
-			new Vector4f( 0, -1, 0, 0),
-			new Vector4f( 1,  0, 0, 0),
-			new Vector4f( 0,  1, 0, 0),
-			new Vector4f(-1,  0, 0, 0),
-		};
+	/**
+	 * Build a mesh for each level of detail. Each level places its slices where 
+	 * the curve bends the most, and records its error for the LOD selector.
+	 */
+	private void createLODs(TubeSweep sweep) {
+		AdaptiveSampler sampler = new AdaptiveSampler(sweep.getCurve(), 
+				CROSS_SECTION_SCALE * sweep.getCrossSection().getRadius());
+		sampler.setTolerance(0);
+
+		this.meshes = new Mesh[LOD_SLICES.length];
+		this.pickers = new MeshPicker[LOD_SLICES.length];
+		this.nSections = sweep.getCrossSection().size();
+		this.bounds = new Bounds();
+		float[] errors = new float[LOD_SLICES.length];
+
+		for (int i = 0; i < LOD_SLICES.length; i++) {
+			sampler.setMaxSlices(LOD_SLICES[i]);
+			float[] ts = sampler.sample();
+
+			errors[i] = sampler.maxError(ts);
+			meshes[i] = sweep.createMesh(ts);
+			bounds.union(meshes[i].getBounds());
+			int[] order = null;
+			if (OPTIMISE_VERTEX_CACHE) {
+				order = VertexCacheOptimiser.optimise(meshes[i].getIndices(), meshes[i].getVertexCount());
+			}
+			// copied, since a GL upload releases the mesh data
+			pickers[i] = new MeshPicker(meshes[i], order);
+			meshes[i].setVertexFormat(VertexFormat.COMPACT);
+		}
 
-		this.crossSectionColour = new Vector3f[] {
-			new Vector3f(1, 0, 0),		// Red
-			new Vector3f(1, 1, 0),		// Yellow
-			new Vector3f(0, 1, 0),		// Green
-			new Vector3f(0, 0, 1),		// Blue
-		};
+		this.lodSelector = new LODSelector(errors, LOD_PIXEL_ERROR, LOD_HYSTERESIS);
 	}
 
-
-
-	private void createVertices() {
-		this.vertices = new Vector4f[2* (NSLICES+1) * crossSection.length];
-		this.normals = new Vector4f[vertices.length];
-		this.colours = new Vector3f[vertices.length];
-		this.uvs = new Vector2f[vertices.length];
-
-		Vector3f vUp = new Vector3f(0,0,1);
-		
-		Vector3f iAxis = new Vector3f(0,0,0);
-		Vector3f jAxis = new Vector3f(0,0,0);
-		Vector3f kAxis = new Vector3f(0,0,0);
-
-		Vector4f iAxis4 = new Vector4f(0,0,0,0);
-		Vector4f jAxis4 = new Vector4f(0,0,0,0);
-		Vector4f kAxis4 = new Vector4f(0,0,0,0);
-
-		Matrix4f matrix = new Matrix4f();
-				
-		// Texture coordinates:
-		//     u
-		//   0                 u_max 
-		//  0+---+---+ ... +---+
-		//   |\  |\  |     |\  |
-		// v | \ | \ |     | \ |
-		//   |  \|  \|     |  \|
-		//  1+---+---+ ... +---+
-		//
-		
+	/**
+	 * Choose the level of detail to draw, based on how far the trefoil is from 
+	 * the camera and how large that appears under the projection.
+	 * 
+	 * @param viewMatrix		The view matrix
+	 * @param projectionMatrix	The projection matrix
+	 * @param viewportHeight	The height of the viewport in pixels
+	 * @return the selected level
+	 */
+	public int selectLOD(Matrix4f viewMatrix, Matrix4f projectionMatrix, float viewportHeight) {
+		calcModelMatrix();
+		viewMatrix.mul(modelMatrix, modelViewMatrix);
+
+		// the model's origin is at view space z = -distance
+		float distance = -modelViewMatrix.m32();
 		
-		int k = 0;
-		for (int i = 0; i <= NSLICES; i++) {
-			float t = i * TAU / NSLICES;  // [0, TAU]
-			
-			Vector4f origin = new Vector4f(0,0,0,1);
-			
-			origin.x = (float) (Math.sin(t) + 2 * Math.sin(2 * t)) /3;
-			origin.y = (float) (Math.cos(t) - 2 * Math.cos(2 * t)) /3;
-			origin.z = (float) -Math.sin(3*t)/3;
-
-			kAxis.x = (float) (Math.cos(t) + 4 * Math.cos(2 * t));
-			kAxis.y = (float) (-Math.sin(t) + 4 * Math.sin(2 * t));
-			kAxis.z = (float) (-3 * Math.cos(3*t));		
-			kAxis.normalize();
-				
-			vUp.cross(kAxis, iAxis);	// i = vUp x k
-			iAxis.normalize();			
-			kAxis.cross(iAxis, jAxis);  // j = k x i
-			jAxis.normalize();			
-			
-			iAxis4.set(iAxis, 0);
-			jAxis4.set(jAxis, 0);
-			kAxis4.set(kAxis, 0);
-			
-			// construct the transform M = [i j k T] * R * S
-			matrix.set(iAxis4, jAxis4, kAxis4, origin);
-			matrix.rotateZ(TAU / 4 * i / NSLICES);	// rotate by 90° after one full loop
-			matrix.scale(CROSS_SECTION_SCALE);
-			
-			float u = i * U_MAX / NSLICES; // [0, U_MAX] 
-			Vector2f uv0 = new Vector2f(u,0);
-			Vector2f uv1 = new Vector2f(u,V_MAX);
-			
-			for (int j = 0; j < crossSection.length; j++) {
-				// cross section
-				//
-				//    (u,0) (u,1)
-				// (u,1) +---+ (u,0)
-				//       |   |
-				//       |   |
-				//       |   |
-				// (u,0) +---+ (u,1)
-				//    (u,1) (u,0)
-				
-				vertices[k] = new Vector4f(crossSection[j]);
-				vertices[k].mul(matrix, vertices[k]);	// v = M p[j]
-				normals[k] = crossSectionNormal[j].mul(matrix, new Vector4f());
-				colours[k] = crossSectionColour[j];
-				uvs[k] = uv0;				
-				k++;
-
-				vertices[k] = new Vector4f(crossSection[(j+1) % crossSection.length]);
-				vertices[k].mul(matrix, vertices[k]);	// v = M p[j+1]
-				normals[k] = normals[k-1];
-				colours[k] = crossSectionColour[(j+1) % crossSection.length];
-				uvs[k] = uv1;				
-				k++;
-
-			}
-			
-		}
+		// model units are scaled by the model and view matrices
+		float pixelsPerUnit = LODSelector.pixelsPerUnit(projectionMatrix, distance, viewportHeight) 
+				* modelViewMatrix.getScale(modelViewScale).y;
 		
-		this.vertexBuffer = GLBuffers.createBuffer(vertices);		
-		this.normalBuffer = GLBuffers.createBuffer(normals);		
-		this.colourBuffer = GLBuffers.createBuffer(colours);
-		this.uvBuffer = GLBuffers.createBuffer(uvs);
+		return lodSelector.select(pixelsPerUnit);
 	}
 
-	private void createIndexBuffer() {
-		this.indices = new int[NSLICES * crossSection.length * 2 * 3];
-		
-		//  i
-		//   0   1   2     n-1 n
-		//j 0+---+---+ ... +---+
-		//   |\  |\  |     |\  |
-		// 0 | \ | \ |     | \ |
-		//   |  \|  \|     |  \|
-		//  1+---+---+ ... +---+
-		//  2+---+---+ ... +---+
-		//   |\  |\  |     |\  |
-		// 1 | \ | \ |     | \ |
-		//   |  \|  \|     |  \|
-		//  3+---+---+ ... +---+
-		//  4+---+---+ ... +---+
-		//   |\  |\  |     |\  |
-		// 2 | \ | \ |     | \ |
-		//   |  \|  \|     |  \|
-		//  5+---+---+ ... +---+
-		//  6+---+---+ ... +---+
-		//   |\  |\  |     |\  |
-		// 3 | \ | \ |     | \ |
-		//   |  \|  \|     |  \|
-		//  7+---+---+ ... +---+
-		
-		
-		int k = 0;
-		for (int i = 0; i < NSLICES; i++) {
-			for (int j = 0; j < crossSection.length; j++) {
-				int i2 = i + 1;
-				
-				indices[k++] = i * crossSection.length * 2 + 2 * j;
-				indices[k++] = i * crossSection.length * 2 + 2 * j + 1;		
-				indices[k++] = i2 * crossSection.length * 2 + 2 * j;		
-				
-				indices[k++] = i2 * crossSection.length * 2 + 2 * j + 1;				
-				indices[k++] = i2 * crossSection.length * 2 + 2 * j;			
-				indices[k++] = i * crossSection.length * 2 + 2 * j + 1;				
-			}
+	/**
+	 * Find the triangle under a point on the screen, in the level of detail
+	 * currently drawn.
+	 *
+	 * @param viewMatrix		The view matrix
+	 * @param projectionMatrix	The projection matrix
+	 * @param x, y				The point in NDC
+	 * @return the triangle hit, with its slice and face, or null if none
+	 */
+	public PickResult pick(Matrix4f viewMatrix, Matrix4f projectionMatrix, float x, float y) {
+		MeshPicker.mouseRay(projectionMatrix, viewMatrix, x, y, rayOrigin, rayDirection);
+
+		// move the ray into model space rather than the mesh into world space
+		calcModelMatrix();
+		modelMatrix.invertAffine(inverseModelMatrix);
+		inverseModelMatrix.transformPosition(rayOrigin);
+		inverseModelMatrix.transformDirection(rayDirection);
+
+		PickResult result = pickers[lodSelector.getLevel()].pick(rayOrigin, rayDirection, new PickResult());
+		if (result != null) {
+			int triangle = result.getTriangle();
+			result.setTubeFace(TubeSweep.getSlice(triangle, nSections), TubeSweep.getFace(triangle, nSections));
 		}
-
-		
-		this.indexBuffer = GLBuffers.createIndexBuffer(indices);
+		return result;
 	}
 
-
 	@Override
-	public void draw(Matrix4f viewMatrix, Matrix4f projectionMatrix) {
-		GL4 gl = (GL4) GLContext.getCurrentGL();
-
-		shader.enable();		
-
-//		calcModelMatrix();
-//		shader.setUniform("u_modelMatrix", modelMatrix);
-//		shader.setUniform("u_viewMatrix", viewMatrix);
-//		shader.setUniform("u_projectionMatrix", projectionMatrix);
-		
-		shader.setAttribute("a_position", vertexBuffer);		
-//		shader.setAttribute("a_colour", colourBuffer);		
+	public Bounds getBounds() {
+		return bounds;
+	}
 
-//		shader.setAttribute("a_texcoord", uvBuffer);		
-//		gl.glActiveTexture(GL.GL_TEXTURE0);
-//		gl.glBindTexture(GL.GL_TEXTURE_2D, texture);
-//		shader.setUniform("u_texture", 0);
-		
-//		shader.setUniform("u_normalMatrix", modelMatrix.normal(normalMatrix));
-//		shader.setAttribute("a_normal", normalBuffer);		
+	public Material getMaterial() {
+		return material;
+	}
 
-//		shader.setUniform("u_ambientIntensity", AMBIENT_INTENSITY);
-//		shader.setUniform("u_diffuseIntensity", DIFFUSE_INTENSITY);
-//		shader.setUniform("u_lightDirection", LIGHT_DIRECTION);
-		
-		gl.glBindBuffer(GL.GL_ELEMENT_ARRAY_BUFFER, indexBuffer);
+	public void setMaterial(Material material) {
+		this.material = material;
+	}
 
-		gl.glPolygonMode(GL.GL_FRONT_AND_BACK, GL4.GL_LINE);
-		gl.glDrawElements(GL.GL_TRIANGLES, indices.length, GL.GL_UNSIGNED_INT, 0);		
+	/**
+	 * Keep the mesh data after a GL upload, so the trefoil can be drawn by both a
+	 * GLRenderer and a SoftwareRenderer. Must be called before it is first drawn.
+	 */
+	public void keepData() {
+		for (Mesh mesh : meshes) {
+			mesh.keepData(true);
+		}
+	}
 
+	@Override
+	public void draw(Renderer renderer, Matrix4f viewMatrix, Matrix4f projectionMatrix) {
+		calcModelMatrix();
+		renderer.draw(meshes[lodSelector.getLevel()], modelMatrix, viewMatrix, projectionMatrix, material);
 	}
-	
-	
-	
 
 }
@@ -0,0 +1,497 @@
+package comp3170.demos.trefoil.sceneobjects;
+
+import java.util.stream.IntStream;
+
+import org.joml.Vector3f;
+
+import comp3170.demos.trefoil.mesh.Mesh;
+import comp3170.demos.trefoil.mesh.MeshBuilder;
+import comp3170.demos.trefoil.sceneobjects.curves.Curve;
+
+/**
+ * Builds a tube mesh by sweeping a CrossSection along a Curve.
+ *
+ * Usage:
+ *
+ *		TubeSweep sweep = new TubeSweep(new TrefoilCurve(), CrossSection.square());
+ *		sweep.setScale(0.15f);
+ *		Mesh mesh = sweep.createMesh(nSlices);
+ *
+ * The curve is sampled at nSlices+1 parameter values. A frame [i j k T] is computed
+ * once for each sample and then reused to generate every attribute of the vertices
+ * in that slice.
+ *
+ * Generation does not need a GL context, so meshes can be built off the GL thread
+ * and uploaded later with Mesh.upload().
+ */
+
+public class TubeSweep {
+
+	/**
+	 * Frames are packed as 12 floats per slice: i, j, k, T
+	 */
+	public static final int FRAME_SIZE = 12;
+
+	/**
+	 * How the i and j axes of each slice are chosen
+	 */
+	public enum FrameMode {
+		/**
+		 * i = up x k, with up fixed at (0,0,1). Each frame is independent, but the
+		 * frame flips when the tangent passes through the up vector.
+		 */
+		FIXED_UP,
+		
+		/**
+		 * Rotation-minimising frames, carried along the curve by parallel transport
+		 * using the double reflection method (Wang et al., 2008). On closed curves the
+		 * residual twist is spread evenly by arc length so the tube joins up.
+		 */
+		PARALLEL_TRANSPORT,
+	}
+
+	private static final int MIN_PARALLEL_SLICES = 4096;	// below this, threading costs more than it saves
+	private static final int SLICES_PER_CHUNK = 1024;
+
+	private final Curve curve;
+	private final CrossSection crossSection;
+
+	private float scale = 1;
+	private float twist = 0;
+	private float uMax = 1;
+	private float vMax = 1;
+	private boolean parallel = true;
+	private FrameMode frameMode = FrameMode.PARALLEL_TRANSPORT;
+
+	public TubeSweep(Curve curve, CrossSection crossSection) {
+		this.curve = curve;
+		this.crossSection = crossSection;
+	}
+
+	public Curve getCurve() {
+		return curve;
+	}
+
+	public CrossSection getCrossSection() {
+		return crossSection;
+	}
+
+	/**
+	 * @param scale	The scale applied to the cross section
+	 */
+	public void setScale(float scale) {
+		this.scale = scale;
+	}
+
+	/**
+	 * @param twist	The angle the cross section rotates about the tangent over the length of the curve
+	 */
+	public void setTwist(float twist) {
+		this.twist = twist;
+	}
+
+	/**
+	 * @param uMax	The u texture coordinate at the end of the curve
+	 * @param vMax	The v texture coordinate across each face
+	 */
+	public void setTextureScale(float uMax, float vMax) {
+		this.uMax = uMax;
+		this.vMax = vMax;
+	}
+
+	/**
+	 * @param frameMode	How the frame of each slice is chosen (default PARALLEL_TRANSPORT)
+	 */
+	public void setFrameMode(FrameMode frameMode) {
+		this.frameMode = frameMode;
+	}
+
+	/**
+	 * @param parallel	true to generate large meshes on the common fork-join pool (the default)
+	 */
+	public void setParallel(boolean parallel) {
+		this.parallel = parallel;
+	}
+
+	/**
+	 * Sample the curve parameter uniformly
+	 *
+	 * @param nSlices	The number of slices
+	 * @return an array of nSlices+1 parameter values from start to end
+	 */
+	public float[] uniformSamples(int nSlices) {
+		float start = curve.getStart();
+		float end = curve.getEnd();
+		float[] ts = new float[nSlices+1];
+
+		for (int i = 0; i <= nSlices; i++) {
+			ts[i] = start + i * (end - start) / nSlices;
+		}
+		return ts;
+	}
+
+	/**
+	 * Create a tube mesh with the curve sampled uniformly.
+	 *
+	 * @param nSlices	The number of slices along the curve
+	 * @return a mesh with normals, colours and uvs
+	 */
+	public Mesh createMesh(int nSlices) {
+		return createMesh(uniformSamples(nSlices));
+	}
+
+	/**
+	 * Create a tube mesh with the curve sampled at the given parameter values.
+	 *
+	 * @param ts	Increasing parameter values, one per slice
+	 * @return a mesh with normals, colours and uvs
+	 */
+	public Mesh createMesh(float[] ts) {
+		float[] frames = createFrames(ts);
+		MeshBuilder builder = createVertices(ts, frames);
+		int[] indices = createIndices(ts.length - 1, crossSection.size());
+		return builder.build(indices);
+	}
+
+	/**
+	 * Compute the frame for each slice, with the twist applied.
+	 *
+	 * @param ts	The parameter values for each slice
+	 * @return the frames, FRAME_SIZE floats per slice
+	 */
+	public float[] createFrames(float[] ts) {
+		float[] frames = new float[ts.length * FRAME_SIZE];
+
+		switch (frameMode) {
+		case FIXED_UP:
+			forEachRange(ts.length, (from, to) -> createFixedUpFrames(ts, frames, from, to));
+			break;
+		case PARALLEL_TRANSPORT:
+			createParallelTransportFrames(ts, frames);
+			break;
+		}
+		return frames;
+	}
+
+	private void createFixedUpFrames(float[] ts, float[] frames, int from, int to) {
+		Vector3f vUp = new Vector3f(0,0,1);
+
+		Vector3f origin = new Vector3f();
+		Vector3f iAxis = new Vector3f();
+		Vector3f jAxis = new Vector3f();
+		Vector3f kAxis = new Vector3f();
+
+		for (int i = from; i < to; i++) {
+			float t = ts[i];
+
+			curve.getPosition(t, origin);
+			curve.getTangent(t, kAxis);
+			kAxis.normalize();
+
+			vUp.cross(kAxis, iAxis);	// i = vUp x k
+			iAxis.normalize();
+			kAxis.cross(iAxis, jAxis);	// j = k x i
+			jAxis.normalize();
+
+			putFrame(frames, i, iAxis, jAxis, kAxis, origin, twistAngle(t));
+		}
+	}
+
+	/**
+	 * Compute rotation-minimising frames using the double reflection method.
+	 * 
+	 * Each frame depends on the one before, so this pass is serial. It is cheap
+	 * compared to generating the vertices, which is still done in parallel.
+	 */
+	private void createParallelTransportFrames(float[] ts, float[] frames) {
+		int n = ts.length;
+		float[] positions = new float[3 * n];
+		float[] tangents = new float[3 * n];
+		float[] rAxes = new float[3 * n];
+		float[] arcLength = new float[n];
+
+		Vector3f x0 = new Vector3f();
+		Vector3f x1 = new Vector3f();
+		Vector3f t0 = new Vector3f();
+		Vector3f t1 = new Vector3f();
+		Vector3f r0 = new Vector3f();
+		Vector3f v = new Vector3f();
+		Vector3f rL = new Vector3f();
+		Vector3f tL = new Vector3f();
+
+		curve.getPosition(ts[0], x0);
+		curve.getTangent(ts[0], t0).normalize();
+
+		// choose an initial i axis perpendicular to the tangent, 
+		// matching i = up x k where possible
+		Vector3f vUp = new Vector3f(0,0,1);
+		if (Math.abs(t0.dot(vUp)) > 0.9f) {
+			vUp.set(1,0,0);
+		}
+		vUp.cross(t0, r0).normalize();
+
+		put(positions, 0, x0);
+		put(tangents, 0, t0);
+		put(rAxes, 0, r0);
+
+		for (int i = 1; i < n; i++) {
+			curve.getPosition(ts[i], x1);
+			curve.getTangent(ts[i], t1).normalize();
+
+			// reflect r and t in the bisecting plane of x0 and x1
+			x1.sub(x0, v);
+			float c1 = v.dot(v);
+			if (c1 > 0) {
+				r0.fma(-2 / c1 * v.dot(r0), v, rL);
+				t0.fma(-2 / c1 * v.dot(t0), v, tL);
+			}
+			else {
+				rL.set(r0);
+				tL.set(t0);
+			}
+
+			// reflect again to map tL onto t1
+			t1.sub(tL, v);
+			float c2 = v.dot(v);
+			if (c2 > 0) {
+				rL.fma(-2 / c2 * v.dot(rL), v, r0);
+			}
+			else {
+				r0.set(rL);
+			}
+
+			// remove any accumulated rounding error
+			r0.fma(-r0.dot(t1), t1).normalize();
+
+			arcLength[i] = arcLength[i-1] + (float) Math.sqrt(c1);
+			x0.set(x1);
+			t0.set(t1);
+
+			put(positions, i, x0);
+			put(tangents, i, t0);
+			put(rAxes, i, r0);
+		}
+
+		// On a closed curve, the final frame generally comes back rotated relative 
+		// to the first. Measure the angle and undo it gradually along the tube.
+		float closureAngle = 0;
+		if (curve.isClosed() && arcLength[n-1] > 0) {
+			Vector3f rStart = get(rAxes, 0, new Vector3f());
+			Vector3f tStart = get(tangents, 0, new Vector3f());
+			Vector3f rEnd = get(rAxes, n-1, new Vector3f());
+			closureAngle = (float) Math.atan2(rEnd.cross(rStart, v).dot(tStart), rEnd.dot(rStart));
+		}
+
+		Vector3f origin = new Vector3f();
+		Vector3f iAxis = new Vector3f();
+		Vector3f jAxis = new Vector3f();
+		Vector3f kAxis = new Vector3f();
+
+		for (int i = 0; i < n; i++) {
+			get(positions, i, origin);
+			get(tangents, i, kAxis);
+			get(rAxes, i, iAxis);
+			kAxis.cross(iAxis, jAxis);	// j = k x i
+
+			float correction = (arcLength[n-1] > 0 ? closureAngle * arcLength[i] / arcLength[n-1] : 0);
+			putFrame(frames, i, iAxis, jAxis, kAxis, origin, twistAngle(ts[i]) + correction);
+		}
+	}
+
+	private static void put(float[] array, int i, Vector3f v) {
+		array[3*i] = v.x;
+		array[3*i+1] = v.y;
+		array[3*i+2] = v.z;
+	}
+
+	private static Vector3f get(float[] array, int i, Vector3f dest) {
+		return dest.set(array[3*i], array[3*i+1], array[3*i+2]);
+	}
+
+	/**
+	 * @param t	The curve parameter
+	 * @return the twist applied to the cross section at t
+	 */
+	protected float twistAngle(float t) {
+		return twist * (t - curve.getStart()) / (curve.getEnd() - curve.getStart());
+	}
+
+	/**
+	 * Write a frame into the frames array, rotating i and j about k by the given angle
+	 */
+	protected static void putFrame(float[] frames, int i, Vector3f iAxis, Vector3f jAxis, Vector3f kAxis, Vector3f origin, float angle) {
+		float cos = (float) Math.cos(angle);
+		float sin = (float) Math.sin(angle);
+
+		int f = i * FRAME_SIZE;
+		frames[f++] = cos * iAxis.x + sin * jAxis.x;
+		frames[f++] = cos * iAxis.y + sin * jAxis.y;
+		frames[f++] = cos * iAxis.z + sin * jAxis.z;
+		frames[f++] = cos * jAxis.x - sin * iAxis.x;
+		frames[f++] = cos * jAxis.y - sin * iAxis.y;
+		frames[f++] = cos * jAxis.z - sin * iAxis.z;
+		frames[f++] = kAxis.x;
+		frames[f++] = kAxis.y;
+		frames[f++] = kAxis.z;
+		frames[f++] = origin.x;
+		frames[f++] = origin.y;
+		frames[f++] = origin.z;
+	}
+
+	/**
+	 * Generate the vertices for every slice from the precomputed frames
+	 *
+	 * @param ts		The parameter values for each slice
+	 * @param frames	The frames returned by createFrames(ts)
+	 * @return a builder holding the vertex data
+	 */
+	public MeshBuilder createVertices(float[] ts, float[] frames) {
+		int nVertices = 2 * ts.length * crossSection.size();
+		MeshBuilder builder = new MeshBuilder(nVertices, MeshBuilder.NORMAL | MeshBuilder.COLOUR | MeshBuilder.UV);
+
+		forEachRange(ts.length, (from, to) -> createVertices(ts, frames, builder, from, to));
+		return builder;
+	}
+
+	private void createVertices(float[] ts, float[] frames, MeshBuilder builder, int from, int to) {
+		int n = crossSection.size();
+		float start = curve.getStart();
+		float length = curve.getEnd() - start;
+
+		// Texture coordinates:
+		//     u
+		//   0                 u_max
+		//  0+---+---+ ... +---+
+		//   |\  |\  |     |\  |
+		// v | \ | \ |     | \ |
+		//   |  \|  \|     |  \|
+		//  1+---+---+ ... +---+
+		//
+
+		int k = from * 2 * n;
+		for (int i = from; i < to; i++) {
+			int f = i * FRAME_SIZE;
+			float ix = frames[f], iy = frames[f+1], iz = frames[f+2];
+			float jx = frames[f+3], jy = frames[f+4], jz = frames[f+5];
+			float ox = frames[f+9], oy = frames[f+10], oz = frames[f+11];
+
+			float u = (ts[i] - start) * uMax / length;	// [0, U_MAX]
+
+			for (int j = 0; j < n; j++) {
+				// cross section
+				//
+				//    (u,0) (u,1)
+				// (u,1) +---+ (u,0)
+				//       |   |
+				//       |   |
+				//       |   |
+				// (u,0) +---+ (u,1)
+				//    (u,1) (u,0)
+
+				float nx = crossSection.getNormalX(j);
+				float ny = crossSection.getNormalY(j);
+				float normalX = nx * ix + ny * jx;
+				float normalY = nx * iy + ny * jy;
+				float normalZ = nx * iz + ny * jz;
+
+				for (int e = 0; e < 2; e++) {
+					int p = (j + e) % n;		// p[j], p[j+1]
+					float x = crossSection.getX(p) * scale;
+					float y = crossSection.getY(p) * scale;
+
+					// v = T + x i + y j
+					builder.setPosition(k, ox + x * ix + y * jx, oy + x * iy + y * jy, oz + x * iz + y * jz);
+					builder.setNormal(k, normalX, normalY, normalZ);
+					builder.setColour(k, crossSection.getRed(p), crossSection.getGreen(p), crossSection.getBlue(p));
+					builder.setUV(k, u, e * vMax);
+					k++;
+				}
+			}
+		}
+	}
+
+	/**
+	 * Create the index buffer for a tube with nSlices+1 slices of the standard
+	 * vertex layout (2 vertices per cross section edge per slice).
+	 *
+	 * @param nSlices	The number of slices (one less than the number of rows of vertices)
+	 * @param nSections	The number of edges in the cross section
+	 * @return the triangle indices
+	 */
+	public static int[] createIndices(int nSlices, int nSections) {
+		int[] indices = new int[nSlices * nSections * 2 * 3];
+
+		//  i
+		//   0   1   2     n-1 n
+		//j 0+---+---+ ... +---+
+		//   |\  |\  |     |\  |
+		// 0 | \ | \ |     | \ |
+		//   |  \|  \|     |  \|
+		//  1+---+---+ ... +---+
+		//  2+---+---+ ... +---+
+		//   |\  |\  |     |\  |
+		// 1 | \ | \ |     | \ |
+		//   |  \|  \|     |  \|
+		//  3+---+---+ ... +---+
+		//  ...
+
+		int k = 0;
+		for (int i = 0; i < nSlices; i++) {
+			int row = i * nSections * 2;
+			int row2 = (i + 1) * nSections * 2;
+
+			for (int j = 0; j < nSections; j++) {
+				indices[k++] = row + 2 * j;
+				indices[k++] = row + 2 * j + 1;
+				indices[k++] = row2 + 2 * j;
+
+				indices[k++] = row2 + 2 * j + 1;
+				indices[k++] = row2 + 2 * j;
+				indices[k++] = row + 2 * j + 1;
+			}
+		}
+
+		return indices;
+	}
+
+	/**
+	 * @param triangle	A triangle index in the order made by createIndices()
+	 * @param nSections	The number of edges in the cross section
+	 * @return the slice i the triangle belongs to
+	 */
+	public static int getSlice(int triangle, int nSections) {
+		return triangle / (2 * nSections);
+	}
+
+	/**
+	 * @param triangle	A triangle index in the order made by createIndices()
+	 * @param nSections	The number of edges in the cross section
+	 * @return the cross section edge j the triangle belongs to
+	 */
+	public static int getFace(int triangle, int nSections) {
+		return (triangle / 2) % nSections;
+	}
+
+	private interface RangeTask {
+		public void run(int from, int to);
+	}
+
+	/**
+	 * Run a task over [0, n), split into chunks on the common fork-join pool if
+	 * the range is large enough. Every element is computed by the same code
+	 * regardless of the split, so the output does not depend on the scheduling.
+	 */
+	private void forEachRange(int n, RangeTask task) {
+		if (!parallel || n < MIN_PARALLEL_SLICES) {
+			task.run(0, n);
+			return;
+		}
+
+		int nChunks = (n + SLICES_PER_CHUNK - 1) / SLICES_PER_CHUNK;
+		IntStream.range(0, nChunks).parallel().forEach(c -> {
+			int from = c * SLICES_PER_CHUNK;
+			task.run(from, Math.min(from + SLICES_PER_CHUNK, n));
+		});
+	}
+
+}
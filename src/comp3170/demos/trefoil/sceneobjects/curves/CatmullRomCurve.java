@@ -0,0 +1,55 @@
+package comp3170.demos.trefoil.sceneobjects.curves;
+
+import org.joml.Vector3f;
+
+/**
+ * A closed, uniform Catmull-Rom spline through a list of control points.
+ * 
+ * The parameter t in [0, TAU] is divided evenly between the segments, so 
+ * segment s covers [s, s+1] * TAU / n. The tangent is left to the default 
+ * numerical estimate.
+ */
+
+public class CatmullRomCurve implements Curve {
+
+	private final Vector3f[] points;
+
+	public CatmullRomCurve(Vector3f[] points) {
+		if (points.length < 3) {
+			throw new IllegalArgumentException("A closed spline needs at least 3 points");
+		}
+		
+		this.points = new Vector3f[points.length];
+		for (int i = 0; i < points.length; i++) {
+			this.points[i] = new Vector3f(points[i]);
+		}
+	}
+
+	@Override
+	public Vector3f getPosition(float t, Vector3f dest) {
+		int n = points.length;
+		float s = t / TAU * n;
+		int i = (int) Math.floor(s);
+		float u = s - i;
+
+		i = Math.floorMod(i, n);
+		Vector3f p0 = points[(i + n - 1) % n];
+		Vector3f p1 = points[i];
+		Vector3f p2 = points[(i + 1) % n];
+		Vector3f p3 = points[(i + 2) % n];
+
+		// p(u) = 0.5 * (2 p1 + (p2 - p0) u + (2 p0 - 5 p1 + 4 p2 - p3) u^2 + (3 p1 - p0 - 3 p2 + p3) u^3)
+		float u2 = u * u;
+		float u3 = u2 * u;
+		float b0 = (-u3 + 2 * u2 - u) / 2;
+		float b1 = (3 * u3 - 5 * u2 + 2) / 2;
+		float b2 = (-3 * u3 + 4 * u2 + u) / 2;
+		float b3 = (u3 - u2) / 2;
+
+		dest.x = b0 * p0.x + b1 * p1.x + b2 * p2.x + b3 * p3.x;
+		dest.y = b0 * p0.y + b1 * p1.y + b2 * p2.y + b3 * p3.y;
+		dest.z = b0 * p0.z + b1 * p1.z + b2 * p2.z + b3 * p3.z;
+		return dest;
+	}
+
+}
@@ -0,0 +1,54 @@
+package comp3170.demos.trefoil.sceneobjects.curves;
+
+import org.joml.Vector3f;
+
+/**
+ * A parametric curve p(t) in 3D, defined for t in [getStart(), getEnd()].
+ * 
+ * Implementations must provide the position. Curves that know their derivative 
+ * analytically should override getTangent(), otherwise it is estimated by 
+ * central differences.
+ */
+
+public interface Curve {
+
+	public static final float TAU = (float) (Math.PI * 2);
+	
+	/**
+	 * Write the position p(t) into dest
+	 * 
+	 * @param t		The curve parameter
+	 * @param dest	The destination vector
+	 * @return dest
+	 */
+	public Vector3f getPosition(float t, Vector3f dest);
+
+	/**
+	 * Write the (not necessarily unit length) tangent dp/dt into dest. 
+	 * 
+	 * @param t		The curve parameter
+	 * @param dest	The destination vector
+	 * @return dest
+	 */
+	public default Vector3f getTangent(float t, Vector3f dest) {
+		float h = (getEnd() - getStart()) * 1e-4f;
+		Vector3f p0 = getPosition(t - h, new Vector3f());
+		getPosition(t + h, dest);
+		return dest.sub(p0).div(2 * h);	// (p(t+h) - p(t-h)) / 2h
+	}
+	
+	public default float getStart() {
+		return 0;
+	}
+
+	public default float getEnd() {
+		return TAU;
+	}
+
+	/**
+	 * @return true if p(getStart()) == p(getEnd())
+	 */
+	public default boolean isClosed() {
+		return true;
+	}
+}
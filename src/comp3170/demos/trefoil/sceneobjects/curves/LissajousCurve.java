@@ -0,0 +1,51 @@
+package comp3170.demos.trefoil.sceneobjects.curves;
+
+import org.joml.Vector3f;
+
+/**
+ * A 3D Lissajous curve, for t in [0, TAU]
+ * 
+ * x = sx sin(a t + phaseX)
+ * y = sy sin(b t + phaseY)
+ * z = sz sin(c t + phaseZ)
+ * 
+ * The frequencies are integers so that the curve is closed.
+ */
+
+public class LissajousCurve implements Curve {
+
+	private final int a;
+	private final int b;
+	private final int c;
+	private final Vector3f phase;
+	private final Vector3f size;
+
+	public LissajousCurve(int a, int b, int c) {
+		this(a, b, c, new Vector3f(0, Curve.TAU / 4, Curve.TAU / 8), new Vector3f(1, 1, 1));
+	}
+
+	public LissajousCurve(int a, int b, int c, Vector3f phase, Vector3f size) {
+		this.a = a;
+		this.b = b;
+		this.c = c;
+		this.phase = new Vector3f(phase);
+		this.size = new Vector3f(size);
+	}
+
+	@Override
+	public Vector3f getPosition(float t, Vector3f dest) {
+		dest.x = (float) (size.x * Math.sin(a * t + phase.x));
+		dest.y = (float) (size.y * Math.sin(b * t + phase.y));
+		dest.z = (float) (size.z * Math.sin(c * t + phase.z));
+		return dest;
+	}
+
+	@Override
+	public Vector3f getTangent(float t, Vector3f dest) {
+		dest.x = (float) (size.x * a * Math.cos(a * t + phase.x));
+		dest.y = (float) (size.y * b * Math.cos(b * t + phase.y));
+		dest.z = (float) (size.z * c * Math.cos(c * t + phase.z));
+		return dest;
+	}
+
+}
@@ -0,0 +1,53 @@
+package comp3170.demos.trefoil.sceneobjects.curves;
+
+import org.joml.Vector3f;
+
+/**
+ * A (p,q) torus knot, winding p times around the axis of a torus and
+ * q times through its hole, for t in [0, TAU]
+ * 
+ * x = (R + r cos(qt)) cos(pt)
+ * y = (R + r cos(qt)) sin(pt)
+ * z = r sin(qt)
+ * 
+ * p and q should be coprime, otherwise the curve is a torus link traced more than once.
+ */
+
+public class TorusKnotCurve implements Curve {
+
+	private final int p;
+	private final int q;
+	private final float majorRadius;
+	private final float minorRadius;
+
+	public TorusKnotCurve(int p, int q) {
+		this(p, q, 1, 0.5f);
+	}
+
+	public TorusKnotCurve(int p, int q, float majorRadius, float minorRadius) {
+		this.p = p;
+		this.q = q;
+		this.majorRadius = majorRadius;
+		this.minorRadius = minorRadius;
+	}
+
+	@Override
+	public Vector3f getPosition(float t, Vector3f dest) {
+		double r = majorRadius + minorRadius * Math.cos(q * t);
+		dest.x = (float) (r * Math.cos(p * t));
+		dest.y = (float) (r * Math.sin(p * t));
+		dest.z = (float) (minorRadius * Math.sin(q * t));
+		return dest;
+	}
+
+	@Override
+	public Vector3f getTangent(float t, Vector3f dest) {
+		double r = majorRadius + minorRadius * Math.cos(q * t);
+		double dr = -minorRadius * q * Math.sin(q * t);
+		dest.x = (float) (dr * Math.cos(p * t) - r * p * Math.sin(p * t));
+		dest.y = (float) (dr * Math.sin(p * t) + r * p * Math.cos(p * t));
+		dest.z = (float) (minorRadius * q * Math.cos(q * t));
+		return dest;
+	}
+
+}
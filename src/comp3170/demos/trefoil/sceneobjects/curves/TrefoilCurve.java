@@ -0,0 +1,31 @@
+package comp3170.demos.trefoil.sceneobjects.curves;
+
+import org.joml.Vector3f;
+
+/**
+ * The trefoil knot, for t in [0, TAU]
+ * 
+ * x = (sin(t) + 2 sin(2t)) / 3
+ * y = (cos(t) - 2 cos(2t)) / 3
+ * z = -sin(3t) / 3
+ */
+
+public class TrefoilCurve implements Curve {
+
+	@Override
+	public Vector3f getPosition(float t, Vector3f dest) {
+		dest.x = (float) (Math.sin(t) + 2 * Math.sin(2 * t)) / 3;
+		dest.y = (float) (Math.cos(t) - 2 * Math.cos(2 * t)) / 3;
+		dest.z = (float) -Math.sin(3 * t) / 3;
+		return dest;
+	}
+
+	@Override
+	public Vector3f getTangent(float t, Vector3f dest) {
+		dest.x = (float) (Math.cos(t) + 4 * Math.cos(2 * t)) / 3;
+		dest.y = (float) (-Math.sin(t) + 4 * Math.sin(2 * t)) / 3;
+		dest.z = (float) -Math.cos(3 * t);
+		return dest;
+	}
+
+}
@@ -0,0 +1,330 @@
+package comp3170.demos.trefoil.shaders;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.joml.Matrix3fc;
+import org.joml.Matrix4fc;
+import org.joml.Vector2fc;
+import org.joml.Vector3fc;
+import org.joml.Vector4fc;
+
+import com.jogamp.opengl.GL4;
+import com.jogamp.opengl.GLContext;
+
+import comp3170.Shader;
+
+/**
+ * A wrapper around a Shader that looks up uniform and attribute locations once,
+ * and skips uniform uploads when the value has not changed.
+ *
+ * Uniforms are set through int handles, resolved once when the scene object
+ * is created:
+ *
+ *		int u_colour = shader.getUniform("u_colour");
+ *		...
+ *		shader.enable();
+ *		shader.setUniform(u_colour, 1, 0, 0);
+ *
+ * The value last sent for each handle is remembered, so setting the same value
+ * again costs a comparison rather than a GL call. This is only valid if every
+ * upload to the program goes through the same CachedShader, so get it from
+ * ShaderLibrary.getCachedShader() rather than creating one directly.
+ *
+ * Uniforms the program doesn't have (including ones the GLSL compiler has
+ * optimised away) resolve to a handle whose sets are ignored, in the same way
+ * GL ignores uploads to location -1.
+ *
+ * No setUniform() method allocates.
+ */
+
+public class CachedShader {
+
+	private static final int MAX_COMPONENTS = 16;	// mat4
+
+	private final Shader shader;
+	private final int program;
+
+	private final Map<String, Integer> uniformHandles = new HashMap<String, Integer>();
+	private final Map<String, Integer> attributeLocations = new HashMap<String, Integer>();
+
+	// indexed by uniform handle
+	private final List<String> uniformNames = new ArrayList<String>();
+	private int[] locations = new int[0];
+	private float[][] values = new float[0][];
+	private boolean[] valid = new boolean[0];
+
+	private final float[] scratch = new float[MAX_COMPONENTS];
+
+	private long uploadCount = 0;
+	private long skippedCount = 0;
+
+	/**
+	 * Wrap a compiled shader. Must be called with a current GL context.
+	 *
+	 * @param shader	The shader to wrap
+	 */
+	public CachedShader(Shader shader) {
+		GL4 gl = (GL4) GLContext.getCurrentGL();
+		this.shader = shader;
+
+		shader.enable();
+		int[] current = new int[1];
+		gl.glGetIntegerv(GL4.GL_CURRENT_PROGRAM, current, 0);
+		this.program = current[0];
+	}
+
+	/**
+	 * Wrap a linked GL program object, such as one ShaderLibrary has loaded from
+	 * a program binary.
+	 *
+	 * @param program	The program
+	 */
+	public CachedShader(int program) {
+		this.shader = null;
+		this.program = program;
+	}
+
+	/**
+	 * @return the wrapped shader, or null if this wraps a program object
+	 */
+	public Shader getShader() {
+		return shader;
+	}
+
+	/**
+	 * @return the GL program object
+	 */
+	public int getProgram() {
+		return program;
+	}
+
+	public void enable() {
+		gl().glUseProgram(program);
+	}
+
+	/**
+	 * Look up the location of a vertex attribute.
+	 *
+	 * @param name	The attribute name
+	 * @return the attribute location, or -1 if the program doesn't use it
+	 */
+	public int getAttribute(String name) {
+		Integer location = attributeLocations.get(name);
+		if (location == null) {
+			GL4 gl = (GL4) GLContext.getCurrentGL();
+			location = gl.glGetAttribLocation(program, name);
+			attributeLocations.put(name, location);
+		}
+		return location;
+	}
+
+	/**
+	 * Resolve a uniform to a handle for the setUniform() methods.
+	 *
+	 * @param name	The uniform name
+	 * @return the handle
+	 */
+	public int getUniform(String name) {
+		Integer handle = uniformHandles.get(name);
+		if (handle != null) {
+			return handle;
+		}
+
+		GL4 gl = (GL4) GLContext.getCurrentGL();
+		handle = uniformNames.size();
+		uniformNames.add(name);
+		uniformHandles.put(name, handle);
+
+		int n = handle + 1;
+		locations = Arrays.copyOf(locations, n);
+		values = Arrays.copyOf(values, n);
+		valid = Arrays.copyOf(valid, n);
+
+		locations[handle] = gl.glGetUniformLocation(program, name);
+		values[handle] = new float[MAX_COMPONENTS];
+		valid[handle] = false;
+
+		return handle;
+	}
+
+	/**
+	 * @return true if the program has a uniform with this name
+	 */
+	public boolean hasUniform(String name) {
+		return locations[getUniform(name)] >= 0;
+	}
+
+	public String getUniformName(int handle) {
+		return uniformNames.get(handle);
+	}
+
+	/**
+	 * Forget the cached values, e.g. after the program has been relinked or its
+	 * uniforms set by other code.
+	 */
+	public void invalidate() {
+		for (int i = 0; i < valid.length; i++) {
+			valid[i] = false;
+		}
+	}
+
+	// Counters
+
+	/**
+	 * @return the number of uniform uploads sent to GL
+	 */
+	public long getUploadCount() {
+		return uploadCount;
+	}
+
+	/**
+	 * @return the number of uniform uploads skipped because the value hadn't changed
+	 */
+	public long getSkippedCount() {
+		return skippedCount;
+	}
+
+	public void resetCounters() {
+		uploadCount = 0;
+		skippedCount = 0;
+	}
+
+	// Setters
+	// Each copies the value into the scratch array, then uploads it if it differs from the cached copy.
+
+	public void setUniform(int handle, int value) {
+		scratch[0] = Float.intBitsToFloat(value);
+		if (changed(handle, 1)) {
+			gl().glUniform1i(locations[handle], value);
+		}
+	}
+
+	public void setUniform(int handle, float x) {
+		scratch[0] = x;
+		if (changed(handle, 1)) {
+			gl().glUniform1f(locations[handle], x);
+		}
+	}
+
+	public void setUniform(int handle, float x, float y) {
+		scratch[0] = x;
+		scratch[1] = y;
+		if (changed(handle, 2)) {
+			gl().glUniform2f(locations[handle], x, y);
+		}
+	}
+
+	public void setUniform(int handle, float x, float y, float z) {
+		scratch[0] = x;
+		scratch[1] = y;
+		scratch[2] = z;
+		if (changed(handle, 3)) {
+			gl().glUniform3f(locations[handle], x, y, z);
+		}
+	}
+
+	public void setUniform(int handle, float x, float y, float z, float w) {
+		scratch[0] = x;
+		scratch[1] = y;
+		scratch[2] = z;
+		scratch[3] = w;
+		if (changed(handle, 4)) {
+			gl().glUniform4f(locations[handle], x, y, z, w);
+		}
+	}
+
+	public void setUniform(int handle, Vector2fc v) {
+		setUniform(handle, v.x(), v.y());
+	}
+
+	public void setUniform(int handle, Vector3fc v) {
+		setUniform(handle, v.x(), v.y(), v.z());
+	}
+
+	public void setUniform(int handle, Vector4fc v) {
+		setUniform(handle, v.x(), v.y(), v.z(), v.w());
+	}
+
+	public void setUniform(int handle, Matrix3fc matrix) {
+		matrix.get(scratch);
+		if (changed(handle, 9)) {
+			gl().glUniformMatrix3fv(locations[handle], 1, false, scratch, 0);
+		}
+	}
+
+	public void setUniform(int handle, Matrix4fc matrix) {
+		matrix.get(scratch);
+		if (changed(handle, 16)) {
+			gl().glUniformMatrix4fv(locations[handle], 1, false, scratch, 0);
+		}
+	}
+
+	// Convenience versions by name. These still cost a hash lookup, but not a GL query.
+
+	public void setUniform(String name, int value) {
+		setUniform(getUniform(name), value);
+	}
+
+	public void setUniform(String name, float value) {
+		setUniform(getUniform(name), value);
+	}
+
+	public void setUniform(String name, Vector2fc v) {
+		setUniform(getUniform(name), v);
+	}
+
+	public void setUniform(String name, Vector3fc v) {
+		setUniform(getUniform(name), v);
+	}
+
+	public void setUniform(String name, Vector4fc v) {
+		setUniform(getUniform(name), v);
+	}
+
+	public void setUniform(String name, Matrix3fc matrix) {
+		setUniform(getUniform(name), matrix);
+	}
+
+	public void setUniform(String name, Matrix4fc matrix) {
+		setUniform(getUniform(name), matrix);
+	}
+
+	/**
+	 * Compare the first n values of the scratch array with the cached value for a
+	 * handle, and update the cache if they differ.
+	 *
+	 * @return true if the value needs to be uploaded
+	 */
+	private boolean changed(int handle, int n) {
+		if (locations[handle] < 0) {
+			return false;
+		}
+
+		float[] cached = values[handle];
+		if (valid[handle]) {
+			boolean same = true;
+			for (int i = 0; i < n && same; i++) {
+				// compare bits, so that NaNs and ints stored as floats compare exactly
+				same = Float.floatToRawIntBits(cached[i]) == Float.floatToRawIntBits(scratch[i]);
+			}
+			if (same) {
+				skippedCount++;
+				return false;
+			}
+		}
+
+		System.arraycopy(scratch, 0, cached, 0, n);
+		valid[handle] = true;
+		uploadCount++;
+		return true;
+	}
+
+	private static GL4 gl() {
+		return (GL4) GLContext.getCurrentGL();
+	}
+
+}
@@ -0,0 +1,159 @@
+package comp3170.demos.trefoil.shaders;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+/**
+ * Linked program binaries (from glGetProgramBinary()) saved on disk, so later
+ * runs can skip compiling and linking. Needs no GL context.
+ *
+ * Binaries are only valid for the driver that made them, so each is stored under
+ * a key hashed from the expanded shader sources and the driver's vendor, renderer
+ * and version strings (see key()). Editing a shader, or updating the driver, gives
+ * a new key, and the old file is never read. A driver may still reject a binary,
+ * so callers must be ready to compile from source instead.
+ *
+ * Each file holds:
+ *
+ * 		int magic, version, binary format, length
+ * 		byte[length] binary
+ *
+ * Files are written under a temporary name and renamed into place, as in
+ * TextureDiskCache. Thread safe.
+ */
+
+public class ProgramBinaryCache {
+
+	private static final int MAGIC = 0x54505247;	// "TPRG"
+	private static final int VERSION = 1;
+	private static final String EXTENSION = ".bin";
+	private static final int HEADER_BYTES = 4 * Integer.BYTES;
+
+	public static final File DEFAULT_DIRECTORY = new File(System.getProperty("java.io.tmpdir"), "trefoil-shader-cache");
+
+	/**
+	 * A program binary, in a driver-specific format
+	 */
+	public static class Binary {
+		private final int format;
+		private final byte[] data;
+
+		public Binary(int format, byte[] data) {
+			this.format = format;
+			this.data = data;
+		}
+
+		public int getFormat() {
+			return format;
+		}
+
+		public byte[] getData() {
+			return data;
+		}
+	}
+
+	private final File directory;
+
+	/**
+	 * @param directory	The directory to keep binaries in, created if needed
+	 */
+	public ProgramBinaryCache(File directory) throws IOException {
+		if (!directory.isDirectory() && !directory.mkdirs()) {
+			throw new IOException("Cannot create directory " + directory);
+		}
+		this.directory = directory;
+	}
+
+	public File getDirectory() {
+		return directory;
+	}
+
+	/**
+	 * The cache key for a program: the SHA-256, in hex, of the cache version, the
+	 * driver string and both expanded sources. Each is prefixed with its length,
+	 * so no two different inputs hash the same text.
+	 *
+	 * @param vertexSource		The vertex shader source passed to glShaderSource()
+	 * @param fragmentSource	The fragment shader source passed to glShaderSource()
+	 * @param driver			Identifies the driver, e.g. GL_VENDOR, GL_RENDERER and GL_VERSION
+	 */
+	public static String key(String vertexSource, String fragmentSource, String driver) {
+		MessageDigest digest;
+		try {
+			digest = MessageDigest.getInstance("SHA-256");
+		} catch (NoSuchAlgorithmException e) {
+			throw new IllegalStateException("SHA-256 is always supported", e);
+		}
+
+		digest.update(ByteBuffer.allocate(Integer.BYTES).putInt(VERSION).array());
+		for (String part : new String[] { driver, vertexSource, fragmentSource }) {
+			byte[] bytes = part.getBytes(StandardCharsets.UTF_8);
+			digest.update(ByteBuffer.allocate(Integer.BYTES).putInt(bytes.length).array());
+			digest.update(bytes);
+		}
+
+		StringBuilder hex = new StringBuilder();
+		for (byte b : digest.digest()) {
+			hex.append(String.format("%02x", b));
+		}
+		return hex.toString();
+	}
+
+	/**
+	 * @return the binary saved under a key, or null if there is none or the file
+	 * is not a complete binary of this version
+	 */
+	public Binary load(String key) throws IOException {
+		File file = getFile(key);
+		if (!file.isFile()) {
+			return null;
+		}
+
+		ByteBuffer bytes = ByteBuffer.wrap(Files.readAllBytes(file.toPath()));
+		if (bytes.remaining() < HEADER_BYTES || bytes.getInt() != MAGIC || bytes.getInt() != VERSION) {
+			return null;
+		}
+		int format = bytes.getInt();
+		int length = bytes.getInt();
+		if (length <= 0 || length != bytes.remaining()) {
+			return null;
+		}
+
+		byte[] data = new byte[length];
+		bytes.get(data);
+		return new Binary(format, data);
+	}
+
+	/**
+	 * Save a binary under a key, replacing any already there.
+	 */
+	public void save(String key, Binary binary) throws IOException {
+		ByteBuffer bytes = ByteBuffer.allocate(HEADER_BYTES + binary.getData().length);
+		bytes.putInt(MAGIC).putInt(VERSION).putInt(binary.getFormat()).putInt(binary.getData().length);
+		bytes.put(binary.getData());
+
+		File file = getFile(key);
+		File temp = File.createTempFile(file.getName(), ".tmp", directory);
+		try {
+			Files.write(temp.toPath(), bytes.array());
+			Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		}
+		finally {
+			temp.delete();
+		}
+	}
+
+	/**
+	 * @return the file a key's binary is saved in
+	 */
+	public File getFile(String key) {
+		return new File(directory, key + EXTENSION);
+	}
+
+}
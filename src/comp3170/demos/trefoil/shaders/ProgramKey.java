@@ -0,0 +1,64 @@
+package comp3170.demos.trefoil.shaders;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Names one shader program variant: a vertex and fragment shader file from the
+ * shaders folder, and the preprocessor defines to compile them with (see
+ * ShaderPreprocessor).
+ */
+
+public class ProgramKey {
+
+	private final String vertex;
+	private final String fragment;
+	private final List<String> defines;
+
+	/**
+	 * @param vertex	The filename of the vertex shader
+	 * @param fragment	The filename of the fragment shader
+	 * @param defines	Defines such as "INSTANCED" or "MAX_LIGHTS 4", in order
+	 */
+	public ProgramKey(String vertex, String fragment, String... defines) {
+		if (vertex == null || fragment == null) {
+			throw new NullPointerException("Shader filenames must not be null");
+		}
+		this.vertex = vertex;
+		this.fragment = fragment;
+		this.defines = Collections.unmodifiableList(Arrays.asList(defines.clone()));
+	}
+
+	public String getVertex() {
+		return vertex;
+	}
+
+	public String getFragment() {
+		return fragment;
+	}
+
+	public List<String> getDefines() {
+		return defines;
+	}
+
+	@Override
+	public int hashCode() {
+		return (vertex.hashCode() * 31 + fragment.hashCode()) * 31 + defines.hashCode();
+	}
+
+	@Override
+	public boolean equals(Object other) {
+		if (!(other instanceof ProgramKey)) {
+			return false;
+		}
+		ProgramKey key = (ProgramKey) other;
+		return vertex.equals(key.vertex) && fragment.equals(key.fragment) && defines.equals(key.defines);
+	}
+
+	@Override
+	public String toString() {
+		return "(" + vertex + ", " + fragment + (defines.isEmpty() ? "" : ", " + defines) + ")";
+	}
+
+}
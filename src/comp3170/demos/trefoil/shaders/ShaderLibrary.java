@@ -2,40 +2,90 @@ package comp3170.demos.trefoil.shaders;
 
 import java.io.File;
 import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
 import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import com.jogamp.opengl.GL;
+import com.jogamp.opengl.GL4;
+import com.jogamp.opengl.GLContext;
 
 import comp3170.GLException;
 import comp3170.Shader;
 
+/**
+ * Loads shader programs from the GLSL files in the shaders folder.
+ *
+ * getCachedShader() builds each program variant once (see ProgramKey) and shares
+ * it. Startup can be made faster in three ways:
+ *
+ * - preload() reads every .glsl file in parallel, ahead of compiling.
+ * - precompile() builds a list of programs at once. Every shader is compiled
+ *   and every program linked before any status is checked, so drivers that
+ *   compile on their own threads can work on them all together.
+ * - Linked programs are saved with glGetProgramBinary() in a ProgramBinaryCache,
+ *   keyed by the expanded sources and the driver. Later runs load the binary
+ *   instead of compiling, and compile from source if the driver rejects it.
+ *
+ * Sources are expanded by ShaderPreprocessor, so they can #include other files
+ * and be compiled with defines.
+ *
+ * Must be used on the GL thread, apart from preload().
+ */
+
 public class ShaderLibrary {
 
-	final private static File DIRECTORY = new File("src/comp3170/demos/trefoil/shaders"); 
-	
-	private final static Map<Pair<String, String>, Shader> loadedShaders = new HashMap<Pair<String, String>, Shader>();
+	final private static File DIRECTORY = new File("src/comp3170/demos/trefoil/shaders");
+
+	private final static Map<ProgramKey, Shader> loadedShaders = new HashMap<ProgramKey, Shader>();
+	private final static Map<ProgramKey, CachedShader> programs = new HashMap<ProgramKey, CachedShader>();
+	private final static Map<String, String> sources = new ConcurrentHashMap<String, String>();
+
+	private static File binaryCacheDirectory = ProgramBinaryCache.DEFAULT_DIRECTORY;
+	private static ProgramBinaryCache binaryCache = null;
+	private static String driver = null;
+
+	private static int binaryHits = 0;
+	private static int binaryRejected = 0;
+	private static int compiled = 0;
+	private static long binaryNanos = 0;
+	private static long compileNanos = 0;
+	private static long preloadNanos = 0;
 
 	/**
 	 * Load a given vertex and fragment shader from the shaders folder and link them together.
-	 * 
+	 *
+	 * The program is compiled from the unexpanded files, and is not shared with
+	 * getCachedShader(), which should be used instead where possible.
+	 *
 	 * @param vertex	The filename of the vertex shader
 	 * @param fragment	The filename of the fragement shader
 	 * @return The resulting shader
 	 */
-	
+
 	public static Shader compileShader(String vertex, String fragment) {
-		
+
 		// if the shader is already loaded, return a stored copy
-		
-		var pair = new Pair<String, String>(vertex, fragment);
-		if (loadedShaders.containsKey(pair)) {
-			return loadedShaders.get(pair);
+
+		ProgramKey key = new ProgramKey(vertex, fragment);
+		if (loadedShaders.containsKey(key)) {
+			return loadedShaders.get(key);
 		}
-		
+
 		Shader shader = null;
 		try {
 			File vertexShader = new File(DIRECTORY, vertex);
 			File fragmentShader = new File(DIRECTORY, fragment);
-			shader = new Shader(vertexShader, fragmentShader);		
+			shader = new Shader(vertexShader, fragmentShader);
 
 		} catch (IOException e) {
 			e.printStackTrace();
@@ -44,57 +94,320 @@ public class ShaderLibrary {
 			e.printStackTrace();
 			System.exit(1);
 		}
-		
-		loadedShaders.put(pair, shader);
-		
+
+		loadedShaders.put(key, shader);
+
 		return shader;
 
 	}
 
-	public static class Pair<A, B> {
-	    private final A first;
-	    private final B second;
+	/**
+	 * Get a program from the shaders folder, building it the first time.
+	 *
+	 * There is one CachedShader per program, shared by everything that uses it,
+	 * so that its record of the uniform values matches the program's.
+	 *
+	 * @param vertex	The filename of the vertex shader
+	 * @param fragment	The filename of the fragement shader
+	 * @param defines	Defines to compile with, such as "INSTANCED"
+	 * @return The resulting shader
+	 */
+
+	public static CachedShader getCachedShader(String vertex, String fragment, String... defines) {
+		return getCachedShader(new ProgramKey(vertex, fragment, defines));
+	}
+
+	/**
+	 * Get a program as above, by its key.
+	 */
+	public static CachedShader getCachedShader(ProgramKey key) {
+		CachedShader cached = programs.get(key);
+		if (cached == null) {
+			precompile(List.of(key));
+			cached = programs.get(key);
+		}
+		return cached;
+	}
+
+	/**
+	 * Read every .glsl file in the shaders folder, in parallel, so that building
+	 * programs later does not wait on file I/O. Needs no GL context.
+	 *
+	 * @return the number of files read
+	 * @throws IOException if a file cannot be read
+	 */
+
+	public static int preload() throws IOException {
+		long start = System.nanoTime();
+		File[] files = DIRECTORY.listFiles((directory, name) -> name.endsWith(".glsl"));
+		if (files == null) {
+			throw new IOException("Cannot list " + DIRECTORY);
+		}
+
+		try {
+			Arrays.stream(files).parallel().forEach(file -> {
+				try {
+					sources.put(file.getName(), Files.readString(file.toPath()));
+				} catch (IOException e) {
+					throw new UncheckedIOException(e);
+				}
+			});
+		} catch (UncheckedIOException e) {
+			throw e.getCause();
+		}
+
+		preloadNanos += System.nanoTime() - start;
+		return files.length;
+	}
+
+	/**
+	 * @return the source of a file in the shaders folder, read the first time it is needed
+	 */
+	public static String getSource(String filename) throws IOException {
+		String source = sources.get(filename);
+		if (source == null) {
+			source = Files.readString(new File(DIRECTORY, filename).toPath());
+			sources.put(filename, source);
+		}
+		return source;
+	}
 
-	    public Pair(A first, B second) {
-	        super();
-	        this.first = first;
-	        this.second = second;
-	    }
+	/**
+	 * Build any of a list of programs that have not been built yet, from the
+	 * binary cache where possible. Exits if a program cannot be built, as
+	 * compileShader() does.
+	 */
+	public static void precompile(Collection<ProgramKey> keys) {
+		try {
+			build(keys);
+		} catch (IOException e) {
+			e.printStackTrace();
+			System.exit(1);
+		} catch (GLException e) {
+			e.printStackTrace();
+			System.exit(1);
+		}
+	}
+
+	/**
+	 * Set the directory program binaries are cached in, or null not to cache
+	 * them. Must be called before the first program is built.
+	 */
+	public static void setBinaryCacheDirectory(File directory) {
+		binaryCacheDirectory = directory;
+	}
 
-	    public int hashCode() {
-	        int hashFirst = first != null ? first.hashCode() : 0;
-	        int hashSecond = second != null ? second.hashCode() : 0;
+	/**
+	 * @return the vendor, renderer and version of the current GL driver
+	 */
+	public static String getDriver() {
+		GL4 gl = (GL4) GLContext.getCurrentGL();
+		return gl.glGetString(GL.GL_VENDOR) + " | " + gl.glGetString(GL.GL_RENDERER) + " | " + gl.glGetString(GL.GL_VERSION);
+	}
 
-	        return (hashFirst + hashSecond) * hashSecond + hashFirst;
-	    }
+	private static void build(Collection<ProgramKey> keys) throws IOException, GLException {
+		GL4 gl = (GL4) GLContext.getCurrentGL();
+		openBinaryCache(gl);
 
-	    public boolean equals(Object other) {
-	        if (other instanceof Pair) {
-	            Pair otherPair = (Pair) other;
-	            return 
-	            ((  this.first == otherPair.first ||
-	                ( this.first != null && otherPair.first != null &&
-	                  this.first.equals(otherPair.first))) &&
-	             (  this.second == otherPair.second ||
-	                ( this.second != null && otherPair.second != null &&
-	                  this.second.equals(otherPair.second))) );
-	        }
+		List<ProgramKey> todo = new ArrayList<ProgramKey>();
+		for (ProgramKey key : new LinkedHashSet<ProgramKey>(keys)) {
+			if (!programs.containsKey(key)) {
+				todo.add(key);
+			}
+		}
 
-	        return false;
-	    }
+		// try the binary cache first
+		long start = System.nanoTime();
+		List<ProgramKey> compile = new ArrayList<ProgramKey>();
+		List<String> vertexSources = new ArrayList<String>();
+		List<String> fragmentSources = new ArrayList<String>();
+		for (ProgramKey key : todo) {
+			String vertexSource = ShaderPreprocessor.process(key.getVertex(), ShaderLibrary::getSource, key.getDefines());
+			String fragmentSource = ShaderPreprocessor.process(key.getFragment(), ShaderLibrary::getSource, key.getDefines());
 
-	    public String toString()
-	    { 
-	           return "(" + first + ", " + second + ")"; 
-	    }
+			int program = 0;
+			if (binaryCache != null) {
+				ProgramBinaryCache.Binary binary = readBinary(ProgramBinaryCache.key(vertexSource, fragmentSource, driver));
+				if (binary != null) {
+					program = loadBinary(gl, binary);
+					if (program == 0) {
+						binaryRejected++;
+					}
+				}
+			}
 
-	    public A getFirst() {
-	        return first;
-	    }
+			if (program != 0) {
+				programs.put(key, new CachedShader(program));
+				binaryHits++;
+			}
+			else {
+				compile.add(key);
+				vertexSources.add(vertexSource);
+				fragmentSources.add(fragmentSource);
+			}
+		}
+		binaryNanos += System.nanoTime() - start;
 
-	    public B getSecond() {
-	        return second;
-	    }
+		if (compile.isEmpty()) {
+			return;
+		}
+
+		// issue every compile and link before checking any, so they can overlap
+		start = System.nanoTime();
+		int n = compile.size();
+		int[] vertexShaders = new int[n];
+		int[] fragmentShaders = new int[n];
+		int[] programIDs = new int[n];
+		for (int i = 0; i < n; i++) {
+			vertexShaders[i] = compileShader(gl, GL4.GL_VERTEX_SHADER, vertexSources.get(i));
+			fragmentShaders[i] = compileShader(gl, GL4.GL_FRAGMENT_SHADER, fragmentSources.get(i));
+		}
+		for (int i = 0; i < n; i++) {
+			programIDs[i] = gl.glCreateProgram();
+			gl.glAttachShader(programIDs[i], vertexShaders[i]);
+			gl.glAttachShader(programIDs[i], fragmentShaders[i]);
+			gl.glProgramParameteri(programIDs[i], GL4.GL_PROGRAM_BINARY_RETRIEVABLE_HINT, GL.GL_TRUE);
+			gl.glLinkProgram(programIDs[i]);
+		}
+
+		for (int i = 0; i < n; i++) {
+			ProgramKey key = compile.get(i);
+			checkShader(gl, vertexShaders[i], key.getVertex());
+			checkShader(gl, fragmentShaders[i], key.getFragment());
+			if (getProgram(gl, programIDs[i], GL4.GL_LINK_STATUS) == GL.GL_FALSE) {
+				throw new GLException("Cannot link " + key + ":\n" + getProgramLog(gl, programIDs[i]));
+			}
+
+			gl.glDetachShader(programIDs[i], vertexShaders[i]);
+			gl.glDetachShader(programIDs[i], fragmentShaders[i]);
+			gl.glDeleteShader(vertexShaders[i]);
+			gl.glDeleteShader(fragmentShaders[i]);
+
+			if (binaryCache != null) {
+				saveBinary(gl, programIDs[i], ProgramBinaryCache.key(vertexSources.get(i), fragmentSources.get(i), driver));
+			}
+			programs.put(key, new CachedShader(programIDs[i]));
+			compiled++;
+		}
+		compileNanos += System.nanoTime() - start;
+	}
+
+	/**
+	 * Open the binary cache the first time, if the driver can save binaries
+	 */
+	private static void openBinaryCache(GL4 gl) {
+		if (driver != null) {
+			return;
+		}
+		driver = getDriver();
+
+		int[] formats = new int[1];
+		gl.glGetIntegerv(GL4.GL_NUM_PROGRAM_BINARY_FORMATS, formats, 0);
+		if (binaryCacheDirectory == null || formats[0] == 0) {
+			return;
+		}
+
+		try {
+			binaryCache = new ProgramBinaryCache(binaryCacheDirectory);
+		} catch (IOException e) {
+			System.err.println("Not caching shader binaries: " + e.getMessage());
+		}
+	}
+
+	/**
+	 * @return the cached binary for a key, or null if there is none or it cannot
+	 * be read, in which case the program is compiled from source
+	 */
+	private static ProgramBinaryCache.Binary readBinary(String key) {
+		try {
+			return binaryCache.load(key);
+		} catch (IOException e) {
+			System.err.println("Cannot read cached shader binary: " + e.getMessage());
+			return null;
+		}
+	}
+
+	/**
+	 * @return the linked program, or 0 if the driver rejected the binary
+	 */
+	private static int loadBinary(GL4 gl, ProgramBinaryCache.Binary binary) {
+		ByteBuffer data = ByteBuffer.allocateDirect(binary.getData().length);
+		data.put(binary.getData()).flip();
+
+		int program = gl.glCreateProgram();
+		gl.glProgramBinary(program, binary.getFormat(), data, binary.getData().length);
+		if (getProgram(gl, program, GL4.GL_LINK_STATUS) == GL.GL_FALSE) {
+			gl.glDeleteProgram(program);
+			return 0;
+		}
+		return program;
+	}
+
+	/**
+	 * Save a linked program's binary. The cache is optional, so failures are
+	 * only reported.
+	 */
+	private static void saveBinary(GL4 gl, int program, String key) {
+		int size = getProgram(gl, program, GL4.GL_PROGRAM_BINARY_LENGTH);
+		if (size <= 0) {
+			return;
+		}
+
+		ByteBuffer data = ByteBuffer.allocateDirect(size);
+		IntBuffer length = IntBuffer.allocate(1);
+		IntBuffer format = IntBuffer.allocate(1);
+		gl.glGetProgramBinary(program, size, length, format, data);
+
+		byte[] bytes = new byte[length.get(0)];
+		data.get(bytes);
+		try {
+			binaryCache.save(key, new ProgramBinaryCache.Binary(format.get(0), bytes));
+		} catch (IOException e) {
+			System.err.println("Cannot save shader binary: " + e.getMessage());
+		}
+	}
+
+	private static int compileShader(GL4 gl, int type, String source) {
+		int shader = gl.glCreateShader(type);
+		gl.glShaderSource(shader, 1, new String[] { source }, (IntBuffer) null);
+		gl.glCompileShader(shader);
+		return shader;
+	}
+
+	private static void checkShader(GL4 gl, int shader, String filename) throws GLException {
+		int[] status = new int[1];
+		gl.glGetShaderiv(shader, GL4.GL_COMPILE_STATUS, status, 0);
+		if (status[0] == GL.GL_FALSE) {
+			int[] size = new int[1];
+			gl.glGetShaderiv(shader, GL4.GL_INFO_LOG_LENGTH, size, 0);
+			byte[] log = new byte[Math.max(1, size[0])];
+			gl.glGetShaderInfoLog(shader, log.length, size, 0, log, 0);
+			throw new GLException("Cannot compile " + filename + ":\n" + new String(log, 0, size[0]));
+		}
+	}
+
+	private static int getProgram(GL4 gl, int program, int parameter) {
+		int[] value = new int[1];
+		gl.glGetProgramiv(program, parameter, value, 0);
+		return value[0];
+	}
+
+	private static String getProgramLog(GL4 gl, int program) {
+		int[] size = new int[1];
+		gl.glGetProgramiv(program, GL4.GL_INFO_LOG_LENGTH, size, 0);
+		byte[] log = new byte[Math.max(1, size[0])];
+		gl.glGetProgramInfoLog(program, log.length, size, 0, log, 0);
+		return new String(log, 0, size[0]);
+	}
+
+	/**
+	 * @return a summary of how programs were built and how long it took
+	 */
+	public static String getStats() {
+		return String.format("%d programs: %d from binaries (%.1f ms), %d compiled (%.1f ms), %d binaries rejected; "
+				+ "%d sources preloaded (%.1f ms)",
+				programs.size(), binaryHits, binaryNanos / 1e6, compiled, compileNanos / 1e6, binaryRejected,
+				sources.size(), preloadNanos / 1e6);
+	}
 
-	}	
 }
@@ -0,0 +1,118 @@
+package comp3170.demos.trefoil.shaders;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Expands a GLSL file into the source passed to glShaderSource(). Needs no GL
+ * context.
+ *
+ * Two things are added to plain GLSL:
+ *
+ * 		#include "lighting.glsl"		replaced by that file's (expanded) source
+ *
+ * and a list of defines, such as "INSTANCED" or "MAX_LIGHTS 4", which are
+ * written as #define lines straight after the #version line, so one file can be
+ * compiled into several variants with #ifdef.
+ *
+ * #line directives are added around included and inserted lines, so the
+ * compiler's error messages still give line numbers in the original file.
+ */
+
+public class ShaderPreprocessor {
+
+	private static final Pattern INCLUDE = Pattern.compile("^\\s*#include\\s+\"([^\"]+)\"\\s*$");
+	private static final Pattern VERSION = Pattern.compile("^\\s*#version\\b.*$");
+
+	/**
+	 * Looks up the source of a file by name
+	 */
+	public interface Sources {
+		public String get(String name) throws IOException;
+	}
+
+	/**
+	 * @param name		The file to expand
+	 * @param sources	Where to find it and the files it includes
+	 * @param defines	Defines to insert after the #version line
+	 * @return the expanded source
+	 * @throws IOException if a file cannot be read, includes itself, or a define
+	 * is not a single line
+	 */
+	public static String process(String name, Sources sources, List<String> defines) throws IOException {
+		StringBuilder out = new StringBuilder();
+		expand(name, sources, new ArrayList<String>(), out);
+
+		if (defines.isEmpty()) {
+			return out.toString();
+		}
+
+		StringBuilder block = new StringBuilder();
+		for (String define : defines) {
+			if (define.isBlank() || define.indexOf('\n') >= 0 || define.indexOf('\r') >= 0) {
+				throw new IOException("Bad define: \"" + define + "\"");
+			}
+			block.append("#define ").append(define).append('\n');
+		}
+
+		// after the #version line, which must come first, or at the top if there is none
+		String[] lines = out.toString().split("\n", -1);
+		int version = -1;
+		for (int i = 0; i < lines.length && version < 0; i++) {
+			if (VERSION.matcher(lines[i]).matches()) {
+				version = i;
+			}
+		}
+
+		StringBuilder result = new StringBuilder();
+		for (int i = 0; i <= version; i++) {
+			result.append(lines[i]).append('\n');
+		}
+		result.append(block);
+		result.append("#line ").append(version + 2).append('\n');
+		for (int i = version + 1; i < lines.length; i++) {
+			result.append(lines[i]);
+			if (i < lines.length - 1) {
+				result.append('\n');
+			}
+		}
+		return result.toString();
+	}
+
+	private static void expand(String name, Sources sources, List<String> stack, StringBuilder out) throws IOException {
+		if (stack.contains(name)) {
+			throw new IOException("Include cycle: " + String.join(" -> ", stack) + " -> " + name);
+		}
+		stack.add(name);
+
+		String source = sources.get(name);
+		if (source == null) {
+			throw new IOException("Shader source not found: " + name);
+		}
+
+		String[] lines = source.split("\r?\n", -1);
+		for (int i = 0; i < lines.length; i++) {
+			Matcher include = INCLUDE.matcher(lines[i]);
+			if (include.matches()) {
+				out.append("#line 1\n");
+				expand(include.group(1), sources, stack, out);
+				if (out.length() > 0 && out.charAt(out.length() - 1) != '\n') {
+					out.append('\n');
+				}
+				out.append("#line ").append(i + 2).append('\n');
+			}
+			else {
+				out.append(lines[i]);
+				if (i < lines.length - 1) {
+					out.append('\n');
+				}
+			}
+		}
+
+		stack.remove(stack.size() - 1);
+	}
+
+}
@@ -0,0 +1,9 @@
+#version 410
+
+uniform vec3 u_colour;	// RGB
+
+layout(location = 0) out vec4 o_colour;	// output to colour buffer (r,g,b,a)
+
+void main() {
+    o_colour = vec4(u_colour, 1);
+}
@@ -0,0 +1,12 @@
+#version 410
+
+in vec4 a_position;	// vertex position (MODEL)
+
+uniform mat4 u_modelMatrix;			// MODEL -> WORLD
+uniform mat4 u_viewMatrix;			// WORLD -> VIEW
+uniform mat4 u_projectionMatrix;	// VIEW -> NDC
+
+void main() {
+    gl_Position = u_projectionMatrix * u_viewMatrix * u_modelMatrix * a_position;
+}
+
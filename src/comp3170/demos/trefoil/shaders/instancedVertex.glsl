@@ -0,0 +1,16 @@
+#version 410
+
+in vec4 a_position;			// vertex position as a homogeneous 3D point in model 
+in mat4 a_instanceMatrix;	// MODEL -> WORLD, one per instance (uses 4 attribute locations)
+in vec4 a_instanceColour;	// RGBA, one per instance
+
+uniform mat4 u_viewMatrix;			// WORLD -> VIEW
+uniform mat4 u_projectionMatrix;	// VIEW -> NDC
+
+out vec3 v_colour; // RGB
+
+void main() {
+	v_colour = a_instanceColour.rgb;
+    gl_Position = u_projectionMatrix * u_viewMatrix * a_instanceMatrix * a_position;
+}
+
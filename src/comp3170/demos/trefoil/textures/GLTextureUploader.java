@@ -0,0 +1,49 @@
+package comp3170.demos.trefoil.textures;
+
+import com.jogamp.opengl.GL;
+import com.jogamp.opengl.GL4;
+import com.jogamp.opengl.GLContext;
+
+/**
+ * Uploads textures to the current GL context, with the same sampling and
+ * wrapping as TextureLibrary.loadTexture(). Must only be used on the GL thread.
+ *
+ * Images that carry their own mipmaps have each level uploaded as it is;
+ * otherwise glGenerateMipmap() makes them.
+ */
+
+public class GLTextureUploader implements TextureUploader {
+
+	@Override
+	public int upload(ImageData image) {
+		GL4 gl = (GL4) GLContext.getCurrentGL();
+
+		int[] texture = new int[1];
+		gl.glGenTextures(texture.length, texture, 0);
+		gl.glBindTexture(GL.GL_TEXTURE_2D, texture[0]);
+		for (int i = 0; i < image.getLevelCount(); i++) {
+			ImageData level = image.getLevel(i);
+			gl.glTexImage2D(GL.GL_TEXTURE_2D, i, GL.GL_RGBA8, level.getWidth(), level.getHeight(), 0,
+					GL.GL_RGBA, GL.GL_UNSIGNED_BYTE, level.getPixels());
+		}
+		gl.glTexParameteri(GL.GL_TEXTURE_2D, GL.GL_TEXTURE_MAG_FILTER, GL.GL_NEAREST);
+		gl.glTexParameteri(GL.GL_TEXTURE_2D, GL.GL_TEXTURE_MIN_FILTER, GL.GL_NEAREST);
+		gl.glTexParameteri(GL.GL_TEXTURE_2D, GL.GL_TEXTURE_WRAP_S, GL.GL_REPEAT);
+		gl.glTexParameteri(GL.GL_TEXTURE_2D, GL.GL_TEXTURE_WRAP_T, GL.GL_REPEAT);
+		if (image.getLevelCount() == 1) {
+			gl.glGenerateMipmap(GL.GL_TEXTURE_2D);
+		}
+		else {
+			gl.glTexParameteri(GL.GL_TEXTURE_2D, GL4.GL_TEXTURE_MAX_LEVEL, image.getLevelCount() - 1);
+		}
+
+		return texture[0];
+	}
+
+	@Override
+	public void delete(int texture) {
+		GL4 gl = (GL4) GLContext.getCurrentGL();
+		gl.glDeleteTextures(1, new int[] { texture }, 0);
+	}
+
+}
@@ -0,0 +1,89 @@
+package comp3170.demos.trefoil.textures;
+
+import java.nio.ByteBuffer;
+
+/**
+ * A decoded image, ready to upload with glTexImage2D().
+ *
+ * Pixels are RGBA, one byte per channel, row by row from the top, in a direct
+ * buffer. Row 0 is uploaded first, so it is at v = 0, as SoftwareRenderer samples
+ * it.
+ *
+ * An image may carry its own mipmaps (see MipmapBuilder), as further levels each
+ * half the size of the last, down to 1 x 1. If it does not, the uploader
+ * generates them.
+ */
+
+public class ImageData {
+
+	public static final int BYTES_PER_PIXEL = 4;
+
+	private final int width;
+	private final int height;
+	private final ByteBuffer pixels;
+	private final ImageData[] mipmaps;
+
+	public ImageData(int width, int height, ByteBuffer pixels) {
+		this(width, height, pixels, new ImageData[0]);
+	}
+
+	/**
+	 * @param mipmaps	Levels 1 and up, with no mipmaps of their own
+	 */
+	public ImageData(int width, int height, ByteBuffer pixels, ImageData[] mipmaps) {
+		if (pixels.capacity() != width * height * BYTES_PER_PIXEL) {
+			throw new IllegalArgumentException(
+					String.format("%d bytes for a %d x %d image", pixels.capacity(), width, height));
+		}
+		this.width = width;
+		this.height = height;
+		this.pixels = pixels;
+		this.mipmaps = mipmaps;
+	}
+
+	public int getWidth() {
+		return width;
+	}
+
+	public int getHeight() {
+		return height;
+	}
+
+	/**
+	 * @return the pixels, RGBA row by row from the top
+	 */
+	public ByteBuffer getPixels() {
+		return pixels;
+	}
+
+	/**
+	 * @return the pixel at (x, y), packed as 0xAARRGGBB like BufferedImage.getRGB()
+	 */
+	public int getRGB(int x, int y) {
+		int k = (y * width + x) * BYTES_PER_PIXEL;
+		return ((pixels.get(k+3) & 0xff) << 24) | ((pixels.get(k) & 0xff) << 16)
+				| ((pixels.get(k+1) & 0xff) << 8) | (pixels.get(k+2) & 0xff);
+	}
+
+	/**
+	 * @return the size of this level's pixels, not counting its mipmaps
+	 */
+	public int getByteSize() {
+		return pixels.capacity();
+	}
+
+	/**
+	 * @return the number of levels, including this one: 1 if it has no mipmaps
+	 */
+	public int getLevelCount() {
+		return mipmaps.length + 1;
+	}
+
+	/**
+	 * @return level 0 (this image) or one of its mipmaps
+	 */
+	public ImageData getLevel(int level) {
+		return (level == 0 ? this : mipmaps[level - 1]);
+	}
+
+}
@@ -0,0 +1,179 @@
+package comp3170.demos.trefoil.textures;
+
+import java.nio.ByteBuffer;
+import java.util.stream.IntStream;
+
+/**
+ * Builds a full mipmap chain for an image on the CPU, so it can be cached on disk
+ * and uploaded without glGenerateMipmap().
+ *
+ * Each level is a 2 x 2 box filter of the one before. Colours are averaged in
+ * linear intensity, decoding and re-encoding with the same gamma as
+ * SoftwareRenderer, so distant textures do not darken the way averaging the
+ * encoded bytes does. Alpha is averaged as is. Where a level has an odd width or
+ * height, the next level's size is rounded down and each of its texels covers a
+ * little over two texels of the one before, so along that axis the filter has
+ * three taps, weighted by how much of each texel it covers. No texels are dropped.
+ *
+ * Rows of large levels are filtered in parallel on the common fork-join pool.
+ */
+
+public class MipmapBuilder {
+
+	private static final double GAMMA = 2.2;
+	private static final int MIN_PARALLEL_PIXELS = 1 << 14;
+
+	// 0..255 -> linear intensity
+	private static final float[] DECODE = new float[256];
+	// linear intensity * (ENCODE_TABLE_SIZE - 1) -> 0..255, rounded
+	private static final int ENCODE_TABLE_SIZE = 1 << 16;
+	private static final byte[] ENCODE = new byte[ENCODE_TABLE_SIZE];
+
+	static {
+		for (int i = 0; i < DECODE.length; i++) {
+			DECODE[i] = (float) Math.pow(i / 255.0, GAMMA);
+		}
+		for (int i = 0; i < ENCODE.length; i++) {
+			ENCODE[i] = (byte) Math.round(Math.pow((double) i / (ENCODE_TABLE_SIZE - 1), 1 / GAMMA) * 255);
+		}
+	}
+
+	private boolean parallel = true;
+
+	/**
+	 * @param parallel	true to filter large levels on the common fork-join pool (the default)
+	 */
+	public void setParallel(boolean parallel) {
+		this.parallel = parallel;
+	}
+
+	/**
+	 * @return the number of levels in a full chain for an image, down to 1 x 1
+	 */
+	public static int levelCount(int width, int height) {
+		int levels = 1;
+		for (int size = Math.max(width, height); size > 1; size /= 2) {
+			levels++;
+		}
+		return levels;
+	}
+
+	/**
+	 * Build the mipmaps of an image.
+	 *
+	 * @param image	An image without mipmaps
+	 * @return an image with the same pixels (not copied), and mipmaps down to 1 x 1
+	 */
+	public ImageData build(ImageData image) {
+		ImageData[] mipmaps = new ImageData[levelCount(image.getWidth(), image.getHeight()) - 1];
+		ImageData previous = image;
+		for (int i = 0; i < mipmaps.length; i++) {
+			mipmaps[i] = halve(previous);
+			previous = mipmaps[i];
+		}
+		return new ImageData(image.getWidth(), image.getHeight(), image.getPixels(), mipmaps);
+	}
+
+	/**
+	 * The source texels, and their weights, that make up each texel of a halved
+	 * row or column: one if the source is 1 texel, two equal taps if it is even,
+	 * and three if it is odd, with the middle one always covered completely.
+	 */
+	private static class Filter {
+		final int taps;
+		final int[] index;		// taps per texel
+		final float[] weight;
+
+		Filter(int srcSize, int size) {
+			this.taps = (srcSize == 1 ? 1 : (srcSize % 2 == 0 ? 2 : 3));
+			this.index = new int[taps * size];
+			this.weight = new float[taps * size];
+
+			// with an odd source, texel i covers [i, i+1] * (2 * size + 1) / size
+			float span = 2 * size + 1;
+			for (int i = 0; i < size; i++) {
+				int t = taps * i;
+				for (int j = 0; j < taps; j++) {
+					index[t + j] = 2 * i + j;
+				}
+				switch (taps) {
+				case 1:
+					weight[t] = 1;
+					break;
+				case 2:
+					weight[t] = 0.5f;
+					weight[t + 1] = 0.5f;
+					break;
+				default:
+					weight[t] = (size - i) / span;
+					weight[t + 1] = size / span;
+					weight[t + 2] = (i + 1) / span;
+					break;
+				}
+			}
+		}
+	}
+
+	/**
+	 * Filter an image down to half its size, rounded down, and at least 1 x 1
+	 */
+	private ImageData halve(ImageData src) {
+		int width = Math.max(1, src.getWidth() / 2);
+		int height = Math.max(1, src.getHeight() / 2);
+		ByteBuffer pixels = ByteBuffer.allocateDirect(width * height * ImageData.BYTES_PER_PIXEL);
+		Filter columns = new Filter(src.getWidth(), width);
+		Filter rows = new Filter(src.getHeight(), height);
+
+		if (parallel && width * height >= MIN_PARALLEL_PIXELS) {
+			IntStream.range(0, height).parallel().forEach(y -> halveRow(src, pixels, width, y, columns, rows));
+		}
+		else {
+			for (int y = 0; y < height; y++) {
+				halveRow(src, pixels, width, y, columns, rows);
+			}
+		}
+
+		return new ImageData(width, height, pixels);
+	}
+
+	/**
+	 * Filter one row of the halved image. Rows write to separate parts of dest,
+	 * with absolute puts, so they can be filtered at the same time.
+	 */
+	private static void halveRow(ImageData src, ByteBuffer dest, int width, int y, Filter columns, Filter rows) {
+		ByteBuffer in = src.getPixels();
+		int srcWidth = src.getWidth();
+
+		for (int x = 0; x < width; x++) {
+			float red = 0;
+			float green = 0;
+			float blue = 0;
+			float alpha = 0;
+			for (int j = rows.taps * y; j < rows.taps * (y + 1); j++) {
+				int row = rows.index[j] * srcWidth;
+				for (int i = columns.taps * x; i < columns.taps * (x + 1); i++) {
+					float w = rows.weight[j] * columns.weight[i];
+					int s = (row + columns.index[i]) * ImageData.BYTES_PER_PIXEL;
+					red += w * DECODE[in.get(s) & 0xff];
+					green += w * DECODE[in.get(s + 1) & 0xff];
+					blue += w * DECODE[in.get(s + 2) & 0xff];
+					alpha += w * (in.get(s + 3) & 0xff);
+				}
+			}
+
+			int k = (y * width + x) * ImageData.BYTES_PER_PIXEL;
+			dest.put(k, encode(red));
+			dest.put(k + 1, encode(green));
+			dest.put(k + 2, encode(blue));
+			dest.put(k + 3, (byte) Math.min(255, (int) (alpha + 0.5f)));
+		}
+	}
+
+	/**
+	 * @return a linear intensity from 0 to 1, encoded as 0..255
+	 */
+	private static byte encode(float linear) {
+		return ENCODE[Math.min(ENCODE_TABLE_SIZE - 1, (int) (linear * (ENCODE_TABLE_SIZE - 1) + 0.5f))];
+	}
+
+}
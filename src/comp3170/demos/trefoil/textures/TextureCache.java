@@ -0,0 +1,177 @@
+package comp3170.demos.trefoil.textures;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+
+/**
+ * The textures a TextureLoader has loaded or is loading, kept within a memory
+ * budget.
+ *
+ * Each loaded texture is counted at its estimated size in texture memory,
+ * including its mipmaps (see estimateBytes()). When the total goes over the
+ * budget, the least recently used textures are deleted until it fits. Pinned
+ * textures (see TextureHandle.pin()) and textures still loading are never
+ * evicted, so the total can stay over budget if everything left is pinned.
+ *
+ * A texture is used whenever TextureLoader.load() asks for it. An evicted
+ * texture's handle goes back to the placeholder, and the next load() of the same
+ * file loads it again.
+ *
+ * Not thread safe: only used on the loader's GL thread.
+ */
+
+public class TextureCache {
+
+	private final TextureUploader uploader;
+	private long budget;
+
+	// in least to most recently used order
+	private final LinkedHashMap<String, TextureHandle> entries = new LinkedHashMap<String, TextureHandle>(16, 0.75f, true);
+	private long bytes = 0;
+
+	private long hits = 0;
+	private long misses = 0;
+	private long evictions = 0;
+	private long bytesEvicted = 0;
+
+	/**
+	 * @param budget	The texture memory to keep loaded textures within, in bytes
+	 * @param uploader	Deletes evicted textures
+	 */
+	TextureCache(long budget, TextureUploader uploader) {
+		if (budget < 0) {
+			throw new IllegalArgumentException("Budget must not be negative: " + budget);
+		}
+		this.budget = budget;
+		this.uploader = uploader;
+	}
+
+	/**
+	 * Estimate the texture memory used by an RGBA8 texture with a full mipmap
+	 * chain, down to 1 x 1. The chain adds about a third to the base level.
+	 */
+	public static long estimateBytes(int width, int height) {
+		long bytes = 0;
+		for (int w = width, h = height; ; w = Math.max(1, w / 2), h = Math.max(1, h / 2)) {
+			bytes += (long) w * h * ImageData.BYTES_PER_PIXEL;
+			if (w == 1 && h == 1) {
+				return bytes;
+			}
+		}
+	}
+
+	/**
+	 * Look up a file's texture, marking it as used.
+	 *
+	 * @return the handle, or null if it is not loaded or loading
+	 */
+	TextureHandle get(String filename) {
+		TextureHandle handle = entries.get(filename);
+		if (handle != null) {
+			hits++;
+		}
+		else {
+			misses++;
+		}
+		return handle;
+	}
+
+	/**
+	 * Add a texture that has started loading
+	 */
+	void add(TextureHandle handle) {
+		entries.put(handle.getFilename(), handle);
+	}
+
+	/**
+	 * Count a texture that has just been uploaded, as the most recently used, and
+	 * evict others if that takes the cache over budget.
+	 */
+	void loaded(TextureHandle handle) {
+		entries.get(handle.getFilename());
+		bytes += handle.getByteSize();
+		evict(handle);
+	}
+
+	/**
+	 * Evict least recently used textures until the cache is within budget.
+	 *
+	 * @param keep	A texture not to evict, or null
+	 */
+	private void evict(TextureHandle keep) {
+		Iterator<TextureHandle> iterator = entries.values().iterator();
+		while (bytes > budget && iterator.hasNext()) {
+			TextureHandle handle = iterator.next();
+			if (handle == keep || !handle.isLoaded() || handle.isPinned()) {
+				continue;
+			}
+
+			iterator.remove();
+			uploader.delete(handle.getTextureID());
+			bytes -= handle.getByteSize();
+			bytesEvicted += handle.getByteSize();
+			evictions++;
+			handle.evicted();
+		}
+	}
+
+	public long getBudget() {
+		return budget;
+	}
+
+	/**
+	 * Change the budget, evicting textures if the cache is now over it.
+	 *
+	 * @param budget	The texture memory to keep loaded textures within, in bytes
+	 */
+	public void setBudget(long budget) {
+		if (budget < 0) {
+			throw new IllegalArgumentException("Budget must not be negative: " + budget);
+		}
+		this.budget = budget;
+		evict(null);
+	}
+
+	/**
+	 * @return the estimated texture memory used by the loaded textures, in bytes
+	 */
+	public long getBytes() {
+		return bytes;
+	}
+
+	/**
+	 * @return the number of textures loaded, loading, or failed to load
+	 */
+	public int size() {
+		return entries.size();
+	}
+
+	/**
+	 * @return the number of load() calls for a texture that was already loaded or loading
+	 */
+	public long getHits() {
+		return hits;
+	}
+
+	/**
+	 * @return the number of load() calls that started loading a texture
+	 */
+	public long getMisses() {
+		return misses;
+	}
+
+	public long getEvictions() {
+		return evictions;
+	}
+
+	public long getBytesEvicted() {
+		return bytesEvicted;
+	}
+
+	@Override
+	public String toString() {
+		return String.format("%d textures, %.1f / %.1f MB; %d hits, %d misses, %d evictions (%.1f MB)",
+				entries.size(), bytes / 1e6, budget / 1e6, hits, misses, evictions, bytesEvicted / 1e6);
+	}
+
+}
@@ -0,0 +1,216 @@
+package comp3170.demos.trefoil.textures;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Decoded textures with their mipmaps, cached on disk so later runs skip decoding.
+ *
+ * read() hashes the source file with SHA-256 and looks for a cache file named
+ * after the hash. If there is one, it is memory mapped, and each level's pixels
+ * are a slice of the mapping, so they go from the page cache to glTexImage2D()
+ * without being copied or decoded. If not, the file is decoded, its mipmaps are
+ * built (see MipmapBuilder), and the result is written to the cache for next time.
+ * Editing a texture changes its hash, so stale entries are never read.
+ *
+ * Cache files are raw RGBA, about 4/3 of 4 bytes per pixel of the base level:
+ *
+ * 		int magic, version, levels
+ * 		int width, height				per level
+ * 		byte[width * height * 4] pixels	per level, from level 0
+ *
+ * A cache file that is truncated or from another version is rebuilt. Files are
+ * written under a temporary name and renamed into place, so worker threads
+ * loading the same texture at once, or a run killed mid-write, cannot leave a
+ * partial file.
+ *
+ * Thread safe: read() can be used as a TextureLoader.Source.
+ */
+
+public class TextureDiskCache {
+
+	private static final int MAGIC = 0x544d4950;	// "TMIP"
+	private static final int VERSION = 2;			// 2: odd sizes filtered with three taps
+	private static final String EXTENSION = ".mip";
+	private static final int HEADER_INTS = 3;
+
+	public static final File DEFAULT_DIRECTORY = new File(System.getProperty("java.io.tmpdir"), "trefoil-texture-cache");
+
+	private final File directory;
+	private final MipmapBuilder builder = new MipmapBuilder();
+
+	private final AtomicLong hits = new AtomicLong();
+	private final AtomicLong misses = new AtomicLong();
+	private final AtomicLong hitNanos = new AtomicLong();
+	private final AtomicLong missNanos = new AtomicLong();
+
+	/**
+	 * @param directory	The directory to keep cache files in, created if needed
+	 */
+	public TextureDiskCache(File directory) throws IOException {
+		if (!directory.isDirectory() && !directory.mkdirs()) {
+			throw new IOException("Cannot create directory " + directory);
+		}
+		this.directory = directory;
+	}
+
+	public File getDirectory() {
+		return directory;
+	}
+
+	/**
+	 * Read a texture from the textures directory, from the cache if it is there.
+	 *
+	 * @param filename	The name of the file to use
+	 * @return the decoded image, with its mipmaps
+	 * @throws IOException if the file can't be found or read
+	 */
+	public ImageData read(String filename) throws IOException {
+		long start = System.nanoTime();
+		File source = TextureLibrary.getFile(filename);
+		File cached = new File(directory, hash(source) + EXTENSION);
+
+		ImageData image = (cached.isFile() ? map(cached) : null);
+		if (image != null) {
+			hits.incrementAndGet();
+			hitNanos.addAndGet(System.nanoTime() - start);
+			return image;
+		}
+
+		image = builder.build(TextureLibrary.readImageData(filename));
+		write(image, cached);
+		misses.incrementAndGet();
+		missNanos.addAndGet(System.nanoTime() - start);
+		return image;
+	}
+
+	/**
+	 * @return the SHA-256 of a file's contents, in hex
+	 */
+	public static String hash(File file) throws IOException {
+		MessageDigest digest;
+		try {
+			digest = MessageDigest.getInstance("SHA-256");
+		} catch (NoSuchAlgorithmException e) {
+			throw new IllegalStateException("SHA-256 is always supported", e);
+		}
+
+		StringBuilder hex = new StringBuilder();
+		for (byte b : digest.digest(Files.readAllBytes(file.toPath()))) {
+			hex.append(String.format("%02x", b));
+		}
+		return hex.toString();
+	}
+
+	/**
+	 * Map a cache file.
+	 *
+	 * @return the image, or null if the file is not a complete cache file of this version
+	 */
+	private static ImageData map(File file) throws IOException {
+		try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+			long size = channel.size();
+			if (size < HEADER_INTS * Integer.BYTES) {
+				return null;
+			}
+
+			// the mapping stays valid after the channel is closed
+			MappedByteBuffer mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+			if (mapped.getInt(0) != MAGIC || mapped.getInt(4) != VERSION) {
+				return null;
+			}
+
+			int levels = mapped.getInt(8);
+			if (levels < 1 || levels > 32 || size < (HEADER_INTS + 2L * levels) * Integer.BYTES) {
+				return null;
+			}
+
+			ImageData[] images = new ImageData[levels];
+			long offset = (HEADER_INTS + 2L * levels) * Integer.BYTES;
+			for (int i = 0; i < levels; i++) {
+				int width = mapped.getInt((HEADER_INTS + 2 * i) * Integer.BYTES);
+				int height = mapped.getInt((HEADER_INTS + 2 * i + 1) * Integer.BYTES);
+				long bytes = (long) width * height * ImageData.BYTES_PER_PIXEL;
+				if (width < 1 || height < 1 || offset + bytes > size) {
+					return null;
+				}
+				ByteBuffer pixels = mapped.slice((int) offset, (int) bytes);
+				images[i] = new ImageData(width, height, pixels);
+				offset += bytes;
+			}
+			if (offset != size) {
+				return null;
+			}
+
+			ImageData[] mipmaps = new ImageData[levels - 1];
+			System.arraycopy(images, 1, mipmaps, 0, mipmaps.length);
+			return new ImageData(images[0].getWidth(), images[0].getHeight(), images[0].getPixels(), mipmaps);
+		}
+	}
+
+	/**
+	 * Write a cache file, under a temporary name first
+	 */
+	private static void write(ImageData image, File file) throws IOException {
+		int levels = image.getLevelCount();
+		ByteBuffer header = ByteBuffer.allocate((HEADER_INTS + 2 * levels) * Integer.BYTES);
+		header.putInt(MAGIC).putInt(VERSION).putInt(levels);
+		for (int i = 0; i < levels; i++) {
+			header.putInt(image.getLevel(i).getWidth()).putInt(image.getLevel(i).getHeight());
+		}
+		header.flip();
+
+		File temp = File.createTempFile(file.getName(), ".tmp", file.getParentFile());
+		try {
+			try (FileChannel channel = FileChannel.open(temp.toPath(), StandardOpenOption.WRITE)) {
+				writeFully(channel, header);
+				for (int i = 0; i < levels; i++) {
+					// a duplicate, so the image's own position is not moved
+					writeFully(channel, image.getLevel(i).getPixels().duplicate().clear());
+				}
+			}
+			Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		}
+		finally {
+			temp.delete();
+		}
+	}
+
+	private static void writeFully(FileChannel channel, ByteBuffer buffer) throws IOException {
+		while (buffer.hasRemaining()) {
+			channel.write(buffer);
+		}
+	}
+
+	/**
+	 * @return the number of reads served from the cache
+	 */
+	public long getHits() {
+		return hits.get();
+	}
+
+	/**
+	 * @return the number of reads that decoded the file and wrote the cache
+	 */
+	public long getMisses() {
+		return misses.get();
+	}
+
+	@Override
+	public String toString() {
+		long h = hits.get();
+		long m = misses.get();
+		return String.format("%d hits (mean %.1f ms), %d misses (mean %.1f ms) in %s",
+				h, h == 0 ? 0 : hitNanos.get() / 1e6 / h, m, m == 0 ? 0 : missNanos.get() / 1e6 / m, directory);
+	}
+
+}
@@ -0,0 +1,174 @@
+package comp3170.demos.trefoil.textures;
+
+/**
+ * A texture being loaded by a TextureLoader.
+ *
+ * Until the texture has been decoded and uploaded, getTextureID() returns the
+ * loader's placeholder texture, so it can be bound and drawn with straight away.
+ * If loading fails, the handle keeps the placeholder and getError() says why.
+ *
+ * A loaded texture may be evicted from the loader's TextureCache to keep within
+ * its memory budget, and the handle goes back to the placeholder. Pin a handle
+ * to keep its texture loaded while it is in use.
+ *
+ * The status can be read from any thread; the other methods must be called on
+ * the GL thread.
+ */
+
+public class TextureHandle {
+
+	public enum Status {
+		LOADING,
+		LOADED,
+		FAILED,
+		EVICTED
+	}
+
+	private final TextureLoader loader;
+	private final String filename;
+	private volatile Status status = Status.LOADING;
+
+	// set by a worker thread, before the handle is queued for upload
+	private ImageData image;
+	private Exception error;
+	private long decodeNanos;
+
+	// set on the GL thread
+	private int textureID = 0;
+	private int width = 0;
+	private int height = 0;
+	private long uploadNanos;
+	private long byteSize = 0;
+	private int pins = 0;
+
+	TextureHandle(TextureLoader loader, String filename) {
+		this.loader = loader;
+		this.filename = filename;
+	}
+
+	public String getFilename() {
+		return filename;
+	}
+
+	public Status getStatus() {
+		return status;
+	}
+
+	public boolean isLoaded() {
+		return status == Status.LOADED;
+	}
+
+	/**
+	 * @return the texture to bind: the loaded texture, or the placeholder if it is
+	 * still loading or failed to load
+	 */
+	public int getTextureID() {
+		return (status == Status.LOADED ? textureID : loader.getPlaceholder());
+	}
+
+	/**
+	 * @return the width of the loaded texture, or 0 if it has not loaded
+	 */
+	public int getWidth() {
+		return width;
+	}
+
+	/**
+	 * @return the height of the loaded texture, or 0 if it has not loaded
+	 */
+	public int getHeight() {
+		return height;
+	}
+
+	/**
+	 * @return the estimated texture memory used, including mipmaps, or 0 if it
+	 * has not loaded
+	 */
+	public long getByteSize() {
+		return byteSize;
+	}
+
+	/**
+	 * Keep the texture from being evicted until a matching unpin(). Pins are
+	 * counted, so each user of a texture can pin it.
+	 */
+	public void pin() {
+		pins++;
+	}
+
+	public void unpin() {
+		if (pins == 0) {
+			throw new IllegalStateException(filename + " is not pinned");
+		}
+		pins--;
+	}
+
+	public boolean isPinned() {
+		return pins > 0;
+	}
+
+	/**
+	 * @return why loading failed, or null
+	 */
+	public Exception getError() {
+		return (status == Status.FAILED ? error : null);
+	}
+
+	/**
+	 * @return the time taken to read and decode the file on a worker thread, in nanoseconds
+	 */
+	public long getDecodeNanos() {
+		return decodeNanos;
+	}
+
+	/**
+	 * @return the time taken to upload the texture on the GL thread, in nanoseconds
+	 */
+	public long getUploadNanos() {
+		return uploadNanos;
+	}
+
+	// Called by TextureLoader
+
+	void decoded(ImageData image, long nanos) {
+		this.image = image;
+		this.decodeNanos = nanos;
+	}
+
+	void failed(Exception error, long nanos) {
+		this.error = error;
+		this.decodeNanos = nanos;
+	}
+
+	/**
+	 * @return the decoded image, or null if decoding failed
+	 */
+	ImageData getImage() {
+		return image;
+	}
+
+	void uploaded(int textureID, long nanos) {
+		this.textureID = textureID;
+		this.width = image.getWidth();
+		this.height = image.getHeight();
+		this.byteSize = TextureCache.estimateBytes(width, height);
+		this.uploadNanos = nanos;
+		this.image = null;		// let the decoded pixels go
+		this.status = Status.LOADED;
+	}
+
+	void setFailed() {
+		this.status = Status.FAILED;
+	}
+
+	void evicted() {
+		this.textureID = 0;
+		this.status = Status.EVICTED;
+	}
+
+	@Override
+	public String toString() {
+		return filename + " (" + status.name().toLowerCase() + ")";
+	}
+
+}
@@ -1,10 +1,14 @@
 package comp3170.demos.trefoil.textures;
 
+import java.awt.image.BufferedImage;
 import java.io.File;
 import java.io.IOException;
+import java.nio.ByteBuffer;
 import java.util.HashMap;
 import java.util.Map;
 
+import javax.imageio.ImageIO;
+
 import com.jogamp.opengl.GL;
 import com.jogamp.opengl.GL4;
 import com.jogamp.opengl.GLContext;
@@ -16,10 +20,14 @@ public class TextureLibrary {
 	final private static File DIRECTORY = new File("src/comp3170/demos/trefoil/textures"); 
 
 	private final static Map<String, Integer> loadedTextures = new HashMap<String, Integer>();
+	private final static Map<String, BufferedImage> loadedImages = new HashMap<String, BufferedImage>();
 	
 	/**
 	 * Load a texture from a file in the textures directory.
 	 * 
+	 * Textures loaded this way are kept until the program exits. GLRenderer uses
+	 * a TextureLoader instead, which keeps them within a memory budget.
+	 * 
 	 * @param filename	The name of the file to use
 	 * @return The texture ID of the loaded texture.
 	 * @throws IOException if the file can't be found.
@@ -51,4 +59,73 @@ public class TextureLibrary {
 		return textureID;
 	}
 
+	/**
+	 * Load an image from a file in the textures directory, without creating a
+	 * GL texture. Used by SoftwareRenderer. Does not need a GL context.
+	 * 
+	 * @param filename	The name of the file to use
+	 * @return The image
+	 * @throws IOException if the file can't be found or read.
+	 */
+	
+	public static synchronized BufferedImage loadImage(String filename) throws IOException {
+		BufferedImage image = loadedImages.get(filename);
+		if (image != null) {
+			return image;
+		}
+
+		File imageFile = new File(DIRECTORY, filename);
+		image = ImageIO.read(imageFile);
+		if (image == null) {
+			throw new IOException("Unsupported image format: " + imageFile);
+		}
+
+		loadedImages.put(filename, image);
+		return image;
+	}
+
+	/**
+	 * Read and decode an image from a file in the textures directory into a new
+	 * direct buffer, without creating a GL texture or caching the result. Used by
+	 * TextureLoader's worker threads. Does not need a GL context, and is thread
+	 * safe.
+	 * 
+	 * @param filename	The name of the file to use
+	 * @return The decoded RGBA pixels
+	 * @throws IOException if the file can't be found or read.
+	 */
+	
+	public static ImageData readImageData(String filename) throws IOException {
+		File imageFile = getFile(filename);
+		BufferedImage image = ImageIO.read(imageFile);
+		if (image == null) {
+			throw new IOException("Unsupported image format: " + imageFile);
+		}
+
+		int width = image.getWidth();
+		int height = image.getHeight();
+		ByteBuffer pixels = ByteBuffer.allocateDirect(width * height * ImageData.BYTES_PER_PIXEL);
+		int[] row = new int[width];
+		for (int y = 0; y < height; y++) {
+			image.getRGB(0, y, width, 1, row, 0, width);
+			for (int x = 0; x < width; x++) {
+				int argb = row[x];
+				pixels.put((byte) (argb >> 16));
+				pixels.put((byte) (argb >> 8));
+				pixels.put((byte) argb);
+				pixels.put((byte) (argb >>> 24));
+			}
+		}
+		pixels.flip();
+
+		return new ImageData(width, height, pixels);
+	}
+
+	/**
+	 * @return the file with this name in the textures directory
+	 */
+	public static File getFile(String filename) {
+		return new File(DIRECTORY, filename);
+	}
+
 }
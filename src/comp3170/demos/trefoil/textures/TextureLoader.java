@@ -0,0 +1,230 @@
+package comp3170.demos.trefoil.textures;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import comp3170.demos.trefoil.loop.TimingStats;
+
+/**
+ * Loads textures without stalling the GL thread.
+ *
+ * Reading and decoding each file runs on a pool of worker threads, into a direct
+ * buffer (see TextureLibrary.readImageData()). Only the upload, glTexImage2D()
+ * and glGenerateMipmap() in GLTextureUploader, happens on the GL thread, in
+ * update(), which uploads as many decoded textures as fit in a time budget, so a
+ * burst of large textures is spread over several frames.
+ *
+ * 		TextureHandle wood = loader.load("wood.jpg");	// returns straight away
+ * 		...
+ * 		loader.update(budgetNanos);		// once per frame
+ * 		gl.glBindTexture(GL.GL_TEXTURE_2D, wood.getTextureID());
+ *
+ * Until it has loaded, a handle gives a placeholder texture. A file that cannot
+ * be read is reported on System.err and keeps the placeholder.
+ *
+ * Loaded textures are kept in a TextureCache, which deletes the least recently
+ * used ones to stay within a memory budget.
+ *
+ * Decode and upload times are kept separately. Upload times are measured on the
+ * CPU, so they include copying the pixels to the driver but not any transfer the
+ * driver defers.
+ *
+ * With a fake Source and TextureUploader, the loader and its cache can run
+ * without image files or a GL context.
+ *
+ * load(), update() and getPlaceholder() must be called on the GL thread.
+ */
+
+public class TextureLoader {
+
+	/**
+	 * Reads and decodes an image file. Called on the worker threads.
+	 */
+	public interface Source {
+		public ImageData read(String filename) throws IOException;
+	}
+
+	private static final byte PLACEHOLDER_GREY = (byte) 0x80;
+
+	private final Source source;
+	private final TextureUploader uploader;
+	private final TextureCache cache;
+	private final ExecutorService workers;
+	private final Queue<TextureHandle> decoded = new ConcurrentLinkedQueue<TextureHandle>();
+	private int placeholder = 0;
+
+	private int pending = 0;
+	private int failed = 0;
+	private final TimingStats decodeStats = new TimingStats();
+	private final TimingStats uploadStats = new TimingStats();
+	private long bytesUploaded = 0;
+
+	/**
+	 * Load textures from the textures directory into the current GL context.
+	 *
+	 * @param nThreads	The number of worker threads decoding files
+	 * @param budget	The texture memory to keep loaded textures within, in bytes
+	 */
+	public TextureLoader(int nThreads, long budget) {
+		this(nThreads, budget, TextureLibrary::readImageData, new GLTextureUploader());
+	}
+
+	/**
+	 * @param nThreads	The number of worker threads decoding files
+	 * @param budget	The texture memory to keep loaded textures within, in bytes
+	 * @param source	Reads the files, on the worker threads
+	 * @param uploader	Creates and deletes the textures, on the GL thread
+	 */
+	public TextureLoader(int nThreads, long budget, Source source, TextureUploader uploader) {
+		if (nThreads < 1) {
+			throw new IllegalArgumentException("Thread count must be positive: " + nThreads);
+		}
+
+		this.source = source;
+		this.uploader = uploader;
+		this.cache = new TextureCache(budget, uploader);
+
+		int[] count = new int[1];
+		this.workers = Executors.newFixedThreadPool(nThreads, (runnable) -> {
+			Thread thread = new Thread(runnable, "texture-loader-" + count[0]++);
+			thread.setDaemon(true);	// don't keep the program running
+			return thread;
+		});
+	}
+
+	/**
+	 * Start loading a texture from a file in the textures directory, or return
+	 * the handle already loading or loaded for it, marking it as used.
+	 */
+	public TextureHandle load(String filename) {
+		TextureHandle handle = cache.get(filename);
+		if (handle != null) {
+			return handle;
+		}
+
+		TextureHandle created = new TextureHandle(this, filename);
+		cache.add(created);
+		pending++;
+
+		workers.execute(() -> {
+			long start = System.nanoTime();
+			try {
+				created.decoded(source.read(filename), System.nanoTime() - start);
+			} catch (Exception e) {
+				created.failed(e, System.nanoTime() - start);
+			}
+			decoded.add(created);
+		});
+		return created;
+	}
+
+	/**
+	 * Upload decoded textures until the time budget is used. At least one is
+	 * uploaded if any are ready, however small the budget, so loading always
+	 * makes progress. Textures are evicted from the cache as needed to make room.
+	 *
+	 * @param budgetNanos	The time to spend uploading, in nanoseconds
+	 * @return the number of textures uploaded
+	 */
+	public int update(long budgetNanos) {
+		long start = System.nanoTime();
+		int uploaded = 0;
+
+		while (uploaded == 0 || System.nanoTime() - start < budgetNanos) {
+			TextureHandle handle = decoded.poll();
+			if (handle == null) {
+				break;
+			}
+			pending--;
+
+			ImageData image = handle.getImage();
+			if (image == null) {
+				failed++;
+				handle.setFailed();
+				System.err.println("Cannot load texture " + handle.getFilename() + ": " + handle.getError());
+				continue;
+			}
+
+			long uploadStart = System.nanoTime();
+			int textureID = uploader.upload(image);
+			long uploadNanos = System.nanoTime() - uploadStart;
+
+			decodeStats.add(handle.getDecodeNanos());
+			uploadStats.add(uploadNanos);
+			bytesUploaded += image.getByteSize();
+			handle.uploaded(textureID, uploadNanos);
+			cache.loaded(handle);
+			uploaded++;
+		}
+
+		return uploaded;
+	}
+
+	/**
+	 * @return a 1 x 1 grey texture to draw with while a texture loads, created
+	 * the first time it is needed
+	 */
+	public int getPlaceholder() {
+		if (placeholder == 0) {
+			ByteBuffer pixel = ByteBuffer.allocateDirect(ImageData.BYTES_PER_PIXEL);
+			pixel.put(PLACEHOLDER_GREY).put(PLACEHOLDER_GREY).put(PLACEHOLDER_GREY).put((byte) 0xff);
+			pixel.flip();
+			placeholder = uploader.upload(new ImageData(1, 1, pixel));
+		}
+		return placeholder;
+	}
+
+	/**
+	 * @return the cache of loaded textures, with its hit, miss and eviction counts
+	 */
+	public TextureCache getCache() {
+		return cache;
+	}
+
+	/**
+	 * @return the number of textures still being decoded or waiting to upload
+	 */
+	public int getPendingCount() {
+		return pending;
+	}
+
+	public int getFailedCount() {
+		return failed;
+	}
+
+	/**
+	 * @return the decode times of the textures uploaded so far
+	 */
+	public TimingStats getDecodeStats() {
+		return decodeStats.copy();
+	}
+
+	/**
+	 * @return the upload times of the textures uploaded so far
+	 */
+	public TimingStats getUploadStats() {
+		return uploadStats.copy();
+	}
+
+	public long getBytesUploaded() {
+		return bytesUploaded;
+	}
+
+	/**
+	 * Stop the worker threads. Textures still loading stay as placeholders.
+	 */
+	public void shutdown() {
+		workers.shutdownNow();
+	}
+
+	@Override
+	public String toString() {
+		return String.format("%d uploaded (%.1f MB), %d pending, %d failed; cache: %s; decode: %s; upload: %s",
+				uploadStats.getCount(), bytesUploaded / 1e6, pending, failed, cache, decodeStats, uploadStats);
+	}
+
+}
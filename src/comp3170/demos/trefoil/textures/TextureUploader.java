@@ -0,0 +1,24 @@
+package comp3170.demos.trefoil.textures;
+
+/**
+ * Creates and deletes the textures a TextureLoader loads.
+ *
+ * GLTextureUploader makes GL textures. Other implementations let the loader and
+ * its cache be run without a GL context.
+ */
+
+public interface TextureUploader {
+
+	/**
+	 * Create a texture, with mipmaps, from a decoded image.
+	 *
+	 * @return the texture's ID, which must not be 0
+	 */
+	public int upload(ImageData image);
+
+	/**
+	 * Delete a texture created by upload().
+	 */
+	public void delete(int texture);
+
+}